@@ -0,0 +1,117 @@
+package br.org.funcate.terrajava.geocodificacao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * rvore de intervalos esttica sobre as faixas de numerao (esquerda e
+ * direita) dos trechos de uma via. Os intervalos so ordenados pelo valor
+ * inicial e organizados como uma rvore binria implcita, onde cada n
+ * guarda o maior valor final da sua subrvore. A consulta por um nmero
+ * visita apenas os ramos que podem conter o nmero.
+ */
+class NumberIntervalIndex {
+
+	private final int[] lows;
+
+	private final int[] highs;
+
+	private final int[] values;
+
+	private final int[] maxHighs;
+
+	private NumberIntervalIndex(int[] lows, int[] highs, int[] values) {
+		this.lows = lows;
+		this.highs = highs;
+		this.values = values;
+		this.maxHighs = new int[lows.length];
+		if (lows.length > 0)
+			computeMaxHigh(0, lows.length - 1);
+	}
+
+	/**
+	 * Constri o ndice para os trechos informados. Trechos sem numerao
+	 * (faixas com valores zero) so ignorados.
+	 *
+	 * @param segments
+	 *            Trechos da via.
+	 * @param segmentIds
+	 *            Identificador de cada trecho, devolvido pelas consultas.
+	 */
+	static NumberIntervalIndex build(List<StreetSegment> segments,
+			int[] segmentIds) {
+		List<long[]> intervals = new ArrayList<long[]>(segments.size() * 2);
+		for (int i = 0; i < segments.size(); i++) {
+			StreetSegment s = segments.get(i);
+			addInterval(intervals, s.getInitialLeftNumber(), s
+					.getFinalLeftNumber(), segmentIds[i]);
+			addInterval(intervals, s.getInitialRightNumber(), s
+					.getFinalRightNumber(), segmentIds[i]);
+		}
+
+		long[][] sorted = intervals.toArray(new long[intervals.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+			}
+		});
+
+		int n = sorted.length;
+		int[] lows = new int[n];
+		int[] highs = new int[n];
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			lows[i] = (int) sorted[i][0];
+			highs[i] = (int) sorted[i][1];
+			values[i] = (int) sorted[i][2];
+		}
+		return new NumberIntervalIndex(lows, highs, values);
+	}
+
+	/**
+	 * @return Identificadores (sem repetio) dos trechos cuja faixa de
+	 *         numerao contm o nmero.
+	 */
+	List<Integer> find(int number) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (lows.length > 0)
+			find(0, lows.length - 1, number, result);
+		return result;
+	}
+
+	int size() {
+		return lows.length;
+	}
+
+	private void find(int begin, int end, int number, List<Integer> result) {
+		if (begin > end || maxHighs[(begin + end) >>> 1] < number)
+			return;
+		int mid = (begin + end) >>> 1;
+		find(begin, mid - 1, number, result);
+		if (lows[mid] > number)
+			return;
+		if (highs[mid] >= number && !result.contains(values[mid]))
+			result.add(values[mid]);
+		find(mid + 1, end, number, result);
+	}
+
+	private int computeMaxHigh(int begin, int end) {
+		if (begin > end)
+			return Integer.MIN_VALUE;
+		int mid = (begin + end) >>> 1;
+		int max = Math.max(highs[mid], Math.max(computeMaxHigh(begin, mid - 1),
+				computeMaxHigh(mid + 1, end)));
+		maxHighs[mid] = max;
+		return max;
+	}
+
+	private static void addInterval(List<long[]> intervals, int initial,
+			int last, int value) {
+		if (initial == 0 && last == 0)
+			return;
+		intervals.add(new long[] { Math.min(initial, last),
+				Math.max(initial, last), value });
+	}
+}
@@ -0,0 +1,383 @@
+package br.org.funcate.terrajava.geocodificacao;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * ndice de geocodificao em memria para um layer de vias. O ndice 
+ * construdo uma nica vez a partir dos trechos e atributos descritos pelo
+ * ambiente de geocodificao do layer (getGeocodingEnvironment), e responde s
+ * buscas de endereo e  interpolao de nmeros sem acessar o banco de dados.
+ *
+ * Os mtodos getAddressesDescription e getPointCoordinate devolvem vetores com
+ * a mesma estrutura e os mesmos cdigos de estado dos mtodos homnimos da
+ * classe TerraJava, permitindo a troca direta entre as duas implementaes.
+ *
+ * O ndice  imutvel aps a construo e pode ser compartilhado entre sesses.
+ * </pre>
+ */
+public class StreetIndex {
+
+	/** Quantidade de objetos recuperados por chamada a getFeaturesByIds. */
+	public static final int FETCH_SIZE = 1000;
+
+	/** Similaridade mnima para aceitar um nome na busca por semelhana. */
+	public static final double MIN_SIMILARITY = 0.5;
+
+	private static final int NOT_FOUND = 1;
+
+	private static final int FOUND_BY_SIMILARITY = 8;
+
+	private static final int FOUND_BY_LOCALITY = 9;
+
+	/**
+	 * Cdigos de estado para endereo nico encontrado com nmero, para cada
+	 * nvel de relaxamento dos filtros (todos, sem tipo, sem tipo e ttulo, sem
+	 * tipo, ttulo e preposio). O cdigo para vrios endereos  o seguinte.
+	 */
+	private static final int[] FOUND_WITH_NUMBER = { 4, 10, 14, 18 };
+
+	private static final int[] FOUND_WITHOUT_NUMBER = { 6, 12, 16, 20 };
+
+	private final int layerId;
+
+	private final List<StreetSegment> segments;
+
+	private final StreetNameIndex nameIndex = new StreetNameIndex();
+
+	/** Trechos de cada nome indexado, pela posio em <code>segments</code>. */
+	private final List<int[]> segmentsByName = new ArrayList<int[]>();
+
+	private final List<NumberIntervalIndex> numbersByName = new ArrayList<NumberIntervalIndex>();
+
+	private final Map<String, List<Integer>> segmentsByObjectId = new HashMap<String, List<Integer>>();
+
+	StreetIndex(int layerId, List<StreetSegment> segments) {
+		this.layerId = layerId;
+		this.segments = segments;
+
+		Map<Integer, List<Integer>> grouped = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < segments.size(); i++) {
+			StreetSegment segment = segments.get(i);
+			int nameId = nameIndex.add(StreetNameIndex.normalize(segment
+					.getLocationName()));
+			List<Integer> list = grouped.get(nameId);
+			if (list == null) {
+				list = new ArrayList<Integer>();
+				grouped.put(nameId, list);
+			}
+			list.add(i);
+
+			List<Integer> byObject = segmentsByObjectId.get(segment.getObjectId());
+			if (byObject == null) {
+				byObject = new ArrayList<Integer>(1);
+				segmentsByObjectId.put(segment.getObjectId(), byObject);
+			}
+			byObject.add(i);
+		}
+
+		for (int nameId = 0; nameId < nameIndex.size(); nameId++) {
+			List<Integer> list = grouped.get(nameId);
+			int[] ids = new int[list.size()];
+			List<StreetSegment> group = new ArrayList<StreetSegment>(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = list.get(i);
+				group.add(segments.get(ids[i]));
+			}
+			segmentsByName.add(ids);
+			numbersByName.add(NumberIntervalIndex.build(group, ids));
+		}
+	}
+
+	/**
+	 * Constri o ndice de geocodificao de um layer de vias, lendo todos os
+	 * trechos do tema corrente em blocos de {@link #FETCH_SIZE} objetos.
+	 *
+	 * @param terraJava
+	 *            Acesso  camada TerraJava.
+	 * @param layerId
+	 *            Identificador do layer de vias, previamente preparado com
+	 *            prepareGeocodingEnvironment.
+	 * @param sessionId
+	 *            Nmero de controle de sesso, geralmente gerado pelo servidor
+	 *            de aplicao no momento da criao da sesso do usurio,
+	 *            quando a primeira requisio  feita. Deve ser um
+	 *            identificador nico.
+	 * @return O ndice construdo.
+	 * @throws IllegalAccessException
+	 * @throws InstantiationException
+	 *
+	 *             <pre>
+	 * <b>Pr requisitos:</b>
+	 *
+	 * Conectar: mtodo connect()
+	 * Definir como tema corrente um tema do layer de vias: setTheme()
+	 * Preparar o ambiente de geocodificao do layer: prepareGeocodingEnvironment()
+	 * </pre>
+	 */
+	@SuppressWarnings("unchecked")
+	public static StreetIndex build(TerraJava terraJava, int layerId,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		HashMap environment = terraJava.getGeocodingEnvironment(layerId,
+				sessionId);
+		if (environment == null || environment.isEmpty())
+			throw new IllegalStateException(
+					"Ambiente de geocodificao no preparado para o layer "
+							+ layerId + ".");
+
+		Vector ids = terraJava.getFeaturesIds(sessionId);
+		List<StreetSegment> segments = new ArrayList<StreetSegment>(
+				(ids == null) ? 0 : ids.size());
+		if (ids != null) {
+			for (int begin = 0; begin < ids.size(); begin += FETCH_SIZE) {
+				int end = Math.min(ids.size(), begin + FETCH_SIZE);
+				Vector<String> chunk = new Vector<String>(end - begin);
+				for (int i = begin; i < end; i++)
+					chunk.add(String.valueOf(ids.get(i)));
+
+				Vector features = terraJava.getFeaturesByIds(chunk, sessionId);
+				for (Feature feature : GeoJSONReader.readFeatures(features)) {
+					StreetSegment segment = StreetSegment.fromFeature(feature,
+							environment);
+					if (segment != null)
+						segments.add(segment);
+				}
+			}
+		}
+		return new StreetIndex(layerId, segments);
+	}
+
+	public int getLayerId() {
+		return layerId;
+	}
+
+	/**
+	 * @return Nmero de trechos de via indexados.
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Busca os endereos que satisfazem os filtros fornecidos, com a mesma
+	 * semntica do mtodo getAddressesDescription da classe TerraJava. O nome
+	 *  procurado por igualdade, depois como parte do nome e por fim por
+	 * semelhana. Os filtros de tipo, ttulo e preposio so relaxados nessa
+	 * ordem quando no h resultado, e o bairro ou o CEP, quando informados,
+	 * restringem os trechos encontrados.
+	 *
+	 * @return Vetor onde a posio [0]  o cdigo de estado da busca e as
+	 *         demais so as descries dos endereos encontrados, no formato
+	 *         documentado em TerraJava.getAddressesDescription.
+	 */
+	public Vector getAddressesDescription(String locationName,
+			int locationNumber, String neighborhood, String zipCode,
+			String locationType, String locationTitle,
+			String locationPreposition) {
+		String query = StreetNameIndex.normalize(locationName);
+		if (query.length() == 0)
+			throw new IllegalArgumentException("Endereo vazio.");
+
+		boolean bySimilarity = false;
+		List<Integer> nameIds = new ArrayList<Integer>();
+		int exact = nameIndex.find(query);
+		if (exact >= 0)
+			nameIds.add(exact);
+		else
+			nameIds = nameIndex.findContaining(query);
+		if (nameIds.isEmpty()) {
+			nameIds = nameIndex.findSimilar(query, MIN_SIMILARITY);
+			bySimilarity = true;
+		}
+		if (nameIds.isEmpty())
+			return result(NOT_FOUND, new ArrayList<StreetSegment>());
+
+		Set<Integer> candidates = new LinkedHashSet<Integer>();
+		for (int nameId : nameIds)
+			for (int id : segmentsByName.get(nameId))
+				candidates.add(id);
+
+		boolean byLocality = false;
+		String normNeighborhood = StreetNameIndex.normalize(neighborhood);
+		String normZipCode = StreetNameIndex.normalize(zipCode);
+		if (normNeighborhood.length() > 0 || normZipCode.length() > 0) {
+			Set<Integer> filtered = new LinkedHashSet<Integer>();
+			for (int id : candidates)
+				if (matchesLocality(segments.get(id), normNeighborhood,
+						normZipCode))
+					filtered.add(id);
+			if (!filtered.isEmpty()) {
+				candidates = filtered;
+				byLocality = true;
+			}
+		}
+
+		String[] filters = { StreetNameIndex.normalize(locationType),
+				StreetNameIndex.normalize(locationTitle),
+				StreetNameIndex.normalize(locationPreposition) };
+		for (int level = 0; level < FOUND_WITH_NUMBER.length; level++) {
+			Set<Integer> matched = new LinkedHashSet<Integer>();
+			for (int id : candidates)
+				if (matchesFilters(segments.get(id), filters, level))
+					matched.add(id);
+			if (matched.isEmpty())
+				continue;
+
+			List<StreetSegment> found = new ArrayList<StreetSegment>();
+			for (int nameId : nameIds)
+				for (int id : numbersByName.get(nameId).find(locationNumber))
+					if (matched.contains(id))
+						found.add(segments.get(id));
+
+			int status;
+			if (!found.isEmpty()) {
+				status = FOUND_WITH_NUMBER[level];
+			} else {
+				found = distinctStreets(matched);
+				status = FOUND_WITHOUT_NUMBER[level];
+			}
+			if (found.size() > 1)
+				status++;
+			if (bySimilarity)
+				status = byLocality ? FOUND_BY_LOCALITY : FOUND_BY_SIMILARITY;
+			return result(status, found);
+		}
+		return result(NOT_FOUND, new ArrayList<StreetSegment>());
+	}
+
+	/**
+	 * Calcula a coordenada do nmero informado na via descrita por
+	 * <code>addressDescription</code>, por interpolao ao longo do trecho cuja
+	 * faixa de numerao contm o nmero, com a mesma semntica do mtodo
+	 * getPointCoordinate da classe TerraJava.
+	 *
+	 * @return Cpia da descrio com as posies [0], [14] e [15]
+	 *         preenchidas. A posio [15]  falsa caso nenhum trecho da via
+	 *         contenha o nmero.
+	 */
+	public Vector getPointCoordinate(int locationNumber,
+			Vector<Object> addressDescription) {
+		Vector<Object> result = new Vector<Object>(addressDescription);
+		while (result.size() < 16)
+			result.add(null);
+
+		StreetSegment segment = null;
+		Object objectId = addressDescription.get(0);
+		if (objectId != null && objectId.toString().length() > 0) {
+			List<Integer> ids = segmentsByObjectId.get(objectId.toString());
+			if (ids != null)
+				for (int id : ids)
+					if (segment == null && segments.get(id).containsNumber(locationNumber))
+						segment = segments.get(id);
+		}
+		if (segment == null)
+			segment = findSegment(locationNumber, addressDescription);
+
+		Point2D.Double point = (segment == null) ? null : segment
+				.interpolate(locationNumber);
+		if (point == null) {
+			result.set(14, new Point2D.Double());
+			result.set(15, Boolean.FALSE);
+		} else {
+			result.set(0, segment.getObjectId());
+			result.set(14, point);
+			result.set(15, Boolean.TRUE);
+		}
+		return result;
+	}
+
+	private StreetSegment findSegment(int locationNumber,
+			Vector<Object> description) {
+		int nameId = nameIndex.find(StreetNameIndex.normalize(text(description, 8)));
+		if (nameId < 0)
+			return null;
+
+		String completeName = StreetNameIndex.normalize(text(description, 9));
+		for (int id : numbersByName.get(nameId).find(locationNumber)) {
+			StreetSegment segment = segments.get(id);
+			if (completeName.length() == 0
+					|| completeName.equals(StreetNameIndex.normalize(segment
+							.getLocationCompleteName())))
+				return segment;
+		}
+		return null;
+	}
+
+	/**
+	 * Seleciona um trecho por via (nome completo e bairros), usado quando o
+	 * nmero no pertence a nenhuma faixa dos trechos encontrados.
+	 */
+	private List<StreetSegment> distinctStreets(Set<Integer> ids) {
+		Map<String, StreetSegment> streets = new LinkedHashMap<String, StreetSegment>();
+		for (int id : ids) {
+			StreetSegment segment = segments.get(id);
+			String key = StreetNameIndex.normalize(segment.getLocationCompleteName())
+					+ "|" + StreetNameIndex.normalize(segment.getLeftNeighborhood());
+			if (!streets.containsKey(key))
+				streets.put(key, segment);
+		}
+		return new ArrayList<StreetSegment>(streets.values());
+	}
+
+	private static boolean matchesFilters(StreetSegment segment,
+			String[] filters, int level) {
+		// nvel 1 ignora o tipo, nvel 2 tambm o ttulo, nvel 3 tambm a
+		// preposio
+		if (level < 1 && !matches(filters[0], segment.getLocationType()))
+			return false;
+		if (level < 2 && !matches(filters[1], segment.getLocationTitle()))
+			return false;
+		if (level < 3 && !matches(filters[2], segment.getLocationPreposition()))
+			return false;
+		return true;
+	}
+
+	private static boolean matchesLocality(StreetSegment segment,
+			String neighborhood, String zipCode) {
+		if (neighborhood.length() > 0
+				&& (neighborhood.equals(StreetNameIndex.normalize(segment
+						.getLeftNeighborhood())) || neighborhood
+						.equals(StreetNameIndex.normalize(segment
+								.getRightNeighborhood()))))
+			return true;
+		if (zipCode.length() > 0
+				&& (zipCode.equals(StreetNameIndex.normalize(segment
+						.getLeftZipCode())) || zipCode.equals(StreetNameIndex
+						.normalize(segment.getRightZipCode()))))
+			return true;
+		return false;
+	}
+
+	private static boolean matches(String filter, String value) {
+		return filter.length() == 0
+				|| filter.equals(StreetNameIndex.normalize(value));
+	}
+
+	private static String text(Vector<Object> description, int index) {
+		if (description.size() <= index || description.get(index) == null)
+			return "";
+		return description.get(index).toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Vector result(int status, List<StreetSegment> found) {
+		Vector result = new Vector(found.size() + 1);
+		result.add(status);
+		for (StreetSegment segment : found)
+			result.add(segment.toDescription());
+		return result;
+	}
+}
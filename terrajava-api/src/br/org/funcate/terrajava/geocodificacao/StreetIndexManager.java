@@ -0,0 +1,91 @@
+package br.org.funcate.terrajava.geocodificacao;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * Mantm um ndice de geocodificao por layer de vias. O ndice  construdo
+ * na primeira solicitao e reaproveitado pelas demais; solicitaes
+ * simultneas para o mesmo layer aguardam uma nica construo.
+ */
+public class StreetIndexManager {
+
+	private final ConcurrentHashMap<Integer, FutureTask<StreetIndex>> indexes = new ConcurrentHashMap<Integer, FutureTask<StreetIndex>>();
+
+	/**
+	 * Recupera o ndice do layer, construindo-o caso ainda no exista.
+	 *
+	 * @see StreetIndex#build(TerraJava, int, String)
+	 */
+	public StreetIndex getIndex(final TerraJava terraJava, final int layerId,
+			final String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		FutureTask<StreetIndex> task = indexes.get(layerId);
+		if (task == null) {
+			FutureTask<StreetIndex> newTask = new FutureTask<StreetIndex>(
+					new Callable<StreetIndex>() {
+						public StreetIndex call() throws Exception {
+							return StreetIndex.build(terraJava, layerId,
+									sessionId);
+						}
+					});
+			task = indexes.putIfAbsent(layerId, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Construo do ndice de geocodificao interrompida.", e);
+		} catch (ExecutionException e) {
+			// no mantm construes que falharam
+			indexes.remove(layerId, task);
+			Throwable cause = e.getCause();
+			if (cause instanceof IllegalAccessException)
+				throw (IllegalAccessException) cause;
+			if (cause instanceof InstantiationException)
+				throw (InstantiationException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * @return O ndice do layer, ou null caso ainda no tenha sido construdo.
+	 */
+	public StreetIndex getIndexIfPresent(int layerId) {
+		FutureTask<StreetIndex> task = indexes.get(layerId);
+		if (task == null || !task.isDone())
+			return null;
+		try {
+			return task.get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Descarta o ndice do layer. Deve ser chamado aps alteraes nos trechos
+	 * ou no ambiente de geocodificao (prepareGeocodingEnvironment).
+	 */
+	public void invalidate(int layerId) {
+		indexes.remove(layerId);
+	}
+
+	/**
+	 * Descarta todos os ndices.
+	 */
+	public void clear() {
+		indexes.clear();
+	}
+}
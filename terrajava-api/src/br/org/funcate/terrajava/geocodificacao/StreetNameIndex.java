@@ -0,0 +1,205 @@
+package br.org.funcate.terrajava.geocodificacao;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ndice de trigramas sobre os nomes normalizados das vias. Permite localizar
+ * nomes iguais, nomes que contenham parte do nome pesquisado e nomes
+ * semelhantes (coeficiente de Dice sobre os trigramas), sem consultas SQL.
+ */
+class StreetNameIndex {
+
+	/** Nomes normalizados indexados; a posio  o identificador do nome. */
+	private final List<String> names = new ArrayList<String>();
+
+	private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+
+	private final Map<String, int[]> postings = new HashMap<String, int[]>();
+
+	private final Map<String, Integer> postingSizes = new HashMap<String, Integer>();
+
+	private int[] trigramCounts = new int[16];
+
+	/**
+	 * Normaliza um nome para comparao: remove acentos e pontuao, converte
+	 * para maisculas e reduz espaos consecutivos.
+	 */
+	static String normalize(String name) {
+		if (name == null)
+			return "";
+		String s = Normalizer.normalize(name, Normalizer.Form.NFD)
+				.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+		s = s.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]+", " ");
+		return s.trim();
+	}
+
+	/**
+	 * Adiciona um nome normalizado ao ndice.
+	 *
+	 * @return O identificador do nome.
+	 */
+	int add(String normalizedName) {
+		Integer id = nameIds.get(normalizedName);
+		if (id != null)
+			return id;
+
+		id = names.size();
+		names.add(normalizedName);
+		nameIds.put(normalizedName, id);
+
+		String[] trigrams = trigrams(normalizedName);
+		if (id >= trigramCounts.length)
+			trigramCounts = Arrays.copyOf(trigramCounts, trigramCounts.length * 2);
+		trigramCounts[id] = trigrams.length;
+		for (String trigram : trigrams) {
+			int[] list = postings.get(trigram);
+			Integer size = postingSizes.get(trigram);
+			int n = (size == null) ? 0 : size;
+			if (list == null)
+				list = new int[4];
+			else if (n == list.length)
+				list = Arrays.copyOf(list, n * 2);
+			list[n] = id;
+			postings.put(trigram, list);
+			postingSizes.put(trigram, n + 1);
+		}
+		return id;
+	}
+
+	int size() {
+		return names.size();
+	}
+
+	String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * @return O identificador do nome normalizado, ou -1 caso no exista.
+	 */
+	int find(String normalizedName) {
+		Integer id = nameIds.get(normalizedName);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Localiza os nomes que contm o texto pesquisado. Usa a lista do trigrama
+	 * mais seletivo para reduzir os candidatos e confirma cada um com uma
+	 * comparao de texto.
+	 *
+	 * @param normalizedQuery
+	 *            Texto pesquisado, j normalizado.
+	 * @return Identificadores dos nomes encontrados.
+	 */
+	List<Integer> findContaining(String normalizedQuery) {
+		List<Integer> result = new ArrayList<Integer>();
+		String[] trigrams = innerTrigrams(normalizedQuery);
+		if (trigrams.length == 0) {
+			for (int id = 0; id < names.size(); id++)
+				if (names.get(id).contains(normalizedQuery))
+					result.add(id);
+			return result;
+		}
+
+		// inicia pela lista de trigramas mais curta
+		String shortest = null;
+		int shortestSize = Integer.MAX_VALUE;
+		for (String trigram : trigrams) {
+			Integer size = postingSizes.get(trigram);
+			if (size == null)
+				return result;
+			if (size < shortestSize) {
+				shortestSize = size;
+				shortest = trigram;
+			}
+		}
+		int[] candidates = postings.get(shortest);
+		for (int i = 0; i < shortestSize; i++) {
+			int id = candidates[i];
+			if (names.get(id).contains(normalizedQuery))
+				result.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Localiza os nomes semelhantes ao texto pesquisado.
+	 *
+	 * @param normalizedQuery
+	 *            Texto pesquisado, j normalizado.
+	 * @param minSimilarity
+	 *            Similaridade mnima (0 a 1) para que um nome seja aceito.
+	 * @return Identificadores dos nomes encontrados, do mais semelhante para o
+	 *         menos semelhante.
+	 */
+	List<Integer> findSimilar(String normalizedQuery, double minSimilarity) {
+		String[] trigrams = trigrams(normalizedQuery);
+		final Map<Integer, Integer> shared = new HashMap<Integer, Integer>();
+		for (String trigram : trigrams) {
+			int[] list = postings.get(trigram);
+			if (list == null)
+				continue;
+			int n = postingSizes.get(trigram);
+			for (int i = 0; i < n; i++) {
+				Integer count = shared.get(list[i]);
+				shared.put(list[i], (count == null) ? 1 : count + 1);
+			}
+		}
+
+		final Map<Integer, Double> scores = new HashMap<Integer, Double>();
+		for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+			int id = entry.getKey();
+			double dice = 2.0 * entry.getValue()
+					/ (trigrams.length + trigramCounts[id]);
+			if (dice >= minSimilarity)
+				scores.put(id, dice);
+		}
+
+		List<Integer> result = new ArrayList<Integer>(scores.keySet());
+		Collections.sort(result, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(scores.get(b), scores.get(a));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Gera os trigramas distintos de um nome normalizado, com espaos nas
+	 * extremidades para valorizar o incio e o fim das palavras.
+	 */
+	static String[] trigrams(String normalizedName) {
+		if (normalizedName.length() == 0)
+			return new String[0];
+		String padded = " " + normalizedName + " ";
+		List<String> result = new ArrayList<String>(padded.length());
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			String trigram = padded.substring(i, i + 3);
+			if (!result.contains(trigram))
+				result.add(trigram);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Gera os trigramas internos de um texto, sem os espaos das
+	 * extremidades. Todo nome que contenha o texto possui esses trigramas.
+	 */
+	static String[] innerTrigrams(String normalizedQuery) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i + 3 <= normalizedQuery.length(); i++) {
+			String trigram = normalizedQuery.substring(i, i + 3);
+			if (!result.contains(trigram))
+				result.add(trigram);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+}
@@ -0,0 +1,298 @@
+package br.org.funcate.terrajava.geocodificacao;
+
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.Geometry;
+
+/**
+ * Trecho de via carregado em memria para o ndice de geocodificao. Os
+ * atributos so lidos das colunas informadas pelo ambiente de geocodificao
+ * do layer (getGeocodingEnvironment).
+ */
+public class StreetSegment {
+
+	private final String objectId;
+
+	private final int initialLeftNumber;
+
+	private final int finalLeftNumber;
+
+	private final int initialRightNumber;
+
+	private final int finalRightNumber;
+
+	private final String locationType;
+
+	private final String locationTitle;
+
+	private final String locationPreposition;
+
+	private final String locationName;
+
+	private final String locationCompleteName;
+
+	private final String leftNeighborhood;
+
+	private final String rightNeighborhood;
+
+	private final String leftZipCode;
+
+	private final String rightZipCode;
+
+	/** Linha do trecho em coordenadas intercaladas (x0, y0, x1, y1, ...). */
+	private final double[] line;
+
+	StreetSegment(String objectId, int initialLeftNumber, int finalLeftNumber,
+			int initialRightNumber, int finalRightNumber, String locationType,
+			String locationTitle, String locationPreposition,
+			String locationName, String locationCompleteName,
+			String leftNeighborhood, String rightNeighborhood,
+			String leftZipCode, String rightZipCode, double[] line) {
+		this.objectId = objectId;
+		this.initialLeftNumber = initialLeftNumber;
+		this.finalLeftNumber = finalLeftNumber;
+		this.initialRightNumber = initialRightNumber;
+		this.finalRightNumber = finalRightNumber;
+		this.locationType = locationType;
+		this.locationTitle = locationTitle;
+		this.locationPreposition = locationPreposition;
+		this.locationName = locationName;
+		this.locationCompleteName = locationCompleteName;
+		this.leftNeighborhood = leftNeighborhood;
+		this.rightNeighborhood = rightNeighborhood;
+		this.leftZipCode = leftZipCode;
+		this.rightZipCode = rightZipCode;
+		this.line = line;
+	}
+
+	/**
+	 * Cria um trecho a partir de uma feature do layer de vias.
+	 *
+	 * @param feature
+	 *            Feature lida da camada TerraJava.
+	 * @param environment
+	 *            Mapa devolvido por getGeocodingEnvironment, com os nomes das
+	 *            colunas de cada informao do endereo.
+	 * @return O trecho, ou null caso a feature no possua geometria de linha.
+	 */
+	@SuppressWarnings("unchecked")
+	static StreetSegment fromFeature(Feature feature, HashMap environment) {
+		Geometry geometry = feature.getGeometry();
+		if (geometry == null || geometry.getType() != Geometry.LINES
+				|| geometry.isEmpty())
+			return null;
+
+		String type = feature.getString(column(environment, "locationType"));
+		String title = feature.getString(column(environment, "locationTitle"));
+		String preposition = feature.getString(column(environment,
+				"locationPreposition"));
+		String name = feature.getString(column(environment, "locationName"));
+		String completeName = feature.getString(column(environment,
+				"locationCompleteName"));
+		if (completeName.length() == 0)
+			completeName = join(type, title, preposition, name);
+
+		return new StreetSegment(feature.getObjectId(), number(feature,
+				environment, "initialLeftNumber"), number(feature, environment,
+				"finalLeftNumber"), number(feature, environment,
+				"initialRightNumber"), number(feature, environment,
+				"finalRightNumber"), type, title, preposition, name,
+				completeName, feature.getString(column(environment,
+						"leftNeighborhood")), feature.getString(column(
+						environment, "rightNeighborhood")), feature
+						.getString(column(environment, "leftZipCode")),
+				feature.getString(column(environment, "rightZipCode")),
+				concatenate(geometry));
+	}
+
+	public String getObjectId() {
+		return objectId;
+	}
+
+	public int getInitialLeftNumber() {
+		return initialLeftNumber;
+	}
+
+	public int getFinalLeftNumber() {
+		return finalLeftNumber;
+	}
+
+	public int getInitialRightNumber() {
+		return initialRightNumber;
+	}
+
+	public int getFinalRightNumber() {
+		return finalRightNumber;
+	}
+
+	public String getLocationType() {
+		return locationType;
+	}
+
+	public String getLocationTitle() {
+		return locationTitle;
+	}
+
+	public String getLocationPreposition() {
+		return locationPreposition;
+	}
+
+	public String getLocationName() {
+		return locationName;
+	}
+
+	public String getLocationCompleteName() {
+		return locationCompleteName;
+	}
+
+	public String getLeftNeighborhood() {
+		return leftNeighborhood;
+	}
+
+	public String getRightNeighborhood() {
+		return rightNeighborhood;
+	}
+
+	public String getLeftZipCode() {
+		return leftZipCode;
+	}
+
+	public String getRightZipCode() {
+		return rightZipCode;
+	}
+
+	/**
+	 * @return Verdadeiro caso o nmero pertena ao intervalo esquerdo ou
+	 *         direito do trecho.
+	 */
+	public boolean containsNumber(int number) {
+		return inRange(number, initialLeftNumber, finalLeftNumber)
+				|| inRange(number, initialRightNumber, finalRightNumber);
+	}
+
+	/**
+	 * Calcula, por interpolao linear ao longo da linha do trecho, a
+	 * coordenada do nmero informado. O lado (esquerdo ou direito)  escolhido
+	 * pelo intervalo que contm o nmero.
+	 *
+	 * @param number
+	 *            Nmero do endereo.
+	 * @return A coordenada interpolada, ou null caso o nmero no pertena a
+	 *         nenhum dos intervalos do trecho.
+	 */
+	public Point2D.Double interpolate(int number) {
+		double fraction;
+		if (inRange(number, initialLeftNumber, finalLeftNumber))
+			fraction = fraction(number, initialLeftNumber, finalLeftNumber);
+		else if (inRange(number, initialRightNumber, finalRightNumber))
+			fraction = fraction(number, initialRightNumber, finalRightNumber);
+		else
+			return null;
+		return pointAt(fraction);
+	}
+
+	/**
+	 * @return A coordenada na posio relativa <code>fraction</code> (0 a 1)
+	 *         do comprimento da linha do trecho.
+	 */
+	public Point2D.Double pointAt(double fraction) {
+		int n = line.length / 2;
+		if (n == 1)
+			return new Point2D.Double(line[0], line[1]);
+
+		double target = Geometry.length(line) * Math.max(0, Math.min(1, fraction));
+		double walked = 0;
+		for (int i = 1; i < n; i++) {
+			double dx = line[2 * i] - line[2 * i - 2];
+			double dy = line[2 * i + 1] - line[2 * i - 1];
+			double step = Math.hypot(dx, dy);
+			if (walked + step >= target && step > 0) {
+				double t = (target - walked) / step;
+				return new Point2D.Double(line[2 * i - 2] + dx * t,
+						line[2 * i - 1] + dy * t);
+			}
+			walked += step;
+		}
+		return new Point2D.Double(line[line.length - 2], line[line.length - 1]);
+	}
+
+	/**
+	 * Monta a descrio do endereo no mesmo formato devolvido pelo mtodo
+	 * getAddressesDescription da classe TerraJava.
+	 */
+	Vector<Object> toDescription() {
+		Vector<Object> description = new Vector<Object>(16);
+		description.add("");
+		description.add(initialLeftNumber);
+		description.add(finalLeftNumber);
+		description.add(initialRightNumber);
+		description.add(finalRightNumber);
+		description.add(locationType);
+		description.add(locationTitle);
+		description.add(locationPreposition);
+		description.add(locationName);
+		description.add(locationCompleteName);
+		description.add(leftNeighborhood);
+		description.add(rightNeighborhood);
+		description.add(leftZipCode);
+		description.add(rightZipCode);
+		description.add(new Point2D.Double());
+		description.add(Boolean.FALSE);
+		return description;
+	}
+
+	static boolean inRange(int number, int initial, int last) {
+		if (initial == 0 && last == 0)
+			return false;
+		return number >= Math.min(initial, last)
+				&& number <= Math.max(initial, last);
+	}
+
+	private static double fraction(int number, int initial, int last) {
+		if (initial == last)
+			return 0.5;
+		return (double) (number - initial) / (double) (last - initial);
+	}
+
+	private static String column(HashMap environment, String key) {
+		Object value = environment.get(key);
+		return (value == null) ? null : value.toString();
+	}
+
+	private static int number(Feature feature, HashMap environment, String key) {
+		return (int) feature.getDouble(column(environment, key), 0);
+	}
+
+	private static String join(String... values) {
+		StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			if (value == null || value.trim().length() == 0)
+				continue;
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(value.trim());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Une as partes de uma geometria de linhas em uma nica sequncia de
+	 * coordenadas, na ordem em que foram armazenadas.
+	 */
+	private static double[] concatenate(Geometry geometry) {
+		int size = geometry.getNumPoints() * 2;
+		double[] coords = new double[size];
+		int pos = 0;
+		for (List<double[]> parts : geometry.getComponents()) {
+			for (double[] part : parts) {
+				System.arraycopy(part, 0, coords, pos, part.length);
+				pos += part.length;
+			}
+		}
+		return coords;
+	}
+}
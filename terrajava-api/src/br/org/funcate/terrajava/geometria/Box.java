@@ -0,0 +1,142 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.HashMap;
+
+/**
+ * Retngulo envolvente (box) em coordenadas da projeo da vista corrente,
+ * definido pelo canto inferior esquerdo (x1, y1) e pelo canto superior direito
+ * (x2, y2), na mesma conveno usada pelos mtodos da classe TerraJava.
+ */
+public final class Box {
+
+	private final double x1;
+
+	private final double y1;
+
+	private final double x2;
+
+	private final double y2;
+
+	public Box(double x1, double y1, double x2, double y2) {
+		this.x1 = Math.min(x1, x2);
+		this.y1 = Math.min(y1, y2);
+		this.x2 = Math.max(x1, x2);
+		this.y2 = Math.max(y1, y2);
+	}
+
+	/**
+	 * Cria um box a partir de um HashMap com as chaves x1, y1, x2 e y2, formato
+	 * devolvido por mtodos como setScale e getThemesBox.
+	 *
+	 * @param boxMap
+	 *            Mapa com as coordenadas do box.
+	 * @return O box correspondente.
+	 */
+	public static Box fromMap(HashMap<?, ?> boxMap) {
+		return new Box(toDouble(boxMap.get("x1")), toDouble(boxMap.get("y1")),
+				toDouble(boxMap.get("x2")), toDouble(boxMap.get("y2")));
+	}
+
+	public double getX1() {
+		return x1;
+	}
+
+	public double getY1() {
+		return y1;
+	}
+
+	public double getX2() {
+		return x2;
+	}
+
+	public double getY2() {
+		return y2;
+	}
+
+	public double getWidth() {
+		return x2 - x1;
+	}
+
+	public double getHeight() {
+		return y2 - y1;
+	}
+
+	public boolean intersects(Box other) {
+		return other.x1 <= x2 && other.x2 >= x1 && other.y1 <= y2
+				&& other.y2 >= y1;
+	}
+
+	public boolean contains(double x, double y) {
+		return x >= x1 && x <= x2 && y >= y1 && y <= y2;
+	}
+
+	public Box union(Box other) {
+		if (other == null)
+			return this;
+		return new Box(Math.min(x1, other.x1), Math.min(y1, other.y1),
+				Math.max(x2, other.x2), Math.max(y2, other.y2));
+	}
+
+	/**
+	 * @return A interseo entre os boxes ou null caso no se interceptem.
+	 */
+	public Box intersection(Box other) {
+		if (!intersects(other))
+			return null;
+		return new Box(Math.max(x1, other.x1), Math.max(y1, other.y1),
+				Math.min(x2, other.x2), Math.min(y2, other.y2));
+	}
+
+	/**
+	 * @return Um novo box expandido em <code>margin</code> unidades em todas as
+	 *         direes.
+	 */
+	public Box expand(double margin) {
+		return new Box(x1 - margin, y1 - margin, x2 + margin, y2 + margin);
+	}
+
+	/**
+	 * @return HashMap com as chaves x1, y1, x2 e y2.
+	 */
+	public HashMap<String, Double> toMap() {
+		HashMap<String, Double> map = new HashMap<String, Double>();
+		map.put("x1", x1);
+		map.put("y1", y1);
+		map.put("x2", x2);
+		map.put("y2", y2);
+		return map;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Box))
+			return false;
+		Box other = (Box) obj;
+		return Double.compare(x1, other.x1) == 0
+				&& Double.compare(y1, other.y1) == 0
+				&& Double.compare(x2, other.x2) == 0
+				&& Double.compare(y2, other.y2) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(x1);
+		bits = bits * 31 + Double.doubleToLongBits(y1);
+		bits = bits * 31 + Double.doubleToLongBits(x2);
+		bits = bits * 31 + Double.doubleToLongBits(y2);
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "Box(" + x1 + ", " + y1 + ", " + x2 + ", " + y2 + ")";
+	}
+
+	static double toDouble(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		return Double.parseDouble(String.valueOf(value));
+	}
+}
@@ -0,0 +1,92 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.HashMap;
+
+/**
+ * Objeto geogrfico lido de uma feature GeoJSON da camada TerraJava:
+ * identificador do objeto, atributos e geometria.
+ */
+public class Feature {
+
+	private final String objectId;
+
+	private final HashMap<String, Object> properties;
+
+	private final Geometry geometry;
+
+	public Feature(String objectId, HashMap<String, Object> properties,
+			Geometry geometry) {
+		this.objectId = objectId;
+		this.properties = (properties == null) ? new HashMap<String, Object>()
+				: properties;
+		this.geometry = geometry;
+	}
+
+	public String getObjectId() {
+		return objectId;
+	}
+
+	public HashMap<String, Object> getProperties() {
+		return properties;
+	}
+
+	public Geometry getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Recupera o valor de um atributo pelo nome da coluna. Caso o nome no
+	 * seja encontrado diretamente, procura por atributos qualificados com o
+	 * nome da tabela (tabela.coluna) e ignora diferenas de caixa.
+	 *
+	 * @param columnName
+	 *            Nome da coluna da tabela de atributos.
+	 * @return O valor do atributo ou null caso no exista.
+	 */
+	public Object getProperty(String columnName) {
+		if (columnName == null || columnName.length() == 0)
+			return null;
+		if (properties.containsKey(columnName))
+			return properties.get(columnName);
+
+		String simpleName = columnName.substring(columnName.lastIndexOf('.') + 1);
+		for (String key : properties.keySet()) {
+			String simpleKey = key.substring(key.lastIndexOf('.') + 1);
+			if (simpleKey.equalsIgnoreCase(simpleName))
+				return properties.get(key);
+		}
+		return null;
+	}
+
+	/**
+	 * @return O valor do atributo como texto, ou uma String vazia caso no
+	 *         exista.
+	 */
+	public String getString(String columnName) {
+		Object value = getProperty(columnName);
+		if (value == null)
+			return "";
+		if (value instanceof Double && ((Double) value).doubleValue() == Math
+				.rint((Double) value))
+			return String.valueOf(((Double) value).longValue());
+		return value.toString();
+	}
+
+	/**
+	 * @return O valor numrico do atributo, ou <code>defaultValue</code> caso
+	 *         no exista ou no seja numrico.
+	 */
+	public double getDouble(String columnName, double defaultValue) {
+		Object value = getProperty(columnName);
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		if (value != null) {
+			try {
+				return Double.parseDouble(value.toString().trim());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,143 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.util.JSONParser;
+
+/**
+ * Leitura das features no formato GeoJSON devolvidas pelos mtodos
+ * getFeaturesInBox, getFeaturesByIds e getFeaturesWithRestriction da classe
+ * TerraJava.
+ */
+public class GeoJSONReader {
+
+	/**
+	 * Nome do atributo usado como identificador do objeto quando a feature no
+	 * possui o membro "id".
+	 */
+	public static final String OBJECT_ID_PROPERTY = "object_id";
+
+	private GeoJSONReader() {
+	}
+
+	/**
+	 * Converte o vetor devolvido pela camada TerraJava em uma lista de
+	 * features. Elementos vazios so ignorados.
+	 *
+	 * @param geoJSONFeatures
+	 *            Vetor de features no formato GeoJSON.
+	 * @return Lista de features.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Feature> readFeatures(Vector geoJSONFeatures) {
+		List<Feature> features = new ArrayList<Feature>();
+		if (geoJSONFeatures == null)
+			return features;
+		for (Object item : geoJSONFeatures) {
+			if (item == null)
+				continue;
+			String json = item.toString();
+			if (json.trim().length() == 0)
+				continue;
+			features.add(readFeature(json));
+		}
+		return features;
+	}
+
+	/**
+	 * Interpreta uma feature GeoJSON.
+	 *
+	 * @param json
+	 *            Feature no formato GeoJSON.
+	 * @return A feature lida.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Feature readFeature(String json) {
+		HashMap<String, Object> root = JSONParser.parseObject(json);
+		HashMap<String, Object> properties = (HashMap<String, Object>) root
+				.get("properties");
+		Object id = root.get("id");
+		if (id == null && properties != null)
+			id = properties.get(OBJECT_ID_PROPERTY);
+
+		Geometry geometry = null;
+		Object geometryObj = root.get("geometry");
+		if (geometryObj instanceof HashMap)
+			geometry = readGeometry((HashMap<String, Object>) geometryObj);
+
+		return new Feature((id == null) ? null : id.toString(), properties,
+				geometry);
+	}
+
+	/**
+	 * Interpreta o objeto "geometry" de uma feature GeoJSON.
+	 *
+	 * @param geometryMap
+	 *            Objeto geometry j interpretado.
+	 * @return A geometria, ou null caso o tipo no seja suportado.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Geometry readGeometry(HashMap<String, Object> geometryMap) {
+		String type = String.valueOf(geometryMap.get("type"));
+		Vector<Object> coords = (Vector<Object>) geometryMap.get("coordinates");
+		List<List<double[]>> components = new ArrayList<List<double[]>>();
+
+		if ("Point".equals(type)) {
+			components.add(single(toPosition(coords)));
+			return new Geometry(Geometry.POINTS, components);
+		} else if ("MultiPoint".equals(type)) {
+			for (Object p : coords)
+				components.add(single(toPosition((Vector<Object>) p)));
+			return new Geometry(Geometry.POINTS, components);
+		} else if ("LineString".equals(type)) {
+			components.add(single(toLine(coords)));
+			return new Geometry(Geometry.LINES, components);
+		} else if ("MultiLineString".equals(type)) {
+			for (Object l : coords)
+				components.add(single(toLine((Vector<Object>) l)));
+			return new Geometry(Geometry.LINES, components);
+		} else if ("Polygon".equals(type)) {
+			components.add(toRings(coords));
+			return new Geometry(Geometry.POLYGONS, components);
+		} else if ("MultiPolygon".equals(type)) {
+			for (Object p : coords)
+				components.add(toRings((Vector<Object>) p));
+			return new Geometry(Geometry.POLYGONS, components);
+		}
+		return null;
+	}
+
+	private static List<double[]> single(double[] coords) {
+		List<double[]> parts = new ArrayList<double[]>(1);
+		parts.add(coords);
+		return parts;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<double[]> toRings(Vector<Object> rings) {
+		List<double[]> parts = new ArrayList<double[]>(rings.size());
+		for (Object ring : rings)
+			parts.add(toLine((Vector<Object>) ring));
+		return parts;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static double[] toLine(Vector<Object> positions) {
+		double[] coords = new double[positions.size() * 2];
+		int i = 0;
+		for (Object p : positions) {
+			Vector<Object> pos = (Vector<Object>) p;
+			coords[i++] = ((Number) pos.get(0)).doubleValue();
+			coords[i++] = ((Number) pos.get(1)).doubleValue();
+		}
+		return coords;
+	}
+
+	private static double[] toPosition(Vector<Object> pos) {
+		return new double[] { ((Number) pos.get(0)).doubleValue(),
+				((Number) pos.get(1)).doubleValue() };
+	}
+}
@@ -0,0 +1,77 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Converso de geometrias para o objeto "geometry" do GeoJSON, na estrutura
+ * (HashMap e Vector) aceita pelo {@link br.org.funcate.terrajava.util.JSONWriter}.
+ * Complementa o {@link GeoJSONReader}.
+ */
+public class GeoJSONWriter {
+
+	private GeoJSONWriter() {
+	}
+
+	/**
+	 * @param decimals
+	 *            Nmero mximo de casas decimais das coordenadas, ou um valor
+	 *            negativo para manter a preciso completa.
+	 * @return O objeto geometry, com as chaves type e coordinates.
+	 */
+	public static HashMap<String, Object> toMap(Geometry geometry, int decimals) {
+		List<List<double[]>> components = geometry.getComponents();
+		boolean multi = components.size() != 1;
+		HashMap<String, Object> map = new LinkedHashMap<String, Object>();
+		Vector<Object> coordinates = new Vector<Object>(components.size());
+		for (List<double[]> parts : components) {
+			if (geometry.getType() == Geometry.POLYGONS) {
+				Vector<Object> rings = new Vector<Object>(parts.size());
+				for (double[] ring : parts)
+					rings.add(toPositions(ring, decimals));
+				coordinates.add(rings);
+			} else if (geometry.getType() == Geometry.LINES) {
+				coordinates.add(toPositions(parts.get(0), decimals));
+			} else {
+				coordinates.add(toPositions(parts.get(0), decimals).get(0));
+			}
+		}
+
+		String type;
+		switch (geometry.getType()) {
+		case Geometry.POINTS:
+			type = "Point";
+			break;
+		case Geometry.LINES:
+			type = "LineString";
+			break;
+		default:
+			type = "Polygon";
+		}
+		map.put("type", multi ? "Multi" + type : type);
+		map.put("coordinates", multi ? coordinates : coordinates.get(0));
+		return map;
+	}
+
+	private static Vector<Object> toPositions(double[] coords, int decimals) {
+		Vector<Object> positions = new Vector<Object>(coords.length / 2);
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			Vector<Object> p = new Vector<Object>(2);
+			p.add(toNumber(coords[i], decimals));
+			p.add(toNumber(coords[i + 1], decimals));
+			positions.add(p);
+		}
+		return positions;
+	}
+
+	private static Number toNumber(double value, int decimals) {
+		if (decimals < 0)
+			return value;
+		return BigDecimal.valueOf(value).setScale(decimals,
+				RoundingMode.HALF_UP).stripTrailingZeros();
+	}
+}
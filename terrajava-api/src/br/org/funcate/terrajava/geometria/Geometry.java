@@ -0,0 +1,131 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <pre>
+ * Representao Java de uma geometria recuperada da camada TerraJava. Os tipos
+ * seguem os valores de representao geomtrica (geomRep) da TerraLib:
+ *
+ * POLYGONS = 1
+ * LINES    = 2
+ * POINTS   = 4
+ *
+ * Uma geometria  formada por componentes. Cada componente  uma lista de
+ * partes, e cada parte  um array de coordenadas intercaladas (x0, y0, x1, y1, ...):
+ *
+ * POINTS   - cada componente possui uma parte com um nico ponto;
+ * LINES    - cada componente possui uma parte com a linha;
+ * POLYGONS - cada componente  um polgono, cuja primeira parte  o anel
+ *            externo e as demais so os buracos.
+ * </pre>
+ */
+public class Geometry {
+
+	public static final int POLYGONS = 1;
+
+	public static final int LINES = 2;
+
+	public static final int POINTS = 4;
+
+	private final int type;
+
+	private final List<List<double[]>> components;
+
+	private Box box;
+
+	public Geometry(int type, List<List<double[]>> components) {
+		if (type != POLYGONS && type != LINES && type != POINTS)
+			throw new IllegalArgumentException("Tipo de geometria invlido: "
+					+ type);
+		this.type = type;
+		this.components = components;
+	}
+
+	/**
+	 * Cria uma geometria com uma nica parte.
+	 */
+	public static Geometry single(int type, double[] coords) {
+		List<double[]> parts = new ArrayList<double[]>(1);
+		parts.add(coords);
+		List<List<double[]>> components = new ArrayList<List<double[]>>(1);
+		components.add(parts);
+		return new Geometry(type, components);
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public List<List<double[]>> getComponents() {
+		return Collections.unmodifiableList(components);
+	}
+
+	public boolean isEmpty() {
+		for (List<double[]> parts : components)
+			for (double[] coords : parts)
+				if (coords.length >= 2)
+					return false;
+		return true;
+	}
+
+	/**
+	 * @return Nmero total de vrtices da geometria.
+	 */
+	public int getNumPoints() {
+		int n = 0;
+		for (List<double[]> parts : components)
+			for (double[] coords : parts)
+				n += coords.length / 2;
+		return n;
+	}
+
+	/**
+	 * @return O box envolvente da geometria, ou null caso seja vazia.
+	 */
+	public Box getBox() {
+		if (box == null && !isEmpty()) {
+			double x1 = Double.MAX_VALUE, y1 = Double.MAX_VALUE;
+			double x2 = -Double.MAX_VALUE, y2 = -Double.MAX_VALUE;
+			for (List<double[]> parts : components) {
+				for (double[] coords : parts) {
+					for (int i = 0; i + 1 < coords.length; i += 2) {
+						x1 = Math.min(x1, coords[i]);
+						x2 = Math.max(x2, coords[i]);
+						y1 = Math.min(y1, coords[i + 1]);
+						y2 = Math.max(y2, coords[i + 1]);
+					}
+				}
+			}
+			box = new Box(x1, y1, x2, y2);
+		}
+		return box;
+	}
+
+	/**
+	 * Calcula o comprimento de uma parte (linha ou anel).
+	 */
+	public static double length(double[] coords) {
+		double length = 0;
+		for (int i = 2; i + 1 < coords.length; i += 2)
+			length += Math.hypot(coords[i] - coords[i - 2], coords[i + 1]
+					- coords[i - 1]);
+		return length;
+	}
+
+	/**
+	 * Calcula a rea com sinal de um anel (positiva para orientao
+	 * anti-horria).
+	 */
+	public static double signedArea(double[] ring) {
+		int n = ring.length / 2;
+		if (n < 3)
+			return 0;
+		double sum = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++)
+			sum += (ring[2 * j] * ring[2 * i + 1]) - (ring[2 * i] * ring[2 * j + 1]);
+		return sum / 2;
+	}
+}
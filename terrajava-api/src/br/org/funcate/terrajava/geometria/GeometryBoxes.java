@@ -0,0 +1,129 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import br.org.funcate.terrajava.util.JSONParser;
+
+/**
+ * Boxes envolventes das geometrias recebidas e devolvidas pelos mtodos de
+ * edio da TerraJava, em textos WKT ou geometrias GeoJSON, sem interpretar a
+ * estrutura completa dos objetos.
+ */
+public class GeometryBoxes {
+
+	private static final Pattern WKT = Pattern.compile(
+			"^\\s*(SRID=\\d+;)?\\s*[A-Za-z]+\\s*(Z|M|ZM)?\\s*\\(.*", Pattern.DOTALL);
+
+	private GeometryBoxes() {
+	}
+
+	/**
+	 * Procura geometrias em um valor: texto WKT, texto GeoJSON, mapa de
+	 * geometria GeoJSON, ou mapas e listas que os contenham em qualquer chave.
+	 *
+	 * @return O box que envolve as geometrias encontradas, ou null caso no
+	 *         haja geometria.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Box find(Object value) {
+		if (value instanceof String) {
+			String text = (String) value;
+			if (WKT.matcher(text).matches())
+				return ofWKT(text);
+			if (text.trim().startsWith("{") && text.contains("coordinates"))
+				return find(JSONParser.parseObject(text));
+			return null;
+		}
+		if (value instanceof HashMap) {
+			HashMap<String, Object> map = (HashMap<String, Object>) value;
+			if (map.get("coordinates") != null && map.get("type") != null) {
+				Geometry geometry = GeoJSONReader.readGeometry(map);
+				return (geometry == null) ? null : geometry.getBox();
+			}
+			Box box = null;
+			for (Object item : map.values()) {
+				Box found = find(item);
+				if (found != null)
+					box = found.union(box);
+			}
+			return box;
+		}
+		if (value instanceof List) {
+			Box box = null;
+			for (Object item : (List<Object>) value) {
+				Box found = find(item);
+				if (found != null)
+					box = found.union(box);
+			}
+			return box;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Um box para cada geometria WKT do texto (geometrias separadas
+	 *         por qualquer caractere fora dos parnteses), como devolvido por
+	 *         getGeometriesByOidOnWKT.
+	 */
+	public static List<Box> ofWKTList(String text) {
+		List<Box> boxes = new ArrayList<Box>();
+		if (text == null)
+			return boxes;
+		int depth = 0, start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && depth > 0 && --depth == 0) {
+				Box box = ofWKT(text.substring(start, i + 1));
+				if (box != null)
+					boxes.add(box);
+				start = i + 1;
+			}
+		}
+		return boxes;
+	}
+
+	/**
+	 * @return O box das coordenadas de um texto WKT, considerando os dois
+	 *         primeiros valores de cada posio, ou null caso seja vazio.
+	 */
+	public static Box ofWKT(String wkt) {
+		double x1 = Double.MAX_VALUE, y1 = Double.MAX_VALUE;
+		double x2 = -Double.MAX_VALUE, y2 = -Double.MAX_VALUE;
+		boolean found = false;
+		for (String position : wkt.split("[(),]")) {
+			String[] values = position.trim().split("\\s+");
+			if (values.length < 2)
+				continue;
+			try {
+				double x = Double.parseDouble(values[0]);
+				double y = Double.parseDouble(values[1]);
+				x1 = Math.min(x1, x);
+				x2 = Math.max(x2, x);
+				y1 = Math.min(y1, y);
+				y2 = Math.max(y2, y);
+				found = true;
+			} catch (NumberFormatException e) {
+				// nome do tipo de geometria
+			}
+		}
+		return found ? new Box(x1, y1, x2, y2) : null;
+	}
+
+	/**
+	 * @return O box que envolve todos os boxes, ou null caso a lista seja
+	 *         nula ou vazia.
+	 */
+	public static Box union(List<Box> boxes) {
+		if (boxes == null)
+			return null;
+		Box union = null;
+		for (Box box : boxes)
+			union = box.union(union);
+		return union;
+	}
+}
@@ -0,0 +1,134 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * rea, permetro e centride de uma ou mais geometrias, calculados em uma
+ * nica passada pelos vrtices, na unidade da projeo das coordenadas.
+ *
+ * Para polgonos, a rea  a soma das reas dos anis externos menos a dos
+ * buracos, o permetro  a soma dos comprimentos de todos os anis e o
+ * centride  o centro de massa da rea. Para linhas, a rea  zero, o
+ * permetro  o comprimento e o centride  a mdia dos pontos mdios dos
+ * segmentos ponderada pelo comprimento. Para pontos, somente o centride
+ * (mdia dos pontos)  definido.
+ *
+ * Os valores so acumulados com {@link #add(Geometry)}, o que permite somar
+ * as vrias geometrias de um mesmo objeto.
+ * </pre>
+ */
+public class GeometryMeasures {
+
+	private double area;
+
+	private double perimeter;
+
+	private double sumX;
+
+	private double sumY;
+
+	private double weight;
+
+	private int dimension = -1;
+
+	/**
+	 * Acumula as medidas da geometria. O centride considera apenas as
+	 * geometrias de maior dimenso acumuladas (polgonos sobre linhas e linhas
+	 * sobre pontos).
+	 */
+	public void add(Geometry geometry) {
+		if (geometry == null || geometry.isEmpty())
+			return;
+		int type = geometry.getType();
+		int dim = (type == Geometry.POLYGONS) ? 2
+				: (type == Geometry.LINES) ? 1 : 0;
+		if (dim > dimension) {
+			sumX = 0;
+			sumY = 0;
+			weight = 0;
+			dimension = dim;
+		}
+		for (List<double[]> parts : geometry.getComponents()) {
+			for (int p = 0; p < parts.size(); p++) {
+				double[] c = parts.get(p);
+				if (dim == 2)
+					addRing(c, p == 0);
+				else if (dim == 1)
+					addLine(c, dim == dimension);
+				else if (dim == dimension)
+					for (int i = 0; i + 1 < c.length; i += 2) {
+						sumX += c[i];
+						sumY += c[i + 1];
+						weight++;
+					}
+			}
+		}
+	}
+
+	private void addRing(double[] ring, boolean exterior) {
+		int n = ring.length / 2;
+		if (n < 3)
+			return;
+		// coordenadas relativas ao primeiro vrtice reduzem a perda de
+		// preciso em projees com valores grandes
+		double ox = ring[0], oy = ring[1];
+		double a = 0, cx = 0, cy = 0;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			double x0 = ring[2 * i] - ox, y0 = ring[2 * i + 1] - oy;
+			double x1 = ring[2 * j] - ox, y1 = ring[2 * j + 1] - oy;
+			double cross = x0 * y1 - x1 * y0;
+			a += cross;
+			cx += (x0 + x1) * cross;
+			cy += (y0 + y1) * cross;
+			perimeter += Math.hypot(x1 - x0, y1 - y0);
+		}
+		// o anel externo soma e os buracos subtraem, qualquer que seja a
+		// orientao gravada
+		double sign = ((exterior ? 1 : -1) * a > 0) ? 1 : -1;
+		area += sign * a / 2;
+		sumX += sign * (cx / 3 + ox * a);
+		sumY += sign * (cy / 3 + oy * a);
+		weight += sign * a;
+	}
+
+	private void addLine(double[] line, boolean centroid) {
+		for (int i = 0; i + 3 < line.length; i += 2) {
+			double length = Math.hypot(line[i + 2] - line[i], line[i + 3]
+					- line[i + 1]);
+			perimeter += length;
+			if (centroid) {
+				sumX += (line[i] + line[i + 2]) / 2 * length;
+				sumY += (line[i + 1] + line[i + 3]) / 2 * length;
+				weight += length;
+			}
+		}
+	}
+
+	public double getArea() {
+		return area;
+	}
+
+	/**
+	 * @return O permetro dos polgonos ou o comprimento das linhas.
+	 */
+	public double getPerimeter() {
+		return perimeter;
+	}
+
+	/**
+	 * @return Verdadeiro quando o centride est definido.
+	 */
+	public boolean hasCentroid() {
+		return weight != 0;
+	}
+
+	public double getCentroidX() {
+		return sumX / weight;
+	}
+
+	public double getCentroidY() {
+		return sumY / weight;
+	}
+}
@@ -0,0 +1,495 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import br.org.funcate.terrajava.util.JSONParser;
+import br.org.funcate.terrajava.util.JSONWriter;
+
+/**
+ * <pre>
+ * Simplificao de geometrias antes do envio ao cliente, com tolerncia
+ * derivada da escala de exibio (getScale) ou do tamanho do pixel da vista.
+ *
+ * Algoritmos:
+ *
+ * DOUGLAS_PEUCKER - distncia mxima entre a linha original e a simplificada
+ *                   igual  tolerncia;
+ * VISVALINGAM     - remove vrtices cujo tringulo efetivo tenha rea menor
+ *                   que o quadrado da tolerncia.
+ *
+ * Com preservao de topologia, anis nunca so reduzidos a menos de trs
+ * vrtices distintos e uma parte simplificada que passe a se
+ * autointerceptar  simplificada novamente com tolerncias menores, at
+ * voltar  geometria original. Nos polgonos, os anis simplificados tambm
+ * no podem interceptar os demais anis da geometria (anel externo e buracos
+ * do mesmo polgono e os anis dos outros polgonos); havendo interseo, a
+ * geometria inteira  simplificada novamente com tolerncias menores. Linhas
+ * de uma mesma geometria podem se cruzar e no so comparadas entre si. Sem
+ * preservao, anis e buracos que colapsam so descartados.
+ *
+ * As coordenadas de sada so arredondadas para a preciso de um dcimo da
+ * tolerncia, reduzindo tambm o tamanho do texto gerado. O arredondamento 
+ * feito antes das verificaes de topologia, que valem portanto para as
+ * coordenadas efetivamente enviadas.
+ * </pre>
+ */
+public class GeometrySimplifier {
+
+	public static final int DOUGLAS_PEUCKER = 0;
+
+	public static final int VISVALINGAM = 1;
+
+	/**
+	 * Tamanho padro do pixel de exibio, em metros (0,28 mm), usado na
+	 * converso de escala para tolerncia.
+	 */
+	public static final double STANDARD_PIXEL_SIZE = 0.00028;
+
+	/** Nmero de novas tentativas, com metade da tolerncia, em cada parte. */
+	private static final int TOPOLOGY_RETRIES = 3;
+
+	private static final Pattern WKT_TAG = Pattern.compile(
+			"(?i)\\b(MULTI)?(POINT|LINESTRING|POLYGON)\\b");
+
+	private final int algorithm;
+
+	private final double tolerance;
+
+	private final boolean preserveTopology;
+
+	private final int decimals;
+
+	/**
+	 * Cria um simplificador Douglas-Peucker com preservao de topologia.
+	 */
+	public GeometrySimplifier(double tolerance) {
+		this(DOUGLAS_PEUCKER, tolerance, true);
+	}
+
+	/**
+	 * @param algorithm
+	 *            {@link #DOUGLAS_PEUCKER} ou {@link #VISVALINGAM}.
+	 * @param tolerance
+	 *            Tolerncia na unidade das coordenadas.
+	 * @param preserveTopology
+	 *            Verdadeiro para evitar anis colapsados e autointersees.
+	 */
+	public GeometrySimplifier(int algorithm, double tolerance,
+			boolean preserveTopology) {
+		if (algorithm != DOUGLAS_PEUCKER && algorithm != VISVALINGAM)
+			throw new IllegalArgumentException("Algoritmo invlido: "
+					+ algorithm);
+		this.algorithm = algorithm;
+		this.tolerance = tolerance;
+		this.preserveTopology = preserveTopology;
+		this.decimals = (tolerance > 0) ? Math.max(0, (int) Math.ceil(-Math
+				.log10(tolerance / 10))) : -1;
+	}
+
+	/**
+	 * Calcula a tolerncia correspondente a um nmero de pixels na escala de
+	 * exibio, para projees em metros.
+	 *
+	 * @param scale
+	 *            Denominador da escala (por exemplo, o valor de getScale).
+	 * @param pixels
+	 *            Tolerncia desejada, em pixels.
+	 */
+	public static double toleranceForScale(double scale, double pixels) {
+		return scale * STANDARD_PIXEL_SIZE * pixels;
+	}
+
+	/**
+	 * Calcula a tolerncia correspondente a um nmero de pixels para um box
+	 * desenhado em uma imagem da largura informada. Vale para qualquer
+	 * projeo.
+	 */
+	public static double toleranceForView(Box box, int width, double pixels) {
+		return box.getWidth() / width * pixels;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return Casas decimais mantidas na sada, ou -1 para preciso completa.
+	 */
+	public int getDecimals() {
+		return decimals;
+	}
+
+	/**
+	 * Simplifica uma geometria. Pontos no so alterados.
+	 */
+	public Geometry simplify(Geometry geometry) {
+		if (geometry == null || tolerance <= 0
+				|| geometry.getType() == Geometry.POINTS)
+			return geometry;
+
+		boolean polygons = geometry.getType() == Geometry.POLYGONS;
+		if (!polygons || !preserveTopology)
+			return new Geometry(geometry.getType(), simplifyComponents(
+					geometry, tolerance));
+
+		double t = tolerance;
+		for (int attempt = 0; attempt <= TOPOLOGY_RETRIES; attempt++) {
+			List<List<double[]>> components = simplifyComponents(geometry, t);
+			if (!ringsIntersect(components))
+				return new Geometry(geometry.getType(), components);
+			t /= 2;
+		}
+		return geometry;
+	}
+
+	private List<List<double[]>> simplifyComponents(Geometry geometry,
+			double t) {
+		boolean polygons = geometry.getType() == Geometry.POLYGONS;
+		List<List<double[]>> components = new ArrayList<List<double[]>>();
+		for (List<double[]> parts : geometry.getComponents()) {
+			List<double[]> simplified = new ArrayList<double[]>(parts.size());
+			for (int p = 0; p < parts.size(); p++) {
+				double[] part = simplifyPart(parts.get(p), polygons, t);
+				if (part == null) {
+					// sem o anel externo o polgono inteiro  descartado
+					if (polygons && p == 0)
+						break;
+					continue;
+				}
+				simplified.add(part);
+			}
+			if (!simplified.isEmpty())
+				components.add(simplified);
+		}
+		return components;
+	}
+
+	/**
+	 * Simplifica uma linha ou um anel.
+	 *
+	 * @return A parte simplificada, ou null caso tenha sido descartada.
+	 */
+	public double[] simplifyPart(double[] coords, boolean ring) {
+		return simplifyPart(coords, ring, tolerance);
+	}
+
+	private double[] simplifyPart(double[] coords, boolean ring,
+			double tolerance) {
+		int minPoints = ring ? 4 : 2;
+		if (coords.length / 2 <= minPoints)
+			return coords;
+
+		double t = tolerance;
+		for (int attempt = 0; attempt <= TOPOLOGY_RETRIES; attempt++) {
+			double[] result = round(simplify(coords, t));
+			boolean collapsed = result.length / 2 < minPoints
+					|| (ring && Geometry.signedArea(result) == 0);
+			if (!preserveTopology)
+				return collapsed ? (ring ? null : result) : result;
+			if (!collapsed && !selfIntersects(result, ring))
+				return result;
+			t /= 2;
+		}
+		return coords;
+	}
+
+	private double[] simplify(double[] coords, double t) {
+		if (algorithm == VISVALINGAM)
+			return Simplifier.visvalingam(coords, t * t);
+		return Simplifier.douglasPeucker(coords, t);
+	}
+
+	/**
+	 * Simplifica as features GeoJSON devolvidas por getFeaturesInBox,
+	 * getFeaturesByIds ou getFeaturesWithRestriction, mantendo os demais
+	 * membros das features.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector simplifyFeatures(Vector geoJSONFeatures) {
+		if (geoJSONFeatures == null)
+			return null;
+		Vector result = new Vector(geoJSONFeatures.size());
+		for (Object item : geoJSONFeatures) {
+			if (item == null || item.toString().trim().length() == 0) {
+				result.add(item);
+				continue;
+			}
+			result.add(simplifyFeature(item.toString()));
+		}
+		return result;
+	}
+
+	/**
+	 * Simplifica uma feature GeoJSON.
+	 */
+	@SuppressWarnings("unchecked")
+	public String simplifyFeature(String json) {
+		HashMap<String, Object> root = JSONParser.parseObject(json);
+		Object geometryObj = root.get("geometry");
+		if (!(geometryObj instanceof HashMap))
+			return json;
+		Geometry geometry = GeoJSONReader
+				.readGeometry((HashMap<String, Object>) geometryObj);
+		if (geometry == null)
+			return json;
+		root.put("geometry", GeoJSONWriter.toMap(simplify(geometry), decimals));
+		return JSONWriter.write(root);
+	}
+
+	/**
+	 * Simplifica as geometrias WKT de um texto, como o devolvido por
+	 * getGeometriesByOidOnWKT. O texto entre as geometrias (separadores e
+	 * identificadores)  mantido.
+	 */
+	public String simplifyWKT(String text) {
+		if (text == null)
+			return null;
+		StringBuilder out = new StringBuilder(text.length() / 2);
+		Matcher matcher = WKT_TAG.matcher(text);
+		int copied = 0;
+		int[] end = new int[1];
+		int from = 0;
+		while (from < text.length() && matcher.find(from)) {
+			int begin = matcher.start();
+			Geometry geometry;
+			try {
+				geometry = WKTReader.read(text, begin, end);
+			} catch (IllegalArgumentException e) {
+				// no  uma geometria WKT; segue a busca aps a palavra
+				from = matcher.end();
+				continue;
+			}
+			out.append(text, copied, begin);
+			if (geometry == null)
+				out.append(text, begin, end[0]);
+			else
+				WKTWriter.write(simplify(geometry), decimals, out);
+			copied = end[0];
+			from = end[0];
+		}
+		out.append(text, copied, text.length());
+		return out.toString();
+	}
+
+	/**
+	 * <pre>
+	 * Simplifica as geometrias devolvidas por getGeometriesByOid e
+	 * getThemeGeometries, na mesma estrutura:
+	 *
+	 * Vector&lt;HashMap&gt; - chaves "type" e "vertexes";
+	 * vertexes - Vector&lt;Vector&lt;HashMap&gt;&gt; com as chaves "x" e "y".
+	 * </pre>
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector simplifyGeometries(Vector geometries) {
+		if (geometries == null)
+			return null;
+		Vector result = new Vector(geometries.size());
+		for (Object item : geometries) {
+			if (!(item instanceof HashMap)) {
+				result.add(item);
+				continue;
+			}
+			HashMap geometry = new HashMap((HashMap) item);
+			Object type = geometry.get("type");
+			int geomRep = (type instanceof Number) ? ((Number) type).intValue()
+					: 0;
+			Vector parts = (Vector) geometry.get("vertexes");
+			if (parts != null
+					&& (geomRep == Geometry.POLYGONS || geomRep == Geometry.LINES)) {
+				// as partes formam uma nica componente, como um polgono com
+				// anel externo e buracos; a validao  a mesma de simplify
+				List<double[]> coords = new ArrayList<double[]>(parts.size());
+				for (Object part : parts)
+					coords.add(toCoords((Vector) part));
+				List<List<double[]>> components = new ArrayList<List<double[]>>(
+						1);
+				components.add(coords);
+				Geometry simplified = simplify(new Geometry(geomRep,
+						components));
+				Vector simplifiedParts = new Vector(parts.size());
+				for (List<double[]> component : simplified.getComponents())
+					for (double[] part : component)
+						simplifiedParts.add(toVertexes(part));
+				geometry.put("vertexes", simplifiedParts);
+			}
+			result.add(geometry);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static double[] toCoords(Vector vertexes) {
+		double[] coords = new double[vertexes.size() * 2];
+		int i = 0;
+		for (Object v : vertexes) {
+			HashMap vertex = (HashMap) v;
+			coords[i++] = Box.toDouble(vertex.get("x"));
+			coords[i++] = Box.toDouble(vertex.get("y"));
+		}
+		return coords;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Vector toVertexes(double[] coords) {
+		Vector vertexes = new Vector(coords.length / 2);
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			HashMap vertex = new LinkedHashMap();
+			vertex.put("x", round(coords[i]));
+			vertex.put("y", round(coords[i + 1]));
+			vertexes.add(vertex);
+		}
+		return vertexes;
+	}
+
+	/**
+	 * Arredonda as coordenadas como GeoJSONWriter e WKTWriter, para que as
+	 * verificaes de topologia vejam as coordenadas de sada.
+	 */
+	private double[] round(double[] coords) {
+		if (decimals < 0)
+			return coords;
+		double[] rounded = new double[coords.length];
+		for (int i = 0; i < coords.length; i++)
+			rounded[i] = round(coords[i]);
+		return rounded;
+	}
+
+	private double round(double value) {
+		if (decimals < 0)
+			return value;
+		return BigDecimal.valueOf(value).setScale(decimals,
+				RoundingMode.HALF_UP).doubleValue();
+	}
+
+	/**
+	 * Verifica se dois segmentos no adjacentes da parte se interceptam. Os
+	 * segmentos so ordenados pelo menor x e comparados apenas com os que se
+	 * sobrepem no eixo x.
+	 */
+	static boolean selfIntersects(double[] coords, boolean ring) {
+		int n = coords.length / 2 - 1;
+		if (n < 3)
+			return false;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		final double[] c = coords;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(Math.min(c[2 * a], c[2 * a + 2]), Math
+						.min(c[2 * b], c[2 * b + 2]));
+			}
+		});
+		for (int a = 0; a < n; a++) {
+			int i = order[a];
+			double maxX = Math.max(c[2 * i], c[2 * i + 2]);
+			for (int b = a + 1; b < n; b++) {
+				int j = order[b];
+				if (Math.min(c[2 * j], c[2 * j + 2]) > maxX)
+					break;
+				int d = Math.abs(i - j);
+				if (d == 1 || (ring && d == n - 1))
+					continue;
+				if (segmentsIntersect(c, i, j))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Verifica se algum anel intercepta outro anel das componentes. Apenas os
+	 * pares de anis cujos boxes se sobrepem so comparados.
+	 */
+	static boolean ringsIntersect(List<List<double[]>> components) {
+		List<double[]> rings = new ArrayList<double[]>();
+		for (List<double[]> parts : components)
+			rings.addAll(parts);
+		List<Box> boxes = new ArrayList<Box>(rings.size());
+		for (double[] ring : rings)
+			boxes.add(Geometry.single(Geometry.LINES, ring).getBox());
+		for (int a = 0; a < rings.size(); a++) {
+			for (int b = a + 1; b < rings.size(); b++) {
+				if (boxes.get(a) == null || boxes.get(b) == null
+						|| !boxes.get(a).intersects(boxes.get(b)))
+					continue;
+				if (ringPairIntersects(rings.get(a), rings.get(b)))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compara os segmentos de dois anis, ordenados pelo menor x, como em
+	 * {@link #selfIntersects}. Os anis so concatenados em um nico array;
+	 * o segmento que liga o fim do primeiro ao incio do segundo  ignorado.
+	 */
+	private static boolean ringPairIntersects(double[] first, double[] second) {
+		final double[] c = new double[first.length + second.length];
+		System.arraycopy(first, 0, c, 0, first.length);
+		System.arraycopy(second, 0, c, first.length, second.length);
+		final int split = first.length / 2 - 1;
+		int n = c.length / 2 - 1;
+		List<Integer> order = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++)
+			if (i != split)
+				order.add(i);
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(Math.min(c[2 * a], c[2 * a + 2]), Math
+						.min(c[2 * b], c[2 * b + 2]));
+			}
+		});
+		for (int a = 0; a < order.size(); a++) {
+			int i = order.get(a);
+			double maxX = Math.max(c[2 * i], c[2 * i + 2]);
+			for (int b = a + 1; b < order.size(); b++) {
+				int j = order.get(b);
+				if (Math.min(c[2 * j], c[2 * j + 2]) > maxX)
+					break;
+				if ((i < split) == (j < split))
+					continue;
+				if (segmentsIntersect(c, i, j))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean segmentsIntersect(double[] c, int i, int j) {
+		double d1 = cross(c, j, j + 1, i), d2 = cross(c, j, j + 1, i + 1);
+		double d3 = cross(c, i, i + 1, j), d4 = cross(c, i, i + 1, j + 1);
+		if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0))
+				&& ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0)))
+			return true;
+		return (d1 == 0 && onSegment(c, j, j + 1, i))
+				|| (d2 == 0 && onSegment(c, j, j + 1, i + 1))
+				|| (d3 == 0 && onSegment(c, i, i + 1, j))
+				|| (d4 == 0 && onSegment(c, i, i + 1, j + 1));
+	}
+
+	private static double cross(double[] c, int a, int b, int p) {
+		return (c[2 * b] - c[2 * a]) * (c[2 * p + 1] - c[2 * a + 1])
+				- (c[2 * b + 1] - c[2 * a + 1]) * (c[2 * p] - c[2 * a]);
+	}
+
+	private static boolean onSegment(double[] c, int a, int b, int p) {
+		return Math.min(c[2 * a], c[2 * b]) <= c[2 * p]
+				&& c[2 * p] <= Math.max(c[2 * a], c[2 * b])
+				&& Math.min(c[2 * a + 1], c[2 * b + 1]) <= c[2 * p + 1]
+				&& c[2 * p + 1] <= Math.max(c[2 * a + 1], c[2 * b + 1]);
+	}
+}
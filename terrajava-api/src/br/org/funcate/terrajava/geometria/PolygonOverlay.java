@@ -0,0 +1,217 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <pre>
+ * Operaes de sobreposio (interseo e diferena) entre geometrias do tipo
+ * POLYGONS, executadas em Java com java.awt.geom.Area, em preciso dupla.
+ *
+ * Os anis resultantes so classificados em externos e buracos pela
+ * profundidade de aninhamento: um anel contido em um nmero par de outros
+ * anis  externo; os demais so buracos do menor anel externo que os contm.
+ * </pre>
+ */
+public class PolygonOverlay {
+
+	private PolygonOverlay() {
+	}
+
+	/**
+	 * @return A interseo das geometrias, ou null quando vazia.
+	 */
+	public static Geometry intersection(Geometry a, Geometry b) {
+		Area area = toArea(a);
+		area.intersect(toArea(b));
+		return fromArea(area);
+	}
+
+	/**
+	 * @return A geometria menos a unio das demais, ou null quando vazia.
+	 */
+	public static Geometry difference(Geometry a, List<Geometry> others) {
+		Area area = toArea(a);
+		for (Geometry other : others) {
+			if (area.isEmpty())
+				break;
+			area.subtract(toArea(other));
+		}
+		return fromArea(area);
+	}
+
+	/**
+	 * Converte uma geometria do tipo POLYGONS em uma Area, pela regra
+	 * par-mpar.
+	 */
+	public static Area toArea(Geometry geometry) {
+		if (geometry.getType() != Geometry.POLYGONS)
+			throw new IllegalArgumentException(
+					"A sobreposio exige geometrias do tipo POLYGONS.");
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		for (List<double[]> rings : geometry.getComponents()) {
+			for (double[] ring : rings) {
+				if (ring.length < 6)
+					continue;
+				path.moveTo(ring[0], ring[1]);
+				for (int i = 2; i + 1 < ring.length; i += 2)
+					path.lineTo(ring[i], ring[i + 1]);
+				path.closePath();
+			}
+		}
+		return new Area(path);
+	}
+
+	/**
+	 * Converte uma Area em uma geometria do tipo POLYGONS, com os anis
+	 * fechados (ltimo vrtice igual ao primeiro).
+	 *
+	 * @return A geometria, ou null quando a rea  vazia.
+	 */
+	public static Geometry fromArea(Area area) {
+		if (area.isEmpty())
+			return null;
+
+		List<double[]> rings = new ArrayList<double[]>();
+		double[] segment = new double[6];
+		double[] ring = new double[16];
+		int size = 0;
+		// curvas no ocorrem em reas criadas a partir de polgonos; a
+		// planificao apenas garante segmentos de reta
+		PathIterator it = area.getPathIterator(null, 0);
+		for (; !it.isDone(); it.next()) {
+			int type = it.currentSegment(segment);
+			if (type == PathIterator.SEG_MOVETO) {
+				size = addRing(rings, ring, size);
+				size = 0;
+			}
+			if (type == PathIterator.SEG_CLOSE) {
+				size = addRing(rings, ring, size);
+				continue;
+			}
+			if (size + 2 > ring.length) {
+				double[] larger = new double[ring.length * 2];
+				System.arraycopy(ring, 0, larger, 0, size);
+				ring = larger;
+			}
+			ring[size++] = segment[0];
+			ring[size++] = segment[1];
+		}
+		addRing(rings, ring, size);
+		return build(rings);
+	}
+
+	private static int addRing(List<double[]> rings, double[] ring, int size) {
+		if (size < 6)
+			return 0;
+		double[] closed;
+		if (ring[0] == ring[size - 2] && ring[1] == ring[size - 1]) {
+			closed = new double[size];
+			System.arraycopy(ring, 0, closed, 0, size);
+		} else {
+			closed = new double[size + 2];
+			System.arraycopy(ring, 0, closed, 0, size);
+			closed[size] = ring[0];
+			closed[size + 1] = ring[1];
+		}
+		if (Geometry.signedArea(closed) != 0)
+			rings.add(closed);
+		return 0;
+	}
+
+	private static Geometry build(List<double[]> rings) {
+		if (rings.isEmpty())
+			return null;
+		final double[] areas = new double[rings.size()];
+		Integer[] order = new Integer[rings.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			areas[i] = Math.abs(Geometry.signedArea(rings.get(i)));
+		}
+		// do maior para o menor: quem contm vem antes de quem  contido
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(areas[b], areas[a]);
+			}
+		});
+
+		List<List<double[]>> components = new ArrayList<List<double[]>>();
+		List<double[]> exteriors = new ArrayList<double[]>();
+		List<double[]> placed = new ArrayList<double[]>();
+		for (int k = 0; k < order.length; k++) {
+			double[] ring = rings.get(order[k]);
+			double[] p = samplePoint(ring);
+			int depth = 0;
+			int container = -1;
+			for (int j = placed.size() - 1; j >= 0; j--) {
+				if (contains(placed.get(j), p[0], p[1])) {
+					depth++;
+					// o menor anel que contm  o ltimo encontrado na ordem
+					if (container < 0)
+						container = j;
+				}
+			}
+			placed.add(ring);
+			if (depth % 2 == 0) {
+				List<double[]> parts = new ArrayList<double[]>();
+				parts.add(orient(ring, true));
+				components.add(parts);
+				exteriors.add(ring);
+			} else {
+				double[] exterior = placed.get(container);
+				components.get(exteriors.indexOf(exterior)).add(
+						orient(ring, false));
+			}
+		}
+		return new Geometry(Geometry.POLYGONS, components);
+	}
+
+	/**
+	 * @return Um ponto interno ao anel, prximo ao meio da primeira aresta,
+	 *         usado para testar o aninhamento sem depender de vrtices
+	 *         compartilhados.
+	 */
+	private static double[] samplePoint(double[] ring) {
+		double mx = (ring[0] + ring[2]) / 2, my = (ring[1] + ring[3]) / 2;
+		double dx = ring[2] - ring[0], dy = ring[3] - ring[1];
+		double length = Math.hypot(dx, dy);
+		double offset = length * 1e-6;
+		// normal  esquerda para anis anti-horrios
+		double sign = (Geometry.signedArea(ring) > 0) ? 1 : -1;
+		return new double[] { mx - dy / length * offset * sign,
+				my + dx / length * offset * sign };
+	}
+
+	private static boolean contains(double[] ring, double x, double y) {
+		boolean inside = false;
+		int n = ring.length / 2;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double yi = ring[2 * i + 1], yj = ring[2 * j + 1];
+			if ((yi > y) != (yj > y)
+					&& x < (ring[2 * j] - ring[2 * i]) * (y - yi) / (yj - yi)
+							+ ring[2 * i])
+				inside = !inside;
+		}
+		return inside;
+	}
+
+	/**
+	 * Orienta o anel: anti-horrio para anis externos e horrio para buracos.
+	 */
+	private static double[] orient(double[] ring, boolean exterior) {
+		if ((Geometry.signedArea(ring) > 0) == exterior)
+			return ring;
+		double[] reversed = new double[ring.length];
+		int n = ring.length / 2;
+		for (int i = 0; i < n; i++) {
+			reversed[2 * i] = ring[2 * (n - 1 - i)];
+			reversed[2 * i + 1] = ring[2 * (n - 1 - i) + 1];
+		}
+		return reversed;
+	}
+}
@@ -0,0 +1,204 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Simplificao de linhas e anis representados por coordenadas intercaladas
+ * (x0, y0, x1, y1, ...). O primeiro e o ltimo vrtice so sempre mantidos,
+ * preservando o fechamento dos anis.
+ */
+public class Simplifier {
+
+	private Simplifier() {
+	}
+
+	/**
+	 * Simplifica uma linha pelo algoritmo de Douglas-Peucker.
+	 *
+	 * @param coords
+	 *            Coordenadas intercaladas.
+	 * @param tolerance
+	 *            Distncia mxima entre a linha original e a simplificada, na
+	 *            unidade das coordenadas.
+	 * @return As coordenadas mantidas, ou o prprio array quando nenhum
+	 *         vrtice  removido.
+	 */
+	public static double[] douglasPeucker(double[] coords, double tolerance) {
+		int n = coords.length / 2;
+		if (n <= 2 || tolerance <= 0)
+			return coords;
+
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[n - 1] = true;
+
+		// pilha explcita de intervalos, evitando recurso em linhas longas
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+		double sqTolerance = tolerance * tolerance;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			double maxDistance = -1;
+			int index = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = sqSegmentDistance(coords, i, first, last);
+				if (d > maxDistance) {
+					maxDistance = d;
+					index = i;
+				}
+			}
+			if (index < 0 || maxDistance <= sqTolerance)
+				continue;
+			keep[index] = true;
+			if (top + 4 > stack.length) {
+				int[] larger = new int[stack.length * 2];
+				System.arraycopy(stack, 0, larger, 0, top);
+				stack = larger;
+			}
+			stack[top++] = first;
+			stack[top++] = index;
+			stack[top++] = index;
+			stack[top++] = last;
+		}
+		return collect(coords, keep);
+	}
+
+	/**
+	 * Simplifica uma linha pelo algoritmo de Visvalingam-Whyatt, removendo
+	 * repetidamente o vrtice que forma o tringulo de menor rea com seus
+	 * vizinhos.
+	 *
+	 * @param coords
+	 *            Coordenadas intercaladas.
+	 * @param minArea
+	 *            rea mnima do tringulo para que um vrtice seja mantido, na
+	 *            unidade das coordenadas ao quadrado.
+	 * @return As coordenadas mantidas, ou o prprio array quando nenhum
+	 *         vrtice  removido.
+	 */
+	public static double[] visvalingam(double[] coords, double minArea) {
+		int n = coords.length / 2;
+		if (n <= 2 || minArea <= 0)
+			return coords;
+
+		int[] prev = new int[n];
+		int[] next = new int[n];
+		double[] areas = new double[n];
+		boolean[] keep = new boolean[n];
+		PriorityQueue<double[]> queue = new PriorityQueue<double[]>(n,
+				new Comparator<double[]>() {
+					public int compare(double[] a, double[] b) {
+						return Double.compare(a[0], b[0]);
+					}
+				});
+		for (int i = 0; i < n; i++) {
+			prev[i] = i - 1;
+			next[i] = i + 1;
+			keep[i] = true;
+			if (i > 0 && i < n - 1) {
+				areas[i] = triangleArea(coords, i - 1, i, i + 1);
+				queue.add(new double[] { areas[i], i });
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			double[] entry = queue.poll();
+			int i = (int) entry[1];
+			// entradas desatualizadas so ignoradas
+			if (!keep[i] || entry[0] != areas[i])
+				continue;
+			if (entry[0] >= minArea)
+				break;
+			keep[i] = false;
+			int p = prev[i], q = next[i];
+			next[p] = q;
+			prev[q] = p;
+			// a rea de um vizinho nunca fica menor que a do vrtice removido,
+			// para que a ordem de remoo seja preservada
+			if (p > 0) {
+				areas[p] = Math.max(entry[0], triangleArea(coords, prev[p], p, q));
+				queue.add(new double[] { areas[p], p });
+			}
+			if (q < n - 1) {
+				areas[q] = Math.max(entry[0], triangleArea(coords, p, q, next[q]));
+				queue.add(new double[] { areas[q], q });
+			}
+		}
+		return collect(coords, keep);
+	}
+
+	static double triangleArea(double[] coords, int a, int b, int c) {
+		double ax = coords[2 * a], ay = coords[2 * a + 1];
+		return Math.abs((coords[2 * b] - ax) * (coords[2 * c + 1] - ay)
+				- (coords[2 * c] - ax) * (coords[2 * b + 1] - ay)) / 2;
+	}
+
+	/**
+	 * Remove vrtices consecutivos repetidos aps o arredondamento para a
+	 * preciso informada (por exemplo, 1 para pixels inteiros).
+	 *
+	 * @return Coordenadas arredondadas sem repeties consecutivas.
+	 */
+	public static double[] snap(double[] coords, double precision) {
+		double[] result = new double[coords.length];
+		int size = 0;
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			double x = Math.round(coords[i] / precision) * precision;
+			double y = Math.round(coords[i + 1] / precision) * precision;
+			if (size > 0 && result[size - 2] == x && result[size - 1] == y)
+				continue;
+			result[size++] = x;
+			result[size++] = y;
+		}
+		if (size == result.length)
+			return result;
+		double[] trimmed = new double[size];
+		System.arraycopy(result, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	/**
+	 * Quadrado da distncia do vrtice i ao segmento entre os vrtices first e
+	 * last.
+	 */
+	static double sqSegmentDistance(double[] coords, int i, int first, int last) {
+		double x = coords[2 * i], y = coords[2 * i + 1];
+		double x1 = coords[2 * first], y1 = coords[2 * first + 1];
+		double dx = coords[2 * last] - x1, dy = coords[2 * last + 1] - y1;
+		if (dx != 0 || dy != 0) {
+			double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
+			if (t > 1) {
+				x1 = coords[2 * last];
+				y1 = coords[2 * last + 1];
+			} else if (t > 0) {
+				x1 += dx * t;
+				y1 += dy * t;
+			}
+		}
+		dx = x - x1;
+		dy = y - y1;
+		return dx * dx + dy * dy;
+	}
+
+	static double[] collect(double[] coords, boolean[] keep) {
+		int count = 0;
+		for (boolean k : keep)
+			if (k)
+				count++;
+		if (count == keep.length)
+			return coords;
+		double[] result = new double[count * 2];
+		int j = 0;
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				result[j++] = coords[2 * i];
+				result[j++] = coords[2 * i + 1];
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,77 @@
+package br.org.funcate.terrajava.geometria;
+
+/**
+ * Transformao entre as coordenadas da vista (box de desenho) e o espao de
+ * pixels de uma imagem de largura e altura fixas, com a origem no canto
+ * superior esquerdo, como nas imagens geradas por drawThemes.
+ */
+public final class ViewTransform {
+
+	private final Box box;
+
+	private final int width;
+
+	private final int height;
+
+	private final double scaleX;
+
+	private final double scaleY;
+
+	public ViewTransform(Box box, int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Dimenses invlidas: " + width
+					+ "x" + height);
+		this.box = box;
+		this.width = width;
+		this.height = height;
+		this.scaleX = width / box.getWidth();
+		this.scaleY = height / box.getHeight();
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Tamanho de um pixel em unidades da vista (mdia entre os eixos).
+	 */
+	public double getPixelSize() {
+		return (1 / scaleX + 1 / scaleY) / 2;
+	}
+
+	public double toPixelX(double x) {
+		return (x - box.getX1()) * scaleX;
+	}
+
+	public double toPixelY(double y) {
+		return (box.getY2() - y) * scaleY;
+	}
+
+	public double toWorldX(double px) {
+		return box.getX1() + px / scaleX;
+	}
+
+	public double toWorldY(double py) {
+		return box.getY2() - py / scaleY;
+	}
+
+	/**
+	 * Converte coordenadas intercaladas (x0, y0, x1, y1, ...) para pixels.
+	 */
+	public double[] toPixels(double[] coords) {
+		double[] result = new double[coords.length];
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			result[i] = toPixelX(coords[i]);
+			result[i + 1] = toPixelY(coords[i + 1]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,205 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Leitura de geometrias no formato WKT (POINT, LINESTRING, POLYGON e as
+ * variantes MULTI), como as devolvidas por getGeometriesByOidOnWKT e
+ * getGeometriesByGeomIdOnWKT. Coordenadas z e m so ignoradas.
+ */
+public class WKTReader {
+
+	private final String text;
+
+	private int pos;
+
+	private WKTReader(String text, int pos) {
+		this.text = text;
+		this.pos = pos;
+	}
+
+	/**
+	 * Interpreta uma geometria WKT.
+	 *
+	 * @return A geometria, ou null para geometrias vazias (EMPTY).
+	 * @throws IllegalArgumentException
+	 *             Caso o texto no seja uma geometria WKT suportada.
+	 */
+	public static Geometry read(String wkt) {
+		WKTReader reader = new WKTReader(wkt, 0);
+		Geometry geometry = reader.readGeometry();
+		reader.skipSpaces();
+		if (reader.pos < wkt.length())
+			throw reader.error("Contedo inesperado aps a geometria");
+		return geometry;
+	}
+
+	/**
+	 * Interpreta a geometria que inicia na posio informada.
+	 *
+	 * @param end
+	 *            Recebe, na posio 0, o ndice seguinte ao fim da geometria.
+	 */
+	static Geometry read(String text, int begin, int[] end) {
+		WKTReader reader = new WKTReader(text, begin);
+		Geometry geometry = reader.readGeometry();
+		end[0] = reader.pos;
+		return geometry;
+	}
+
+	private Geometry readGeometry() {
+		String type = readWord().toUpperCase(Locale.ENGLISH);
+		// dimenses opcionais (POINT Z, LINESTRING ZM, ...)
+		int mark = pos;
+		String dims = readWord().toUpperCase(Locale.ENGLISH);
+		if (!dims.equals("Z") && !dims.equals("M") && !dims.equals("ZM"))
+			pos = mark;
+
+		mark = pos;
+		if (readWord().equalsIgnoreCase("EMPTY"))
+			return null;
+		pos = mark;
+
+		List<List<double[]>> components = new ArrayList<List<double[]>>();
+		if (type.equals("POINT")) {
+			components.add(single(readLine()));
+			return new Geometry(Geometry.POINTS, components);
+		} else if (type.equals("MULTIPOINT")) {
+			expect('(');
+			do {
+				skipSpaces();
+				if (peek() == '(')
+					components.add(single(readLine()));
+				else
+					components.add(single(readPosition()));
+			} while (next(','));
+			expect(')');
+			return new Geometry(Geometry.POINTS, components);
+		} else if (type.equals("LINESTRING")) {
+			components.add(single(readLine()));
+			return new Geometry(Geometry.LINES, components);
+		} else if (type.equals("MULTILINESTRING")) {
+			for (double[] line : readLines())
+				components.add(single(line));
+			return new Geometry(Geometry.LINES, components);
+		} else if (type.equals("POLYGON")) {
+			components.add(readLines());
+			return new Geometry(Geometry.POLYGONS, components);
+		} else if (type.equals("MULTIPOLYGON")) {
+			expect('(');
+			do {
+				components.add(readLines());
+			} while (next(','));
+			expect(')');
+			return new Geometry(Geometry.POLYGONS, components);
+		}
+		throw error("Tipo de geometria WKT no suportado: " + type);
+	}
+
+	private static List<double[]> single(double[] coords) {
+		List<double[]> parts = new ArrayList<double[]>(1);
+		parts.add(coords);
+		return parts;
+	}
+
+	private List<double[]> readLines() {
+		List<double[]> lines = new ArrayList<double[]>();
+		expect('(');
+		do {
+			lines.add(readLine());
+		} while (next(','));
+		expect(')');
+		return lines;
+	}
+
+	private double[] readLine() {
+		expect('(');
+		double[] coords = new double[16];
+		int size = 0;
+		do {
+			double[] p = readPosition();
+			if (size + 2 > coords.length) {
+				double[] larger = new double[coords.length * 2];
+				System.arraycopy(coords, 0, larger, 0, size);
+				coords = larger;
+			}
+			coords[size++] = p[0];
+			coords[size++] = p[1];
+		} while (next(','));
+		expect(')');
+		double[] result = new double[size];
+		System.arraycopy(coords, 0, result, 0, size);
+		return result;
+	}
+
+	private double[] readPosition() {
+		double x = readNumber();
+		double y = readNumber();
+		// descarta z e m
+		while (true) {
+			skipSpaces();
+			char c = peek();
+			if (c == ',' || c == ')' || c == 0)
+				break;
+			readNumber();
+		}
+		return new double[] { x, y };
+	}
+
+	private double readNumber() {
+		skipSpaces();
+		int begin = pos;
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.'
+					|| c == 'e' || c == 'E')
+				pos++;
+			else
+				break;
+		}
+		if (begin == pos)
+			throw error("Nmero esperado");
+		try {
+			return Double.parseDouble(text.substring(begin, pos));
+		} catch (NumberFormatException e) {
+			throw error("Nmero invlido");
+		}
+	}
+
+	private String readWord() {
+		skipSpaces();
+		int begin = pos;
+		while (pos < text.length() && Character.isLetter(text.charAt(pos)))
+			pos++;
+		return text.substring(begin, pos);
+	}
+
+	private boolean next(char c) {
+		skipSpaces();
+		if (peek() != c)
+			return false;
+		pos++;
+		return true;
+	}
+
+	private void expect(char c) {
+		if (!next(c))
+			throw error("'" + c + "' esperado");
+	}
+
+	private char peek() {
+		return (pos < text.length()) ? text.charAt(pos) : 0;
+	}
+
+	private void skipSpaces() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " na posio " + pos
+				+ " do WKT.");
+	}
+}
@@ -0,0 +1,87 @@
+package br.org.funcate.terrajava.geometria;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Escrita de geometrias no formato WKT. Geometrias com um nico componente
+ * so escritas como POINT, LINESTRING ou POLYGON; as demais, como as
+ * variantes MULTI.
+ */
+public class WKTWriter {
+
+	private WKTWriter() {
+	}
+
+	/**
+	 * @param decimals
+	 *            Nmero mximo de casas decimais das coordenadas, ou um valor
+	 *            negativo para manter a preciso completa.
+	 */
+	public static String write(Geometry geometry, int decimals) {
+		StringBuilder out = new StringBuilder(geometry.getNumPoints() * 16 + 32);
+		write(geometry, decimals, out);
+		return out.toString();
+	}
+
+	public static void write(Geometry geometry, int decimals, StringBuilder out) {
+		List<List<double[]>> components = geometry.getComponents();
+		boolean multi = components.size() != 1;
+		switch (geometry.getType()) {
+		case Geometry.POINTS:
+			out.append(multi ? "MULTIPOINT" : "POINT");
+			break;
+		case Geometry.LINES:
+			out.append(multi ? "MULTILINESTRING" : "LINESTRING");
+			break;
+		default:
+			out.append(multi ? "MULTIPOLYGON" : "POLYGON");
+		}
+		if (components.isEmpty()) {
+			out.append(" EMPTY");
+			return;
+		}
+
+		if (multi)
+			out.append('(');
+		for (int c = 0; c < components.size(); c++) {
+			if (c > 0)
+				out.append(',');
+			List<double[]> parts = components.get(c);
+			if (geometry.getType() == Geometry.POLYGONS) {
+				out.append('(');
+				for (int p = 0; p < parts.size(); p++) {
+					if (p > 0)
+						out.append(',');
+					writeLine(parts.get(p), decimals, out);
+				}
+				out.append(')');
+			} else {
+				writeLine(parts.get(0), decimals, out);
+			}
+		}
+		if (multi)
+			out.append(')');
+	}
+
+	private static void writeLine(double[] coords, int decimals,
+			StringBuilder out) {
+		out.append('(');
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			if (i > 0)
+				out.append(',');
+			out.append(format(coords[i], decimals)).append(' ').append(
+					format(coords[i + 1], decimals));
+		}
+		out.append(')');
+	}
+
+	static String format(double value, int decimals) {
+		if (decimals < 0)
+			return String.valueOf(value);
+		BigDecimal d = BigDecimal.valueOf(value).setScale(decimals,
+				RoundingMode.HALF_UP).stripTrailingZeros();
+		return (d.signum() == 0) ? "0" : d.toPlainString();
+	}
+}
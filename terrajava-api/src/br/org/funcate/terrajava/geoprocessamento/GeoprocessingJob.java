@@ -0,0 +1,157 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.HashMap;
+
+/**
+ * Job de geoprocessamento submetido ao {@link GeoprocessingScheduler}: estado,
+ * progresso, tempos e resultado de uma {@link GeoprocessingOperation}.
+ */
+public class GeoprocessingJob implements JobContext {
+
+	private final long id;
+
+	private final String databaseKey;
+
+	private final GeoprocessingOperation operation;
+
+	private final long submittedAt;
+
+	private volatile JobState state = JobState.QUEUED;
+
+	private volatile long startedAt;
+
+	private volatile long finishedAt;
+
+	private volatile int steps = 1;
+
+	private volatile int completedSteps;
+
+	private volatile boolean cancelRequested;
+
+	private volatile int sessionLimit = 1;
+
+	private volatile String errorMessage;
+
+	GeoprocessingJob(long id, String databaseKey,
+			GeoprocessingOperation operation) {
+		this.id = id;
+		this.databaseKey = databaseKey;
+		this.operation = operation;
+		this.submittedAt = System.currentTimeMillis();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getDatabaseKey() {
+		return databaseKey;
+	}
+
+	public String getDescription() {
+		return operation.getDescription();
+	}
+
+	public JobState getState() {
+		return state;
+	}
+
+	/**
+	 * @return Frao dos passos concludos, de 0 a 1.
+	 */
+	public double getProgress() {
+		if (state == JobState.SUCCEEDED)
+			return 1;
+		return Math.min(1, (double) completedSteps / steps);
+	}
+
+	/**
+	 * @return Tempo de execuo em milissegundos (at o momento, para jobs em
+	 *         execuo), ou 0 para jobs que no iniciaram.
+	 */
+	public long getElapsedTime() {
+		if (startedAt == 0)
+			return 0;
+		long end = (finishedAt == 0) ? System.currentTimeMillis() : finishedAt;
+		return end - startedAt;
+	}
+
+	/**
+	 * @return Tempo de espera na fila, em milissegundos.
+	 */
+	public long getQueueTime() {
+		long end = (startedAt == 0) ? System.currentTimeMillis() : startedAt;
+		return end - submittedAt;
+	}
+
+	/**
+	 * @return A mensagem de erro de jobs com falha, ou null.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public boolean isCancelled() {
+		return cancelRequested;
+	}
+
+	public void setSteps(int steps) {
+		this.steps = Math.max(1, steps);
+	}
+
+	public void stepCompleted() {
+		completedSteps++;
+	}
+
+	public int getSessionLimit() {
+		return sessionLimit;
+	}
+
+	/**
+	 * <pre>
+	 * Estado do job em um HashMap, para envio ao cliente:
+	 *
+	 * id, description, state, progress, elapsedTime, queueTime, errorMessage
+	 * </pre>
+	 */
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("id", id);
+		map.put("description", getDescription());
+		map.put("state", state.name());
+		map.put("progress", getProgress());
+		map.put("elapsedTime", getElapsedTime());
+		map.put("queueTime", getQueueTime());
+		map.put("errorMessage", errorMessage);
+		return map;
+	}
+
+	long getFinishedAt() {
+		return finishedAt;
+	}
+
+	GeoprocessingOperation getOperation() {
+		return operation;
+	}
+
+	void setSessionLimit(int sessionLimit) {
+		this.sessionLimit = Math.max(1, sessionLimit);
+	}
+
+	void requestCancel() {
+		cancelRequested = true;
+	}
+
+	void started() {
+		startedAt = System.currentTimeMillis();
+		state = JobState.RUNNING;
+	}
+
+	void finished(JobState finalState, String message) {
+		errorMessage = message;
+		finishedAt = System.currentTimeMillis();
+		if (startedAt == 0)
+			startedAt = finishedAt;
+		state = finalState;
+	}
+}
@@ -0,0 +1,316 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Operao de geoprocessamento executada por um {@link GeoprocessingJob} em
+ * uma sesso dedicada. A operao prepara a sesso (vista corrente, tema
+ * corrente e tema de referncia) e executa os passos, informando o progresso
+ * ao final de cada um. O cancelamento  verificado entre os passos; um passo
+ * nativo em andamento no  interrompido.
+ *
+ * Os mtodos estticos criam as operaes correspondentes aos mtodos
+ * intersection, intersectionRaster, difference, differenceM, mask,
+ * maskRaster, aggregation e add da classe TerraJava.
+ * </pre>
+ */
+public abstract class GeoprocessingOperation {
+
+	private final String description;
+
+	private final String view;
+
+	private final String user;
+
+	private final String theme;
+
+	private final String referenceTheme;
+
+	/**
+	 * @param description
+	 *            Descrio da operao, exibida no estado do job.
+	 * @param view
+	 *            Vista usada como corrente na sesso dedicada.
+	 * @param user
+	 *            Usurio dono da vista.
+	 * @param theme
+	 *            Tema corrente.
+	 * @param referenceTheme
+	 *            Tema de referncia, ou null quando no usado.
+	 */
+	protected GeoprocessingOperation(String description, String view,
+			String user, String theme, String referenceTheme) {
+		this.description = description;
+		this.view = view;
+		this.user = user;
+		this.theme = theme;
+		this.referenceTheme = referenceTheme;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getView() {
+		return view;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getTheme() {
+		return theme;
+	}
+
+	/**
+	 * @return O tema de referncia, ou null.
+	 */
+	public String getReferenceTheme() {
+		return referenceTheme;
+	}
+
+	/**
+	 * @return Nmero de sesses que a operao usa ao mesmo tempo, incluindo
+	 *         a sesso dedicada. O agendador limita esse nmero pelo limite
+	 *         de sesses do banco e informa o valor concedido em
+	 *         {@link JobContext#getSessionLimit()}.
+	 */
+	protected int getSessionCount() {
+		return 1;
+	}
+
+	/**
+	 * @return Nmero de passos executados por {@link #execute}, alm da
+	 *         preparao da sesso.
+	 */
+	protected int getStepCount() {
+		return 1;
+	}
+
+	/**
+	 * Executa a operao na sesso j preparada.
+	 *
+	 * @return O resultado do mtodo nativo.
+	 */
+	protected abstract boolean execute(TerraJava terraJava, String sessionId,
+			JobContext context) throws IllegalAccessException,
+			InstantiationException;
+
+	final boolean run(TerraJava terraJava, String sessionId, JobContext context)
+			throws IllegalAccessException, InstantiationException {
+		int steps = getStepCount() + 1;
+		context.setSteps(steps);
+		if (!terraJava.setCurrentView(view, user, sessionId))
+			throw new IllegalStateException("Falhou ao configurar a vista "
+					+ view + " como corrente.");
+		if (!terraJava.setTheme(theme, 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ theme + " como corrente.");
+		if (referenceTheme != null
+				&& !terraJava.setTheme(referenceTheme, 1, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ referenceTheme + " como referncia.");
+		context.stepCompleted();
+		if (context.isCancelled())
+			return false;
+		return execute(terraJava, sessionId, context);
+	}
+
+	/**
+	 * Interseo entre o tema corrente e o tema de referncia.
+	 */
+	public static GeoprocessingOperation intersection(String view,
+			String user, String theme, String referenceTheme,
+			final String layerName, final boolean useThemeOverlayAttr) {
+		return new GeoprocessingOperation("intersection " + layerName, view,
+				user, theme, referenceTheme) {
+			protected boolean execute(TerraJava terraJava, String sessionId,
+					JobContext context) throws IllegalAccessException,
+					InstantiationException {
+				boolean result = terraJava.intersection(layerName,
+						useThemeOverlayAttr, sessionId);
+				context.stepCompleted();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Interseo entre o tema corrente (raster) e o tema de referncia.
+	 */
+	public static GeoprocessingOperation intersectionRaster(String view,
+			String user, String theme, String referenceTheme,
+			final String layerName, final double backValue) {
+		return new GeoprocessingOperation("intersectionRaster " + layerName,
+				view, user, theme, referenceTheme) {
+			protected boolean execute(TerraJava terraJava, String sessionId,
+					JobContext context) throws IllegalAccessException,
+					InstantiationException {
+				boolean result = terraJava.intersectionRaster(layerName,
+						backValue, sessionId);
+				context.stepCompleted();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Diferena entre o tema corrente e o tema de referncia.
+	 */
+	public static GeoprocessingOperation difference(String view, String user,
+			String theme, String referenceTheme, final String layerName) {
+		return new GeoprocessingOperation("difference " + layerName, view,
+				user, theme, referenceTheme) {
+			protected boolean execute(TerraJava terraJava, String sessionId,
+					JobContext context) throws IllegalAccessException,
+					InstantiationException {
+				boolean result = terraJava.difference(layerName, sessionId);
+				context.stepCompleted();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Interseo entre o tema corrente e as geometrias do tema de referncia
+	 * localizadas nos pontos informados.
+	 *
+	 * @param points
+	 *            Pontos (x, y, tolerncia) passados a locateObject, com
+	 *            storeGeom verdadeiro, para preencher a lista de geometrias em
+	 *            memria da sesso dedicada.
+	 */
+	public static GeoprocessingOperation mask(String view, String user,
+			String theme, String referenceTheme, final String layerName,
+			List<double[]> points) {
+		return new LocatedGeometriesOperation("mask " + layerName, view, user,
+				theme, referenceTheme, points) {
+			protected boolean apply(TerraJava terraJava, String sessionId)
+					throws IllegalAccessException, InstantiationException {
+				return terraJava.mask(layerName, sessionId);
+			}
+		};
+	}
+
+	/**
+	 * Interseo entre o tema corrente (raster) e as geometrias do tema de
+	 * referncia localizadas nos pontos informados.
+	 *
+	 * @see #mask(String, String, String, String, String, List)
+	 */
+	public static GeoprocessingOperation maskRaster(String view, String user,
+			String theme, String referenceTheme, final String layerName,
+			final double backValue, List<double[]> points) {
+		return new LocatedGeometriesOperation("maskRaster " + layerName, view,
+				user, theme, referenceTheme, points) {
+			protected boolean apply(TerraJava terraJava, String sessionId)
+					throws IllegalAccessException, InstantiationException {
+				return terraJava.maskRaster(layerName, backValue, sessionId);
+			}
+		};
+	}
+
+	/**
+	 * Diferena entre o tema corrente e as geometrias do tema de referncia
+	 * localizadas nos pontos informados.
+	 *
+	 * @see #mask(String, String, String, String, String, List)
+	 */
+	public static GeoprocessingOperation differenceM(String view, String user,
+			String theme, String referenceTheme, final String layerName,
+			List<double[]> points) {
+		return new LocatedGeometriesOperation("differenceM " + layerName, view,
+				user, theme, referenceTheme, points) {
+			protected boolean apply(TerraJava terraJava, String sessionId)
+					throws IllegalAccessException, InstantiationException {
+				return terraJava.differenceM(layerName, sessionId);
+			}
+		};
+	}
+
+	/**
+	 * Agregao do tema corrente pelos atributos informados.
+	 */
+	@SuppressWarnings("unchecked")
+	public static GeoprocessingOperation aggregation(String view, String user,
+			String theme, final String layerName, List<String> agregAttrs) {
+		final Vector attrs = new Vector(agregAttrs);
+		return new GeoprocessingOperation("aggregation " + layerName, view,
+				user, theme, null) {
+			protected boolean execute(TerraJava terraJava, String sessionId,
+					JobContext context) throws IllegalAccessException,
+					InstantiationException {
+				boolean result = terraJava.aggregation(layerName, attrs,
+						sessionId);
+				context.stepCompleted();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Unio dos temas informados em um novo layer.
+	 */
+	@SuppressWarnings("unchecked")
+	public static GeoprocessingOperation add(String view, String user,
+			String theme, final String layerName, List<Integer> themeIds) {
+		final Vector ids = new Vector(themeIds);
+		return new GeoprocessingOperation("add " + layerName, view, user,
+				theme, null) {
+			protected boolean execute(TerraJava terraJava, String sessionId,
+					JobContext context) throws IllegalAccessException,
+					InstantiationException {
+				boolean result = terraJava.add(layerName, ids, sessionId);
+				context.stepCompleted();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Operao que preenche a lista de geometrias em memria com locateObject
+	 * antes de executar o mtodo nativo.
+	 */
+	private abstract static class LocatedGeometriesOperation extends
+			GeoprocessingOperation {
+
+		private final List<double[]> points;
+
+		LocatedGeometriesOperation(String description, String view,
+				String user, String theme, String referenceTheme,
+				List<double[]> points) {
+			super(description, view, user, theme, referenceTheme);
+			this.points = new ArrayList<double[]>(points);
+		}
+
+		protected int getStepCount() {
+			return points.size() + 1;
+		}
+
+		protected abstract boolean apply(TerraJava terraJava, String sessionId)
+				throws IllegalAccessException, InstantiationException;
+
+		protected boolean execute(TerraJava terraJava, String sessionId,
+				JobContext context) throws IllegalAccessException,
+				InstantiationException {
+			terraJava.clearGeomList(sessionId);
+			for (double[] p : points) {
+				if (context.isCancelled())
+					return false;
+				terraJava.locateObject(p[0], p[1], p[2], 1, true, sessionId);
+				context.stepCompleted();
+			}
+			if (context.isCancelled())
+				return false;
+			boolean result = apply(terraJava, sessionId);
+			context.stepCompleted();
+			return result;
+		}
+	}
+}
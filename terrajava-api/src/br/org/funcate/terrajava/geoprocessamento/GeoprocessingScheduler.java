@@ -0,0 +1,289 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Executa operaes de geoprocessamento de forma assncrona, fora das threads
+ * de requisio. Cada job  executado em uma sesso dedicada, conectada ao
+ * banco no incio do job e destruda ao final, de modo que o estado das
+ * sesses interativas (vista, temas, lista de geometrias) no  alterado.
+ *
+ * Para que as sesses de desenho no fiquem sem recursos, o nmero de
+ * sesses simultneas dos jobs  limitado por banco, o nmero de jobs
+ * simultneos  limitado no total e as threads de execuo tm prioridade
+ * mnima. Um job ocupa a sua sesso dedicada e as sesses auxiliares que a
+ * operao pedir ({@link GeoprocessingOperation#getSessionCount()}), at o
+ * limite do banco. Os jobs de um mesmo banco so executados na ordem de
+ * submisso.
+ *
+ * Jobs concludos permanecem consultveis at serem removidos com
+ * removeFinished.
+ * </pre>
+ */
+public class GeoprocessingScheduler {
+
+	/** Limite padro de sesses simultneas por banco. */
+	public static final int DEFAULT_MAX_PER_DATABASE = 1;
+
+	private static final String SESSION_PREFIX = "geoprocessamento-";
+
+	private final TerraJava terraJava;
+
+	private final int maxPerDatabase;
+
+	private final ExecutorService executor;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final Map<Long, GeoprocessingJob> jobs = new LinkedHashMap<Long, GeoprocessingJob>();
+
+	private final Map<String, LinkedList<Pending>> queues = new HashMap<String, LinkedList<Pending>>();
+
+	private final Map<String, Integer> running = new HashMap<String, Integer>();
+
+	private boolean shutdown;
+
+	public GeoprocessingScheduler(TerraJava terraJava) {
+		this(terraJava, DEFAULT_MAX_PER_DATABASE, Math.max(1, Runtime
+				.getRuntime().availableProcessors() / 4));
+	}
+
+	/**
+	 * @param maxPerDatabase
+	 *            Nmero mximo de sesses simultneas dos jobs em cada banco,
+	 *            incluindo as sesses auxiliares.
+	 * @param maxThreads
+	 *            Nmero mximo de jobs simultneos no total.
+	 */
+	public GeoprocessingScheduler(TerraJava terraJava, int maxPerDatabase,
+			int maxThreads) {
+		if (maxPerDatabase <= 0 || maxThreads <= 0)
+			throw new IllegalArgumentException("Limites de execuo invlidos.");
+		this.terraJava = terraJava;
+		this.maxPerDatabase = maxPerDatabase;
+		this.executor = Executors.newFixedThreadPool(maxThreads,
+				new ThreadFactory() {
+					private int count;
+
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, SESSION_PREFIX + (++count));
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Coloca uma operao na fila do banco.
+	 *
+	 * @param connection
+	 *            Parmetros de conexo da sesso dedicada.
+	 * @return O job criado.
+	 * @throws IllegalStateException
+	 *             Caso o agendador tenha sido encerrado.
+	 */
+	public GeoprocessingJob submit(ConnectionParameters connection,
+			GeoprocessingOperation operation) {
+		String key = connection.getDatabaseKey();
+		GeoprocessingJob job = new GeoprocessingJob(sequence.incrementAndGet(),
+				key, operation);
+		synchronized (this) {
+			if (shutdown)
+				throw new IllegalStateException("O agendador foi encerrado.");
+			jobs.put(job.getId(), job);
+			LinkedList<Pending> queue = queues.get(key);
+			if (queue == null) {
+				queue = new LinkedList<Pending>();
+				queues.put(key, queue);
+			}
+			queue.add(new Pending(job, connection));
+			dispatch(key);
+		}
+		return job;
+	}
+
+	/**
+	 * @return O job, ou null caso no exista.
+	 */
+	public synchronized GeoprocessingJob getJob(long id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * @return Os jobs conhecidos, na ordem de submisso.
+	 */
+	public synchronized List<GeoprocessingJob> getJobs() {
+		return new ArrayList<GeoprocessingJob>(jobs.values());
+	}
+
+	/**
+	 * Cancela um job. Jobs na fila so removidos imediatamente; jobs em
+	 * execuo so encerrados ao final do passo corrente, pois um mtodo
+	 * nativo em andamento no pode ser interrompido. Layers eventualmente
+	 * criados pelo passo corrente no so removidos.
+	 *
+	 * @return Falso caso o job no exista ou j tenha terminado.
+	 */
+	public boolean cancel(long id) {
+		synchronized (this) {
+			GeoprocessingJob job = jobs.get(id);
+			if (job == null || job.getState().isFinished())
+				return false;
+			job.requestCancel();
+			LinkedList<Pending> queue = queues.get(job.getDatabaseKey());
+			if (queue != null) {
+				Iterator<Pending> it = queue.iterator();
+				while (it.hasNext()) {
+					if (it.next().job == job) {
+						it.remove();
+						job.finished(JobState.CANCELLED, null);
+						break;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Remove os jobs concludos h mais tempo que o informado.
+	 *
+	 * @param maxAge
+	 *            Tempo mximo, em milissegundos, desde o trmino do job.
+	 */
+	public synchronized void removeFinished(long maxAge) {
+		long now = System.currentTimeMillis();
+		Iterator<GeoprocessingJob> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			GeoprocessingJob job = it.next();
+			if (job.getState().isFinished()
+					&& now - job.getFinishedAt() >= maxAge)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Encerra o agendador. Jobs na fila so cancelados; jobs em execuo
+	 * terminam o passo corrente.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			for (LinkedList<Pending> queue : queues.values()) {
+				for (Pending pending : queue) {
+					pending.job.requestCancel();
+					pending.job.finished(JobState.CANCELLED, null);
+				}
+				queue.clear();
+			}
+			for (GeoprocessingJob job : jobs.values())
+				job.requestCancel();
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Inicia os jobs da fila do banco enquanto houver sesses livres. Um job
+	 * recusado pelo executor (agendador encerrado)  cancelado e as sesses
+	 * so devolvidas.
+	 */
+	private void dispatch(String key) {
+		LinkedList<Pending> queue = queues.get(key);
+		Integer count = running.get(key);
+		int n = (count == null) ? 0 : count;
+		while (queue != null && !queue.isEmpty()) {
+			final Pending pending = queue.getFirst();
+			int sessions = Math.max(1, Math.min(maxPerDatabase, pending.job
+					.getOperation().getSessionCount()));
+			if (n + sessions > maxPerDatabase)
+				break;
+			queue.removeFirst();
+			pending.job.setSessionLimit(sessions);
+			n += sessions;
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						execute(pending);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				n -= sessions;
+				pending.job.requestCancel();
+				pending.job.finished(JobState.CANCELLED, null);
+			}
+		}
+		running.put(key, n);
+	}
+
+	private void execute(Pending pending) {
+		GeoprocessingJob job = pending.job;
+		String sessionId = SESSION_PREFIX + job.getId();
+		try {
+			if (job.isCancelled()) {
+				job.finished(JobState.CANCELLED, null);
+				return;
+			}
+			job.started();
+			pending.connection.connect(terraJava, sessionId);
+			boolean result = job.getOperation().run(terraJava, sessionId, job);
+			if (job.isCancelled())
+				job.finished(JobState.CANCELLED, null);
+			else if (result)
+				job.finished(JobState.SUCCEEDED, null);
+			else
+				job.finished(JobState.FAILED, errorMessage(sessionId));
+		} catch (Throwable e) {
+			String message = errorMessage(sessionId);
+			job.finished(job.isCancelled() ? JobState.CANCELLED
+					: JobState.FAILED, (message == null || message.length() == 0)
+					? String.valueOf(e) : message);
+		} finally {
+			try {
+				terraJava.destroySession(sessionId);
+			} catch (Throwable e) {
+				// a sesso pode no ter sido criada
+			}
+			synchronized (this) {
+				String key = job.getDatabaseKey();
+				running.put(key, running.get(key) - job.getSessionLimit());
+				dispatch(key);
+			}
+		}
+	}
+
+	private String errorMessage(String sessionId) {
+		try {
+			return terraJava.errorMessage(sessionId);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	private static final class Pending {
+
+		final GeoprocessingJob job;
+
+		final ConnectionParameters connection;
+
+		Pending(GeoprocessingJob job, ConnectionParameters connection) {
+			this.job = job;
+			this.connection = connection;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+/**
+ * Acesso da {@link GeoprocessingOperation} ao job em execuo: registro do
+ * progresso por passos e verificao de cancelamento.
+ */
+public interface JobContext {
+
+	/**
+	 * Define o nmero total de passos da operao.
+	 */
+	void setSteps(int steps);
+
+	/**
+	 * Registra a concluso de um passo.
+	 */
+	void stepCompleted();
+
+	/**
+	 * @return Verdadeiro quando o cancelamento do job foi solicitado.
+	 */
+	boolean isCancelled();
+
+	/**
+	 * @return Nmero de sesses que a operao pode usar ao mesmo tempo,
+	 *         incluindo a sesso dedicada; no mnimo 1.
+	 */
+	int getSessionLimit();
+}
@@ -0,0 +1,26 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+/**
+ * Estados de um {@link GeoprocessingJob}.
+ */
+public enum JobState {
+
+	/** Aguardando na fila do banco. */
+	QUEUED,
+
+	/** Em execuo em uma sesso dedicada. */
+	RUNNING,
+
+	/** Concludo; a operao devolveu verdadeiro. */
+	SUCCEEDED,
+
+	/** Concludo com erro ou a operao devolveu falso. */
+	FAILED,
+
+	/** Cancelado antes ou durante a execuo. */
+	CANCELLED;
+
+	public boolean isFinished() {
+		return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+	}
+}
@@ -0,0 +1,302 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.GeometryMeasures;
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+import br.org.funcate.terrajava.util.JSONParser;
+import br.org.funcate.terrajava.util.JSONWriter;
+
+/**
+ * <pre>
+ * Calcula as colunas de rea, permetro e centride do layer de um tema em
+ * uma nica leitura, em paralelo.
+ *
+ * Os mtodos nativos createOrReplaceAreaField, createOrReplacePerimeterField
+ * e createOrReplaceCentroidField percorrem o layer inteiro cada um. Esta
+ * operao l os identificadores dos objetos (getFeaturesIds), divide-os em
+ * lotes e processa os lotes em sesses auxiliares: cada lote  lido uma vez
+ * (getFeaturesByIds), as trs medidas so calculadas juntas com
+ * {@link GeometryMeasures} (somando as geometrias de um mesmo objeto) e os
+ * valores so gravados com uma chamada de updateFeatures por lote. Cada
+ * feature lida  gravada de volta com a sua geometria e todos os seus
+ * atributos, alterando apenas as colunas das medidas, para que updateFeatures
+ * no apague a geometria nem os demais atributos.
+ *
+ * As colunas ausentes so criadas como TeREAL antes do clculo. Um nome de
+ * coluna nulo dispensa a medida correspondente.
+ * </pre>
+ */
+public class MeasureFieldsOperation extends GeoprocessingOperation {
+
+	/** Nmero padro de objetos por lote. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String REAL_COLUMN_TYPE = "TeREAL";
+
+	private final ConnectionParameters connection;
+
+	private final int layerId;
+
+	private final String areaField;
+
+	private final String perimeterField;
+
+	private final String centroidXField;
+
+	private final String centroidYField;
+
+	private final int parallelism;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * @param connection
+	 *            Parmetros usados para abrir as sesses auxiliares.
+	 * @param view
+	 *            Vista que contm o tema.
+	 * @param user
+	 *            Usurio dono da vista.
+	 * @param theme
+	 *            Tema sobre o layer.
+	 * @param layerId
+	 *            Identificador do layer do tema.
+	 * @param areaField
+	 *            Coluna da rea, ou null.
+	 * @param perimeterField
+	 *            Coluna do permetro (comprimento, para linhas), ou null.
+	 * @param centroidXField
+	 *            Coluna do x do centride, ou null.
+	 * @param centroidYField
+	 *            Coluna do y do centride, ou null.
+	 * @param parallelism
+	 *            Nmero de lotes processados simultaneamente (e de sesses
+	 *            auxiliares), limitado pelo agendador ao nmero de sesses
+	 *            livres do banco; sem sesses auxiliares, os lotes so
+	 *            processados em sequncia na sesso do job.
+	 */
+	public MeasureFieldsOperation(ConnectionParameters connection,
+			String view, String user, String theme, int layerId,
+			String areaField, String perimeterField, String centroidXField,
+			String centroidYField, int parallelism) {
+		super("measure fields " + theme, view, user, theme, null);
+		if (parallelism < 1)
+			throw new IllegalArgumentException(
+					"O paralelismo deve ser positivo.");
+		if ((centroidXField == null) != (centroidYField == null))
+			throw new IllegalArgumentException(
+					"As colunas x e y do centride devem ser informadas juntas.");
+		this.connection = connection;
+		this.layerId = layerId;
+		this.areaField = areaField;
+		this.perimeterField = perimeterField;
+		this.centroidXField = centroidXField;
+		this.centroidYField = centroidYField;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Define o nmero de objetos por lote (leitura e gravao).
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException(
+					"O tamanho do lote deve ser positivo.");
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	protected int getSessionCount() {
+		return parallelism + 1;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected boolean execute(final TerraJava terraJava, String sessionId,
+			JobContext context) throws IllegalAccessException,
+			InstantiationException {
+		createColumns(terraJava, sessionId);
+
+		Vector ids = terraJava.getFeaturesIds(sessionId);
+		List<Vector<String>> batches = new ArrayList<Vector<String>>();
+		Vector<String> batch = null;
+		for (Object id : ids) {
+			if (batch == null || batch.size() >= batchSize) {
+				batch = new Vector<String>(batchSize);
+				batches.add(batch);
+			}
+			batch.add(String.valueOf(id));
+		}
+		context.setSteps(batches.size() + 1);
+		if (batches.isEmpty())
+			return true;
+
+		int workers = Math.min(Math.min(parallelism, batches.size()), context
+				.getSessionLimit() - 1);
+		if (workers < 1) {
+			boolean result = true;
+			for (Vector<String> objectIds : batches) {
+				if (context.isCancelled())
+					return false;
+				result &= processBatch(terraJava, sessionId, objectIds);
+				context.stepCompleted();
+			}
+			return result;
+		}
+
+		final SessionPool sessions = new SessionPool(terraJava, connection,
+				sessionId, workers, getView(), getUser());
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (final Vector<String> objectIds : batches) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						String workerSession = sessions.take();
+						try {
+							return processBatch(terraJava, workerSession,
+									objectIds);
+						} finally {
+							sessions.release(workerSession);
+						}
+					}
+				}));
+			}
+
+			boolean result = true;
+			for (Future<Boolean> future : futures) {
+				if (context.isCancelled()) {
+					for (Future<Boolean> pending : futures)
+						pending.cancel(false);
+					return false;
+				}
+				result &= SessionPool.get(future);
+				context.stepCompleted();
+			}
+			return result;
+		} finally {
+			// as sesses s so destrudas aps o trmino dos lotes em
+			// andamento
+			SessionPool.shutdownAndAwait(executor);
+			sessions.close();
+		}
+	}
+
+	private void createColumns(TerraJava terraJava, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Vector<String> attributes = terraJava.getAttributesList(sessionId);
+		if (attributes == null)
+			attributes = new Vector<String>();
+		for (String field : new String[] { areaField, perimeterField,
+				centroidXField, centroidYField }) {
+			if (field == null || findName(attributes, field) != null)
+				continue;
+			if (!terraJava.createAttributeColumn(layerId, field,
+					REAL_COLUMN_TYPE, 0, sessionId))
+				throw new IllegalStateException("Falhou ao criar a coluna "
+						+ field + ".");
+		}
+	}
+
+	/**
+	 * L, mede e grava um lote de objetos.
+	 *
+	 * @return O resultado de updateFeatures.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean processBatch(TerraJava terraJava, String sessionId,
+			Vector<String> objectIds) throws IllegalAccessException,
+			InstantiationException {
+		if (!terraJava.setTheme(getTheme(), 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ getTheme() + " como corrente.");
+
+		// um objeto pode ter vrias geometrias (vrias features): as medidas
+		// so somadas por objeto antes da gravao
+		List<HashMap<String, Object>> features = new ArrayList<HashMap<String, Object>>();
+		List<String> featureIds = new ArrayList<String>();
+		Map<String, GeometryMeasures> measures = new LinkedHashMap<String, GeometryMeasures>();
+		for (Object item : terraJava.getFeaturesByIds(objectIds, sessionId)) {
+			if (item == null || item.toString().trim().length() == 0)
+				continue;
+			HashMap<String, Object> root = JSONParser.parseObject(item
+					.toString());
+			HashMap<String, Object> properties = (HashMap<String, Object>) root
+					.get("properties");
+			Object id = root.get("id");
+			if (id == null && properties != null)
+				id = properties.get(GeoJSONReader.OBJECT_ID_PROPERTY);
+			String objectId = String.valueOf(id);
+			GeometryMeasures m = measures.get(objectId);
+			if (m == null) {
+				m = new GeometryMeasures();
+				measures.put(objectId, m);
+			}
+			HashMap<String, Object> geometryMap = (HashMap<String, Object>) root
+					.get("geometry");
+			if (geometryMap != null) {
+				Geometry geometry = GeoJSONReader.readGeometry(geometryMap);
+				m.add(geometry);
+			}
+			features.add(root);
+			featureIds.add(objectId);
+		}
+		if (features.isEmpty())
+			return true;
+
+		// as medidas pertencem ao objeto: todas as geometrias do objeto
+		// recebem os totais, e cada feature  gravada como foi lida
+		Vector<String> updated = new Vector<String>(features.size());
+		for (int i = 0; i < features.size(); i++) {
+			HashMap<String, Object> root = features.get(i);
+			GeometryMeasures m = measures.get(featureIds.get(i));
+			HashMap<String, Object> properties = (HashMap<String, Object>) root
+					.get("properties");
+			if (properties == null) {
+				properties = new HashMap<String, Object>();
+				root.put("properties", properties);
+			}
+			put(properties, areaField, m.getArea());
+			put(properties, perimeterField, m.getPerimeter());
+			if (m.hasCentroid()) {
+				put(properties, centroidXField, m.getCentroidX());
+				put(properties, centroidYField, m.getCentroidY());
+			}
+			updated.add(JSONWriter.write(root));
+		}
+		return terraJava.updateFeatures(updated, sessionId);
+	}
+
+	/**
+	 * Grava o valor na propriedade da coluna, mantendo o nome usado pela
+	 * feature lida (com ou sem o nome da tabela).
+	 */
+	private static void put(HashMap<String, Object> properties, String field,
+			double value) {
+		if (field == null)
+			return;
+		String name = findName(properties.keySet(), field);
+		properties.put((name == null) ? field : name, value);
+	}
+
+	private static String findName(Iterable<String> names, String field) {
+		for (String name : names) {
+			String column = name.substring(name.lastIndexOf('.') + 1);
+			if (column.equalsIgnoreCase(field))
+				return name;
+		}
+		return null;
+	}
+}
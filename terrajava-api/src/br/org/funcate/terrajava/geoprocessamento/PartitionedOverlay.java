@@ -0,0 +1,474 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.GeoJSONWriter;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.PolygonOverlay;
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+import br.org.funcate.terrajava.util.JSONWriter;
+
+/**
+ * <pre>
+ * Interseo e diferena entre dois temas de polgonos, particionadas
+ * espacialmente e executadas em paralelo.
+ *
+ * A extenso de processamento  dividida em uma grade de clulas. Cada clula
+ *  processada por uma sesso prpria (aberta com os mesmos parmetros de
+ * conexo), que l as features do tema corrente no box da clula
+ * (getFeaturesInBox) e mantm somente as features "donas" da clula, isto ,
+ * aquelas cujo canto inferior esquerdo do box est na clula. Assim cada
+ * feature  processada uma nica vez, com a geometria completa, e o resultado
+ * no contm duplicatas nem cortes nas bordas das clulas. As features do
+ * tema de referncia so lidas no box que envolve as features donas e cada
+ * par  descartado pelo teste de boxes antes do clculo geomtrico, feito com
+ * {@link PolygonOverlay}.
+ *
+ * Os resultados das clulas so gravados pela sesso do job, em lotes, no
+ * tema de sada (addFeatures), que deve existir antes da execuo (createLayer
+ * e createTheme). Os atributos do resultado so os do tema corrente; na
+ * interseo com useThemeOverlayAttr so acrescentados os do tema de
+ * referncia, com o prefixo "ref_" quando o nome j existir.
+ *
+ * Diferente dos mtodos nativos intersection e difference, que processam o
+ * tema inteiro em uma nica chamada, a operao particionada usa vrios
+ * ncleos e vrias conexes e permite acompanhar o progresso e cancelar entre
+ * clulas. Somente geometrias do tipo POLYGONS participam; as demais so
+ * ignoradas e contadas em {@link #getSkippedCount()}.
+ * </pre>
+ */
+public class PartitionedOverlay extends GeoprocessingOperation {
+
+	/** Nmero de features enviadas a cada chamada de addFeatures. */
+	public static final int WRITE_BATCH = 500;
+
+	private final boolean difference;
+
+	private final ConnectionParameters connection;
+
+	private final String outputTheme;
+
+	private final boolean useThemeOverlayAttr;
+
+	private final Box extent;
+
+	private final int columns;
+
+	private final int rows;
+
+	private final int parallelism;
+
+	private final AtomicLong featuresRead = new AtomicLong();
+
+	private final AtomicLong candidatePairs = new AtomicLong();
+
+	private final AtomicLong prunedPairs = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	/**
+	 * @param difference
+	 *            Verdadeiro para a diferena, falso para a interseo.
+	 * @param connection
+	 *            Parmetros usados para abrir as sesses das clulas.
+	 * @param view
+	 *            Vista que contm os temas.
+	 * @param user
+	 *            Usurio dono da vista.
+	 * @param theme
+	 *            Tema corrente (operando da esquerda).
+	 * @param referenceTheme
+	 *            Tema de referncia.
+	 * @param outputTheme
+	 *            Tema, j existente, sobre o layer que recebe o resultado.
+	 * @param useThemeOverlayAttr
+	 *            Na interseo, acrescenta os atributos do tema de referncia.
+	 * @param extent
+	 *            rea de processamento, normalmente a unio dos boxes dos dois
+	 *            temas (getThemesBox).
+	 * @param columns
+	 *            Nmero de colunas da grade.
+	 * @param rows
+	 *            Nmero de linhas da grade.
+	 * @param parallelism
+	 *            Nmero de clulas processadas simultaneamente (e de sesses
+	 *            auxiliares abertas), limitado pelo agendador ao nmero de
+	 *            sesses livres do banco; sem sesses auxiliares, as clulas
+	 *            so processadas em sequncia na sesso do job.
+	 */
+	public PartitionedOverlay(boolean difference,
+			ConnectionParameters connection, String view, String user,
+			String theme, String referenceTheme, String outputTheme,
+			boolean useThemeOverlayAttr, Box extent, int columns, int rows,
+			int parallelism) {
+		super((difference ? "partitioned difference " : "partitioned intersection ")
+				+ outputTheme, view, user, theme, referenceTheme);
+		if (columns < 1 || rows < 1 || parallelism < 1)
+			throw new IllegalArgumentException(
+					"Grade e paralelismo devem ser positivos.");
+		this.difference = difference;
+		this.connection = connection;
+		this.outputTheme = outputTheme;
+		this.useThemeOverlayAttr = useThemeOverlayAttr && !difference;
+		this.extent = extent;
+		this.columns = columns;
+		this.rows = rows;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Interseo particionada com uma grade quadrada de cerca de quatro clulas
+	 * por sesso, para equilibrar a carga entre clulas densas e vazias.
+	 */
+	public static PartitionedOverlay intersection(
+			ConnectionParameters connection, String view, String user,
+			String theme, String referenceTheme, String outputTheme,
+			boolean useThemeOverlayAttr, Box extent, int parallelism) {
+		int side = gridSide(parallelism);
+		return new PartitionedOverlay(false, connection, view, user, theme,
+				referenceTheme, outputTheme, useThemeOverlayAttr, extent, side,
+				side, parallelism);
+	}
+
+	/**
+	 * Diferena particionada com uma grade quadrada de cerca de quatro clulas
+	 * por sesso.
+	 */
+	public static PartitionedOverlay difference(
+			ConnectionParameters connection, String view, String user,
+			String theme, String referenceTheme, String outputTheme,
+			Box extent, int parallelism) {
+		int side = gridSide(parallelism);
+		return new PartitionedOverlay(true, connection, view, user, theme,
+				referenceTheme, outputTheme, false, extent, side, side,
+				parallelism);
+	}
+
+	private static int gridSide(int parallelism) {
+		return Math.max(1, (int) Math.ceil(Math.sqrt(4.0 * parallelism)));
+	}
+
+	@Override
+	protected int getSessionCount() {
+		return parallelism + 1;
+	}
+
+	@Override
+	protected int getStepCount() {
+		return columns * rows;
+	}
+
+	public long getFeaturesRead() {
+		return featuresRead.get();
+	}
+
+	/**
+	 * @return Pares de features cujos boxes foram comparados.
+	 */
+	public long getCandidatePairs() {
+		return candidatePairs.get();
+	}
+
+	/**
+	 * @return Pares descartados pelo teste de boxes, sem clculo geomtrico.
+	 */
+	public long getPrunedPairs() {
+		return prunedPairs.get();
+	}
+
+	/**
+	 * @return Features ignoradas por no serem do tipo POLYGONS.
+	 */
+	public long getSkippedCount() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return Features gravadas no tema de sada.
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	@Override
+	protected boolean execute(final TerraJava terraJava, String sessionId,
+			JobContext context) throws IllegalAccessException,
+			InstantiationException {
+		int workers = Math.min(parallelism, context.getSessionLimit() - 1);
+		if (workers < 1)
+			return executeSequential(terraJava, sessionId, context);
+		setOutputTheme(terraJava, sessionId);
+
+		final SessionPool sessions = new SessionPool(terraJava, connection,
+				sessionId, workers, getView(), getUser());
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			CompletionService<List<String>> completion = new ExecutorCompletionService<List<String>>(
+					executor);
+			List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					final int c = column, r = row;
+					futures.add(completion.submit(new Callable<List<String>>() {
+						public List<String> call() throws Exception {
+							String workerSession = sessions.take();
+							try {
+								return processCell(terraJava, workerSession, c, r);
+							} finally {
+								sessions.release(workerSession);
+							}
+						}
+					}));
+				}
+			}
+
+			Vector<String> batch = new Vector<String>();
+			for (int i = 0; i < futures.size(); i++) {
+				if (context.isCancelled()) {
+					for (Future<List<String>> future : futures)
+						future.cancel(false);
+					return false;
+				}
+				List<String> cell = SessionPool.get(completion.take());
+				for (String feature : cell) {
+					batch.add(feature);
+					if (batch.size() >= WRITE_BATCH)
+						flush(terraJava, batch, sessionId);
+				}
+				context.stepCompleted();
+			}
+			flush(terraJava, batch, sessionId);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Sobreposio particionada interrompida.", e);
+		} finally {
+			// as sesses s so destrudas aps o trmino das clulas em
+			// andamento
+			SessionPool.shutdownAndAwait(executor);
+			sessions.close();
+		}
+	}
+
+	/**
+	 * Processa as clulas em sequncia na sesso do job, quando no h
+	 * sesses auxiliares disponveis.
+	 */
+	private boolean executeSequential(TerraJava terraJava, String sessionId,
+			JobContext context) throws IllegalAccessException,
+			InstantiationException {
+		Vector<String> batch = new Vector<String>();
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				if (context.isCancelled())
+					return false;
+				List<String> cell = processCell(terraJava, sessionId, column,
+						row);
+				if (!cell.isEmpty()) {
+					setOutputTheme(terraJava, sessionId);
+					for (String feature : cell) {
+						batch.add(feature);
+						if (batch.size() >= WRITE_BATCH)
+							flush(terraJava, batch, sessionId);
+					}
+					flush(terraJava, batch, sessionId);
+				}
+				context.stepCompleted();
+			}
+		}
+		return true;
+	}
+
+	private void setOutputTheme(TerraJava terraJava, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		if (!terraJava.setTheme(outputTheme, 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ outputTheme + " como corrente.");
+	}
+
+	private void flush(TerraJava terraJava, Vector<String> batch,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		if (batch.isEmpty())
+			return;
+		terraJava.addFeatures(batch, sessionId);
+		written.addAndGet(batch.size());
+		batch.clear();
+	}
+
+	/**
+	 * Processa uma clula da grade na sesso informada.
+	 *
+	 * @return As features resultantes, no formato GeoJSON.
+	 */
+	List<String> processCell(TerraJava terraJava, String sessionId,
+			int column, int row) throws IllegalAccessException,
+			InstantiationException {
+		List<String> result = new ArrayList<String>();
+		Box cell = getCellBox(column, row);
+
+		if (!terraJava.setTheme(getTheme(), 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ getTheme() + " como corrente.");
+		List<Feature> owned = new ArrayList<Feature>();
+		Box ownedBox = null;
+		for (Feature feature : GeoJSONReader.readFeatures(terraJava
+				.getFeaturesInBox(cell.getX1(), cell.getY1(), cell.getX2(),
+						cell.getY2(), sessionId))) {
+			featuresRead.incrementAndGet();
+			Geometry geometry = feature.getGeometry();
+			if (geometry == null || geometry.isEmpty())
+				continue;
+			Box box = geometry.getBox();
+			if (!isOwner(column, row, box))
+				continue;
+			if (geometry.getType() != Geometry.POLYGONS) {
+				skipped.incrementAndGet();
+				continue;
+			}
+			owned.add(feature);
+			ownedBox = (ownedBox == null) ? box : ownedBox.union(box);
+		}
+		if (owned.isEmpty())
+			return result;
+
+		if (!terraJava.setTheme(getReferenceTheme(), 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ getReferenceTheme() + " como corrente.");
+		List<Feature> references = new ArrayList<Feature>();
+		List<Box> referenceBoxes = new ArrayList<Box>();
+		for (Feature feature : GeoJSONReader.readFeatures(terraJava
+				.getFeaturesInBox(ownedBox.getX1(), ownedBox.getY1(),
+						ownedBox.getX2(), ownedBox.getY2(), sessionId))) {
+			featuresRead.incrementAndGet();
+			Geometry geometry = feature.getGeometry();
+			if (geometry == null || geometry.isEmpty()
+					|| geometry.getType() != Geometry.POLYGONS)
+				continue;
+			references.add(feature);
+			referenceBoxes.add(geometry.getBox());
+		}
+
+		for (Feature feature : owned) {
+			Box box = feature.getGeometry().getBox();
+			List<Feature> candidates = new ArrayList<Feature>();
+			for (int i = 0; i < references.size(); i++) {
+				candidatePairs.incrementAndGet();
+				if (box.intersects(referenceBoxes.get(i)))
+					candidates.add(references.get(i));
+				else
+					prunedPairs.incrementAndGet();
+			}
+			if (difference)
+				difference(feature, candidates, result);
+			else
+				intersection(feature, candidates, result);
+		}
+		return result;
+	}
+
+	private void difference(Feature feature, List<Feature> candidates,
+			List<String> result) {
+		List<Geometry> others = new ArrayList<Geometry>(candidates.size());
+		for (Feature candidate : candidates)
+			others.add(candidate.getGeometry());
+		Geometry geometry = PolygonOverlay.difference(feature.getGeometry(),
+				others);
+		if (geometry != null)
+			result.add(toGeoJSON(feature.getObjectId(),
+					properties(feature, null), geometry));
+	}
+
+	private void intersection(Feature feature, List<Feature> candidates,
+			List<String> result) {
+		for (Feature candidate : candidates) {
+			Geometry geometry = PolygonOverlay.intersection(
+					feature.getGeometry(), candidate.getGeometry());
+			if (geometry != null)
+				result.add(toGeoJSON(feature.getObjectId() + "_"
+						+ candidate.getObjectId(), properties(feature,
+						useThemeOverlayAttr ? candidate : null), geometry));
+		}
+	}
+
+	private static HashMap<String, Object> properties(Feature feature,
+			Feature reference) {
+		HashMap<String, Object> properties = new HashMap<String, Object>();
+		if (feature.getProperties() != null)
+			properties.putAll(feature.getProperties());
+		if (reference != null && reference.getProperties() != null) {
+			for (Map.Entry<String, Object> entry : reference.getProperties()
+					.entrySet()) {
+				String name = entry.getKey();
+				if (properties.containsKey(name))
+					name = "ref_" + name;
+				properties.put(name, entry.getValue());
+			}
+		}
+		properties.remove(GeoJSONReader.OBJECT_ID_PROPERTY);
+		return properties;
+	}
+
+	private static String toGeoJSON(String objectId,
+			HashMap<String, Object> properties, Geometry geometry) {
+		properties.put(GeoJSONReader.OBJECT_ID_PROPERTY, objectId);
+		HashMap<String, Object> root = new HashMap<String, Object>();
+		root.put("type", "Feature");
+		root.put("id", objectId);
+		root.put("properties", properties);
+		root.put("geometry", GeoJSONWriter.toMap(geometry, -1));
+		return JSONWriter.write(root);
+	}
+
+	/**
+	 * @return O box da clula; as clulas da ltima coluna e da ltima linha
+	 *         terminam exatamente na borda da extenso.
+	 */
+	Box getCellBox(int column, int row) {
+		double w = extent.getWidth() / columns;
+		double h = extent.getHeight() / rows;
+		double x2 = (column == columns - 1) ? extent.getX2() : extent.getX1()
+				+ (column + 1) * w;
+		double y2 = (row == rows - 1) ? extent.getY2() : extent.getY1()
+				+ (row + 1) * h;
+		return new Box(extent.getX1() + column * w, extent.getY1() + row * h,
+				x2, y2);
+	}
+
+	/**
+	 * @return Verdadeiro quando o canto inferior esquerdo do box, limitado 
+	 *         extenso, pertence  clula.
+	 */
+	boolean isOwner(int column, int row, Box box) {
+		return cellIndex(box.getX1(), extent.getX1(), extent.getWidth(),
+				columns) == column
+				&& cellIndex(box.getY1(), extent.getY1(), extent.getHeight(),
+						rows) == row;
+	}
+
+	private static int cellIndex(double value, double origin, double size,
+			int count) {
+		if (size <= 0)
+			return 0;
+		int index = (int) Math.floor((value - origin) / size * count);
+		return Math.max(0, Math.min(count - 1, index));
+	}
+}
@@ -0,0 +1,128 @@
+package br.org.funcate.terrajava.geoprocessamento;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * Conjunto de sesses auxiliares de um job, conectadas ao mesmo banco e com a
+ * mesma vista corrente, usadas pelas tarefas executadas em paralelo. Cada
+ * tarefa obtm uma sesso com {@link #take()} e a devolve com
+ * {@link #release(String)}; nenhuma sesso  usada por duas tarefas ao mesmo
+ * tempo.
+ */
+class SessionPool {
+
+	private static final String SESSION_SUFFIX = "-particao-";
+
+	private final TerraJava terraJava;
+
+	private final BlockingQueue<String> available;
+
+	private final List<String> opened = new ArrayList<String>();
+
+	/**
+	 * Abre as sesses. Em caso de falha, as sesses j abertas so destrudas.
+	 *
+	 * @param sessionId
+	 *            Sesso do job, usada como prefixo das sesses auxiliares.
+	 */
+	SessionPool(TerraJava terraJava, ConnectionParameters connection,
+			String sessionId, int size, String view, String user)
+			throws IllegalAccessException, InstantiationException {
+		this.terraJava = terraJava;
+		this.available = new ArrayBlockingQueue<String>(size);
+		boolean ok = false;
+		try {
+			for (int i = 0; i < size; i++) {
+				String workerSession = sessionId + SESSION_SUFFIX + i;
+				opened.add(workerSession);
+				connection.connect(terraJava, workerSession);
+				if (!terraJava.setCurrentView(view, user, workerSession))
+					throw new IllegalStateException(
+							"Falhou ao configurar a vista " + view
+									+ " como corrente.");
+				available.add(workerSession);
+			}
+			ok = true;
+		} finally {
+			if (!ok)
+				close();
+		}
+	}
+
+	String take() throws InterruptedException {
+		return available.take();
+	}
+
+	void release(String workerSession) {
+		available.add(workerSession);
+	}
+
+	/**
+	 * Destri todas as sesses abertas.
+	 */
+	void close() {
+		for (String workerSession : opened) {
+			try {
+				terraJava.destroySession(workerSession);
+			} catch (Throwable e) {
+				// a sesso pode no ter sido criada
+			}
+		}
+		opened.clear();
+	}
+
+	/**
+	 * Encerra o executor das tarefas e aguarda o trmino das tarefas em
+	 * andamento. Deve ser chamado antes de {@link #close()}: uma tarefa pode
+	 * estar em um mtodo nativo, que no  interrompido, e a sesso no pode
+	 * ser destruda durante a chamada. Tarefas ainda no iniciadas so
+	 * descartadas.
+	 */
+	static void shutdownAndAwait(ExecutorService executor) {
+		executor.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Aguarda o resultado de uma tarefa, repassando as excees dos mtodos
+	 * nativos com o tipo original.
+	 */
+	static <T> T get(Future<T> future) throws IllegalAccessException,
+			InstantiationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Execuo interrompida.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IllegalAccessException)
+				throw (IllegalAccessException) cause;
+			if (cause instanceof InstantiationException)
+				throw (InstantiationException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
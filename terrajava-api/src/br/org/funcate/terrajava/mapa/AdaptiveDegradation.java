@@ -0,0 +1,265 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.HashMap;
+
+/**
+ * <pre>
+ * Controle de degradao do desenho conforme a carga, medida pelo tamanho da
+ * fila de desenho e pela latncia recente (mdia mvel exponencial dos tempos
+ * de desenho).
+ *
+ * Quando a fila ou a latncia passam dos limites superiores, o nvel sobe um
+ * passo ({@link RenderLevel}); quando ambas ficam abaixo dos limites
+ * inferiores durante o tempo de estabilizao, o nvel desce um passo, at
+ * voltar  qualidade normal. Entre duas subidas de nvel  respeitado um
+ * intervalo mnimo, para evitar oscilaes.
+ *
+ * A latncia mdia decai com o tempo sem desenhos (cai  metade a cada tempo
+ * de estabilizao), e o perodo sem avaliaes conta como carga baixa quando
+ * a ltima fila observada estava abaixo do limite inferior. Assim o nvel
+ * volta ao normal mesmo sem trfego: {@link #getLevel()} reavalia o nvel
+ * antes de devolv-lo, descendo um passo por tempo de estabilizao
+ * decorrido.
+ *
+ * Cada nvel define a qualidade JPEG mxima (drawThemes e getCanvasImage), o
+ * uso do controle de escala (useScaleControl e
+ * setAutomaticScaleControlEnable) e o valor de setGeneralizedPixels. Quando a
+ * carga volta ao normal, as sesses degradadas voltam  configurao
+ * informada com {@link RenderQueue#setSessionSettings(String, boolean, int)}
+ * ou, na falta dela, aos valores do nvel FULL.
+ *
+ * A {@link RenderQueue} alimenta o controle e aplica o nvel aos pedidos
+ * (setDegradation); chamadas diretas a drawThemes podem usar
+ * {@link #getQuality(int, int)} e {@link #useScaleControl(boolean)} e
+ * informar os tempos com {@link #record(int, long)}.
+ * </pre>
+ */
+public class AdaptiveDegradation {
+
+	/** Peso da amostra mais recente na mdia mvel da latncia. */
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	private final int[] quality = { 100, 60, 35 };
+
+	private final boolean[] scaleControl = { false, true, true };
+
+	private final int[] generalizedPixels = { 1, 4, 16 };
+
+	private int lowDepth = 2;
+
+	private int highDepth = 8;
+
+	private long lowLatency = 300;
+
+	private long highLatency = 1500;
+
+	private long coolDown = 10000;
+
+	private long holdTime = 1000;
+
+	private volatile RenderLevel level = RenderLevel.FULL;
+
+	private double latency = -1;
+
+	private long lastSampleAt;
+
+	private long lastChangeAt;
+
+	private long reliefSince;
+
+	private int lastDepth;
+
+	private long lastEvaluatedAt;
+
+	private long changes;
+
+	/**
+	 * Limites do tamanho da fila: a partir de <code>high</code> pedidos o
+	 * nvel sobe; com at <code>low</code> pedidos a carga  considerada
+	 * baixa.
+	 */
+	public synchronized void setDepthThresholds(int low, int high) {
+		if (low < 0 || high <= low)
+			throw new IllegalArgumentException("Limites de fila invlidos: "
+					+ low + ", " + high);
+		this.lowDepth = low;
+		this.highDepth = high;
+	}
+
+	/**
+	 * Limites da latncia mdia de desenho, em milissegundos.
+	 */
+	public synchronized void setLatencyThresholds(long low, long high) {
+		if (low < 0 || high <= low)
+			throw new IllegalArgumentException("Limites de latncia invlidos: "
+					+ low + ", " + high);
+		this.lowLatency = low;
+		this.highLatency = high;
+	}
+
+	/**
+	 * Tempo, em milissegundos, que a carga deve permanecer baixa antes que o
+	 * nvel desa um passo.
+	 */
+	public synchronized void setCoolDown(long coolDown) {
+		if (coolDown <= 0)
+			throw new IllegalArgumentException(
+					"Tempo de estabilizao invlido: " + coolDown);
+		this.coolDown = coolDown;
+	}
+
+	/**
+	 * Intervalo mnimo, em milissegundos, entre duas subidas de nvel.
+	 */
+	public synchronized void setHoldTime(long holdTime) {
+		this.holdTime = holdTime;
+	}
+
+	/**
+	 * Define os parmetros de desenho de um nvel.
+	 *
+	 * @param jpegQuality
+	 *            Qualidade JPEG mxima (0 a 100).
+	 * @param useScaleControl
+	 *            Uso do controle de escala.
+	 * @param pixels
+	 *            Valor passado a setGeneralizedPixels.
+	 */
+	public synchronized void setLevelSettings(RenderLevel level,
+			int jpegQuality, boolean useScaleControl, int pixels) {
+		quality[level.ordinal()] = jpegQuality;
+		scaleControl[level.ordinal()] = useScaleControl;
+		generalizedPixels[level.ordinal()] = pixels;
+	}
+
+	/**
+	 * @return O nvel corrente, reavaliado com a ltima fila observada e o
+	 *         tempo decorrido desde a ltima avaliao.
+	 */
+	public synchronized RenderLevel getLevel() {
+		evaluate(lastDepth, System.currentTimeMillis());
+		return level;
+	}
+
+	/**
+	 * Informa um desenho concludo e reavalia o nvel.
+	 *
+	 * @param queueDepth
+	 *            Pedidos aguardando na fila no momento.
+	 * @param renderTime
+	 *            Tempo do desenho, em milissegundos.
+	 */
+	public synchronized void record(int queueDepth, long renderTime) {
+		long now = System.currentTimeMillis();
+		latency = (latency < 0) ? renderTime : LATENCY_WEIGHT * renderTime
+				+ (1 - LATENCY_WEIGHT) * latencyAt(now);
+		lastSampleAt = now;
+		evaluate(queueDepth, now);
+	}
+
+	/**
+	 * Reavalia o nvel sem um novo desenho, por exemplo a cada submisso 
+	 * fila.
+	 */
+	public synchronized void update(int queueDepth) {
+		evaluate(queueDepth, System.currentTimeMillis());
+	}
+
+	private void evaluate(int queueDepth, long now) {
+		double current = latencyAt(now);
+		boolean pressure = queueDepth >= highDepth || current >= highLatency;
+		boolean relief = queueDepth <= lowDepth && current <= lowLatency;
+		if (pressure) {
+			reliefSince = 0;
+			if (level != RenderLevel.MINIMAL && now - lastChangeAt >= holdTime)
+				change(level.higher(), now);
+		} else if (relief) {
+			if (reliefSince == 0)
+				reliefSince = reliefStart(now);
+			// um passo por tempo de estabilizao decorrido
+			while (level != RenderLevel.FULL && now - reliefSince >= coolDown) {
+				reliefSince += coolDown;
+				change(level.lower(), reliefSince);
+			}
+		} else {
+			reliefSince = 0;
+		}
+		lastDepth = queueDepth;
+		lastEvaluatedAt = now;
+	}
+
+	/**
+	 * @return A latncia mdia no instante informado: metade a cada tempo de
+	 *         estabilizao sem desenhos.
+	 */
+	private double latencyAt(long now) {
+		if (latency <= 0 || now <= lastSampleAt)
+			return latency;
+		return latency * Math.pow(0.5, (double) (now - lastSampleAt) / coolDown);
+	}
+
+	/**
+	 * @return O instante em que a carga ficou baixa: a ltima avaliao, se a
+	 *         fila j estava abaixo do limite inferior, ou o momento posterior
+	 *         em que a latncia, decaindo, passou abaixo do seu limite.
+	 */
+	private long reliefStart(long now) {
+		if (lastEvaluatedAt == 0 || lastDepth > lowDepth)
+			return now;
+		long start = lastEvaluatedAt;
+		if (latency > lowLatency) {
+			if (lowLatency <= 0)
+				return now;
+			start = Math.max(start, lastSampleAt
+					+ (long) Math.ceil(coolDown * Math.log(latency / lowLatency)
+							/ Math.log(2)));
+		}
+		return Math.min(start, now);
+	}
+
+	private void change(RenderLevel newLevel, long now) {
+		level = newLevel;
+		lastChangeAt = now;
+		changes++;
+	}
+
+	/**
+	 * @return A qualidade a usar no nvel corrente: para JPEG (imageType 1), o
+	 *         menor valor entre o pedido e o limite do nvel.
+	 */
+	public synchronized int getQuality(int imageType, int requestedQuality) {
+		if (imageType != 1)
+			return requestedQuality;
+		return Math.min(requestedQuality, quality[level.ordinal()]);
+	}
+
+	/**
+	 * @return O valor de useScaleControl a usar no nvel corrente.
+	 */
+	public synchronized boolean useScaleControl(boolean requested) {
+		return requested || scaleControl[level.ordinal()];
+	}
+
+	synchronized boolean isScaleControlEnabled(RenderLevel level) {
+		return scaleControl[level.ordinal()];
+	}
+
+	synchronized int getGeneralizedPixels(RenderLevel level) {
+		return generalizedPixels[level.ordinal()];
+	}
+
+	/**
+	 * <pre>
+	 * Estado do controle em um HashMap:
+	 *
+	 * level, latency (mdia, em milissegundos), changes
+	 * </pre>
+	 */
+	public synchronized HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("level", level.name());
+		map.put("latency", Math.max(0, latencyAt(System.currentTimeMillis())));
+		map.put("changes", changes);
+		return map;
+	}
+}
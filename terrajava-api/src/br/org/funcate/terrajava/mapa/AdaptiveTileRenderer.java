@@ -0,0 +1,223 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <pre>
+ * Desenho de tiles PNG pela {@link RenderQueue}, com o {@link TileCache} e a
+ * degradao adaptativa da fila.
+ *
+ * Tiles no cache so devolvidos diretamente. Para os demais, um pedido de
+ * desenho  submetido (um por tile; pedidos repetidos do mesmo tile aproveitam
+ * o pedido pendente). Com a carga normal, o tile aguarda o desenho. Com a
+ * carga alta ({@link RenderLevel#isDegraded()}), caso um tile de nvel
+ * anterior que cubra o tile esteja no cache, a parte correspondente 
+ * ampliada e devolvida imediatamente, enquanto o desenho continua na fila; o
+ * tile desenhado  servido nas requisies seguintes.
+ *
+ * Somente os tiles desenhados com a qualidade normal (nvel FULL) so
+ * armazenados no cache; os tiles desenhados com degradao so devolvidos
+ * apenas ao pedido que os gerou, e o tile  desenhado novamente quando a
+ * carga diminui.
+ * </pre>
+ */
+public class AdaptiveTileRenderer {
+
+	/** Nmero padro de nveis acima pesquisados em busca de um tile. */
+	public static final int DEFAULT_MAX_PARENT_LEVELS = 3;
+
+	/** Nmero de pedidos pendentes a partir do qual os concludos so recolhidos. */
+	private static final int PENDING_PURGE_SIZE = 1024;
+
+	private final RenderQueue queue;
+
+	private final TileCache cache;
+
+	private final TileGrid grid;
+
+	private final HashMap<String, RenderTicket> pending = new HashMap<String, RenderTicket>();
+
+	private int maxParentLevels = DEFAULT_MAX_PARENT_LEVELS;
+
+	private long fallbacks;
+
+	public AdaptiveTileRenderer(RenderQueue queue, TileCache cache,
+			TileGrid grid) {
+		this.queue = queue;
+		this.cache = cache;
+		this.grid = grid;
+	}
+
+	/**
+	 * Nmero mximo de nveis acima pesquisados em busca de um tile a ampliar.
+	 */
+	public void setMaxParentLevels(int maxParentLevels) {
+		this.maxParentLevels = maxParentLevels;
+	}
+
+	/**
+	 * @param sessionId
+	 *            Sesso usada no desenho, com a vista corrente j configurada.
+	 * @param themeId
+	 *            Identificador do tema, usado na chave do cache.
+	 * @param theme
+	 *            Nome do tema desenhado.
+	 * @return O tile em PNG, ampliado do nvel anterior enquanto o desenho
+	 *         est pendente, ou null caso o desenho tenha sido descartado ou
+	 *         tenha falhado.
+	 */
+	public byte[] getTile(String sessionId, int themeId, String theme,
+			int zoom, int column, int row) throws IOException,
+			InterruptedException {
+		byte[] tile = cache.get(themeId, TileCache.FORMAT_PNG, zoom, column,
+				row);
+		if (tile != null)
+			return tile;
+
+		RenderTicket ticket = submit(sessionId, themeId, theme, zoom, column,
+				row);
+		if (ticket.getState() == RenderState.DONE)
+			return store(ticket, themeId, zoom, column, row);
+
+		AdaptiveDegradation degradation = queue.getDegradation();
+		if (degradation != null && degradation.getLevel().isDegraded()) {
+			byte[] upscaled = upscaleFromParent(themeId, zoom, column, row);
+			if (upscaled != null) {
+				synchronized (this) {
+					fallbacks++;
+				}
+				return upscaled;
+			}
+		}
+		ticket.await(Math.max(0, ticket.getDeadline()
+				- System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		return store(ticket, themeId, zoom, column, row);
+	}
+
+	/**
+	 * @return Nmero de tiles servidos por ampliao do nvel anterior.
+	 */
+	public synchronized long getFallbacks() {
+		return fallbacks;
+	}
+
+	/**
+	 * Submete o desenho do tile, ou devolve o pedido pendente do mesmo tile.
+	 */
+	private synchronized RenderTicket submit(String sessionId, int themeId,
+			String theme, int zoom, int column, int row) {
+		String key = themeId + "/" + zoom + "/" + column + "/" + row;
+		RenderTicket ticket = pending.get(key);
+		if (ticket != null
+				&& (!ticket.getState().isFinished() || ticket.getState() == RenderState.DONE))
+			return ticket;
+
+		RenderRequest request = new RenderRequest("tile:" + key, sessionId,
+				grid.getTileBox(zoom, column, row), grid.getTileSize(), grid
+						.getTileSize());
+		request.setTheme(theme);
+		request.setKeepAspectRatio(false);
+		ticket = queue.submit(request);
+		pending.put(key, ticket);
+		if (pending.size() > PENDING_PURGE_SIZE)
+			purge();
+		return ticket;
+	}
+
+	/**
+	 * Recolhe os pedidos concludos que no foram solicitados novamente,
+	 * armazenando no cache os tiles desenhados.
+	 */
+	private void purge() {
+		for (Iterator<Map.Entry<String, RenderTicket>> it = pending.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<String, RenderTicket> entry = it.next();
+			RenderTicket ticket = entry.getValue();
+			if (!ticket.getState().isFinished())
+				continue;
+			it.remove();
+			if (ticket.getImage() != null && !ticket.getLevel().isDegraded()) {
+				String[] parts = entry.getKey().split("/");
+				cache.put(Integer.parseInt(parts[0]), TileCache.FORMAT_PNG,
+						Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+						Integer.parseInt(parts[3]), ticket.getImage());
+			}
+		}
+	}
+
+	/**
+	 * Armazena no cache o tile de um pedido concludo, caso tenha sido
+	 * desenhado sem degradao.
+	 */
+	private byte[] store(RenderTicket ticket, int themeId, int zoom,
+			int column, int row) {
+		if (!ticket.getState().isFinished())
+			return null;
+		synchronized (this) {
+			String key = themeId + "/" + zoom + "/" + column + "/" + row;
+			if (pending.get(key) == ticket)
+				pending.remove(key);
+		}
+		byte[] image = ticket.getImage();
+		if (image != null && !ticket.getLevel().isDegraded())
+			cache.put(themeId, TileCache.FORMAT_PNG, zoom, column, row, image);
+		return image;
+	}
+
+	/**
+	 * Procura nos nveis anteriores um tile no cache que cubra o tile pedido e
+	 * amplia a parte correspondente.
+	 *
+	 * @return O tile ampliado em PNG, ou null caso nenhum tile anterior esteja
+	 *         no cache.
+	 */
+	private byte[] upscaleFromParent(int themeId, int zoom, int column, int row)
+			throws IOException {
+		for (int levels = 1; levels <= maxParentLevels && levels <= zoom; levels++) {
+			byte[] parent = cache.get(themeId, TileCache.FORMAT_PNG, zoom
+					- levels, column >> levels, row >> levels);
+			if (parent == null)
+				continue;
+			BufferedImage source = ImageIO.read(new ByteArrayInputStream(parent));
+			if (source == null)
+				continue;
+
+			// parte do tile anterior que corresponde ao tile pedido
+			int n = 1 << levels;
+			int size = grid.getTileSize();
+			double w = (double) source.getWidth() / n;
+			double h = (double) source.getHeight() / n;
+			int sx = (int) Math.round((column & (n - 1)) * w);
+			int sy = (int) Math.round((row & (n - 1)) * h);
+			int sw = Math.max(1, (int) Math.round(w));
+			int sh = Math.max(1, (int) Math.round(h));
+
+			BufferedImage image = new BufferedImage(size, size,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+						RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.drawImage(source, 0, 0, size, size, sx, sy, sx + sw, sy + sh,
+						null);
+			} finally {
+				g.dispose();
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+		return null;
+	}
+}
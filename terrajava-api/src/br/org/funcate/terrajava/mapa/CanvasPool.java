@@ -0,0 +1,302 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * reas de desenho nomeadas por sesso, reaproveitadas de um pool separado
+ * por tamanho.
+ *
+ * Cada sesso nativa possui uma nica rea de desenho, redimensionada e
+ * limpa por setWorld. Uma pgina com mapa principal, mapa de viso geral e
+ * legenda, em tamanhos diferentes, alternaria setWorld entre os tamanhos e
+ * realocaria a rea a cada troca. Aqui, cada rea nomeada ({@link NamedCanvas})
+ * usa uma sesso nativa auxiliar, conectada ao mesmo banco, cuja rea de
+ * desenho mantm o tamanho da rea nomeada; as chamadas de desenho devem usar
+ * a sesso da rea escolhida ({@link NamedCanvas#getSessionId()}).
+ *
+ * As sesses auxiliares livres ficam em filas por tamanho (largura x altura),
+ * j que setWorld precisa do tamanho exato em pixels; uma rea nomeada
+ * recebe, sempre que possvel, uma sesso cuja rea j tem o seu tamanho. Uma
+ * sesso reaproveitada tem a vista configurada novamente (setCurrentView),
+ * descartando os temas do dono anterior, e a lista de geometrias limpa; a
+ * imagem s pode ser lida aps um setWorld da nova rea
+ * ({@link NamedCanvas#setWorld}). Ao liberar as reas de uma sesso
+ * ({@link #release(String)}), as sesses auxiliares voltam ao pool; as que
+ * excedem o limite de livres por tamanho so destrudas.
+ * </pre>
+ */
+public class CanvasPool {
+
+	/** Nmero padro de sesses livres mantidas por tamanho. */
+	public static final int DEFAULT_MAX_IDLE_PER_SIZE = 4;
+
+	private static final String SESSION_PREFIX = "canvas-";
+
+	private final TerraJava terraJava;
+
+	private final ConnectionParameters connection;
+
+	/** Sesses auxiliares livres, por tamanho. */
+	private final HashMap<String, LinkedList<PooledSession>> idle = new HashMap<String, LinkedList<PooledSession>>();
+
+	/** reas nomeadas de cada sesso da aplicao. */
+	private final HashMap<String, HashMap<String, NamedCanvas>> canvases = new HashMap<String, HashMap<String, NamedCanvas>>();
+
+	private int maxIdlePerSize = DEFAULT_MAX_IDLE_PER_SIZE;
+
+	private long sequence;
+
+	private long created;
+
+	private long reused;
+
+	public CanvasPool(TerraJava terraJava, ConnectionParameters connection) {
+		this.terraJava = terraJava;
+		this.connection = connection;
+	}
+
+	public synchronized void setMaxIdlePerSize(int maxIdlePerSize) {
+		this.maxIdlePerSize = maxIdlePerSize;
+	}
+
+	/**
+	 * Devolve a rea nomeada da sesso, criando-a ou trocando sua sesso
+	 * auxiliar caso o tamanho ou a vista tenham mudado.
+	 *
+	 * @param sessionId
+	 *            Sesso da aplicao dona da rea.
+	 * @param name
+	 *            Nome da rea, por exemplo "principal", "visaoGeral" ou
+	 *            "legenda".
+	 * @param view
+	 *            Vista corrente da rea.
+	 * @param user
+	 *            Usurio dono da vista.
+	 * @param width
+	 *            Largura da rea, em pixels.
+	 * @param height
+	 *            Altura da rea, em pixels.
+	 */
+	public NamedCanvas getCanvas(String sessionId, String name, String view,
+			String user, int width, int height) throws IllegalAccessException,
+			InstantiationException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Tamanho de rea invlido: "
+					+ width + "x" + height);
+		NamedCanvas canvas;
+		PooledSession previous = null;
+		synchronized (this) {
+			HashMap<String, NamedCanvas> named = canvases.get(sessionId);
+			if (named == null) {
+				named = new HashMap<String, NamedCanvas>();
+				canvases.put(sessionId, named);
+			}
+			canvas = named.get(name);
+			if (canvas != null && canvas.getWidth() == width
+					&& canvas.getHeight() == height
+					&& canvas.session.matches(view, user))
+				return canvas;
+			if (canvas != null) {
+				previous = canvas.session;
+				named.remove(name);
+			}
+		}
+		if (previous != null)
+			giveBack(previous);
+
+		PooledSession session = take(view, user, width, height);
+		canvas = new NamedCanvas(terraJava, name, session);
+		// outra chamada para a mesma rea pode ter concludo enquanto a sesso
+		// era obtida: a sesso que no for usada volta ao pool
+		PooledSession unused = null;
+		synchronized (this) {
+			HashMap<String, NamedCanvas> named = canvases.get(sessionId);
+			if (named == null) {
+				named = new HashMap<String, NamedCanvas>();
+				canvases.put(sessionId, named);
+			}
+			NamedCanvas current = named.get(name);
+			if (current != null && current.getWidth() == width
+					&& current.getHeight() == height
+					&& current.session.matches(view, user)) {
+				unused = session;
+				canvas = current;
+			} else {
+				named.put(name, canvas);
+				if (current != null)
+					unused = current.session;
+			}
+		}
+		if (unused != null)
+			giveBack(unused);
+		return canvas;
+	}
+
+	/**
+	 * Devolve ao pool as reas nomeadas da sesso, por exemplo quando a sesso
+	 * da aplicao  destruda.
+	 */
+	public void release(String sessionId) {
+		HashMap<String, NamedCanvas> named;
+		synchronized (this) {
+			named = canvases.remove(sessionId);
+		}
+		if (named != null)
+			for (NamedCanvas canvas : named.values())
+				giveBack(canvas.session);
+	}
+
+	/**
+	 * Obtm uma sesso auxiliar livre com o tamanho pedido, ou conecta uma
+	 * nova, e configura a vista. A sesso reaproveitada tem o estado do dono
+	 * anterior descartado.
+	 */
+	private PooledSession take(String view, String user, int width, int height)
+			throws IllegalAccessException, InstantiationException {
+		PooledSession session = null;
+		String sessionId = null;
+		synchronized (this) {
+			LinkedList<PooledSession> queue = idle.get(sizeKey(width, height));
+			if (queue != null && !queue.isEmpty()) {
+				session = queue.removeFirst();
+				reused++;
+			} else {
+				sessionId = SESSION_PREFIX + System.identityHashCode(this)
+						+ "-" + (++sequence);
+				created++;
+			}
+		}
+		if (session == null) {
+			connection.connect(terraJava, sessionId);
+			session = new PooledSession(sessionId, width, height);
+		} else {
+			boolean cleared = false;
+			try {
+				terraJava.clearGeomList(session.sessionId);
+				cleared = true;
+			} finally {
+				if (!cleared)
+					destroy(session);
+			}
+			session.view = null;
+			session.user = null;
+		}
+		if (!session.matches(view, user)) {
+			if (!terraJava.setCurrentView(view, user, session.sessionId)) {
+				destroy(session);
+				throw new IllegalStateException(
+						"Falhou ao configurar a vista " + view
+								+ " como corrente.");
+			}
+			session.view = view;
+			session.user = user;
+		}
+		return session;
+	}
+
+	private void giveBack(PooledSession session) {
+		synchronized (this) {
+			String key = sizeKey(session.width, session.height);
+			LinkedList<PooledSession> queue = idle.get(key);
+			if (queue == null) {
+				queue = new LinkedList<PooledSession>();
+				idle.put(key, queue);
+			}
+			if (queue.size() < maxIdlePerSize) {
+				queue.addFirst(session);
+				return;
+			}
+		}
+		destroy(session);
+	}
+
+	private void destroy(PooledSession session) {
+		try {
+			terraJava.destroySession(session.sessionId);
+		} catch (Throwable e) {
+			// a sesso pode j ter sido destruda
+		}
+	}
+
+	/**
+	 * Destroi todas as sesses auxiliares, livres e em uso.
+	 */
+	public void close() {
+		List<PooledSession> all = new ArrayList<PooledSession>();
+		synchronized (this) {
+			for (LinkedList<PooledSession> queue : idle.values())
+				all.addAll(queue);
+			idle.clear();
+			for (HashMap<String, NamedCanvas> named : canvases.values())
+				for (NamedCanvas canvas : named.values())
+					all.add(canvas.session);
+			canvases.clear();
+		}
+		for (PooledSession session : all)
+			destroy(session);
+	}
+
+	/**
+	 * <pre>
+	 * Estado do pool em um HashMap:
+	 *
+	 * sessions (sesses da aplicao com reas), canvases (reas nomeadas),
+	 * idle (sesses auxiliares livres), created, reused
+	 * </pre>
+	 */
+	public synchronized HashMap<String, Object> toMap() {
+		int named = 0;
+		for (HashMap<String, NamedCanvas> map : canvases.values())
+			named += map.size();
+		int free = 0;
+		for (Map.Entry<String, LinkedList<PooledSession>> entry : idle
+				.entrySet())
+			free += entry.getValue().size();
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("sessions", canvases.size());
+		map.put("canvases", named);
+		map.put("idle", free);
+		map.put("created", created);
+		map.put("reused", reused);
+		return map;
+	}
+
+	private static String sizeKey(int width, int height) {
+		return width + "x" + height;
+	}
+
+	/**
+	 * Sesso nativa auxiliar, com o tamanho da sua rea de desenho e a vista
+	 * corrente.
+	 */
+	static final class PooledSession {
+
+		final String sessionId;
+
+		final int width;
+
+		final int height;
+
+		String view;
+
+		String user;
+
+		PooledSession(String sessionId, int width, int height) {
+			this.sessionId = sessionId;
+			this.width = width;
+			this.height = height;
+		}
+
+		boolean matches(String view, String user) {
+			return view.equals(this.view) && user.equals(this.user);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ndice de coliso em grade uniforme para retngulos em pixels. Cada
+ * retngulo aceito  registrado em todas as clulas que ocupa; a verificao
+ * de um novo retngulo consulta apenas essas clulas.
+ */
+class CollisionGrid {
+
+	private final int cellSize;
+
+	private final int columns;
+
+	private final int rows;
+
+	private final List<List<double[]>> cells;
+
+	CollisionGrid(int width, int height, int cellSize) {
+		this.cellSize = cellSize;
+		this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+		this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+		this.cells = new ArrayList<List<double[]>>(Collections
+				.<List<double[]>> nCopies(columns * rows, null));
+	}
+
+	/**
+	 * Registra o retngulo caso no intercepte nenhum retngulo j aceito.
+	 *
+	 * @return Verdadeiro se o retngulo foi aceito.
+	 */
+	boolean insertIfFree(double x1, double y1, double x2, double y2) {
+		int c1 = clamp((int) Math.floor(x1 / cellSize), columns);
+		int c2 = clamp((int) Math.floor(x2 / cellSize), columns);
+		int r1 = clamp((int) Math.floor(y1 / cellSize), rows);
+		int r2 = clamp((int) Math.floor(y2 / cellSize), rows);
+		for (int r = r1; r <= r2; r++) {
+			for (int c = c1; c <= c2; c++) {
+				List<double[]> list = cells.get(r * columns + c);
+				if (list == null)
+					continue;
+				for (double[] rect : list)
+					if (rect[0] < x2 && rect[2] > x1 && rect[1] < y2
+							&& rect[3] > y1)
+						return false;
+			}
+		}
+
+		double[] rect = { x1, y1, x2, y2 };
+		for (int r = r1; r <= r2; r++) {
+			for (int c = c1; c <= c2; c++) {
+				int i = r * columns + c;
+				List<double[]> list = cells.get(i);
+				if (list == null) {
+					list = new ArrayList<double[]>(4);
+					cells.set(i, list);
+				}
+				list.add(rect);
+			}
+		}
+		return true;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
@@ -0,0 +1,84 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Tile descartado do {@link TileCache} por uma edio, com o nmero de
+ * acessos que teve enquanto esteve no cache. A ordem natural  do tile mais
+ * acessado para o menos acessado.
+ */
+public final class DirtyTile implements Comparable<DirtyTile> {
+
+	private final int themeId;
+
+	private final String format;
+
+	private final int zoom;
+
+	private final int column;
+
+	private final int row;
+
+	private final int hits;
+
+	DirtyTile(int themeId, String format, int zoom, int column, int row,
+			int hits) {
+		this.themeId = themeId;
+		this.format = format;
+		this.zoom = zoom;
+		this.column = column;
+		this.row = row;
+		this.hits = hits;
+	}
+
+	public int getThemeId() {
+		return themeId;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int compareTo(DirtyTile other) {
+		return (hits > other.hits) ? -1 : (hits == other.hits) ? 0 : 1;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof DirtyTile))
+			return false;
+		DirtyTile other = (DirtyTile) obj;
+		return themeId == other.themeId && zoom == other.zoom
+				&& column == other.column && row == other.row
+				&& format.equals(other.format);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = themeId;
+		h = h * 31 + format.hashCode();
+		h = h * 31 + zoom;
+		h = h * 31 + column;
+		h = h * 31 + row;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return themeId + "/" + format + "/" + zoom + "/" + column + "/" + row;
+	}
+}
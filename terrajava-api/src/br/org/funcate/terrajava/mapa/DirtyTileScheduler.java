@@ -0,0 +1,253 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <pre>
+ * Gerao em segundo plano dos tiles descartados por edies, dos mais
+ * acessados para os menos acessados.
+ *
+ * Tiles repetidos na fila so agrupados. Tiles com menos acessos que o mnimo
+ * configurado no so gerados; sero desenhados quando forem pedidos.
+ *
+ * Um tile cuja gerao falhou volta  fila at o nmero mximo de novas
+ * tentativas; esgotadas as tentativas, fica na lista de falhas
+ * ({@link #getFailedTiles()}) at ser agendado novamente ou at
+ * {@link #retryFailed()}. Cada falha  contada e informada aos ouvintes
+ * ({@link TileRefreshListener}). Erros da JVM (Error) no so repetidos e
+ * encerram a thread de gerao.
+ * </pre>
+ */
+public class DirtyTileScheduler {
+
+	/** Nmero mnimo padro de acessos para que um tile seja gerado. */
+	public static final int DEFAULT_MIN_HITS = 1;
+
+	/** Nmero padro de novas tentativas de um tile cuja gerao falhou. */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	private final TileRefresher refresher;
+
+	private final PriorityQueue<DirtyTile> queue = new PriorityQueue<DirtyTile>();
+
+	private final HashSet<DirtyTile> queued = new HashSet<DirtyTile>();
+
+	/** Falhas de cada tile desde a ltima gerao concluda. */
+	private final HashMap<DirtyTile, Integer> attempts = new HashMap<DirtyTile, Integer>();
+
+	/** Tiles cujas tentativas se esgotaram. */
+	private final LinkedHashSet<DirtyTile> failedTiles = new LinkedHashSet<DirtyTile>();
+
+	private final List<TileRefreshListener> listeners = new CopyOnWriteArrayList<TileRefreshListener>();
+
+	private int minHits = DEFAULT_MIN_HITS;
+
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+
+	private boolean shutdown;
+
+	private long refreshed;
+
+	private long failed;
+
+	private long retried;
+
+	/**
+	 * @param threads
+	 *            Nmero de tiles gerados simultaneamente.
+	 */
+	public DirtyTileScheduler(TileRefresher refresher, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"O nmero de threads deve ser positivo.");
+		this.refresher = refresher;
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "terrajava-tiles-alterados-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void setMinHits(int minHits) {
+		this.minHits = minHits;
+	}
+
+	/**
+	 * Nmero de novas tentativas de um tile cuja gerao falhou.
+	 */
+	public synchronized void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0)
+			throw new IllegalArgumentException(
+					"Nmero de tentativas invlido: " + maxRetries);
+		this.maxRetries = maxRetries;
+	}
+
+	public void addListener(TileRefreshListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(TileRefreshListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Agenda a gerao dos tiles.
+	 */
+	public synchronized void schedule(Iterable<DirtyTile> tiles) {
+		if (shutdown)
+			return;
+		for (DirtyTile tile : tiles) {
+			if (tile.getHits() < minHits)
+				continue;
+			// um tile j na fila permanece com a contagem maior
+			if (queued.contains(tile))
+				continue;
+			// um novo agendamento recomea as tentativas
+			failedTiles.remove(tile);
+			attempts.remove(tile);
+			queued.add(tile);
+			queue.add(tile);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return Nmero de tiles aguardando gerao.
+	 */
+	public synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	public synchronized long getRefreshed() {
+		return refreshed;
+	}
+
+	/**
+	 * @return Nmero de geraes que falharam, incluindo as repetidas.
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return Nmero de tiles devolvidos  fila aps uma falha.
+	 */
+	public synchronized long getRetried() {
+		return retried;
+	}
+
+	/**
+	 * @return Tiles cujas tentativas se esgotaram, na ordem das falhas.
+	 */
+	public synchronized List<DirtyTile> getFailedTiles() {
+		return new ArrayList<DirtyTile>(failedTiles);
+	}
+
+	/**
+	 * Devolve  fila os tiles da lista de falhas, com as tentativas
+	 * recomeadas.
+	 *
+	 * @return Nmero de tiles devolvidos.
+	 */
+	public synchronized int retryFailed() {
+		int count = failedTiles.size();
+		schedule(new ArrayList<DirtyTile>(failedTiles));
+		return count - failedTiles.size();
+	}
+
+	/**
+	 * Encerra a gerao; tiles na fila so abandonados.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		queue.clear();
+		queued.clear();
+		attempts.clear();
+		notifyAll();
+	}
+
+	private synchronized DirtyTile next() {
+		while (!shutdown && queue.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if (shutdown)
+			return null;
+		DirtyTile tile = queue.poll();
+		queued.remove(tile);
+		return tile;
+	}
+
+	private void work() {
+		DirtyTile tile;
+		while ((tile = next()) != null) {
+			Throwable error = null;
+			try {
+				refresher.refresh(tile);
+			} catch (Exception e) {
+				error = e;
+			} catch (Error e) {
+				error = e;
+				throw e;
+			} finally {
+				completed(tile, error);
+			}
+		}
+	}
+
+	/**
+	 * Conta o resultado da gerao e, em caso de falha, devolve o tile  fila
+	 * ou o coloca na lista de falhas, e notifica os ouvintes.
+	 */
+	private void completed(DirtyTile tile, Throwable error) {
+		boolean retrying;
+		synchronized (this) {
+			if (error == null) {
+				refreshed++;
+				attempts.remove(tile);
+				return;
+			}
+			failed++;
+			Integer count = attempts.get(tile);
+			int failures = (count == null) ? 1 : count + 1;
+			retrying = !shutdown && !(error instanceof Error)
+					&& failures <= maxRetries;
+			if (queued.contains(tile)) {
+				// agendado novamente durante a gerao
+				attempts.remove(tile);
+				retrying = true;
+			} else if (retrying) {
+				attempts.put(tile, failures);
+				queued.add(tile);
+				queue.add(tile);
+				retried++;
+				notifyAll();
+			} else {
+				attempts.remove(tile);
+				if (!shutdown)
+					failedTiles.add(tile);
+			}
+		}
+		for (TileRefreshListener listener : listeners) {
+			try {
+				listener.tileFailed(tile, error, retrying);
+			} catch (RuntimeException e) {
+				// um ouvinte com erro no impede os demais
+			}
+		}
+	}
+}
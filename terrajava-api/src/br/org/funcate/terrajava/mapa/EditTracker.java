@@ -0,0 +1,187 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.GeometryBoxes;
+import br.org.funcate.terrajava.persistencia.ChangeEvent;
+import br.org.funcate.terrajava.persistencia.ChangeFeed;
+import br.org.funcate.terrajava.persistencia.ChangeListener;
+
+/**
+ * <pre>
+ * Invalidao dos tiles por regio alterada, a partir dos eventos do
+ * {@link ChangeFeed}. O EditTracker  um assinante do feed
+ * (feed.subscribe(tracker)): as edies so feitas pelos mtodos do feed, que
+ * leem as geometrias anteriores uma nica vez e publicam os boxes das
+ * geometrias atingidas, novas e anteriores. Apenas os tiles do
+ * {@link TileCache} e os metatiles do {@link LabelEngine} dos temas do layer
+ * que interceptam esses boxes, em cada nvel, so descartados; os tiles
+ * descartados so gerados novamente em segundo plano pelo
+ * {@link DirtyTileScheduler}, dos mais acessados para os menos acessados.
+ *
+ * Os temas de cada layer so informados com {@link #setThemeLayer(int, int)}.
+ * Os boxes dos eventos devem estar na projeo da {@link TileGrid}
+ * (ChangeFeed.setProjection). Eventos sem box (regio desconhecida,
+ * alteraes de colunas, remoo de todos os objetos) descartam todos os
+ * tiles dos temas do layer; eventos perdidos por atraso do assinante
+ * descartam todos os tiles de todos os temas informados.
+ *
+ * Os eventos so recebidos na thread do assinante, logo aps cada edio.
+ * </pre>
+ */
+public class EditTracker implements ChangeListener {
+
+	/** Margem padro, em pixels, acrescentada s regies alteradas. */
+	public static final int DEFAULT_MARGIN_PIXELS = 16;
+
+	/** Acima deste nmero de boxes, a regio alterada  o box que os envolve. */
+	private static final int MAX_BOXES = 64;
+
+	private final TileCache cache;
+
+	private final TileGrid grid;
+
+	private LabelEngine labelEngine;
+
+	private LayeredRenderer layeredRenderer;
+
+	private DirtyTileScheduler scheduler;
+
+	private int marginPixels = DEFAULT_MARGIN_PIXELS;
+
+	/** Layer de cada tema. */
+	private final HashMap<Integer, Integer> themeLayers = new HashMap<Integer, Integer>();
+
+	public EditTracker(TileCache cache, TileGrid grid) {
+		this.cache = cache;
+		this.grid = grid;
+	}
+
+	/**
+	 * Rtulos invalidados junto com os tiles; os tiles de um metatile alterado
+	 * so descartados juntos.
+	 */
+	public void setLabelEngine(LabelEngine labelEngine) {
+		this.labelEngine = labelEngine;
+	}
+
+	/**
+	 * Desenho em camadas notificado a cada edio ({@link LayeredRenderer#markEdited(int)}).
+	 */
+	public void setLayeredRenderer(LayeredRenderer layeredRenderer) {
+		this.layeredRenderer = layeredRenderer;
+	}
+
+	/**
+	 * Gerao em segundo plano dos tiles descartados; sem ele, os tiles so
+	 * gerados quando forem pedidos.
+	 */
+	public void setScheduler(DirtyTileScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Margem, em pixels, acrescentada s regies alteradas para cobrir
+	 * smbolos, espessuras de linha e rtulos.
+	 */
+	public void setMarginPixels(int marginPixels) {
+		this.marginPixels = marginPixels;
+	}
+
+	/**
+	 * Informa o layer do tema; os eventos do layer invalidam os tiles do tema.
+	 */
+	public void setThemeLayer(int themeId, int layerId) {
+		synchronized (themeLayers) {
+			themeLayers.put(themeId, layerId);
+		}
+	}
+
+	public void removeTheme(int themeId) {
+		synchronized (themeLayers) {
+			themeLayers.remove(themeId);
+		}
+	}
+
+	/**
+	 * @return Os temas informados sobre o layer.
+	 */
+	public List<Integer> getThemes(int layerId) {
+		List<Integer> themes = new ArrayList<Integer>();
+		synchronized (themeLayers) {
+			for (Map.Entry<Integer, Integer> entry : themeLayers.entrySet())
+				if (entry.getValue() == layerId)
+					themes.add(entry.getKey());
+		}
+		return themes;
+	}
+
+	/**
+	 * Descarta os tiles dos temas do layer que interceptam os boxes do evento,
+	 * ou todos os tiles desses temas quando o evento no tem box.
+	 */
+	public void changed(ChangeEvent event) {
+		List<Box> boxes = (event.getBox() == null) ? null : event.getBoxes();
+		for (int themeId : getThemes(event.getLayerId()))
+			markDirty(themeId, boxes);
+	}
+
+	/**
+	 * Eventos perdidos: descarta todos os tiles de todos os temas informados.
+	 */
+	public void overrun(long lost) {
+		List<Integer> themes;
+		synchronized (themeLayers) {
+			themes = new ArrayList<Integer>(themeLayers.keySet());
+		}
+		for (int themeId : themes)
+			markDirty(themeId, null);
+	}
+
+	/**
+	 * Descarta os tiles e metatiles do tema que interceptam os boxes e agenda
+	 * a gerao dos tiles descartados.
+	 *
+	 * @param boxes
+	 *            Boxes alterados, na projeo da grade; null descarta todos os
+	 *            tiles do tema.
+	 * @return Os tiles descartados, do mais acessado para o menos acessado, ou
+	 *         null caso todos os tiles do tema tenham sido descartados.
+	 */
+	public List<DirtyTile> markDirty(int themeId, List<Box> boxes) {
+		if (layeredRenderer != null)
+			layeredRenderer.markEdited(themeId);
+		if (boxes == null) {
+			cache.invalidate(themeId);
+			if (labelEngine != null)
+				labelEngine.invalidate(themeId);
+			return null;
+		}
+		if (boxes.size() > MAX_BOXES) {
+			Box union = GeometryBoxes.union(boxes);
+			boxes = new ArrayList<Box>();
+			boxes.add(union);
+		}
+
+		int blockSize = (labelEngine != null) ? labelEngine.getMetatileSize()
+				: 1;
+		LinkedHashSet<DirtyTile> dirty = new LinkedHashSet<DirtyTile>();
+		for (Box box : boxes) {
+			if (labelEngine != null)
+				labelEngine.invalidate(themeId, box);
+			dirty.addAll(cache.invalidate(themeId, grid, box, marginPixels,
+					blockSize));
+		}
+		List<DirtyTile> result = new ArrayList<DirtyTile>(dirty);
+		Collections.sort(result);
+		if (scheduler != null)
+			scheduler.schedule(result);
+		return result;
+	}
+}
@@ -0,0 +1,194 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Mapa de imagem estruturado, alternativo  String HTML de getImageMap. As
+ * reas j esto em coordenadas de pixel inteiras e simplificadas, e podem ser
+ * enviadas ao cliente como lista compacta (toVector) ou percorridas
+ * diretamente (getAreas).
+ *
+ * O cdigo HTML s  gerado quando solicitado; o ltimo HTML gerado  mantido
+ * para as chamadas seguintes com os mesmos nome e id de mapa.
+ * </pre>
+ */
+public class ImageMap {
+
+	private final Box box;
+
+	private final int width;
+
+	private final int height;
+
+	private final List<ImageMapArea> areas;
+
+	private final String[] propertyNames;
+
+	private volatile String[] lastHTML;
+
+	ImageMap(Box box, int width, int height, List<ImageMapArea> areas,
+			String[] propertyNames) {
+		this.box = box;
+		this.width = width;
+		this.height = height;
+		this.areas = Collections.unmodifiableList(areas);
+		this.propertyNames = propertyNames;
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public List<ImageMapArea> getAreas() {
+		return areas;
+	}
+
+	/**
+	 * @return Nmero total de coordenadas de pixel de todas as reas.
+	 */
+	public int getCoordCount() {
+		int n = 0;
+		for (ImageMapArea area : areas)
+			n += area.getCoordCount();
+		return n;
+	}
+
+	/**
+	 * <pre>
+	 * Gera a lista compacta das reas. Cada elemento  um HashMap com as chaves:
+	 *
+	 * objectId - identificador do objeto;
+	 * link     - valor da coluna de ligao;
+	 * shape    - "poly" ou "circle";
+	 * coords   - int[] com as coordenadas de pixel;
+	 * e uma chave para cada propriedade adicional definida no construtor do mapa.
+	 * </pre>
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector<HashMap> toVector() {
+		Vector<HashMap> result = new Vector<HashMap>(areas.size());
+		for (ImageMapArea area : areas) {
+			HashMap map = new HashMap();
+			map.put("objectId", area.getObjectId());
+			map.put("link", area.getLink());
+			map.put("shape", area.getShape());
+			map.put("coords", area.getCoords());
+			for (int i = 0; i < propertyNames.length; i++)
+				map.put(propertyNames[i], area.getPropertyValue(i));
+			result.add(map);
+		}
+		return result;
+	}
+
+	/**
+	 * Gera o cdigo HTML equivalente ao de getImageMap, com a tag <b>map</b>
+	 * fechada.
+	 *
+	 * @param mapName
+	 *            Valor da propriedade <b>name</b> da tag <b>map</b>.
+	 * @param mapId
+	 *            Valor da propriedade <b>id</b> da tag <b>map</b>.
+	 */
+	public String toHTML(String mapName, String mapId) {
+		String[] cached = lastHTML;
+		if (cached != null && equal(cached[0], mapName)
+				&& equal(cached[1], mapId))
+			return cached[2];
+
+		StringBuilder out = new StringBuilder(64 + getCoordCount() * 5);
+		try {
+			writeHTML(out, mapName, mapId, true);
+		} catch (IOException e) {
+			// StringBuilder no lana IOException
+			throw new IllegalStateException(e);
+		}
+		String html = out.toString();
+		lastHTML = new String[] { mapName, mapId, html };
+		return html;
+	}
+
+	/**
+	 * Escreve o cdigo HTML do mapa diretamente em um destino (por exemplo, o
+	 * Writer da resposta), sem montar a String completa em memria.
+	 *
+	 * @param hasToClose
+	 *            Verdadeiro para fechar a tag <b>map</b>, como em
+	 *            closeImageMap.
+	 */
+	public void writeHTML(Appendable out, String mapName, String mapId,
+			boolean hasToClose) throws IOException {
+		out.append("<map name=\"").append(escape(mapName)).append("\" id=\"")
+				.append(escape(mapId)).append("\">\n");
+		StringBuilder line = new StringBuilder(256);
+		for (ImageMapArea area : areas) {
+			line.setLength(0);
+			line.append("<area shape=\"").append(area.getShape()).append(
+					"\" coords=\"");
+			area.appendCoords(line);
+			line.append('"');
+			for (int i = 0; i < propertyNames.length; i++)
+				line.append(' ').append(propertyNames[i]).append("=\"").append(
+						escape(area.getPropertyValue(i))).append('"');
+			line.append(">\n");
+			out.append(line);
+		}
+		if (hasToClose)
+			out.append("</map>\n");
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	static String escape(String value) {
+		if (value == null)
+			return "";
+		StringBuilder out = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String replacement;
+			switch (c) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement == null) {
+				if (out != null)
+					out.append(c);
+				continue;
+			}
+			if (out == null) {
+				out = new StringBuilder(value.length() + 16);
+				out.append(value, 0, i);
+			}
+			out.append(replacement);
+		}
+		return (out == null) ? value : out.toString();
+	}
+}
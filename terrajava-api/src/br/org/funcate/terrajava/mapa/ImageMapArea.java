@@ -0,0 +1,82 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * rea de um mapa de imagem: forma (polgono ou crculo) em coordenadas de
+ * pixel inteiras, valor de ligao do objeto e valores das propriedades
+ * adicionais da tag <b>area</b>.
+ */
+public class ImageMapArea {
+
+	public static final String SHAPE_POLY = "poly";
+
+	public static final String SHAPE_CIRCLE = "circle";
+
+	private final String objectId;
+
+	private final String link;
+
+	private final String shape;
+
+	private final int[] coords;
+
+	private final String[] propertyValues;
+
+	ImageMapArea(String objectId, String link, String shape, int[] coords,
+			String[] propertyValues) {
+		this.objectId = objectId;
+		this.link = link;
+		this.shape = shape;
+		this.coords = coords;
+		this.propertyValues = propertyValues;
+	}
+
+	public String getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * @return O valor da coluna de ligao (linkAttr) do objeto.
+	 */
+	public String getLink() {
+		return link;
+	}
+
+	/**
+	 * @return {@link #SHAPE_POLY} ou {@link #SHAPE_CIRCLE}.
+	 */
+	public String getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return Coordenadas de pixel: x0, y0, x1, y1, ... para polgonos e x, y,
+	 *         raio para crculos.
+	 */
+	public int[] getCoords() {
+		return coords.clone();
+	}
+
+	/**
+	 * @return Os valores das propriedades adicionais, na ordem em que foram
+	 *         definidas no {@link ImageMapBuilder}.
+	 */
+	public String[] getPropertyValues() {
+		return propertyValues.clone();
+	}
+
+	int getCoordCount() {
+		return coords.length;
+	}
+
+	void appendCoords(StringBuilder out) {
+		for (int i = 0; i < coords.length; i++) {
+			if (i > 0)
+				out.append(',');
+			out.append(coords[i]);
+		}
+	}
+
+	String getPropertyValue(int index) {
+		return propertyValues[index];
+	}
+}
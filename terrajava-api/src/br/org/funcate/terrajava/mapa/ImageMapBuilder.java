@@ -0,0 +1,242 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.Simplifier;
+import br.org.funcate.terrajava.geometria.ViewTransform;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Constri mapas de imagem estruturados ({@link ImageMap}) para o tema
+ * corrente da sesso, a partir das features GeoJSON de getFeaturesInBox ou
+ * getFeaturesWithRestriction.
+ *
+ * As geometrias so convertidas para pixels, simplificadas (Douglas-Peucker
+ * com tolerncia em pixels) e arredondadas; polgonos menores que a rea
+ * mnima so descartados, como em setGeneralizedPixels. Polgonos geram reas
+ * "poly" (apenas o anel externo de cada componente) e pontos geram reas
+ * "circle". Linhas no possuem representao em mapas de imagem e so
+ * ignoradas.
+ *
+ * Diferente de getImageMap, a coluna de ligao e as colunas das propriedades
+ * devem pertencer s tabelas de atributos do tema corrente.
+ * </pre>
+ */
+public class ImageMapBuilder {
+
+	/** Tolerncia padro de simplificao: 1 pixel. */
+	public static final double DEFAULT_TOLERANCE = 1;
+
+	/** rea mnima padro de um polgono: 4 pixels. */
+	public static final double DEFAULT_MIN_AREA = 4;
+
+	/** Raio padro das reas geradas para pontos: 4 pixels. */
+	public static final int DEFAULT_POINT_RADIUS = 4;
+
+	private final TerraJava terraJava;
+
+	private final String sessionId;
+
+	private String linkAttr;
+
+	private String restriction;
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private double minArea = DEFAULT_MIN_AREA;
+
+	private int pointRadius = DEFAULT_POINT_RADIUS;
+
+	private final List<String[]> properties = new ArrayList<String[]>();
+
+	public ImageMapBuilder(TerraJava terraJava, String sessionId) {
+		this.terraJava = terraJava;
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * @param linkAttr
+	 *            Coluna que identifica cada objeto no mapa de imagem. Quando
+	 *            nula, o identificador do objeto  usado.
+	 */
+	public ImageMapBuilder setLinkAttribute(String linkAttr) {
+		this.linkAttr = linkAttr;
+		return this;
+	}
+
+	/**
+	 * @param restriction
+	 *            Restrio aplicada ao recuperar as features, no formato de
+	 *            getFeaturesWithRestriction. Quando nula, so usados todos os
+	 *            objetos do box.
+	 */
+	public ImageMapBuilder setRestriction(String restriction) {
+		this.restriction = restriction;
+		return this;
+	}
+
+	/**
+	 * @param tolerance
+	 *            Tolerncia de simplificao, em pixels.
+	 */
+	public ImageMapBuilder setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * @param minArea
+	 *            rea mnima, em pixels, para que um polgono gere uma rea.
+	 */
+	public ImageMapBuilder setMinArea(double minArea) {
+		this.minArea = minArea;
+		return this;
+	}
+
+	public ImageMapBuilder setPointRadius(int pointRadius) {
+		this.pointRadius = pointRadius;
+		return this;
+	}
+
+	/**
+	 * Adiciona uma propriedade s tags <b>area</b>, com a mesma semntica de
+	 * setAreaProperty.
+	 *
+	 * @param propertyName
+	 *            Nome do atributo da tag <b>area</b> (por exemplo, href ou
+	 *            title).
+	 * @param propertyValue
+	 *            Valor fixo do atributo; a ocorrncia de %s  substituda pelo
+	 *            valor da coluna.
+	 * @param valueSrc
+	 *            Coluna da tabela de atributos usada como fonte do valor, ou
+	 *            null para usar apenas o valor fixo.
+	 */
+	public ImageMapBuilder addAreaProperty(String propertyName,
+			String propertyValue, String valueSrc) {
+		properties.add(new String[] { propertyName, propertyValue, valueSrc });
+		return this;
+	}
+
+	/**
+	 * Identifica a configurao do construtor. Mapas gerados com a mesma
+	 * assinatura, tema, box e tamanho so iguais.
+	 */
+	public String getSignature() {
+		StringBuilder s = new StringBuilder();
+		s.append(linkAttr).append('|').append(restriction).append('|').append(
+				tolerance).append('|').append(minArea).append('|').append(
+				pointRadius);
+		for (String[] p : properties)
+			s.append('|').append(p[0]).append('=').append(p[1]).append(':')
+					.append(p[2]);
+		return s.toString();
+	}
+
+	/**
+	 * Constri o mapa de imagem do tema corrente para a rea de desenho.
+	 *
+	 * @param box
+	 *            Box efetivamente desenhado (aps o ajuste de proporo).
+	 * @param width
+	 *            Largura da imagem, em pixels.
+	 * @param height
+	 *            Altura da imagem, em pixels.
+	 */
+	@SuppressWarnings("unchecked")
+	public ImageMap build(Box box, int width, int height)
+			throws IllegalAccessException, InstantiationException {
+		Vector features;
+		if (restriction == null || restriction.length() == 0)
+			features = terraJava.getFeaturesInBox(box.getX1(), box.getY1(), box
+					.getX2(), box.getY2(), sessionId);
+		else
+			features = terraJava.getFeaturesWithRestriction(restriction,
+					sessionId);
+		return build(GeoJSONReader.readFeatures(features), box, width, height);
+	}
+
+	/**
+	 * Constri o mapa de imagem a partir de features j recuperadas.
+	 */
+	public ImageMap build(List<Feature> features, Box box, int width,
+			int height) {
+		ViewTransform transform = new ViewTransform(box, width, height);
+		List<ImageMapArea> areas = new ArrayList<ImageMapArea>();
+		for (Feature feature : features) {
+			Geometry geometry = feature.getGeometry();
+			if (geometry == null || geometry.isEmpty()
+					|| !box.intersects(geometry.getBox()))
+				continue;
+
+			String link = (linkAttr == null) ? feature.getObjectId() : feature
+					.getString(linkAttr);
+			String[] values = propertyValues(feature);
+			for (List<double[]> parts : geometry.getComponents()) {
+				if (parts.isEmpty())
+					continue;
+				if (geometry.getType() == Geometry.POLYGONS) {
+					int[] coords = toPolygon(parts.get(0), transform);
+					if (coords != null)
+						areas.add(new ImageMapArea(feature.getObjectId(), link,
+								ImageMapArea.SHAPE_POLY, coords, values));
+				} else if (geometry.getType() == Geometry.POINTS) {
+					double[] p = parts.get(0);
+					if (p.length < 2 || !box.contains(p[0], p[1]))
+						continue;
+					int[] coords = { (int) Math.round(transform.toPixelX(p[0])),
+							(int) Math.round(transform.toPixelY(p[1])),
+							pointRadius };
+					areas.add(new ImageMapArea(feature.getObjectId(), link,
+							ImageMapArea.SHAPE_CIRCLE, coords, values));
+				}
+			}
+		}
+
+		String[] names = new String[properties.size()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = properties.get(i)[0];
+		return new ImageMap(box, width, height, areas, names);
+	}
+
+	private int[] toPolygon(double[] ring, ViewTransform transform) {
+		double[] pixels = transform.toPixels(ring);
+		if (Math.abs(Geometry.signedArea(pixels)) < minArea)
+			return null;
+		pixels = Simplifier.snap(Simplifier.douglasPeucker(pixels, tolerance),
+				1);
+		int n = pixels.length / 2;
+		// o anel fechado  implcito na tag area
+		if (n > 1 && pixels[0] == pixels[2 * n - 2]
+				&& pixels[1] == pixels[2 * n - 1])
+			n--;
+		if (n < 3)
+			return null;
+		int[] coords = new int[n * 2];
+		for (int i = 0; i < coords.length; i++)
+			coords[i] = (int) pixels[i];
+		return coords;
+	}
+
+	private String[] propertyValues(Feature feature) {
+		String[] values = new String[properties.size()];
+		for (int i = 0; i < values.length; i++) {
+			String[] p = properties.get(i);
+			String fixed = (p[1] == null) ? "" : p[1];
+			if (p[2] == null || p[2].length() == 0)
+				values[i] = fixed;
+			else if (fixed.indexOf("%s") >= 0)
+				values[i] = fixed.replace("%s", feature.getString(p[2]));
+			else
+				values[i] = fixed + feature.getString(p[2]);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,162 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Cache de mapas de imagem por tema, box e tamanho de imagem, compartilhado
+ * entre sesses. Mantm at um nmero mximo de mapas, descartando os usados
+ * h mais tempo. Deve ser invalidado por tema quando os objetos ou os
+ * atributos usados no mapa forem alterados.
+ */
+public class ImageMapCache {
+
+	/** Nmero mximo padro de mapas mantidos. */
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private final LinkedHashMap<Key, ImageMap> maps = new LinkedHashMap<Key, ImageMap>(
+			64, 0.75f, true);
+
+	/** Nmero de invalidaes de cada tema. */
+	private final HashMap<Integer, Long> generations = new HashMap<Integer, Long>();
+
+	private long clears;
+
+	private final int maxEntries;
+
+	private long hits;
+
+	private long misses;
+
+	public ImageMapCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public ImageMapCache(int maxEntries) {
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException(
+					"Nmero mximo de mapas invlido: " + maxEntries);
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Recupera o mapa de imagem do cache ou o constri com o construtor
+	 * informado. O tema corrente da sesso do construtor deve ser o tema
+	 * indicado.
+	 *
+	 * @param themeId
+	 *            Identificador do tema corrente.
+	 */
+	public ImageMap get(ImageMapBuilder builder, int themeId, Box box,
+			int width, int height) throws IllegalAccessException,
+			InstantiationException {
+		Key key = new Key(themeId, box, width, height, builder.getSignature());
+		long generation;
+		synchronized (this) {
+			generation = generation(themeId);
+			ImageMap map = maps.get(key);
+			if (map != null) {
+				hits++;
+				return map;
+			}
+			misses++;
+		}
+
+		// a construo ocorre fora do bloqueio; construes simultneas da
+		// mesma chave produzem mapas iguais. Um mapa construdo antes de uma
+		// invalidao do tema no  armazenado.
+		ImageMap map = builder.build(box, width, height);
+		synchronized (this) {
+			if (generation != generation(themeId))
+				return map;
+			maps.put(key, map);
+			if (maps.size() > maxEntries) {
+				Iterator<Key> it = maps.keySet().iterator();
+				it.next();
+				it.remove();
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Descarta os mapas do tema.
+	 */
+	public synchronized void invalidate(int themeId) {
+		Long generation = generations.get(themeId);
+		generations.put(themeId, (generation == null) ? 1 : generation + 1);
+		Iterator<Map.Entry<Key, ImageMap>> it = maps.entrySet().iterator();
+		while (it.hasNext())
+			if (it.next().getKey().themeId == themeId)
+				it.remove();
+	}
+
+	public synchronized void clear() {
+		clears++;
+		maps.clear();
+	}
+
+	public synchronized int size() {
+		return maps.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Valor que muda a cada invalidao do tema ou do cache inteiro.
+	 */
+	private long generation(int themeId) {
+		Long generation = generations.get(themeId);
+		return ((generation == null) ? 0 : generation) + clears;
+	}
+
+	private static final class Key {
+
+		final int themeId;
+
+		final Box box;
+
+		final int width;
+
+		final int height;
+
+		final String signature;
+
+		Key(int themeId, Box box, int width, int height, String signature) {
+			this.themeId = themeId;
+			this.box = box;
+			this.width = width;
+			this.height = height;
+			this.signature = signature;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return themeId == other.themeId && width == other.width
+					&& height == other.height && box.equals(other.box)
+					&& signature.equals(other.signature);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = themeId;
+			h = h * 31 + box.hashCode();
+			h = h * 31 + width;
+			h = h * 31 + height;
+			return h * 31 + signature.hashCode();
+		}
+	}
+}
@@ -0,0 +1,612 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Posicionamento de rtulos consistente entre tiles. Os rtulos so
+ * posicionados uma nica vez para cada metatile (bloco de NxN tiles de um
+ * nvel da {@link TileGrid}) e mantidos em cache; cada tile desenha os rtulos
+ * que o interceptam, nas mesmas posies usadas pelos tiles vizinhos. Assim
+ * no h rtulos repetidos nem cortados nas emendas entre tiles.
+ *
+ * Cada rtulo pertence ao metatile que contm o seu ponto de ancoragem. O
+ * posicionamento de um metatile considera tambm os candidatos de uma faixa
+ * de setBuffer pixels ao redor dele, na mesma ordem usada pelos vizinhos, e
+ * mantm apenas os rtulos que lhe pertencem. Um tile junto  borda desenha
+ * tambm os rtulos dos metatiles vizinhos que o interceptam, de modo que os
+ * rtulos que cruzam a borda do metatile aparecem inteiros dos dois lados.
+ *
+ * A ordem de posicionamento segue a coluna de prioridade (maior valor
+ * primeiro, como em setPriorityField) e, em seguida, o tamanho da geometria.
+ * As colises so verificadas em um ndice de grade uniforme, com a
+ * distncia mnima entre rtulos de setMinCollisionTolerance.
+ *
+ * ncoras: pontos recebem o rtulo acima do smbolo, linhas no meio da parte
+ * mais longa e com o ngulo do trecho, polgonos em um ponto interior do
+ * maior componente.
+ * </pre>
+ */
+public class LabelEngine {
+
+	/** Tamanho padro do metatile: 4x4 tiles. */
+	public static final int DEFAULT_METATILE_SIZE = 4;
+
+	/** Nmero mximo padro de metatiles mantidos no cache. */
+	public static final int DEFAULT_MAX_METATILES = 128;
+
+	/** Largura padro, em pixels, da faixa ao redor do metatile. */
+	public static final int DEFAULT_BUFFER = 64;
+
+	private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(
+			null, true, true);
+
+	private final TerraJava terraJava;
+
+	private final String sessionId;
+
+	private final TileGrid grid;
+
+	private String labelField;
+
+	private String priorityField;
+
+	private int minCollisionTolerance = 2;
+
+	private int metatileSize = DEFAULT_METATILE_SIZE;
+
+	private int buffer = DEFAULT_BUFFER;
+
+	private Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+
+	private Color textColor = Color.BLACK;
+
+	private Color outlineColor = Color.WHITE;
+
+	private boolean outlineEnabled = true;
+
+	private final int maxMetatiles;
+
+	private final LinkedHashMap<MetatileKey, List<PlacedLabel>> placements = new LinkedHashMap<MetatileKey, List<PlacedLabel>>(
+			64, 0.75f, true);
+
+	public LabelEngine(TerraJava terraJava, String sessionId, TileGrid grid) {
+		this(terraJava, sessionId, grid, DEFAULT_MAX_METATILES);
+	}
+
+	public LabelEngine(TerraJava terraJava, String sessionId, TileGrid grid,
+			int maxMetatiles) {
+		this.terraJava = terraJava;
+		this.sessionId = sessionId;
+		this.grid = grid;
+		this.maxMetatiles = maxMetatiles;
+	}
+
+	/**
+	 * @param labelField
+	 *            Coluna da tabela de atributos com os textos dos rtulos, como
+	 *            em setLabelField.
+	 */
+	public LabelEngine setLabelField(String labelField) {
+		this.labelField = labelField;
+		return this;
+	}
+
+	/**
+	 * @param priorityField
+	 *            Coluna numrica de prioridade; valores maiores so
+	 *            posicionados primeiro, como em setPriorityField.
+	 */
+	public LabelEngine setPriorityField(String priorityField) {
+		this.priorityField = priorityField;
+		return this;
+	}
+
+	/**
+	 * @param numPixels
+	 *            Distncia mnima, em pixels, entre rtulos.
+	 */
+	public LabelEngine setMinCollisionTolerance(int numPixels) {
+		this.minCollisionTolerance = numPixels;
+		return this;
+	}
+
+	/**
+	 * @param metatileSize
+	 *            Nmero de tiles, em cada eixo, posicionados em conjunto.
+	 */
+	public LabelEngine setMetatileSize(int metatileSize) {
+		if (metatileSize <= 0)
+			throw new IllegalArgumentException("Tamanho de metatile invlido: "
+					+ metatileSize);
+		this.metatileSize = metatileSize;
+		return this;
+	}
+
+	/**
+	 * @param pixels
+	 *            Largura da faixa ao redor do metatile considerada no
+	 *            posicionamento. Um rtulo pode ultrapassar a borda do seu
+	 *            metatile em at essa largura; rtulos maiores so descartados.
+	 */
+	public LabelEngine setBuffer(int pixels) {
+		if (pixels < 0)
+			throw new IllegalArgumentException("Largura de faixa invlida: "
+					+ pixels);
+		this.buffer = pixels;
+		return this;
+	}
+
+	public int getBuffer() {
+		return buffer;
+	}
+
+	public LabelEngine setFont(Font font) {
+		this.font = font;
+		return this;
+	}
+
+	public LabelEngine setTextColor(Color textColor) {
+		this.textColor = textColor;
+		return this;
+	}
+
+	/**
+	 * Define a borda do texto, como setTextOutLineEnable e
+	 * setTextOutLineColor.
+	 */
+	public LabelEngine setTextOutLine(boolean enabled, Color color) {
+		this.outlineEnabled = enabled;
+		this.outlineColor = color;
+		return this;
+	}
+
+	/**
+	 * Recupera os rtulos que interceptam um tile, posicionando os rtulos do
+	 * metatile caso ainda no estejam no cache. O tema corrente da sesso deve
+	 * ser o tema indicado.
+	 *
+	 * @param themeId
+	 *            Identificador do tema corrente.
+	 */
+	public List<PlacedLabel> getLabels(int themeId, int zoom, int column,
+			int row) throws IllegalAccessException, InstantiationException {
+		int size = Math.min(metatileSize, TileGrid.getTileCount(zoom));
+		int lastMetatile = (TileGrid.getTileCount(zoom) - 1) / size;
+		int mc = column / size, mr = row / size;
+		Box tileBox = grid.getTileBox(zoom, column, row);
+		double resolution = grid.getResolution(zoom);
+		double margin = buffer * resolution;
+		List<PlacedLabel> result = new ArrayList<PlacedLabel>();
+		for (int r = Math.max(0, mr - 1); r <= Math.min(lastMetatile,
+				mr + 1); r++) {
+			for (int c = Math.max(0, mc - 1); c <= Math.min(lastMetatile,
+					mc + 1); c++) {
+				// os rtulos de um vizinho no passam da faixa ao redor dele
+				if ((c != mc || r != mr)
+						&& !expand(metatileBox(zoom, size, c, r), margin)
+								.intersects(tileBox))
+					continue;
+				for (PlacedLabel label : getMetatileLabels(themeId, zoom,
+						size, c, r)) {
+					double[] half = label.getHalfExtent();
+					double hw = half[0] * resolution, hh = half[1] * resolution;
+					if (label.getX() + hw >= tileBox.getX1()
+							&& label.getX() - hw <= tileBox.getX2()
+							&& label.getY() + hh >= tileBox.getY1()
+							&& label.getY() - hh <= tileBox.getY2())
+						result.add(label);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Desenha os rtulos de um tile sobre a imagem do tile.
+	 */
+	public void drawLabels(Graphics2D g, int themeId, int zoom, int column,
+			int row) throws IllegalAccessException, InstantiationException {
+		Box tileBox = grid.getTileBox(zoom, column, row);
+		double resolution = grid.getResolution(zoom);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		AffineTransform original = g.getTransform();
+		for (PlacedLabel label : getLabels(themeId, zoom, column, row)) {
+			double px = (label.getX() - tileBox.getX1()) / resolution;
+			double py = (tileBox.getY2() - label.getY()) / resolution;
+			TextLayout layout = new TextLayout(label.getText(), font, g
+					.getFontRenderContext());
+			AffineTransform t = new AffineTransform(original);
+			t.translate(px, py);
+			t.rotate(-label.getAngle());
+			// centraliza o texto no ponto de ancoragem
+			t.translate(-label.getWidth() / 2, (layout.getAscent() - layout
+					.getDescent()) / 2);
+			g.setTransform(t);
+			if (outlineEnabled) {
+				Shape outline = layout.getOutline(null);
+				g.setColor(outlineColor);
+				g.setStroke(new BasicStroke(3f, BasicStroke.CAP_ROUND,
+						BasicStroke.JOIN_ROUND));
+				g.draw(outline);
+			}
+			g.setColor(textColor);
+			layout.draw(g, 0, 0);
+		}
+		g.setTransform(original);
+	}
+
+	/**
+	 * Desenha os rtulos de um tile sobre a imagem gerada por drawThemes.
+	 *
+	 * @param tileImage
+	 *            Imagem do tile em qualquer formato lido pelo ImageIO.
+	 * @return A imagem com os rtulos, no formato PNG.
+	 */
+	public byte[] drawLabels(byte[] tileImage, int themeId, int zoom,
+			int column, int row) throws IllegalAccessException,
+			InstantiationException, IOException {
+		BufferedImage source = ImageIO.read(new ByteArrayInputStream(tileImage));
+		if (source == null)
+			throw new IOException("Formato de imagem no reconhecido.");
+		BufferedImage image = new BufferedImage(source.getWidth(), source
+				.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.drawImage(source, 0, 0, null);
+			drawLabels(g, themeId, zoom, column, row);
+		} finally {
+			g.dispose();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Descarta os posicionamentos do tema. Deve ser chamado quando os objetos
+	 * ou os textos dos rtulos forem alterados.
+	 */
+	public synchronized void invalidate(int themeId) {
+		Iterator<MetatileKey> it = placements.keySet().iterator();
+		while (it.hasNext())
+			if (it.next().themeId == themeId)
+				it.remove();
+	}
+
+	/**
+	 * Descarta os posicionamentos dos metatiles do tema cuja rea, com a faixa
+	 * ao redor, intercepta a regio alterada, em todos os nveis.
+	 *
+	 * @param region
+	 *            Regio alterada, na projeo da grade.
+	 */
+	public synchronized void invalidate(int themeId, Box region) {
+		Iterator<MetatileKey> it = placements.keySet().iterator();
+		while (it.hasNext()) {
+			MetatileKey key = it.next();
+			if (key.themeId != themeId)
+				continue;
+			// o tamanho do metatile e a faixa so os da chave, que podem ser
+			// anteriores a uma mudana de setMetatileSize ou setBuffer
+			Box box = expand(metatileBox(key.zoom, key.size, key.column,
+					key.row), key.buffer * grid.getResolution(key.zoom));
+			if (box.intersects(region))
+				it.remove();
+		}
+	}
+
+	public int getMetatileSize() {
+		return metatileSize;
+	}
+
+	public synchronized void clear() {
+		placements.clear();
+	}
+
+	/**
+	 * Recupera os rtulos que pertencem ao metatile, posicionando-os caso
+	 * ainda no estejam no cache.
+	 */
+	private List<PlacedLabel> getMetatileLabels(int themeId, int zoom,
+			int size, int metaColumn, int metaRow)
+			throws IllegalAccessException, InstantiationException {
+		MetatileKey key = new MetatileKey(themeId, zoom, metaColumn, metaRow,
+				size, buffer, getSignature());
+		synchronized (this) {
+			List<PlacedLabel> labels = placements.get(key);
+			if (labels != null)
+				return labels;
+		}
+
+		List<PlacedLabel> labels = place(metatileBox(zoom, size, metaColumn,
+				metaRow), grid.getResolution(zoom));
+		synchronized (this) {
+			placements.put(key, labels);
+			if (placements.size() > maxMetatiles) {
+				Iterator<MetatileKey> it = placements.keySet().iterator();
+				it.next();
+				it.remove();
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * Box de um metatile, limitado aos tiles existentes no nvel.
+	 */
+	private Box metatileBox(int zoom, int size, int metaColumn, int metaRow) {
+		int c1 = metaColumn * size, r1 = metaRow * size;
+		int last = TileGrid.getTileCount(zoom) - 1;
+		return grid.getTileBox(zoom, Math.min(last, c1), Math.min(last, r1))
+				.union(grid.getTileBox(zoom, Math.min(last, c1 + size - 1),
+						Math.min(last, r1 + size - 1)));
+	}
+
+	private static Box expand(Box box, double margin) {
+		return new Box(box.getX1() - margin, box.getY1() - margin, box.getX2()
+				+ margin, box.getY2() + margin);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<PlacedLabel> place(Box box, double resolution)
+			throws IllegalAccessException, InstantiationException {
+		Box area = expand(box, buffer * resolution);
+		Vector features = terraJava.getFeaturesInBox(area.getX1(), area
+				.getY1(), area.getX2(), area.getY2(), sessionId);
+		return place(GeoJSONReader.readFeatures(features), box, resolution);
+	}
+
+	/**
+	 * Posiciona os rtulos das features no metatile e na faixa ao redor dele,
+	 * mantendo apenas os rtulos cujo ponto de ancoragem est no metatile.
+	 */
+	List<PlacedLabel> place(List<Feature> features, Box box, double resolution) {
+		List<PlacedLabel> candidates = new ArrayList<PlacedLabel>();
+		final Map<PlacedLabel, Double> sizes = new LinkedHashMap<PlacedLabel, Double>();
+		LineMetrics metrics = font.getLineMetrics("Ag", FONT_CONTEXT);
+		double height = metrics.getAscent() + metrics.getDescent();
+		for (Feature feature : features) {
+			String text = feature.getString(labelField).trim();
+			Geometry geometry = feature.getGeometry();
+			if (text.length() == 0 || geometry == null || geometry.isEmpty())
+				continue;
+			double[] anchor = anchor(geometry, height * resolution);
+			if (anchor == null)
+				continue;
+			Rectangle2D bounds = font.getStringBounds(text, FONT_CONTEXT);
+			double priority = (priorityField == null) ? 0 : feature.getDouble(
+					priorityField, 0);
+			PlacedLabel label = new PlacedLabel(feature.getObjectId(), text,
+					anchor[0], anchor[1], anchor[2], bounds.getWidth(), height,
+					priority);
+			candidates.add(label);
+			sizes.put(label, anchor[3]);
+		}
+
+		Collections.sort(candidates, new Comparator<PlacedLabel>() {
+			public int compare(PlacedLabel a, PlacedLabel b) {
+				int c = Double.compare(b.getPriority(), a.getPriority());
+				if (c == 0)
+					c = Double.compare(sizes.get(b), sizes.get(a));
+				if (c == 0 && a.getObjectId() != null && b.getObjectId() != null)
+					c = a.getObjectId().compareTo(b.getObjectId());
+				return c;
+			}
+		});
+
+		// coordenadas em pixels a partir do canto da faixa ao redor do metatile
+		int widthPixels = (int) Math.round(box.getWidth() / resolution);
+		int heightPixels = (int) Math.round(box.getHeight() / resolution);
+		int cellSize = Math.max(16, (int) Math.ceil(height * 2));
+		CollisionGrid collisions = new CollisionGrid(widthPixels + 2 * buffer,
+				heightPixels + 2 * buffer, cellSize);
+		List<PlacedLabel> placed = new ArrayList<PlacedLabel>();
+		for (PlacedLabel label : candidates) {
+			double px = (label.getX() - box.getX1()) / resolution;
+			double py = (box.getY2() - label.getY()) / resolution;
+			double[] half = label.getHalfExtent();
+			double x1 = px - half[0] + buffer, x2 = px + half[0] + buffer;
+			double y1 = py - half[1] + buffer, y2 = py + half[1] + buffer;
+			// rtulos que saem da faixa seriam cortados nos tiles vizinhos
+			if (x1 < 0 || y1 < 0 || x2 > widthPixels + 2 * buffer
+					|| y2 > heightPixels + 2 * buffer)
+				continue;
+			if (!collisions.insertIfFree(x1 - minCollisionTolerance, y1
+					- minCollisionTolerance, x2 + minCollisionTolerance, y2
+					+ minCollisionTolerance))
+				continue;
+			// os candidatos da faixa s ocupam espao; pertencem ao vizinho
+			if (px >= 0 && px < widthPixels && py >= 0 && py < heightPixels)
+				placed.add(label);
+		}
+		return Collections.unmodifiableList(placed);
+	}
+
+	/**
+	 * @return x, y, ngulo e tamanho (comprimento ou rea) da geometria, ou
+	 *         null caso no haja ncora.
+	 */
+	private static double[] anchor(Geometry geometry, double textHeight) {
+		List<List<double[]>> components = geometry.getComponents();
+		if (geometry.getType() == Geometry.POINTS) {
+			double[] p = components.get(0).get(0);
+			return new double[] { p[0], p[1] + textHeight, 0, 0 };
+		}
+
+		if (geometry.getType() == Geometry.LINES) {
+			double[] longest = null;
+			double longestLength = -1;
+			for (List<double[]> parts : components) {
+				double length = Geometry.length(parts.get(0));
+				if (length > longestLength) {
+					longestLength = length;
+					longest = parts.get(0);
+				}
+			}
+			if (longest == null || longest.length < 4 || longestLength == 0)
+				return null;
+			double half = longestLength / 2, walked = 0;
+			for (int i = 2; i + 1 < longest.length; i += 2) {
+				double dx = longest[i] - longest[i - 2];
+				double dy = longest[i + 1] - longest[i - 1];
+				double segment = Math.hypot(dx, dy);
+				if (walked + segment >= half && segment > 0) {
+					double t = (half - walked) / segment;
+					double angle = Math.atan2(dy, dx);
+					// mantm o texto legvel (da esquerda para a direita)
+					if (angle > Math.PI / 2)
+						angle -= Math.PI;
+					else if (angle < -Math.PI / 2)
+						angle += Math.PI;
+					return new double[] { longest[i - 2] + dx * t,
+							longest[i - 1] + dy * t, angle, longestLength };
+				}
+				walked += segment;
+			}
+			return null;
+		}
+
+		double[] largest = null;
+		double largestArea = 0;
+		for (List<double[]> parts : components) {
+			double area = Math.abs(Geometry.signedArea(parts.get(0)));
+			if (area > largestArea) {
+				largestArea = area;
+				largest = parts.get(0);
+			}
+		}
+		if (largest == null)
+			return null;
+		double[] p = interiorPoint(largest);
+		return new double[] { p[0], p[1], 0, largestArea };
+	}
+
+	/**
+	 * @return O centride do anel, quando interior, ou o centro do maior
+	 *         trecho interior da linha horizontal que passa pelo centride.
+	 */
+	private static double[] interiorPoint(double[] ring) {
+		int n = ring.length / 2;
+		double a = 0, cx = 0, cy = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double f = ring[2 * j] * ring[2 * i + 1] - ring[2 * i]
+					* ring[2 * j + 1];
+			a += f;
+			cx += (ring[2 * j] + ring[2 * i]) * f;
+			cy += (ring[2 * j + 1] + ring[2 * i + 1]) * f;
+		}
+		cx /= 3 * a;
+		cy /= 3 * a;
+
+		List<Double> xs = new ArrayList<Double>();
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double yi = ring[2 * i + 1], yj = ring[2 * j + 1];
+			if ((yi > cy) != (yj > cy))
+				xs.add(ring[2 * i] + (cy - yi) * (ring[2 * j] - ring[2 * i])
+						/ (yj - yi));
+		}
+		Collections.sort(xs);
+		double bestX = cx, bestWidth = -1;
+		for (int k = 0; k + 1 < xs.size(); k += 2) {
+			double x1 = xs.get(k), x2 = xs.get(k + 1);
+			if (cx >= x1 && cx <= x2)
+				return new double[] { cx, cy };
+			if (x2 - x1 > bestWidth) {
+				bestWidth = x2 - x1;
+				bestX = (x1 + x2) / 2;
+			}
+		}
+		return new double[] { bestX, cy };
+	}
+
+	private String getSignature() {
+		return labelField + "|" + priorityField + "|" + minCollisionTolerance
+				+ "|" + font;
+	}
+
+	private static final class MetatileKey {
+
+		final int themeId;
+
+		final int zoom;
+
+		final int column;
+
+		final int row;
+
+		/** Tiles, em cada eixo, do metatile. */
+		final int size;
+
+		/** Largura, em pixels, da faixa ao redor do metatile. */
+		final int buffer;
+
+		final String signature;
+
+		MetatileKey(int themeId, int zoom, int column, int row, int size,
+				int buffer, String signature) {
+			this.themeId = themeId;
+			this.zoom = zoom;
+			this.column = column;
+			this.row = row;
+			this.size = size;
+			this.buffer = buffer;
+			this.signature = signature;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MetatileKey))
+				return false;
+			MetatileKey other = (MetatileKey) obj;
+			return themeId == other.themeId && zoom == other.zoom
+					&& column == other.column && row == other.row
+					&& size == other.size && buffer == other.buffer
+					&& signature.equals(other.signature);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = themeId;
+			h = h * 31 + zoom;
+			h = h * 31 + column;
+			h = h * 31 + row;
+			h = h * 31 + size;
+			h = h * 31 + buffer;
+			return h * 31 + signature.hashCode();
+		}
+	}
+}
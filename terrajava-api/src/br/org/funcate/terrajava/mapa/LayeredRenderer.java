@@ -0,0 +1,432 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Desenho em camadas: cada tema  desenhado sozinho por drawThemes, em uma
+ * imagem transparente, e guardado em cache; o mapa  composto em Java,
+ * sobrepondo as camadas na ordem de prioridade devolvida por getThemesToPlot.
+ *
+ * A chave de cada camada inclui a verso de edio do layer do tema
+ * ({@link #markLayerEdited(int)}), o box, o tamanho da imagem, a projeo, o
+ * estilo do tema e o uso do controle de escala. Assim, em um mapa com temas
+ * de base estticos e um ou dois temas editados com frequncia, aps uma
+ * edio apenas as camadas alteradas so desenhadas novamente.
+ *
+ * As verses pertencem aos layers: uma edio feita por um tema invalida
+ * todos os temas sobre o mesmo layer. O layer de cada tema  informado com
+ * {@link #setThemeLayer(int, int)}; temas sem layer informado tm verso
+ * prpria.
+ *
+ * Os temas devem ser identificados por "themeId" em themesList. Temas que no
+ * constam em getThemesToPlot (fora da escala ou do box) no so desenhados.
+ * A memria das camadas guardadas  limitada por um oramento em bytes (4
+ * bytes por pixel); ao ultrapass-lo, as camadas usadas h mais tempo so
+ * descartadas (LRU).
+ * </pre>
+ */
+public class LayeredRenderer {
+
+	/** Oramento padro de memria: 128 MB. */
+	public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+	private final TerraJava terraJava;
+
+	private final LinkedHashMap<LayerKey, BufferedImage> layers = new LinkedHashMap<LayerKey, BufferedImage>(
+			64, 0.75f, true);
+
+	/** Verses de edio, por layer. */
+	private final HashMap<Integer, Long> versions = new HashMap<Integer, Long>();
+
+	/** Verses de edio dos temas sem layer informado. */
+	private final HashMap<Integer, Long> themeVersions = new HashMap<Integer, Long>();
+
+	private final HashMap<Integer, Integer> themeLayers = new HashMap<Integer, Integer>();
+
+	private final long maxBytes;
+
+	private long usedBytes;
+
+	private long hits;
+
+	private long misses;
+
+	public LayeredRenderer(TerraJava terraJava) {
+		this(terraJava, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            Oramento de memria, em bytes, para as camadas guardadas.
+	 */
+	public LayeredRenderer(TerraJava terraJava, long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Oramento de memria invlido: "
+					+ maxBytes);
+		this.terraJava = terraJava;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Informa o layer do tema; as edies do layer invalidam as camadas do
+	 * tema.
+	 */
+	public synchronized void setThemeLayer(int themeId, int layerId) {
+		Integer old = themeLayers.put(themeId, layerId);
+		if (old == null || old != layerId)
+			invalidate(themeId);
+	}
+
+	/**
+	 * Registra uma edio feita pelo tema: as camadas guardadas de todos os
+	 * temas sobre o mesmo layer deixam de ser usadas e so descartadas.
+	 *
+	 * @return A nova verso do layer (ou do tema, quando o layer no foi
+	 *         informado).
+	 */
+	public synchronized long markEdited(int themeId) {
+		Integer layerId = themeLayers.get(themeId);
+		if (layerId != null)
+			return markLayerEdited(layerId);
+		Long version = themeVersions.get(themeId);
+		long next = (version == null) ? 1 : version + 1;
+		themeVersions.put(themeId, next);
+		invalidate(themeId);
+		return next;
+	}
+
+	/**
+	 * Registra uma edio no layer: as camadas guardadas dos temas sobre o
+	 * layer deixam de ser usadas e so descartadas.
+	 *
+	 * @return A nova verso do layer.
+	 */
+	public synchronized long markLayerEdited(int layerId) {
+		Long version = versions.get(layerId);
+		long next = (version == null) ? 1 : version + 1;
+		versions.put(layerId, next);
+		invalidateLayer(layerId);
+		return next;
+	}
+
+	/**
+	 * Define a verso de edio do layer, por exemplo a partir de um contador
+	 * persistido no banco.
+	 */
+	public synchronized void setLayerVersion(int layerId, long version) {
+		Long old = versions.put(layerId, version);
+		if (old != null && old != version)
+			invalidateLayer(layerId);
+	}
+
+	public synchronized long getLayerVersion(int layerId) {
+		Long version = versions.get(layerId);
+		return (version == null) ? 0 : version;
+	}
+
+	/**
+	 * @return A verso de edio do layer do tema, ou do prprio tema quando o
+	 *         layer no foi informado.
+	 */
+	public synchronized long getVersion(int themeId) {
+		Integer layerId = themeLayers.get(themeId);
+		if (layerId != null)
+			return getLayerVersion(layerId);
+		Long version = themeVersions.get(themeId);
+		return (version == null) ? 0 : version;
+	}
+
+	/**
+	 * Desenha o mapa em camadas.
+	 *
+	 * @param themesList
+	 *            Temas a desenhar, no formato de drawThemes, com "themeId".
+	 * @param box
+	 *            rea desenhada; no  ajustada  relao de aspecto da imagem.
+	 * @param imageType
+	 *            Tipo de compresso da imagem final: 0 para PNG e 1 para JPEG.
+	 * @param canvasBackground
+	 *            Cor de fundo (r, g, b) usada quando <code>opaque</code> 
+	 *            verdadeiro.
+	 * @param sessionId
+	 *            Sesso com a vista corrente, usada em getThemesToPlot.
+	 * @return A imagem composta.
+	 */
+	@SuppressWarnings("unchecked")
+	public byte[] render(Vector<HashMap<String, Object>> themesList, Box box,
+			int width, int height, int imageType, boolean opaque, int quality,
+			HashMap<String, Object> projectionMap,
+			HashMap<String, Integer> canvasBackground, boolean useScaleControl,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException, IOException {
+		HashMap<Integer, HashMap<String, Object>> byId = new HashMap<Integer, HashMap<String, Object>>();
+		for (HashMap<String, Object> themeMap : themesList) {
+			Object id = themeMap.get("themeId");
+			if (!(id instanceof Number))
+				throw new IllegalArgumentException(
+						"O desenho em camadas exige themeId em todos os temas.");
+			byId.put(((Number) id).intValue(), themeMap);
+		}
+
+		terraJava.setWorld(box.getX1(), box.getY1(), box.getX2(), box.getY2(),
+				width, height, false, sessionId);
+		Vector<Integer> order = terraJava.getThemesToPlot(sessionId);
+
+		BufferedImage image = new BufferedImage(width, height,
+				(imageType == 1) ? BufferedImage.TYPE_INT_RGB
+						: BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			if (opaque || imageType == 1) {
+				g.setColor(color(canvasBackground));
+				g.fillRect(0, 0, width, height);
+			}
+			for (Integer themeId : order) {
+				HashMap<String, Object> themeMap = byId.get(themeId);
+				if (themeMap == null)
+					continue;
+				BufferedImage layer = getLayer(themeId, themeMap, box, width,
+						height, projectionMap, useScaleControl);
+				if (layer != null)
+					g.drawImage(layer, 0, 0, null);
+			}
+		} finally {
+			g.dispose();
+		}
+		return encode(image, imageType, quality);
+	}
+
+	/**
+	 * Devolve a camada guardada do tema ou a desenha com drawThemes.
+	 */
+	private BufferedImage getLayer(int themeId,
+			HashMap<String, Object> themeMap, Box box, int width, int height,
+			HashMap<String, Object> projectionMap, boolean useScaleControl)
+			throws IllegalAccessException, InstantiationException, IOException {
+		LayerKey key;
+		synchronized (this) {
+			key = new LayerKey(themeId, themeLayers.get(themeId),
+					getVersion(themeId), box, width, height,
+					new HashMap<String, Object>(themeMap),
+					(projectionMap == null) ? null
+							: new HashMap<String, Object>(projectionMap),
+					useScaleControl);
+			BufferedImage layer = layers.get(key);
+			if (layer != null) {
+				hits++;
+				return layer;
+			}
+			misses++;
+		}
+
+		Vector<HashMap<String, Object>> single = new Vector<HashMap<String, Object>>();
+		single.add(themeMap);
+		HashMap<String, Integer> background = new HashMap<String, Integer>();
+		background.put("r", 255);
+		background.put("g", 255);
+		background.put("b", 255);
+		byte[] png = terraJava.drawThemes(single, box.getX1(), box.getY1(),
+				box.getX2(), box.getY2(), width, height, false, 0, false, 100,
+				projectionMap, background, useScaleControl);
+		if (png == null || png.length == 0)
+			return null;
+		BufferedImage layer = ImageIO.read(new ByteArrayInputStream(png));
+		if (layer == null)
+			throw new IOException("Formato de imagem no reconhecido.");
+
+		synchronized (this) {
+			// uma edio durante o desenho torna a camada obsoleta
+			if (key.version == getVersion(themeId)
+					&& equal(key.layerId, themeLayers.get(themeId)))
+				put(key, layer);
+		}
+		return layer;
+	}
+
+	private void put(LayerKey key, BufferedImage layer) {
+		long bytes = 4L * layer.getWidth() * layer.getHeight();
+		if (bytes > maxBytes)
+			return;
+		BufferedImage old = layers.put(key, layer);
+		if (old != null)
+			usedBytes -= 4L * old.getWidth() * old.getHeight();
+		usedBytes += bytes;
+		Iterator<Map.Entry<LayerKey, BufferedImage>> it = layers.entrySet()
+				.iterator();
+		while (usedBytes > maxBytes && it.hasNext()) {
+			BufferedImage evicted = it.next().getValue();
+			it.remove();
+			usedBytes -= 4L * evicted.getWidth() * evicted.getHeight();
+		}
+	}
+
+	/**
+	 * Descarta as camadas guardadas do tema.
+	 */
+	public synchronized void invalidate(int themeId) {
+		Iterator<Map.Entry<LayerKey, BufferedImage>> it = layers.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<LayerKey, BufferedImage> entry = it.next();
+			if (entry.getKey().themeId == themeId) {
+				BufferedImage layer = entry.getValue();
+				usedBytes -= 4L * layer.getWidth() * layer.getHeight();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Descarta as camadas guardadas dos temas sobre o layer.
+	 */
+	public synchronized void invalidateLayer(int layerId) {
+		Iterator<Map.Entry<LayerKey, BufferedImage>> it = layers.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<LayerKey, BufferedImage> entry = it.next();
+			Integer key = entry.getKey().layerId;
+			if (key != null && key == layerId) {
+				BufferedImage layer = entry.getValue();
+				usedBytes -= 4L * layer.getWidth() * layer.getHeight();
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		layers.clear();
+		usedBytes = 0;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static boolean equal(Integer a, Integer b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	private static Color color(HashMap<String, Integer> rgb) {
+		if (rgb == null)
+			return Color.WHITE;
+		return new Color(component(rgb.get("r")), component(rgb.get("g")),
+				component(rgb.get("b")));
+	}
+
+	private static int component(Integer value) {
+		return (value == null) ? 255 : Math.max(0, Math.min(255, value));
+	}
+
+	private static byte[] encode(BufferedImage image, int imageType,
+			int quality) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (imageType == 1) {
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg")
+					.next();
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(Math.max(0, Math.min(100, quality)) / 100f);
+			ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+			try {
+				writer.setOutput(stream);
+				writer.write(null, new IIOImage(image, null, null),
+						param);
+			} finally {
+				stream.close();
+				writer.dispose();
+			}
+		} else {
+			ImageIO.write(image, (imageType == 2) ? "gif" : "png", out);
+		}
+		return out.toByteArray();
+	}
+
+	private static final class LayerKey {
+
+		final int themeId;
+
+		/** Layer do tema, ou null quando no informado. */
+		final Integer layerId;
+
+		final long version;
+
+		final Box box;
+
+		final int width;
+
+		final int height;
+
+		final HashMap<String, Object> themeMap;
+
+		final HashMap<String, Object> projectionMap;
+
+		final boolean useScaleControl;
+
+		LayerKey(int themeId, Integer layerId, long version, Box box,
+				int width, int height, HashMap<String, Object> themeMap,
+				HashMap<String, Object> projectionMap, boolean useScaleControl) {
+			this.themeId = themeId;
+			this.layerId = layerId;
+			this.version = version;
+			this.box = box;
+			this.width = width;
+			this.height = height;
+			this.themeMap = themeMap;
+			this.projectionMap = projectionMap;
+			this.useScaleControl = useScaleControl;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof LayerKey))
+				return false;
+			LayerKey other = (LayerKey) obj;
+			return themeId == other.themeId && equal(layerId, other.layerId)
+					&& version == other.version
+					&& width == other.width && height == other.height
+					&& useScaleControl == other.useScaleControl
+					&& box.equals(other.box) && themeMap.equals(other.themeMap)
+					&& (projectionMap == null ? other.projectionMap == null
+							: projectionMap.equals(other.projectionMap));
+		}
+
+		@Override
+		public int hashCode() {
+			int h = themeId;
+			h = h * 31 + (int) (version ^ (version >>> 32));
+			h = h * 31 + box.hashCode();
+			h = h * 31 + width;
+			h = h * 31 + height;
+			h = h * 31 + themeMap.hashCode();
+			return h;
+		}
+	}
+}
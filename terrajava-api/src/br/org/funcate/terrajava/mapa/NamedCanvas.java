@@ -0,0 +1,94 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * rea de desenho nomeada de uma sesso, obtida de um {@link CanvasPool}. O
+ * tamanho  fixo; as chamadas de desenho devem usar {@link #getSessionId()}.
+ * A sesso pode ter sido usada por outra rea: {@link #setWorld(Box, boolean)}
+ * deve ser chamado antes do primeiro desenho, para limpar a rea.
+ */
+public final class NamedCanvas {
+
+	private final TerraJava terraJava;
+
+	private final String name;
+
+	final CanvasPool.PooledSession session;
+
+	private volatile boolean worldSet;
+
+	NamedCanvas(TerraJava terraJava, String name,
+			CanvasPool.PooledSession session) {
+		this.terraJava = terraJava;
+		this.name = name;
+		this.session = session;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return A sesso nativa da rea, a usar em setTheme, drawCurrentTheme,
+	 *         getCanvasImage e demais chamadas de desenho.
+	 */
+	public String getSessionId() {
+		return session.sessionId;
+	}
+
+	public int getWidth() {
+		return session.width;
+	}
+
+	public int getHeight() {
+		return session.height;
+	}
+
+	/**
+	 * Define a rea de interesse com o tamanho da rea de desenho.
+	 *
+	 * @return O box ajustado, como em setWorld.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector setWorld(Box box, boolean keepAspectRatio)
+			throws IllegalAccessException, InstantiationException {
+		Vector result = terraJava.setWorld(box.getX1(), box.getY1(), box
+				.getX2(), box.getY2(), session.width, session.height,
+				keepAspectRatio, session.sessionId);
+		worldSet = true;
+		return result;
+	}
+
+	/**
+	 * Configura o tema como corrente e o desenha na rea.
+	 */
+	public Vector<HashMap> drawTheme(String theme)
+			throws IllegalAccessException, InstantiationException {
+		checkWorld();
+		if (!terraJava.setTheme(theme, 0, session.sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ theme + " como corrente.");
+		return terraJava.drawCurrentTheme(session.sessionId);
+	}
+
+	/**
+	 * @return A imagem da rea, como em getCanvasImage.
+	 */
+	public byte[] getImage(int imageType, boolean opaque, int quality)
+			throws IllegalAccessException, InstantiationException {
+		checkWorld();
+		return terraJava.getCanvasImage(imageType, opaque, quality,
+				session.sessionId);
+	}
+
+	private void checkWorld() {
+		if (!worldSet)
+			throw new IllegalStateException("A rea " + name
+					+ " deve ser configurada com setWorld antes do desenho.");
+	}
+}
@@ -0,0 +1,94 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Rtulo posicionado pelo {@link LabelEngine}: texto, ponto de ancoragem (centro
+ * do texto) em coordenadas da vista, ngulo e tamanho do texto em pixels.
+ */
+public class PlacedLabel {
+
+	private final String objectId;
+
+	private final String text;
+
+	private final double x;
+
+	private final double y;
+
+	private final double angle;
+
+	private final double width;
+
+	private final double height;
+
+	private final double priority;
+
+	PlacedLabel(String objectId, String text, double x, double y, double angle,
+			double width, double height, double priority) {
+		this.objectId = objectId;
+		this.text = text;
+		this.x = x;
+		this.y = y;
+		this.angle = angle;
+		this.width = width;
+		this.height = height;
+		this.priority = priority;
+	}
+
+	public String getObjectId() {
+		return objectId;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return Coordenada x do centro do texto, na projeo da vista.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * @return Coordenada y do centro do texto, na projeo da vista.
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * @return ngulo do texto em radianos, no sentido anti-horrio a partir do
+	 *         eixo x.
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 * @return Largura do texto, em pixels.
+	 */
+	public double getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return Altura do texto, em pixels.
+	 */
+	public double getHeight() {
+		return height;
+	}
+
+	public double getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return Meia largura e meia altura, em pixels, do retngulo alinhado aos
+	 *         eixos que envolve o texto rotacionado.
+	 */
+	double[] getHalfExtent() {
+		double cos = Math.abs(Math.cos(angle)), sin = Math.abs(Math.sin(angle));
+		return new double[] { (width * cos + height * sin) / 2,
+				(width * sin + height * cos) / 2 };
+	}
+}
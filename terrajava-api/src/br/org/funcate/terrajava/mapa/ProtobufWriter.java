@@ -0,0 +1,130 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Escrita mnima do formato binrio Protocol Buffers, suficiente para a
+ * codificao de vector tiles: varints, campos de texto, mensagens aninhadas e
+ * campos numricos empacotados.
+ */
+class ProtobufWriter {
+
+	static final int VARINT = 0;
+
+	static final int FIXED64 = 1;
+
+	static final int LENGTH_DELIMITED = 2;
+
+	static final int FIXED32 = 5;
+
+	private byte[] buffer;
+
+	private int size;
+
+	ProtobufWriter() {
+		this(256);
+	}
+
+	ProtobufWriter(int capacity) {
+		buffer = new byte[Math.max(16, capacity)];
+	}
+
+	int size() {
+		return size;
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	void writeTag(int field, int wireType) {
+		writeVarint((field << 3) | wireType);
+	}
+
+	void writeVarint(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	void writeUInt(int field, long value) {
+		writeTag(field, VARINT);
+		writeVarint(value);
+	}
+
+	void writeSInt(int field, long value) {
+		writeTag(field, VARINT);
+		writeVarint(zigZag(value));
+	}
+
+	void writeBool(int field, boolean value) {
+		writeTag(field, VARINT);
+		writeVarint(value ? 1 : 0);
+	}
+
+	void writeDouble(int field, double value) {
+		writeTag(field, FIXED64);
+		long bits = Double.doubleToLongBits(value);
+		ensure(8);
+		for (int i = 0; i < 8; i++)
+			buffer[size++] = (byte) (bits >>> (8 * i));
+	}
+
+	void writeFloat(int field, float value) {
+		writeTag(field, FIXED32);
+		int bits = Float.floatToIntBits(value);
+		ensure(4);
+		for (int i = 0; i < 4; i++)
+			buffer[size++] = (byte) (bits >>> (8 * i));
+	}
+
+	void writeString(int field, String value) {
+		try {
+			writeBytes(field, value.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	void writeBytes(int field, byte[] value) {
+		writeTag(field, LENGTH_DELIMITED);
+		writeVarint(value.length);
+		ensure(value.length);
+		System.arraycopy(value, 0, buffer, size, value.length);
+		size += value.length;
+	}
+
+	void writeMessage(int field, ProtobufWriter message) {
+		writeTag(field, LENGTH_DELIMITED);
+		writeVarint(message.size);
+		ensure(message.size);
+		System.arraycopy(message.buffer, 0, buffer, size, message.size);
+		size += message.size;
+	}
+
+	/**
+	 * Escreve um campo de inteiros sem sinal empacotado.
+	 */
+	void writePacked(int field, int[] values, int count) {
+		if (count == 0)
+			return;
+		ProtobufWriter packed = new ProtobufWriter(count * 2);
+		for (int i = 0; i < count; i++)
+			packed.writeVarint(values[i] & 0xFFFFFFFFL);
+		writeMessage(field, packed);
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private void ensure(int extra) {
+		if (size + extra > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size
+					+ extra));
+	}
+}
@@ -0,0 +1,29 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Nveis de qualidade de desenho usados por {@link AdaptiveDegradation}, do
+ * desenho completo ao mais degradado.
+ */
+public enum RenderLevel {
+
+	/** Qualidade normal; nenhuma degradao. */
+	FULL,
+
+	/** Carga alta: qualidade JPEG menor, controle de escala e generalizao. */
+	REDUCED,
+
+	/** Saturao: degradao mxima e tiles ampliados do nvel anterior. */
+	MINIMAL;
+
+	public boolean isDegraded() {
+		return this != FULL;
+	}
+
+	RenderLevel higher() {
+		return (this == FULL) ? REDUCED : MINIMAL;
+	}
+
+	RenderLevel lower() {
+		return (this == MINIMAL) ? REDUCED : FULL;
+	}
+}
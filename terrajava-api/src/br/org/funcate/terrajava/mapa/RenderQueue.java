@@ -0,0 +1,438 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Fila de admisso de desenhos (setWorld, drawCurrentTheme e getCanvasImage)
+ * com prazo por pedido e substituio por cliente.
+ *
+ * Quando o usurio arrasta o mapa, cada extenso percorrida gera um pedido;
+ * s o ltimo interessa. Um pedido novo com a mesma chave de cliente descarta
+ * o pedido anterior ainda na fila (estado SUPERSEDED) e marca o pedido em
+ * execuo para ser abandonado antes da prxima chamada nativa.
+ *
+ * Os pedidos so atendidos pelo menor prazo primeiro. Pedidos com o prazo
+ * vencido so descartados (estado EXPIRED) sem chegar  biblioteca nativa; o
+ * prazo tambm  verificado entre as chamadas nativas de um desenho.
+ *
+ * Cada sesso TerraJava possui uma nica rea de desenho, portanto os pedidos
+ * de uma mesma sesso so executados um de cada vez; sesses diferentes so
+ * desenhadas em paralelo, limitadas pelo nmero de threads da fila.
+ *
+ * Com {@link #setDegradation(AdaptiveDegradation)}, a qualidade do desenho
+ * acompanha a carga da fila. Sesses nunca degradadas mantm a configurao
+ * da aplicao; ao fim da degradao, a configurao informada com
+ * {@link #setSessionSettings(String, boolean, int)}  restaurada.
+ * </pre>
+ */
+public class RenderQueue {
+
+	/** Prazo padro dos pedidos: 10 segundos. */
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	private final TerraJava terraJava;
+
+	private final TreeSet<RenderTicket> queue = new TreeSet<RenderTicket>(
+			new Comparator<RenderTicket>() {
+				public int compare(RenderTicket a, RenderTicket b) {
+					if (a.getDeadline() != b.getDeadline())
+						return (a.getDeadline() < b.getDeadline()) ? -1 : 1;
+					return (a.getSequence() < b.getSequence()) ? -1
+							: (a.getSequence() == b.getSequence()) ? 0 : 1;
+				}
+			});
+
+	/** ltimo pedido de cada cliente, na fila ou em execuo. */
+	private final HashMap<String, RenderTicket> latest = new HashMap<String, RenderTicket>();
+
+	private final HashSet<String> busySessions = new HashSet<String>();
+
+	/** Nvel de degradao aplicado a cada sesso. */
+	private final HashMap<String, RenderLevel> sessionLevels = new HashMap<String, RenderLevel>();
+
+	/** Configurao de desenho da aplicao, restaurada aps a degradao. */
+	private final HashMap<String, SessionSettings> sessionSettings = new HashMap<String, SessionSettings>();
+
+	private AdaptiveDegradation degradation;
+
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	private long defaultTimeout = DEFAULT_TIMEOUT;
+
+	private long sequence;
+
+	private boolean shutdown;
+
+	private long submitted;
+
+	private long completed;
+
+	private long superseded;
+
+	private long expired;
+
+	private long failed;
+
+	private long cancelled;
+
+	/**
+	 * @param threads
+	 *            Nmero de desenhos simultneos; normalmente igual ao valor de
+	 *            setMaxInstances.
+	 */
+	public RenderQueue(TerraJava terraJava, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"O nmero de threads deve ser positivo.");
+		this.terraJava = terraJava;
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "terrajava-desenho-" + i);
+			thread.setDaemon(true);
+			workers.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Prazo, em milissegundos, dos pedidos sem prazo prprio.
+	 */
+	public synchronized void setDefaultTimeout(long defaultTimeout) {
+		this.defaultTimeout = defaultTimeout;
+	}
+
+	/**
+	 * Ativa a degradao adaptativa: a fila informa o tamanho da fila e os
+	 * tempos de desenho ao controle e aplica o nvel corrente a cada pedido.
+	 */
+	public synchronized void setDegradation(AdaptiveDegradation degradation) {
+		this.degradation = degradation;
+	}
+
+	public synchronized AdaptiveDegradation getDegradation() {
+		return degradation;
+	}
+
+	/**
+	 * Submete um pedido de desenho, substituindo os pedidos anteriores do
+	 * mesmo cliente.
+	 */
+	public synchronized RenderTicket submit(RenderRequest request) {
+		if (shutdown)
+			throw new IllegalStateException("A fila de desenho foi encerrada.");
+		long timeout = (request.getTimeout() > 0) ? request.getTimeout()
+				: defaultTimeout;
+		RenderTicket ticket = new RenderTicket(++sequence, request,
+				System.currentTimeMillis() + timeout);
+		supersede(request.getClientKey(), RenderState.SUPERSEDED);
+		latest.put(request.getClientKey(), ticket);
+		queue.add(ticket);
+		submitted++;
+		if (degradation != null)
+			degradation.update(queue.size());
+		notifyAll();
+		return ticket;
+	}
+
+	/**
+	 * Cancela o pedido do cliente na fila e abandona o pedido em execuo, por
+	 * exemplo quando o mapa  fechado.
+	 *
+	 * @return Verdadeiro caso houvesse pedido do cliente.
+	 */
+	public synchronized boolean cancel(String clientKey) {
+		boolean found = supersede(clientKey, RenderState.CANCELLED);
+		latest.remove(clientKey);
+		return found;
+	}
+
+	/**
+	 * Informa a configurao de desenho da sesso usada pela aplicao
+	 * (setAutomaticScaleControlEnable e setGeneralizedPixels). A fila no
+	 * aplica a configurao; ela  restaurada quando a sesso deixa de ser
+	 * degradada.
+	 */
+	public synchronized void setSessionSettings(String sessionId,
+			boolean useScaleControl, int generalizedPixels) {
+		sessionSettings.put(sessionId, new SessionSettings(useScaleControl,
+				generalizedPixels));
+	}
+
+	/**
+	 * Esquece o nvel de degradao aplicado  sesso e a sua configurao,
+	 * quando ela  destruda.
+	 */
+	public synchronized void releaseSession(String sessionId) {
+		sessionLevels.remove(sessionId);
+		sessionSettings.remove(sessionId);
+	}
+
+	/**
+	 * @return Nmero de pedidos aguardando na fila.
+	 */
+	public synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * <pre>
+	 * Contadores da fila em um HashMap:
+	 *
+	 * queued, submitted, completed, superseded, expired, failed, cancelled
+	 * </pre>
+	 */
+	public synchronized HashMap<String, Object> getStats() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("queued", queue.size());
+		map.put("submitted", submitted);
+		map.put("completed", completed);
+		map.put("superseded", superseded);
+		map.put("expired", expired);
+		map.put("failed", failed);
+		map.put("cancelled", cancelled);
+		return map;
+	}
+
+	/**
+	 * Encerra a fila. Pedidos na fila so cancelados; pedidos em execuo so
+	 * abandonados no prximo ponto de verificao.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		for (RenderTicket ticket : queue)
+			finish(ticket, RenderState.CANCELLED, null, null);
+		queue.clear();
+		for (RenderTicket ticket : latest.values())
+			ticket.abandon(RenderState.CANCELLED);
+		latest.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Descarta o pedido anterior do cliente: remove da fila caso ainda no
+	 * tenha iniciado, ou marca para abandono caso esteja em execuo.
+	 */
+	private boolean supersede(String clientKey, RenderState state) {
+		RenderTicket previous = latest.get(clientKey);
+		if (previous == null)
+			return false;
+		if (queue.remove(previous))
+			finish(previous, state, null, null);
+		else
+			previous.abandon(state);
+		return true;
+	}
+
+	private void work() {
+		RenderTicket ticket;
+		while ((ticket = next()) != null) {
+			try {
+				render(ticket);
+			} finally {
+				synchronized (this) {
+					busySessions.remove(ticket.getRequest().getSessionId());
+					String clientKey = ticket.getRequest().getClientKey();
+					if (latest.get(clientKey) == ticket)
+						latest.remove(clientKey);
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Aguarda o prximo pedido de menor prazo cuja sesso esteja livre,
+	 * descartando os pedidos vencidos.
+	 *
+	 * @return O pedido, ou null aps o encerramento da fila.
+	 */
+	private synchronized RenderTicket next() {
+		while (!shutdown) {
+			long now = System.currentTimeMillis();
+			while (!queue.isEmpty() && queue.first().getDeadline() <= now) {
+				RenderTicket ticket = queue.pollFirst();
+				String clientKey = ticket.getRequest().getClientKey();
+				if (latest.get(clientKey) == ticket)
+					latest.remove(clientKey);
+				finish(ticket, RenderState.EXPIRED, null, null);
+			}
+			for (Iterator<RenderTicket> it = queue.iterator(); it.hasNext();) {
+				RenderTicket ticket = it.next();
+				String sessionId = ticket.getRequest().getSessionId();
+				if (!busySessions.contains(sessionId)) {
+					it.remove();
+					busySessions.add(sessionId);
+					ticket.started();
+					return ticket;
+				}
+			}
+			try {
+				if (queue.isEmpty())
+					wait();
+				else
+					wait(Math.max(1, queue.first().getDeadline() - now));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private void render(RenderTicket ticket) {
+		RenderRequest request = ticket.getRequest();
+		String sessionId = request.getSessionId();
+		try {
+			if (!proceed(ticket))
+				return;
+			if (request.getTheme() != null
+					&& !terraJava.setTheme(request.getTheme(), 0, sessionId)) {
+				finish(ticket, RenderState.FAILED, null, errorMessage(sessionId,
+						null));
+				return;
+			}
+			int quality = applyDegradation(ticket);
+			Box box = request.getBox();
+			terraJava.setWorld(box.getX1(), box.getY1(), box.getX2(), box
+					.getY2(), request.getWidth(), request.getHeight(), request
+					.isKeepAspectRatio(), sessionId);
+			if (!proceed(ticket))
+				return;
+			terraJava.drawCurrentTheme(sessionId);
+			if (!proceed(ticket))
+				return;
+			byte[] image = terraJava.getCanvasImage(request.getImageType(),
+					request.isOpaque(), quality, sessionId);
+			if (image == null || image.length == 0)
+				finish(ticket, RenderState.FAILED, null, errorMessage(
+						sessionId, null));
+			else
+				finish(ticket, RenderState.DONE, image, null);
+		} catch (Throwable e) {
+			finish(ticket, RenderState.FAILED, null, errorMessage(sessionId, e));
+		}
+	}
+
+	/**
+	 * Aplica  sesso o nvel de degradao corrente, quando diferente do
+	 * ltimo aplicado, e o registra no pedido. Na volta ao nvel FULL, a
+	 * configurao informada pela aplicao  restaurada.
+	 *
+	 * @return A qualidade da imagem a usar no pedido.
+	 */
+	private int applyDegradation(RenderTicket ticket)
+			throws IllegalAccessException, InstantiationException {
+		RenderRequest request = ticket.getRequest();
+		String sessionId = request.getSessionId();
+		AdaptiveDegradation control;
+		RenderLevel applied;
+		SessionSettings settings;
+		synchronized (this) {
+			control = degradation;
+			applied = sessionLevels.get(sessionId);
+			settings = sessionSettings.get(sessionId);
+		}
+		if (control == null)
+			return request.getQuality();
+		RenderLevel level = control.getLevel();
+		// sesses nunca degradadas mantm a configurao da aplicao
+		if (level != ((applied == null) ? RenderLevel.FULL : applied)) {
+			if (level == RenderLevel.FULL && settings != null) {
+				terraJava.setAutomaticScaleControlEnable(
+						settings.useScaleControl, sessionId);
+				terraJava.setGeneralizedPixels(settings.generalizedPixels,
+						sessionId);
+			} else {
+				terraJava.setAutomaticScaleControlEnable(control
+						.isScaleControlEnabled(level), sessionId);
+				terraJava.setGeneralizedPixels(control
+						.getGeneralizedPixels(level), sessionId);
+			}
+			synchronized (this) {
+				sessionLevels.put(sessionId, level);
+			}
+		}
+		ticket.setLevel(level);
+		return control.getQuality(request.getImageType(), request.getQuality());
+	}
+
+	/**
+	 * Ponto de verificao entre as chamadas nativas.
+	 *
+	 * @return Falso caso o pedido tenha sido substitudo ou vencido, j
+	 *         marcado com o estado correspondente.
+	 */
+	private boolean proceed(RenderTicket ticket) {
+		RenderState abandonState = ticket.getAbandonState();
+		if (abandonState != null) {
+			finish(ticket, abandonState, null, null);
+			return false;
+		}
+		if (System.currentTimeMillis() > ticket.getDeadline()) {
+			finish(ticket, RenderState.EXPIRED, null, null);
+			return false;
+		}
+		return true;
+	}
+
+	private synchronized void finish(RenderTicket ticket, RenderState state,
+			byte[] image, String errorMessage) {
+		if (degradation != null && ticket.getState() == RenderState.RUNNING)
+			degradation.record(queue.size(), System.currentTimeMillis()
+					- ticket.getStartedAt());
+		switch (state) {
+		case DONE:
+			completed++;
+			break;
+		case SUPERSEDED:
+			superseded++;
+			break;
+		case EXPIRED:
+			expired++;
+			break;
+		case FAILED:
+			failed++;
+			break;
+		default:
+			cancelled++;
+		}
+		ticket.finished(state, image, errorMessage);
+	}
+
+	private String errorMessage(String sessionId, Throwable e) {
+		String message = null;
+		try {
+			message = terraJava.errorMessage(sessionId);
+		} catch (Throwable ignored) {
+			// mantm a exceo original
+		}
+		if ((message == null || message.length() == 0) && e != null)
+			message = String.valueOf(e);
+		return message;
+	}
+
+	private static final class SessionSettings {
+
+		final boolean useScaleControl;
+
+		final int generalizedPixels;
+
+		SessionSettings(boolean useScaleControl, int generalizedPixels) {
+			this.useScaleControl = useScaleControl;
+			this.generalizedPixels = generalizedPixels;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package br.org.funcate.terrajava.mapa;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Pedido de desenho para a {@link RenderQueue}: a rea e o tamanho da imagem
+ * (setWorld), o tema desenhado (setTheme e drawCurrentTheme) e o formato da
+ * imagem (getCanvasImage).
+ *
+ * A chave do cliente identifica o mapa que fez o pedido (por exemplo, a sesso
+ * HTTP e o identificador do mapa na pgina); um pedido novo com a mesma chave
+ * substitui os anteriores que ainda no terminaram.
+ * </pre>
+ */
+public class RenderRequest {
+
+	private final String clientKey;
+
+	private final String sessionId;
+
+	private final Box box;
+
+	private final int width;
+
+	private final int height;
+
+	private String theme;
+
+	private boolean keepAspectRatio = true;
+
+	private int imageType;
+
+	private boolean opaque;
+
+	private int quality = 100;
+
+	private long timeout;
+
+	/**
+	 * @param clientKey
+	 *            Identificador do cliente ou mapa que fez o pedido.
+	 * @param sessionId
+	 *            Sesso TerraJava usada no desenho, com a vista corrente j
+	 *            configurada.
+	 * @param box
+	 *            rea a desenhar.
+	 * @param width
+	 *            Largura da imagem, em pixels.
+	 * @param height
+	 *            Altura da imagem, em pixels.
+	 */
+	public RenderRequest(String clientKey, String sessionId, Box box,
+			int width, int height) {
+		if (clientKey == null || sessionId == null || box == null)
+			throw new IllegalArgumentException(
+					"Cliente, sesso e box so obrigatrios.");
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Tamanho de imagem invlido: "
+					+ width + "x" + height);
+		this.clientKey = clientKey;
+		this.sessionId = sessionId;
+		this.box = box;
+		this.width = width;
+		this.height = height;
+	}
+
+	public String getClientKey() {
+		return clientKey;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public String getTheme() {
+		return theme;
+	}
+
+	/**
+	 * Tema configurado como corrente antes do desenho; null desenha o tema
+	 * corrente da sesso.
+	 */
+	public void setTheme(String theme) {
+		this.theme = theme;
+	}
+
+	public boolean isKeepAspectRatio() {
+		return keepAspectRatio;
+	}
+
+	public void setKeepAspectRatio(boolean keepAspectRatio) {
+		this.keepAspectRatio = keepAspectRatio;
+	}
+
+	public int getImageType() {
+		return imageType;
+	}
+
+	/**
+	 * Tipo de compresso da imagem, como em getCanvasImage: 0 para PNG, 1 para
+	 * JPEG e 2 para GIF.
+	 */
+	public void setImageType(int imageType) {
+		this.imageType = imageType;
+	}
+
+	public boolean isOpaque() {
+		return opaque;
+	}
+
+	public void setOpaque(boolean opaque) {
+		this.opaque = opaque;
+	}
+
+	public int getQuality() {
+		return quality;
+	}
+
+	public void setQuality(int quality) {
+		this.quality = quality;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Prazo do pedido, em milissegundos a partir da submisso; zero usa o
+	 * prazo padro da fila.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+}
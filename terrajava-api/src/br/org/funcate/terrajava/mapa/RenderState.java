@@ -0,0 +1,32 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Estados de um {@link RenderTicket}.
+ */
+public enum RenderState {
+
+	/** Aguardando na fila de desenho. */
+	QUEUED,
+
+	/** Em desenho na sesso do pedido. */
+	RUNNING,
+
+	/** Concludo; a imagem est disponvel. */
+	DONE,
+
+	/** Descartado por um pedido mais novo do mesmo cliente. */
+	SUPERSEDED,
+
+	/** Descartado por ter ultrapassado o prazo. */
+	EXPIRED,
+
+	/** Concludo com erro. */
+	FAILED,
+
+	/** Cancelado pela aplicao ou pelo encerramento da fila. */
+	CANCELLED;
+
+	public boolean isFinished() {
+		return this != QUEUED && this != RUNNING;
+	}
+}
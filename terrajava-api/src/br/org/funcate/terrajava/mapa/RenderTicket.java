@@ -0,0 +1,171 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acompanhamento de um {@link RenderRequest} submetido  {@link RenderQueue}:
+ * estado, tempos e a imagem gerada.
+ */
+public final class RenderTicket {
+
+	private final long sequence;
+
+	private final RenderRequest request;
+
+	private final long submittedAt;
+
+	private final long deadline;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private volatile RenderState state = RenderState.QUEUED;
+
+	private volatile RenderState abandonState;
+
+	private volatile long startedAt;
+
+	private volatile long finishedAt;
+
+	private volatile byte[] image;
+
+	private volatile String errorMessage;
+
+	private volatile RenderLevel level = RenderLevel.FULL;
+
+	RenderTicket(long sequence, RenderRequest request, long deadline) {
+		this.sequence = sequence;
+		this.request = request;
+		this.submittedAt = System.currentTimeMillis();
+		this.deadline = deadline;
+	}
+
+	public RenderRequest getRequest() {
+		return request;
+	}
+
+	public RenderState getState() {
+		return state;
+	}
+
+	/**
+	 * @return Instante limite do pedido, em milissegundos desde a poca.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return A imagem gerada, ou null caso o pedido no tenha sido concludo
+	 *         com sucesso.
+	 */
+	public byte[] getImage() {
+		return image;
+	}
+
+	/**
+	 * @return A mensagem de erro de pedidos com falha, ou null.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return O nvel de degradao com que o desenho foi feito; FULL para
+	 *         pedidos que no iniciaram ou sem degradao adaptativa.
+	 */
+	public RenderLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return Tempo de espera na fila, em milissegundos.
+	 */
+	public long getQueueTime() {
+		long end = (startedAt != 0) ? startedAt
+				: (finishedAt != 0) ? finishedAt : System.currentTimeMillis();
+		return end - submittedAt;
+	}
+
+	/**
+	 * @return Tempo de desenho em milissegundos, ou 0 para pedidos que no
+	 *         iniciaram.
+	 */
+	public long getRenderTime() {
+		if (startedAt == 0)
+			return 0;
+		long end = (finishedAt == 0) ? System.currentTimeMillis() : finishedAt;
+		return end - startedAt;
+	}
+
+	/**
+	 * Aguarda o fim do pedido.
+	 *
+	 * @return A imagem gerada, ou null caso o pedido tenha sido descartado,
+	 *         cancelado, tenha falhado ou o tempo de espera tenha se esgotado.
+	 */
+	public byte[] await(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		done.await(timeout, unit);
+		return image;
+	}
+
+	/**
+	 * <pre>
+	 * Estado do pedido em um HashMap, para envio ao cliente:
+	 *
+	 * clientKey, state, level, queueTime, renderTime, errorMessage
+	 * </pre>
+	 */
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("clientKey", request.getClientKey());
+		map.put("state", state.name());
+		map.put("level", level.name());
+		map.put("queueTime", getQueueTime());
+		map.put("renderTime", getRenderTime());
+		map.put("errorMessage", errorMessage);
+		return map;
+	}
+
+	long getStartedAt() {
+		return startedAt;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Marca o pedido em execuo para ser descartado, com o estado informado,
+	 * no prximo ponto de verificao entre as chamadas nativas.
+	 */
+	void abandon(RenderState state) {
+		abandonState = state;
+	}
+
+	/**
+	 * @return O estado final de pedidos marcados para abandono, ou null.
+	 */
+	RenderState getAbandonState() {
+		return abandonState;
+	}
+
+	void setLevel(RenderLevel level) {
+		this.level = level;
+	}
+
+	void started() {
+		startedAt = System.currentTimeMillis();
+		state = RenderState.RUNNING;
+	}
+
+	void finished(RenderState state, byte[] image, String errorMessage) {
+		this.image = image;
+		this.errorMessage = errorMessage;
+		this.finishedAt = System.currentTimeMillis();
+		this.state = state;
+		done.countDown();
+	}
+}
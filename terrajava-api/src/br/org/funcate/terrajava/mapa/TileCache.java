@@ -0,0 +1,240 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Cache de tiles codificados (imagens de drawThemes, vector tiles e grades
+ * UTFGrid), compartilhado entre sesses. Cada tile  identificado pelo tema,
+ * formato, nvel e posio na {@link TileGrid}. A memria ocupada  limitada
+ * por um oramento em bytes; ao ultrapass-lo, os tiles usados h mais tempo
+ * so descartados (LRU).
+ * </pre>
+ */
+public class TileCache {
+
+	public static final String FORMAT_PNG = "png";
+
+	public static final String FORMAT_MVT = "mvt";
+
+	public static final String FORMAT_UTFGRID = "utfgrid";
+
+	/** Oramento padro de memria: 64 MB. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final LinkedHashMap<TileKey, Entry> tiles = new LinkedHashMap<TileKey, Entry>(
+			256, 0.75f, true);
+
+	private final long maxBytes;
+
+	private long usedBytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	public TileCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            Oramento de memria, em bytes, para os tiles armazenados.
+	 */
+	public TileCache(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Oramento de memria invlido: "
+					+ maxBytes);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return O tile armazenado ou null caso no esteja no cache.
+	 */
+	public synchronized byte[] get(int themeId, String format, int zoom,
+			int column, int row) {
+		Entry entry = tiles.get(new TileKey(themeId, format, zoom, column, row));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		entry.hits++;
+		return entry.tile;
+	}
+
+	/**
+	 * Armazena um tile, descartando os menos usados caso o oramento de
+	 * memria seja ultrapassado. Tiles maiores que o oramento no so
+	 * armazenados.
+	 */
+	public synchronized void put(int themeId, String format, int zoom,
+			int column, int row, byte[] tile) {
+		if (tile.length > maxBytes)
+			return;
+
+		Entry old = tiles.put(new TileKey(themeId, format, zoom, column, row),
+				new Entry(tile));
+		if (old != null)
+			usedBytes -= old.tile.length;
+		usedBytes += tile.length;
+
+		Iterator<Map.Entry<TileKey, Entry>> it = tiles.entrySet().iterator();
+		while (usedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<TileKey, Entry> eldest = it.next();
+			usedBytes -= eldest.getValue().tile.length;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Descarta todos os tiles de um tema. Deve ser chamado quando os objetos,
+	 * atributos ou o visual do tema forem alterados.
+	 */
+	public synchronized void invalidate(int themeId) {
+		Iterator<Map.Entry<TileKey, Entry>> it = tiles.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<TileKey, Entry> entry = it.next();
+			if (entry.getKey().themeId == themeId) {
+				usedBytes -= entry.getValue().tile.length;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Descarta os tiles do tema, em todos os nveis e formatos, que
+	 * interceptam a regio alterada.
+	 *
+	 * @param region
+	 *            Regio alterada, na projeo da grade.
+	 * @param marginPixels
+	 *            Margem, em pixels de cada nvel, acrescentada  regio para
+	 *            cobrir smbolos, espessuras de linha e rtulos.
+	 * @param blockSize
+	 *            Tamanho, em tiles, dos blocos invalidados juntos (por
+	 *            exemplo, os metatiles do {@link LabelEngine}, cujos rtulos
+	 *            dependem de todo o bloco); 1 invalida apenas os tiles
+	 *            atingidos.
+	 * @return Os tiles descartados, do mais acessado para o menos acessado.
+	 */
+	public synchronized List<DirtyTile> invalidate(int themeId, TileGrid grid,
+			Box region, int marginPixels, int blockSize) {
+		List<DirtyTile> dirty = new ArrayList<DirtyTile>();
+		Iterator<Map.Entry<TileKey, Entry>> it = tiles.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<TileKey, Entry> entry = it.next();
+			TileKey key = entry.getKey();
+			if (key.themeId != themeId)
+				continue;
+			int size = Math.max(1, Math.min(blockSize, TileGrid
+					.getTileCount(key.zoom)));
+			int c1 = key.column / size * size, r1 = key.row / size * size;
+			int last = TileGrid.getTileCount(key.zoom) - 1;
+			Box block = grid.getTileBox(key.zoom, c1, r1).union(
+					grid.getTileBox(key.zoom, Math.min(last, c1 + size - 1),
+							Math.min(last, r1 + size - 1)));
+			if (!block.intersects(region.expand(marginPixels
+					* grid.getResolution(key.zoom))))
+				continue;
+			usedBytes -= entry.getValue().tile.length;
+			it.remove();
+			dirty.add(new DirtyTile(key.themeId, key.format, key.zoom,
+					key.column, key.row, entry.getValue().hits));
+		}
+		Collections.sort(dirty);
+		return dirty;
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		usedBytes = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static final class Entry {
+
+		final byte[] tile;
+
+		/** Nmero de acessos ao tile desde que foi armazenado. */
+		int hits;
+
+		Entry(byte[] tile) {
+			this.tile = tile;
+		}
+	}
+
+	private static final class TileKey {
+
+		final int themeId;
+
+		final String format;
+
+		final int zoom;
+
+		final int column;
+
+		final int row;
+
+		TileKey(int themeId, String format, int zoom, int column, int row) {
+			this.themeId = themeId;
+			this.format = format;
+			this.zoom = zoom;
+			this.column = column;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TileKey))
+				return false;
+			TileKey other = (TileKey) obj;
+			return themeId == other.themeId && zoom == other.zoom
+					&& column == other.column && row == other.row
+					&& format.equals(other.format);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = themeId;
+			h = h * 31 + format.hashCode();
+			h = h * 31 + zoom;
+			h = h * 31 + column;
+			h = h * 31 + row;
+			return h;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package br.org.funcate.terrajava.mapa;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Grade de tiles sobre uma extenso fixa, na projeo da vista. O nvel 0
+ * possui um nico tile cobrindo a extenso; a cada nvel a resoluo dobra e
+ * o nmero de tiles em cada eixo  multiplicado por 2. Os tiles so numerados
+ * a partir do canto superior esquerdo (coluna para leste, linha para sul),
+ * como nos esquemas XYZ usados pelos clientes Web.
+ *
+ * O box de cada tile  o box a ser passado para drawThemes (com
+ * keepAspectRatio falso) e para os geradores de UTFGrid e vector tiles, de
+ * modo que todas as sadas de um tile fiquem alinhadas.
+ * </pre>
+ */
+public class TileGrid {
+
+	/** Tamanho padro de tile: 256 pixels. */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private final Box extent;
+
+	private final int tileSize;
+
+	/**
+	 * @param extent
+	 *            Extenso coberta pelo tile do nvel 0. Para tiles quadrados, o
+	 *            box deve ser quadrado.
+	 * @param tileSize
+	 *            Largura e altura dos tiles, em pixels.
+	 */
+	public TileGrid(Box extent, int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tamanho de tile invlido: "
+					+ tileSize);
+		this.extent = extent;
+		this.tileSize = tileSize;
+	}
+
+	public Box getExtent() {
+		return extent;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return Nmero de tiles em cada eixo no nvel.
+	 */
+	public static int getTileCount(int zoom) {
+		return 1 << zoom;
+	}
+
+	/**
+	 * @return Tamanho de um pixel, em unidades da vista, no nvel.
+	 */
+	public double getResolution(int zoom) {
+		return extent.getWidth() / ((double) tileSize * getTileCount(zoom));
+	}
+
+	/**
+	 * @return O box do tile.
+	 */
+	public Box getTileBox(int zoom, int column, int row) {
+		int n = getTileCount(zoom);
+		if (column < 0 || row < 0 || column >= n || row >= n)
+			throw new IllegalArgumentException("Tile inexistente: " + zoom + "/"
+					+ column + "/" + row);
+		double w = extent.getWidth() / n;
+		double h = extent.getHeight() / n;
+		double x1 = extent.getX1() + column * w;
+		double y2 = extent.getY2() - row * h;
+		return new Box(x1, y2 - h, x1 + w, y2);
+	}
+
+	/**
+	 * @return O nvel cuja resoluo  a mais prxima, sem ser maior, da
+	 *         resoluo informada.
+	 */
+	public int getZoomForResolution(double resolution, int maxZoom) {
+		for (int z = 0; z < maxZoom; z++)
+			if (getResolution(z) <= resolution)
+				return z;
+		return maxZoom;
+	}
+}
@@ -0,0 +1,21 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Recebe a notificao das falhas na gerao de tiles do
+ * {@link DirtyTileScheduler}, para que a aplicao as registre ou descarte os
+ * tiles do {@link TileCache}.
+ */
+public interface TileRefreshListener {
+
+	/**
+	 * @param tile
+	 *            Tile cuja gerao falhou.
+	 * @param error
+	 *            Erro lanado pelo {@link TileRefresher}.
+	 * @param retrying
+	 *            Verdadeiro se o tile voltou  fila para nova tentativa; falso
+	 *            se as tentativas se esgotaram e o tile ficou na lista de
+	 *            falhas ({@link DirtyTileScheduler#getFailedTiles()}).
+	 */
+	void tileFailed(DirtyTile tile, Throwable error, boolean retrying);
+}
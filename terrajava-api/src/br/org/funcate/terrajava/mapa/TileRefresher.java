@@ -0,0 +1,12 @@
+package br.org.funcate.terrajava.mapa;
+
+/**
+ * Gera novamente um tile descartado por uma edio e o armazena no
+ * {@link TileCache}; usado pelo {@link DirtyTileScheduler}. A implementao
+ * depende do formato do tile (drawThemes, {@link VectorTileBuilder},
+ * {@link UTFGridBuilder}, {@link AdaptiveTileRenderer}).
+ */
+public interface TileRefresher {
+
+	void refresh(DirtyTile tile) throws Exception;
+}
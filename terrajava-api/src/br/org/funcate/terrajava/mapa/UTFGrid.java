@@ -0,0 +1,148 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.util.JSONWriter;
+
+/**
+ * <pre>
+ * Grade de interatividade (UTFGrid) de um tile. Cada clula da grade guarda o
+ * ndice do objeto desenhado sob ela (0 para nenhum). As linhas so mantidas
+ * codificadas por carreiras (pares ndice, comprimento) e s so expandidas
+ * para o formato UTFGrid ao gerar o JSON.
+ *
+ * Formato gerado por toJSON:
+ *
+ * {"grid": ["  !!! ", ...], "keys": ["", "12", ...], "data": {"12": {...}}}
+ * </pre>
+ */
+public class UTFGrid {
+
+	private final int columns;
+
+	private final int rows;
+
+	private final int resolution;
+
+	private final int[][] runs;
+
+	private final List<String> keys;
+
+	private final Map<String, HashMap<String, Object>> data;
+
+	UTFGrid(int columns, int rows, int resolution, int[][] runs,
+			List<String> keys, Map<String, HashMap<String, Object>> data) {
+		this.columns = columns;
+		this.rows = rows;
+		this.resolution = resolution;
+		this.runs = runs;
+		this.keys = Collections.unmodifiableList(keys);
+		this.data = Collections.unmodifiableMap(data);
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return Nmero de pixels da imagem por clula da grade, em cada eixo.
+	 */
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @return As chaves (identificadores dos objetos); a posio 0  a chave
+	 *         vazia.
+	 */
+	public List<String> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return Atributos dos objetos, por chave.
+	 */
+	public Map<String, HashMap<String, Object>> getData() {
+		return data;
+	}
+
+	/**
+	 * @return As carreiras da linha: pares (ndice da chave, nmero de
+	 *         clulas).
+	 */
+	public int[] getRuns(int row) {
+		return runs[row].clone();
+	}
+
+	/**
+	 * @return A chave do objeto sob o pixel da imagem, ou null.
+	 */
+	public String getKey(int pixelX, int pixelY) {
+		int row = pixelY / resolution;
+		int col = pixelX / resolution;
+		if (row < 0 || row >= rows || col < 0 || col >= columns)
+			return null;
+		int[] r = runs[row];
+		for (int i = 0, c = 0; i < r.length; i += 2) {
+			c += r[i + 1];
+			if (col < c)
+				return (r[i] == 0) ? null : keys.get(r[i]);
+		}
+		return null;
+	}
+
+	/**
+	 * @return Verdadeiro quando nenhuma clula possui objeto.
+	 */
+	public boolean isEmpty() {
+		return keys.size() <= 1;
+	}
+
+	/**
+	 * Gera o documento JSON no formato UTFGrid.
+	 */
+	public String toJSON() {
+		StringBuilder out = new StringBuilder(rows * (columns + 4) + 64);
+		out.append("{\"grid\":[");
+		StringBuilder line = new StringBuilder(columns);
+		for (int row = 0; row < rows; row++) {
+			if (row > 0)
+				out.append(',');
+			line.setLength(0);
+			int[] r = runs[row];
+			for (int i = 0; i < r.length; i += 2) {
+				char c = encode(r[i]);
+				for (int k = 0; k < r[i + 1]; k++)
+					line.append(c);
+			}
+			JSONWriter.quote(line.toString(), out);
+		}
+		out.append("],\"keys\":");
+		JSONWriter.write(keys, out);
+		out.append(",\"data\":");
+		JSONWriter.write(new LinkedHashMap<String, Object>(data), out);
+		out.append('}');
+		return out.toString();
+	}
+
+	/**
+	 * Codifica o ndice de uma chave como caractere UTFGrid: soma 32 e evita
+	 * as aspas (34) e a barra invertida (92).
+	 */
+	static char encode(int index) {
+		int code = index + 32;
+		if (code >= 34)
+			code++;
+		if (code >= 92)
+			code++;
+		return (char) code;
+	}
+}
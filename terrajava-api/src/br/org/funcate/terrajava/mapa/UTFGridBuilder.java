@@ -0,0 +1,305 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.ViewTransform;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Gera grades de interatividade (UTFGrid) para o tema corrente, alinhadas s
+ * imagens de drawThemes do mesmo box e tamanho. Com a grade, a identificao
+ * do objeto sob o cursor  feita no cliente, sem chamadas a locateObject.
+ *
+ * As geometrias de getFeaturesInBox so rasterizadas no centro de cada clula:
+ * polgonos por varredura de linhas (regra par-mpar, respeitando os buracos),
+ * linhas pelas clulas atravessadas e pontos por um quadrado do raio
+ * configurado. Polgonos so rasterizados primeiro, depois linhas e por fim
+ * pontos, de modo que objetos menores fiquem acessveis.
+ *
+ * Os atributos selecionados so lidos com fetchAttributes, apenas para os
+ * objetos que ocupam ao menos uma clula da grade.
+ * </pre>
+ */
+public class UTFGridBuilder {
+
+	/** Resoluo padro: uma clula para cada 4x4 pixels. */
+	public static final int DEFAULT_RESOLUTION = 4;
+
+	/** Raio padro, em pixels, das reas geradas para pontos. */
+	public static final int DEFAULT_POINT_RADIUS = 4;
+
+	private final TerraJava terraJava;
+
+	private final String sessionId;
+
+	private int resolution = DEFAULT_RESOLUTION;
+
+	private int pointRadius = DEFAULT_POINT_RADIUS;
+
+	private List<String> attributes = new ArrayList<String>();
+
+	private boolean useFeatureProperties;
+
+	public UTFGridBuilder(TerraJava terraJava, String sessionId) {
+		this.terraJava = terraJava;
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * @param resolution
+	 *            Nmero de pixels por clula, em cada eixo.
+	 */
+	public UTFGridBuilder setResolution(int resolution) {
+		if (resolution <= 0)
+			throw new IllegalArgumentException("Resoluo invlida: "
+					+ resolution);
+		this.resolution = resolution;
+		return this;
+	}
+
+	public UTFGridBuilder setPointRadius(int pointRadius) {
+		this.pointRadius = pointRadius;
+		return this;
+	}
+
+	/**
+	 * @param attributes
+	 *            Colunas da tabela de atributos includas nos dados da grade.
+	 *            Lista vazia inclui apenas o identificador do objeto.
+	 */
+	public UTFGridBuilder setAttributes(List<String> attributes) {
+		this.attributes = new ArrayList<String>(attributes);
+		return this;
+	}
+
+	/**
+	 * @param useFeatureProperties
+	 *            Verdadeiro para usar as propriedades das features GeoJSON em
+	 *            vez de fetchAttributes, evitando uma chamada por objeto quando
+	 *            as colunas j esto presentes nas features.
+	 */
+	public UTFGridBuilder setUseFeatureProperties(boolean useFeatureProperties) {
+		this.useFeatureProperties = useFeatureProperties;
+		return this;
+	}
+
+	/**
+	 * Gera a grade do tema corrente para um tile.
+	 */
+	public UTFGrid build(TileGrid grid, int zoom, int column, int row)
+			throws IllegalAccessException, InstantiationException {
+		return build(grid.getTileBox(zoom, column, row), grid.getTileSize(),
+				grid.getTileSize());
+	}
+
+	/**
+	 * Gera a grade do tema corrente para o box e tamanho de imagem informados
+	 * (os mesmos passados para drawThemes).
+	 */
+	@SuppressWarnings("unchecked")
+	public UTFGrid build(Box box, int width, int height)
+			throws IllegalAccessException, InstantiationException {
+		// margem de um ponto para incluir smbolos cortados pela borda
+		double margin = pointRadius * box.getWidth() / width;
+		Box query = box.expand(margin);
+		Vector features = terraJava.getFeaturesInBox(query.getX1(), query
+				.getY1(), query.getX2(), query.getY2(), sessionId);
+		return build(GeoJSONReader.readFeatures(features), box, width, height);
+	}
+
+	/**
+	 * Gera a grade a partir de features j recuperadas.
+	 */
+	public UTFGrid build(List<Feature> features, Box box, int width, int height)
+			throws IllegalAccessException, InstantiationException {
+		int columns = (width + resolution - 1) / resolution;
+		int rows = (height + resolution - 1) / resolution;
+		ViewTransform transform = new ViewTransform(box, width, height);
+		int[] cells = new int[columns * rows];
+
+		// a posio na lista de features, mais um, identifica o objeto na grade
+		int[] order = { Geometry.POLYGONS, Geometry.LINES, Geometry.POINTS };
+		for (int type : order) {
+			for (int i = 0; i < features.size(); i++) {
+				Geometry geometry = features.get(i).getGeometry();
+				if (geometry == null || geometry.getType() != type
+						|| geometry.isEmpty())
+					continue;
+				if (type == Geometry.POLYGONS)
+					fillPolygons(geometry, transform, cells, columns, rows, i + 1);
+				else if (type == Geometry.LINES)
+					drawLines(geometry, transform, cells, columns, rows, i + 1);
+				else
+					drawPoints(geometry, transform, cells, columns, rows, i + 1);
+			}
+		}
+
+		// renumera os objetos presentes na grade, na ordem de apario
+		int[] keyIndex = new int[features.size() + 1];
+		List<String> keys = new ArrayList<String>();
+		keys.add("");
+		Map<String, HashMap<String, Object>> data = new LinkedHashMap<String, HashMap<String, Object>>();
+		for (int i = 0; i < cells.length; i++) {
+			int f = cells[i];
+			if (f == 0 || keyIndex[f] != 0)
+				continue;
+			Feature feature = features.get(f - 1);
+			keyIndex[f] = keys.size();
+			keys.add(feature.getObjectId());
+			data.put(feature.getObjectId(), attributesOf(feature));
+		}
+
+		int[][] runs = new int[rows][];
+		int[] buffer = new int[columns * 2];
+		for (int r = 0; r < rows; r++) {
+			int size = 0;
+			for (int c = 0; c < columns; c++) {
+				int key = keyIndex[cells[r * columns + c]];
+				if (size > 0 && buffer[size - 2] == key) {
+					buffer[size - 1]++;
+				} else {
+					buffer[size++] = key;
+					buffer[size++] = 1;
+				}
+			}
+			runs[r] = Arrays.copyOf(buffer, size);
+		}
+		return new UTFGrid(columns, rows, resolution, runs, keys, data);
+	}
+
+	@SuppressWarnings("unchecked")
+	private HashMap<String, Object> attributesOf(Feature feature)
+			throws IllegalAccessException, InstantiationException {
+		HashMap<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("objectId", feature.getObjectId());
+		if (attributes.isEmpty())
+			return result;
+
+		if (useFeatureProperties) {
+			for (String column : attributes)
+				result.put(column, feature.getProperty(column));
+			return result;
+		}
+
+		Vector values = terraJava.fetchAttributes(feature.getObjectId(), 0,
+				sessionId);
+		for (int i = 0; i + 1 < values.size(); i += 2) {
+			String column = String.valueOf(values.get(i));
+			for (String wanted : attributes)
+				if (matches(column, wanted))
+					result.put(wanted, values.get(i + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Compara nomes de coluna, aceitando nomes qualificados com a tabela.
+	 */
+	private static boolean matches(String column, String wanted) {
+		if (column.equalsIgnoreCase(wanted))
+			return true;
+		int dot = column.lastIndexOf('.');
+		return dot >= 0 && column.substring(dot + 1).equalsIgnoreCase(wanted);
+	}
+
+	private void fillPolygons(Geometry geometry, ViewTransform transform,
+			int[] cells, int columns, int rows, int value) {
+		double[] xs = new double[16];
+		for (List<double[]> rings : geometry.getComponents()) {
+			List<double[]> grid = new ArrayList<double[]>(rings.size());
+			double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (double[] ring : rings) {
+				double[] g = toGrid(ring, transform);
+				grid.add(g);
+				for (int i = 1; i < g.length; i += 2) {
+					minY = Math.min(minY, g[i]);
+					maxY = Math.max(maxY, g[i]);
+				}
+			}
+			int r1 = Math.max(0, (int) Math.ceil(minY - 0.5));
+			int r2 = Math.min(rows - 1, (int) Math.floor(maxY - 0.5));
+			for (int r = r1; r <= r2; r++) {
+				double y = r + 0.5;
+				int n = 0;
+				for (double[] g : grid) {
+					int points = g.length / 2;
+					for (int i = 0, j = points - 1; i < points; j = i++) {
+						double yi = g[2 * i + 1], yj = g[2 * j + 1];
+						if ((yi > y) == (yj > y))
+							continue;
+						if (n == xs.length)
+							xs = Arrays.copyOf(xs, n * 2);
+						xs[n++] = g[2 * i] + (y - yi) * (g[2 * j] - g[2 * i])
+								/ (yj - yi);
+					}
+				}
+				Arrays.sort(xs, 0, n);
+				for (int k = 0; k + 1 < n; k += 2) {
+					int c1 = Math.max(0, (int) Math.ceil(xs[k] - 0.5));
+					int c2 = Math.min(columns - 1,
+							(int) Math.ceil(xs[k + 1] - 0.5) - 1);
+					for (int c = c1; c <= c2; c++)
+						cells[r * columns + c] = value;
+				}
+			}
+		}
+	}
+
+	private void drawLines(Geometry geometry, ViewTransform transform,
+			int[] cells, int columns, int rows, int value) {
+		for (List<double[]> parts : geometry.getComponents()) {
+			for (double[] line : parts) {
+				double[] g = toGrid(line, transform);
+				for (int i = 2; i + 1 < g.length; i += 2) {
+					double dx = g[i] - g[i - 2], dy = g[i + 1] - g[i - 1];
+					int steps = Math.max(1, (int) Math.ceil(Math.max(Math
+							.abs(dx), Math.abs(dy))));
+					for (int s = 0; s <= steps; s++) {
+						int c = (int) Math.floor(g[i - 2] + dx * s / steps);
+						int r = (int) Math.floor(g[i - 1] + dy * s / steps);
+						if (c >= 0 && c < columns && r >= 0 && r < rows)
+							cells[r * columns + c] = value;
+					}
+				}
+			}
+		}
+	}
+
+	private void drawPoints(Geometry geometry, ViewTransform transform,
+			int[] cells, int columns, int rows, int value) {
+		int radius = (int) Math.ceil((double) pointRadius / resolution);
+		for (List<double[]> parts : geometry.getComponents()) {
+			double[] p = parts.get(0);
+			if (p.length < 2)
+				continue;
+			int c0 = (int) Math.floor(transform.toPixelX(p[0]) / resolution);
+			int r0 = (int) Math.floor(transform.toPixelY(p[1]) / resolution);
+			for (int r = Math.max(0, r0 - radius); r <= Math.min(rows - 1, r0
+					+ radius); r++)
+				for (int c = Math.max(0, c0 - radius); c <= Math.min(
+						columns - 1, c0 + radius); c++)
+					cells[r * columns + c] = value;
+		}
+	}
+
+	/**
+	 * Converte coordenadas da vista para coordenadas de clula fracionrias.
+	 */
+	private double[] toGrid(double[] coords, ViewTransform transform) {
+		double[] g = transform.toPixels(coords);
+		for (int i = 0; i < g.length; i++)
+			g[i] /= resolution;
+		return g;
+	}
+}
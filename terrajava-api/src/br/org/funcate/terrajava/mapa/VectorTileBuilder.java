@@ -0,0 +1,143 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Gera vector tiles (MVT) do tema corrente para a {@link TileGrid}, a partir
+ * das features de getFeaturesInBox recuperadas para o box do tile acrescido
+ * da borda. Quando um {@link TileCache}  informado, os tiles gerados so
+ * armazenados com um formato iniciado por {@link TileCache#FORMAT_MVT} e
+ * seguido pela assinatura da configurao ({@link #getFormat}), da mesma
+ * forma que os tiles de imagem; construtores com configuraes diferentes
+ * no compartilham tiles.
+ * </pre>
+ */
+public class VectorTileBuilder {
+
+	private final TerraJava terraJava;
+
+	private final String sessionId;
+
+	private final TileCache cache;
+
+	private int extent = VectorTileEncoder.DEFAULT_EXTENT;
+
+	private int buffer = VectorTileEncoder.DEFAULT_BUFFER;
+
+	private double tolerance = VectorTileEncoder.DEFAULT_TOLERANCE;
+
+	private List<String> attributes;
+
+	public VectorTileBuilder(TerraJava terraJava, String sessionId) {
+		this(terraJava, sessionId, null);
+	}
+
+	public VectorTileBuilder(TerraJava terraJava, String sessionId,
+			TileCache cache) {
+		this.terraJava = terraJava;
+		this.sessionId = sessionId;
+		this.cache = cache;
+	}
+
+	/**
+	 * @param extent
+	 *            Extenso do tile em unidades inteiras (padro 4096).
+	 */
+	public VectorTileBuilder setExtent(int extent) {
+		this.extent = extent;
+		return this;
+	}
+
+	/**
+	 * @param buffer
+	 *            Borda alm do tile, em unidades do tile.
+	 */
+	public VectorTileBuilder setBuffer(int buffer) {
+		this.buffer = buffer;
+		return this;
+	}
+
+	/**
+	 * @param tolerance
+	 *            Tolerncia de simplificao, em unidades do tile.
+	 */
+	public VectorTileBuilder setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * @param attributes
+	 *            Colunas includas como atributos, ou null para incluir todas
+	 *            as propriedades das features.
+	 */
+	public VectorTileBuilder setAttributes(List<String> attributes) {
+		this.attributes = (attributes == null) ? null : new ArrayList<String>(
+				attributes);
+		return this;
+	}
+
+	/**
+	 * @return O formato usado na chave do cache: {@link TileCache#FORMAT_MVT}
+	 *         seguido da grade, da camada e dos parmetros de codificao.
+	 */
+	public String getFormat(TileGrid grid, String layerName) {
+		Box gridExtent = grid.getExtent();
+		StringBuilder s = new StringBuilder(TileCache.FORMAT_MVT);
+		s.append('|').append(gridExtent.getX1()).append(',').append(
+				gridExtent.getY1()).append(',').append(gridExtent.getX2())
+				.append(',').append(gridExtent.getY2()).append(',').append(
+						grid.getTileSize());
+		s.append('|').append(layerName).append('|').append(extent).append('|')
+				.append(buffer).append('|').append(tolerance).append('|');
+		if (attributes != null)
+			for (String attribute : attributes)
+				s.append(attribute).append(',');
+		else
+			s.append('*');
+		return s.toString();
+	}
+
+	/**
+	 * Gera o vector tile do tema corrente. O tema corrente da sesso deve ser
+	 * o tema indicado.
+	 *
+	 * @param themeId
+	 *            Identificador do tema corrente, usado na chave do cache.
+	 * @param layerName
+	 *            Nome da camada no tile.
+	 * @return O tile codificado em Protocol Buffers.
+	 */
+	@SuppressWarnings("unchecked")
+	public byte[] build(TileGrid grid, int zoom, int column, int row,
+			int themeId, String layerName) throws IllegalAccessException,
+			InstantiationException {
+		String format = (cache != null) ? getFormat(grid, layerName) : null;
+		if (cache != null) {
+			byte[] cached = cache.get(themeId, format, zoom, column, row);
+			if (cached != null)
+				return cached;
+		}
+
+		Box box = grid.getTileBox(zoom, column, row);
+		Box query = box.expand(box.getWidth() * buffer / extent);
+		Vector features = terraJava.getFeaturesInBox(query.getX1(), query
+				.getY1(), query.getX2(), query.getY2(), sessionId);
+
+		VectorTileEncoder encoder = new VectorTileEncoder(box, extent, buffer,
+				tolerance);
+		encoder.addFeatures(layerName, GeoJSONReader.readFeatures(features),
+				attributes);
+		byte[] tile = encoder.encode();
+		if (cache != null)
+			cache.put(themeId, format, zoom, column, row, tile);
+		return tile;
+	}
+}
@@ -0,0 +1,503 @@
+package br.org.funcate.terrajava.mapa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.Simplifier;
+
+/**
+ * <pre>
+ * Codificador de vector tiles no formato Mapbox Vector Tile (verso 2).
+ *
+ * As geometrias so convertidas para as coordenadas inteiras do tile (0 a
+ * extent, com y para baixo), recortadas pelo box do tile acrescido da borda,
+ * simplificadas (Douglas-Peucker, tolerncia em unidades do tile) e
+ * codificadas com os comandos MoveTo, LineTo e ClosePath. Como a tolerncia 
+ * medida nas unidades do tile, a simplificao acompanha o nvel de zoom.
+ *
+ * Cada chamada a addFeatures acrescenta (ou completa) uma camada do tile.
+ * </pre>
+ */
+public class VectorTileEncoder {
+
+	/** Extenso padro do tile, em unidades inteiras. */
+	public static final int DEFAULT_EXTENT = 4096;
+
+	/** Borda padro alm do tile, em unidades do tile. */
+	public static final int DEFAULT_BUFFER = 64;
+
+	/** Tolerncia padro de simplificao, em unidades do tile. */
+	public static final double DEFAULT_TOLERANCE = 1;
+
+	private static final int POINT = 1;
+
+	private static final int LINESTRING = 2;
+
+	private static final int POLYGON = 3;
+
+	private static final int MOVE_TO = 1;
+
+	private static final int LINE_TO = 2;
+
+	private static final int CLOSE_PATH = 7;
+
+	private final Box tileBox;
+
+	private final int extent;
+
+	private final int buffer;
+
+	private final double tolerance;
+
+	private final Map<String, Layer> layers = new LinkedHashMap<String, Layer>();
+
+	public VectorTileEncoder(Box tileBox) {
+		this(tileBox, DEFAULT_EXTENT, DEFAULT_BUFFER, DEFAULT_TOLERANCE);
+	}
+
+	public VectorTileEncoder(Box tileBox, int extent, int buffer,
+			double tolerance) {
+		this.tileBox = tileBox;
+		this.extent = extent;
+		this.buffer = buffer;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Acrescenta features a uma camada do tile.
+	 *
+	 * @param layerName
+	 *            Nome da camada no tile (usualmente o nome do tema).
+	 * @param features
+	 *            Features em coordenadas da vista.
+	 * @param attributes
+	 *            Colunas includas como atributos, ou null para incluir todas
+	 *            as propriedades das features.
+	 * @return Nmero de features efetivamente includas.
+	 */
+	public int addFeatures(String layerName, List<Feature> features,
+			List<String> attributes) {
+		Layer layer = layers.get(layerName);
+		if (layer == null) {
+			layer = new Layer(layerName);
+			layers.put(layerName, layer);
+		}
+		int added = 0;
+		for (Feature feature : features) {
+			Geometry geometry = feature.getGeometry();
+			if (geometry == null || geometry.isEmpty())
+				continue;
+			int[] commands = encodeGeometry(geometry);
+			if (commands == null)
+				continue;
+			layer.addFeature(feature, attributes, toType(geometry.getType()),
+					commands);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * @return Verdadeiro quando nenhuma camada possui features.
+	 */
+	public boolean isEmpty() {
+		for (Layer layer : layers.values())
+			if (layer.features.size() > 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return O tile codificado em Protocol Buffers.
+	 */
+	public byte[] encode() {
+		ProtobufWriter tile = new ProtobufWriter();
+		for (Layer layer : layers.values())
+			tile.writeMessage(3, layer.encode(extent));
+		return tile.toByteArray();
+	}
+
+	private static int toType(int geomRep) {
+		if (geomRep == Geometry.POINTS)
+			return POINT;
+		return (geomRep == Geometry.LINES) ? LINESTRING : POLYGON;
+	}
+
+	/**
+	 * @return Os comandos da geometria, ou null quando nada resta aps o
+	 *         recorte e a simplificao.
+	 */
+	private int[] encodeGeometry(Geometry geometry) {
+		CommandWriter out = new CommandWriter();
+		for (List<double[]> parts : geometry.getComponents()) {
+			if (geometry.getType() == Geometry.POINTS) {
+				double[] p = parts.isEmpty() ? null : parts.get(0);
+				if (p == null || p.length < 2)
+					continue;
+				double x = toTileX(p[0]), y = toTileY(p[1]);
+				if (x < -buffer || y < -buffer || x > extent + buffer
+						|| y > extent + buffer)
+					continue;
+				out.addPoint((int) Math.round(x), (int) Math.round(y));
+			} else if (geometry.getType() == Geometry.LINES) {
+				for (double[] line : parts)
+					for (double[] clipped : clipLine(toTile(line)))
+						out.addPath(quantize(clipped), false);
+			} else {
+				boolean hasExterior = false;
+				for (int r = 0; r < parts.size(); r++) {
+					double[] ring = quantize(clipRing(toTile(parts.get(r))));
+					ring = closeless(ring);
+					if (ring.length < 6)
+						continue;
+					double area = Geometry.signedArea(ring);
+					if (area == 0)
+						continue;
+					// no tile (y para baixo), anis externos tm rea positiva
+					boolean exterior = (r == 0);
+					if ((area > 0) != exterior)
+						ring = reverse(ring);
+					if (!exterior && !hasExterior)
+						continue;
+					out.addPath(ring, true);
+					hasExterior = true;
+				}
+			}
+		}
+		return (out.size() == 0) ? null : out.toArray();
+	}
+
+	private double toTileX(double x) {
+		return (x - tileBox.getX1()) * extent / tileBox.getWidth();
+	}
+
+	private double toTileY(double y) {
+		return (tileBox.getY2() - y) * extent / tileBox.getHeight();
+	}
+
+	private double[] toTile(double[] coords) {
+		double[] result = new double[coords.length];
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			result[i] = toTileX(coords[i]);
+			result[i + 1] = toTileY(coords[i + 1]);
+		}
+		return result;
+	}
+
+	private double[] quantize(double[] coords) {
+		return Simplifier.snap(Simplifier.douglasPeucker(coords, tolerance), 1);
+	}
+
+	/**
+	 * Recorta um anel pelo box do tile com borda (Sutherland-Hodgman).
+	 */
+	private double[] clipRing(double[] ring) {
+		double min = -buffer, max = extent + buffer;
+		for (int edge = 0; edge < 4 && ring.length >= 6; edge++) {
+			int n = ring.length / 2;
+			double[] out = new double[(n + 1) * 4];
+			int size = 0;
+			for (int i = 0; i < n; i++) {
+				int j = (i + n - 1) % n;
+				double px = ring[2 * j], py = ring[2 * j + 1];
+				double cx = ring[2 * i], cy = ring[2 * i + 1];
+				boolean pin = inside(edge, px, py, min, max);
+				boolean cin = inside(edge, cx, cy, min, max);
+				if (cin != pin) {
+					double[] p = intersect(edge, px, py, cx, cy, min, max);
+					out[size++] = p[0];
+					out[size++] = p[1];
+				}
+				if (cin) {
+					out[size++] = cx;
+					out[size++] = cy;
+				}
+			}
+			ring = Arrays.copyOf(out, size);
+		}
+		return ring;
+	}
+
+	private static boolean inside(int edge, double x, double y, double min,
+			double max) {
+		switch (edge) {
+		case 0:
+			return x >= min;
+		case 1:
+			return x <= max;
+		case 2:
+			return y >= min;
+		default:
+			return y <= max;
+		}
+	}
+
+	private static double[] intersect(int edge, double x1, double y1,
+			double x2, double y2, double min, double max) {
+		double bound = (edge == 0 || edge == 2) ? min : max;
+		if (edge < 2) {
+			double t = (bound - x1) / (x2 - x1);
+			return new double[] { bound, y1 + (y2 - y1) * t };
+		}
+		double t = (bound - y1) / (y2 - y1);
+		return new double[] { x1 + (x2 - x1) * t, bound };
+	}
+
+	/**
+	 * Recorta uma linha pelo box do tile com borda (Liang-Barsky por
+	 * segmento), dividindo-a nas partes que permanecem no tile.
+	 */
+	private List<double[]> clipLine(double[] line) {
+		double min = -buffer, max = extent + buffer;
+		List<double[]> result = new ArrayList<double[]>();
+		double[] current = new double[line.length];
+		int size = 0;
+		for (int i = 2; i + 1 < line.length; i += 2) {
+			double x1 = line[i - 2], y1 = line[i - 1];
+			double dx = line[i] - x1, dy = line[i + 1] - y1;
+			double t0 = 0, t1 = 1;
+			double[] p = { -dx, dx, -dy, dy };
+			double[] q = { x1 - min, max - x1, y1 - min, max - y1 };
+			boolean visible = true;
+			for (int k = 0; k < 4 && visible; k++) {
+				if (p[k] == 0) {
+					visible = q[k] >= 0;
+				} else {
+					double t = q[k] / p[k];
+					if (p[k] < 0)
+						t0 = Math.max(t0, t);
+					else
+						t1 = Math.min(t1, t);
+					visible = t0 <= t1;
+				}
+			}
+			if (!visible) {
+				size = flush(result, current, size);
+				continue;
+			}
+			double ax = x1 + dx * t0, ay = y1 + dy * t0;
+			double bx = x1 + dx * t1, by = y1 + dy * t1;
+			if (size == 0 || current[size - 2] != ax || current[size - 1] != ay) {
+				size = flush(result, current, size);
+				current = ensure(current, size + 4);
+				current[size++] = ax;
+				current[size++] = ay;
+			}
+			current = ensure(current, size + 2);
+			current[size++] = bx;
+			current[size++] = by;
+			if (t1 < 1)
+				size = flush(result, current, size);
+		}
+		flush(result, current, size);
+		return result;
+	}
+
+	private static double[] ensure(double[] array, int size) {
+		return (size <= array.length) ? array : Arrays.copyOf(array, size * 2);
+	}
+
+	private static int flush(List<double[]> result, double[] current, int size) {
+		if (size >= 4)
+			result.add(Arrays.copyOf(current, size));
+		return 0;
+	}
+
+	/**
+	 * Remove o vrtice de fechamento do anel, implcito no comando ClosePath.
+	 */
+	private static double[] closeless(double[] ring) {
+		int n = ring.length;
+		if (n >= 4 && ring[0] == ring[n - 2] && ring[1] == ring[n - 1])
+			return Arrays.copyOf(ring, n - 2);
+		return ring;
+	}
+
+	private static double[] reverse(double[] coords) {
+		double[] result = new double[coords.length];
+		int n = coords.length / 2;
+		for (int i = 0; i < n; i++) {
+			result[2 * i] = coords[2 * (n - 1 - i)];
+			result[2 * i + 1] = coords[2 * (n - 1 - i) + 1];
+		}
+		return result;
+	}
+
+	/**
+	 * Gera a sequncia de comandos de uma feature, com as coordenadas
+	 * relativas ao cursor e codificadas em zigzag.
+	 */
+	private static class CommandWriter {
+
+		private int[] commands = new int[64];
+
+		private int size;
+
+		private int x;
+
+		private int y;
+
+		private int pointCountIndex = -1;
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(commands, size);
+		}
+
+		void addPoint(int px, int py) {
+			// pontos de uma mesma feature formam um nico MoveTo
+			if (pointCountIndex < 0) {
+				pointCountIndex = size;
+				add(command(MOVE_TO, 0));
+			}
+			commands[pointCountIndex] += 1 << 3;
+			addDelta(px, py);
+		}
+
+		void addPath(double[] coords, boolean close) {
+			int n = coords.length / 2;
+			if (n < 2)
+				return;
+			add(command(MOVE_TO, 1));
+			addDelta((int) coords[0], (int) coords[1]);
+			add(command(LINE_TO, n - 1));
+			for (int i = 1; i < n; i++)
+				addDelta((int) coords[2 * i], (int) coords[2 * i + 1]);
+			if (close)
+				add(command(CLOSE_PATH, 1));
+		}
+
+		private void addDelta(int px, int py) {
+			add((int) ProtobufWriter.zigZag(px - x));
+			add((int) ProtobufWriter.zigZag(py - y));
+			x = px;
+			y = py;
+		}
+
+		private void add(int value) {
+			if (size == commands.length)
+				commands = Arrays.copyOf(commands, size * 2);
+			commands[size++] = value;
+		}
+
+		private static int command(int id, int count) {
+			return (id & 0x7) | (count << 3);
+		}
+	}
+
+	/**
+	 * Camada do tile, com as tabelas de chaves e valores compartilhadas pelas
+	 * features.
+	 */
+	private static class Layer {
+
+		final String name;
+
+		final List<ProtobufWriter> features = new ArrayList<ProtobufWriter>();
+
+		final Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+
+		final Map<Object, Integer> values = new LinkedHashMap<Object, Integer>();
+
+		Layer(String name) {
+			this.name = name;
+		}
+
+		void addFeature(Feature feature, List<String> attributes, int type,
+				int[] commands) {
+			int[] tags = new int[16];
+			int tagCount = 0;
+			HashMap<String, Object> properties = new LinkedHashMap<String, Object>();
+			if (attributes == null) {
+				properties.putAll(feature.getProperties());
+			} else {
+				for (String column : attributes)
+					properties.put(column, feature.getProperty(column));
+			}
+			long id = parseId(feature.getObjectId());
+			if (id < 0 && feature.getObjectId() != null)
+				properties.put("objectId", feature.getObjectId());
+
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				Object value = entry.getValue();
+				if (value == null)
+					continue;
+				if (tagCount + 2 > tags.length)
+					tags = Arrays.copyOf(tags, tags.length * 2);
+				tags[tagCount++] = index(keys, entry.getKey());
+				tags[tagCount++] = index(values, value);
+			}
+
+			ProtobufWriter out = new ProtobufWriter(commands.length * 2 + 16);
+			if (id >= 0)
+				out.writeUInt(1, id);
+			out.writePacked(2, tags, tagCount);
+			out.writeUInt(3, type);
+			out.writePacked(4, commands, commands.length);
+			features.add(out);
+		}
+
+		ProtobufWriter encode(int extent) {
+			ProtobufWriter out = new ProtobufWriter();
+			out.writeUInt(15, 2);
+			out.writeString(1, name);
+			for (ProtobufWriter feature : features)
+				out.writeMessage(2, feature);
+			for (String key : keys.keySet())
+				out.writeString(3, key);
+			for (Object value : values.keySet())
+				out.writeMessage(4, encodeValue(value));
+			out.writeUInt(5, extent);
+			return out;
+		}
+
+		private static ProtobufWriter encodeValue(Object value) {
+			ProtobufWriter out = new ProtobufWriter(16);
+			if (value instanceof Boolean) {
+				out.writeBool(7, (Boolean) value);
+			} else if (value instanceof Double) {
+				out.writeDouble(3, (Double) value);
+			} else if (value instanceof Float) {
+				out.writeFloat(2, (Float) value);
+			} else if (value instanceof Number) {
+				long n = ((Number) value).longValue();
+				if (n < 0)
+					out.writeSInt(6, n);
+				else
+					out.writeUInt(5, n);
+			} else {
+				out.writeString(1, String.valueOf(value));
+			}
+			return out;
+		}
+
+		private static <T> int index(Map<T, Integer> table, T value) {
+			Integer index = table.get(value);
+			if (index == null) {
+				index = table.size();
+				table.put(value, index);
+			}
+			return index;
+		}
+
+		private static long parseId(String objectId) {
+			if (objectId == null || objectId.length() == 0
+					|| objectId.length() > 18)
+				return -1;
+			for (int i = 0; i < objectId.length(); i++)
+				if (objectId.charAt(i) < '0' || objectId.charAt(i) > '9')
+					return -1;
+			return Long.parseLong(objectId);
+		}
+	}
+}
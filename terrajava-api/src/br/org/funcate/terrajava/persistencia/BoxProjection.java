@@ -0,0 +1,121 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Reprojeo de boxes com remapCoordinates. Cada box  convertido pelos
+ * cantos e pelos pontos mdios das bordas, e o resultado  o box que envolve
+ * os pontos convertidos.
+ */
+public final class BoxProjection {
+
+	/** Pontos convertidos por box: os cantos e os pontos mdios das bordas. */
+	private static final int POINTS = 8;
+
+	private BoxProjection() {
+	}
+
+	/**
+	 * @return Verdadeiro quando os mapas de projeo tm os mesmos parmetros.
+	 */
+	public static boolean isSame(HashMap<?, ?> a, HashMap<?, ?> b) {
+		if (isEmpty(a) || isEmpty(b))
+			return isEmpty(a) && isEmpty(b);
+		if (a.size() != b.size())
+			return false;
+		for (Object key : a.keySet()) {
+			if (!b.containsKey(key))
+				return false;
+			Object x = a.get(key);
+			Object y = b.get(key);
+			if (x instanceof Number && y instanceof Number) {
+				if (((Number) x).doubleValue() != ((Number) y).doubleValue())
+					return false;
+			} else if (!String.valueOf(x).equals(String.valueOf(y))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converte os boxes da projeo <code>from</code> para a projeo
+	 * <code>to</code>.
+	 *
+	 * @param from
+	 *            Projeo dos boxes; null ou vazia quando os boxes j esto na
+	 *            projeo de destino.
+	 * @param to
+	 *            Projeo de destino.
+	 * @return Os boxes convertidos; os prprios boxes quando from no foi
+	 *         informada ou  igual a to; null quando boxes  null, quando to
+	 *         no foi informada (com from informada) ou quando a converso
+	 *         falha.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Box> remap(TerraJava terraJava, List<Box> boxes,
+			HashMap from, HashMap to, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		if (boxes == null || isEmpty(from) || boxes.isEmpty())
+			return boxes;
+		if (isEmpty(to))
+			return null;
+		if (isSame(from, to))
+			return boxes;
+		Vector<Object> coords = new Vector<Object>(boxes.size() * POINTS);
+		for (Box box : boxes) {
+			double cx = (box.getX1() + box.getX2()) / 2;
+			double cy = (box.getY1() + box.getY2()) / 2;
+			coords.add(point(box.getX1(), box.getY1()));
+			coords.add(point(cx, box.getY1()));
+			coords.add(point(box.getX2(), box.getY1()));
+			coords.add(point(box.getX2(), cy));
+			coords.add(point(box.getX2(), box.getY2()));
+			coords.add(point(cx, box.getY2()));
+			coords.add(point(box.getX1(), box.getY2()));
+			coords.add(point(box.getX1(), cy));
+		}
+		Vector<Object> remapped = terraJava.remapCoordinates(coords,
+				(HashMap<String, Object>) from, (HashMap<String, Object>) to,
+				sessionId);
+		if (remapped == null || remapped.size() != coords.size())
+			return null;
+		List<Box> result = new ArrayList<Box>(boxes.size());
+		for (int i = 0; i < remapped.size(); i += POINTS) {
+			Box box = null;
+			for (int j = i; j < i + POINTS; j++) {
+				Object item = remapped.get(j);
+				if (!(item instanceof HashMap))
+					return null;
+				Object x = ((HashMap<?, ?>) item).get("x");
+				Object y = ((HashMap<?, ?>) item).get("y");
+				if (!(x instanceof Number) || !(y instanceof Number))
+					return null;
+				double px = ((Number) x).doubleValue();
+				double py = ((Number) y).doubleValue();
+				if (Double.isNaN(px) || Double.isNaN(py)
+						|| Double.isInfinite(px) || Double.isInfinite(py))
+					return null;
+				box = new Box(px, py, px, py).union(box);
+			}
+			result.add(box);
+		}
+		return result;
+	}
+
+	private static boolean isEmpty(HashMap<?, ?> projection) {
+		return projection == null || projection.isEmpty();
+	}
+
+	private static HashMap<String, Double> point(double x, double y) {
+		HashMap<String, Double> point = new HashMap<String, Double>();
+		point.put("x", x);
+		point.put("y", y);
+		return point;
+	}
+}
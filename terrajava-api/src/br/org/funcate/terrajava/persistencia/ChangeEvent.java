@@ -0,0 +1,139 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Alterao de dados de um layer publicada pelo {@link ChangeFeed}.
+ */
+public final class ChangeEvent {
+
+	/** Atribudo pelo {@link ChangeRingBuffer} na publicao. */
+	private long sequence = -1;
+
+	private final long timestamp;
+
+	private final int layerId;
+
+	private final ChangeOperation operation;
+
+	private final List<String> objectIds;
+
+	private final Box box;
+
+	private final List<Box> boxes;
+
+	private final List<String> columns;
+
+	private final String sessionId;
+
+	ChangeEvent(int layerId, ChangeOperation operation,
+			List<String> objectIds, List<Box> boxes, List<String> columns,
+			String sessionId) {
+		this.timestamp = System.currentTimeMillis();
+		this.layerId = layerId;
+		this.operation = operation;
+		this.objectIds = Collections.unmodifiableList(objectIds);
+		Box union = null;
+		if (boxes != null)
+			for (Box box : boxes)
+				union = box.union(union);
+		this.box = union;
+		this.boxes = (boxes == null) ? Collections.<Box> emptyList()
+				: Collections.unmodifiableList(new ArrayList<Box>(boxes));
+		this.columns = Collections.unmodifiableList(columns);
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * @return Nmero de ordem do evento no feed, a partir de 0.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getLayerId() {
+		return layerId;
+	}
+
+	public ChangeOperation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return Identificadores dos objetos alterados (object_id ou geom_id,
+	 *         conforme a operao); vazio quando no so conhecidos ou a
+	 *         operao atinge todo o layer.
+	 */
+	public List<String> getObjectIds() {
+		return objectIds;
+	}
+
+	/**
+	 * @return Box que envolve as geometrias alteradas, antes e depois da
+	 *         edio, na projeo do feed, ou null quando a regio no 
+	 *         conhecida ou a operao atinge todo o layer.
+	 */
+	public Box getBox() {
+		return box;
+	}
+
+	/**
+	 * @return Os boxes de cada geometria alterada, na projeo do feed; vazio
+	 *         quando {@link #getBox()}  null.
+	 */
+	public List<Box> getBoxes() {
+		return boxes;
+	}
+
+	/**
+	 * @return Colunas criadas, alteradas ou removidas; vazio para operaes
+	 *         sobre os objetos.
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * <pre>
+	 * Evento em um HashMap:
+	 *
+	 * sequence, timestamp, layerId, operation, objectIds, box (x1, y1, x2,
+	 * y2 ou null), columns
+	 * </pre>
+	 */
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("sequence", sequence);
+		map.put("timestamp", timestamp);
+		map.put("layerId", layerId);
+		map.put("operation", operation.name());
+		map.put("objectIds", new Vector<String>(objectIds));
+		map.put("box", (box == null) ? null : box.toMap());
+		map.put("columns", new Vector<String>(columns));
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return "ChangeEvent(" + sequence + ", " + operation + ", layer "
+				+ layerId + ", " + objectIds.size() + " objetos, " + box + ")";
+	}
+}
@@ -0,0 +1,749 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.geometria.Feature;
+import br.org.funcate.terrajava.geometria.GeoJSONReader;
+import br.org.funcate.terrajava.geometria.Geometry;
+import br.org.funcate.terrajava.geometria.GeometryBoxes;
+
+/**
+ * <pre>
+ * Feed de alteraes dos dados dos layers. Os mtodos de edio chamam os
+ * mtodos de mesmo nome da TerraJava e, quando a edio  bem sucedida,
+ * publicam um {@link ChangeEvent} com o layer, a operao, os identificadores
+ * dos objetos e os boxes das geometrias atingidas (as novas e, nas alteraes
+ * e remoes, as anteriores, lidas antes da edio).
+ *
+ * Os boxes dos eventos esto na projeo do feed ({@link #setProjection(HashMap)}).
+ * As geometrias lidas do banco e as features GeoJSON esto na projeo do
+ * layer ({@link #setLayerProjection(int, HashMap)}); as geometrias de
+ * addGeometry, addGeometries, updateGeometries, addObjects e updateObjects
+ * esto na projeo informada na chamada (ou na do layer, quando no
+ * informada). Todas so convertidas com remapCoordinates. Sem a projeo do
+ * feed, os boxes ficam na projeo dos layers, e uma edio em projeo
+ * diferente da do layer  publicada sem box (todo o layer). Tambm so
+ * publicados sem box os eventos cuja regio no pode ser determinada (por
+ * exemplo, objetos alterados sem geometria e sem identificador).
+ *
+ * A leitura das geometrias e o clculo dos boxes nunca impedem a edio nem
+ * a publicao: uma falha nessa etapa (uma feature GeoJSON aceita pela camada
+ * nativa que o {@link GeoJSONReader} no interpreta, uma leitura ou converso
+ * de projeo que falha) faz o evento ser publicado sem box.
+ *
+ * Os eventos so publicados em um {@link ChangeRingBuffer}: a publicao no
+ * usa bloqueios e no espera pelos assinantes. Os assinantes leem os eventos
+ * por conta prpria ({@link #subscribe()}) ou recebem os eventos em uma thread
+ * prpria ({@link #subscribe(ChangeListener)}). Um assinante que fique
+ * atrasado alm da capacidade do buffer perde os eventos mais antigos e 
+ * informado disso. Uma exceo lanada pelo listener  contada
+ * ({@link #getListenerErrors()}) e repassada ao UncaughtExceptionHandler da
+ * thread de entrega, que continua entregando os eventos seguintes.
+ *
+ * Os mtodos que atuam sobre o tema corrente da sesso (addFeatures,
+ * addGeometries, addObjects, associateGeometryToObject etc.) recebem o
+ * identificador do layer desse tema como primeiro parmetro, pois a TerraJava
+ * no o informa.
+ * </pre>
+ */
+public class ChangeFeed {
+
+	private final TerraJava terraJava;
+
+	private final ChangeRingBuffer buffer;
+
+	private final HashMap<ChangeListener, Thread> listeners = new HashMap<ChangeListener, Thread>();
+
+	private boolean readPreviousGeometries = true;
+
+	private HashMap projection;
+
+	private final HashMap<Integer, HashMap> layerProjections = new HashMap<Integer, HashMap>();
+
+	private final AtomicLong listenerErrors = new AtomicLong();
+
+	public ChangeFeed(TerraJava terraJava) {
+		this(terraJava, new ChangeRingBuffer());
+	}
+
+	public ChangeFeed(TerraJava terraJava, ChangeRingBuffer buffer) {
+		this.terraJava = terraJava;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * L as geometrias anteriores dos objetos alterados e removidos, para que
+	 * o box do evento inclua a regio de onde saram. Desligar evita as
+	 * leituras; o box dessas operaes fica ento restrito s novas
+	 * geometrias, ou null nas remoes. O padro  verdadeiro.
+	 */
+	public void setReadPreviousGeometries(boolean readPreviousGeometries) {
+		this.readPreviousGeometries = readPreviousGeometries;
+	}
+
+	/**
+	 * Projeo dos boxes dos eventos, no formato de projectionMap.
+	 */
+	public void setProjection(HashMap projection) {
+		this.projection = projection;
+	}
+
+	public HashMap getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Projeo do layer, no formato de projectionMap: as geometrias lidas do
+	 * banco e as features GeoJSON do layer esto nessa projeo.
+	 */
+	public void setLayerProjection(int layerId, HashMap projection) {
+		synchronized (layerProjections) {
+			layerProjections.put(layerId, projection);
+		}
+	}
+
+	public ChangeRingBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return Nmero de excees lanadas pelos listeners.
+	 */
+	public long getListenerErrors() {
+		return listenerErrors.get();
+	}
+
+	/**
+	 * Cria um assinante que l os eventos publicados a partir de agora.
+	 */
+	public ChangeSubscription subscribe() {
+		return buffer.subscribe();
+	}
+
+	/**
+	 * Entrega os eventos publicados a partir de agora ao listener, em uma
+	 * thread prpria.
+	 */
+	public void subscribe(final ChangeListener listener) {
+		final ChangeSubscription subscription = buffer.subscribe();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				long lost = 0;
+				while (!Thread.currentThread().isInterrupted()) {
+					ChangeEvent event = subscription.poll(100,
+							TimeUnit.MILLISECONDS);
+					long missed = subscription.getLost() - lost;
+					if (missed > 0) {
+						lost += missed;
+						try {
+							listener.overrun(missed);
+						} catch (RuntimeException e) {
+							report(e);
+						}
+					}
+					if (event != null) {
+						try {
+							listener.changed(event);
+						} catch (RuntimeException e) {
+							report(e);
+						}
+					}
+				}
+			}
+		}, "terrajava-feed-" + listener.getClass().getSimpleName());
+		thread.setDaemon(true);
+		synchronized (listeners) {
+			if (listeners.containsKey(listener))
+				throw new IllegalStateException("Listener j registrado.");
+			listeners.put(listener, thread);
+		}
+		thread.start();
+	}
+
+	/**
+	 * Conta a exceo de um listener e a repassa ao UncaughtExceptionHandler
+	 * da thread de entrega, sem encerr-la.
+	 */
+	private void report(RuntimeException e) {
+		listenerErrors.incrementAndGet();
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler handler = thread
+				.getUncaughtExceptionHandler();
+		if (handler != null)
+			handler.uncaughtException(thread, e);
+	}
+
+	public void unsubscribe(ChangeListener listener) {
+		Thread thread;
+		synchronized (listeners) {
+			thread = listeners.remove(listener);
+		}
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	/**
+	 * Encerra a entrega aos listeners.
+	 */
+	public void close() {
+		synchronized (listeners) {
+			for (Thread thread : listeners.values())
+				thread.interrupt();
+			listeners.clear();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Vector addFeatures(int layerId, Vector<String> geoJSONFeatures,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		Vector result = terraJava.addFeatures(geoJSONFeatures, sessionId);
+		if (result != null)
+			publishBoxes(layerId, ChangeOperation.ADD_FEATURES, strings(result),
+					toFeed(layerId, featureBoxes(geoJSONFeatures, false), null,
+							sessionId), null, sessionId);
+		return result;
+	}
+
+	public boolean updateFeatures(int layerId, Vector<String> geoJSONFeatures,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		Vector<String> objectIds = featureIds(geoJSONFeatures);
+		List<Box> boxes = previousFeatureBoxes(objectIds, sessionId);
+		boolean ok = terraJava.updateFeatures(geoJSONFeatures, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.UPDATE_FEATURES, objectIds,
+					toFeed(layerId, merge(boxes, featureBoxes(geoJSONFeatures,
+							readPreviousGeometries)), null, sessionId), null,
+					sessionId);
+		return ok;
+	}
+
+	public boolean deleteFeatures(int layerId, Vector<String> objectIds,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		List<Box> boxes = previousFeatureBoxes(objectIds, sessionId);
+		boolean ok = terraJava.deleteFeatures(objectIds, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.DELETE_FEATURES, objectIds,
+					toFeed(layerId, boxes, null, sessionId), null, sessionId);
+		return ok;
+	}
+
+	/**
+	 * @param layerId
+	 *            Identificador do layer de nome <code>layerName</code>.
+	 */
+	public boolean addGeometry(int layerId, int representation,
+			Vector<Object> verticeList, Vector<Object> attrList,
+			String layerName, HashMap<String, Object> projectionHashMap,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.addGeometry(representation, verticeList,
+				attrList, layerName, projectionHashMap, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.ADD_GEOMETRY, null, toFeed(
+					layerId, boxes(verticesBox(verticeList)),
+					projectionHashMap, sessionId), null, sessionId);
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean addGeometries(int layerId, Vector<HashMap> wktgeoms,
+			HashMap projectionMap, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		boolean ok = terraJava.addGeometries(wktgeoms, projectionMap, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.ADD_GEOMETRIES,
+					mapIds(wktgeoms), toFeed(layerId, mapBoxes(wktgeoms, false),
+							projectionMap, sessionId), null, sessionId);
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean updateGeometries(int layerId, Vector<HashMap> oids,
+			HashMap projectionMap, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		List<Box> boxes = previousMapBoxes(oids, sessionId);
+		boolean ok = terraJava.updateGeometries(oids, projectionMap, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.UPDATE_GEOMETRIES,
+					mapIds(oids), merge(toFeed(layerId, boxes, null, sessionId),
+							toFeed(layerId, mapBoxes(oids,
+									readPreviousGeometries), projectionMap,
+									sessionId)), null, sessionId);
+		return ok;
+	}
+
+	public boolean deleteGeometries(int layerId, Vector<String> geomIds,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		List<Box> boxes = readPreviousGeometries ? geometryBoxes(geomIds,
+				sessionId) : null;
+		boolean ok = terraJava.deleteGeometries(geomIds, sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.DELETE_GEOMETRIES, geomIds,
+					toFeed(layerId, boxes, null, sessionId), null, sessionId);
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean addObjects(int layerId, Vector<HashMap> geoObjects,
+			HashMap dataProjectionMap, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		boolean ok = terraJava.addObjects(geoObjects, dataProjectionMap,
+				sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.ADD_OBJECTS,
+					mapIds(geoObjects), toFeed(layerId, mapBoxes(geoObjects,
+							false), dataProjectionMap, sessionId), null,
+					sessionId);
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean updateObjects(int layerId, Vector<HashMap> geoObjects,
+			HashMap dataProjectionMap, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		List<Box> boxes = previousMapBoxes(geoObjects, sessionId);
+		boolean ok = terraJava.updateObjects(geoObjects, dataProjectionMap,
+				sessionId);
+		if (ok)
+			publishBoxes(layerId, ChangeOperation.UPDATE_OBJECTS,
+					mapIds(geoObjects), merge(toFeed(layerId, boxes, null,
+							sessionId), toFeed(layerId, mapBoxes(geoObjects,
+							readPreviousGeometries), dataProjectionMap,
+							sessionId)), null, sessionId);
+		return ok;
+	}
+
+	/**
+	 * O evento publicado tem o identificador do objeto e o box da geometria,
+	 * lida aps a associao; o objeto ao qual a geometria pertencia no 
+	 * conhecido.
+	 */
+	public boolean associateGeometryToObject(int layerId, int geomId,
+			String objectId, String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.associateGeometryToObject(geomId, objectId,
+				sessionId);
+		if (ok) {
+			Vector<String> geomIds = new Vector<String>();
+			geomIds.add(String.valueOf(geomId));
+			publishBoxes(layerId, ChangeOperation.ASSOCIATE_GEOMETRY,
+					columns(objectId), toFeed(layerId, geometryBoxes(geomIds,
+							sessionId), null, sessionId), null, sessionId);
+		}
+		return ok;
+	}
+
+	/**
+	 * O evento publicado no tem identificadores nem box: todo o layer foi
+	 * alterado.
+	 */
+	public boolean deleteAllObjectsFromLayer(int layerId, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		boolean ok = terraJava.deleteAllObjectsFromLayer(layerId, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.DELETE_ALL_OBJECTS, null, null,
+					null, sessionId);
+		return ok;
+	}
+
+	public boolean createAttributeColumn(int layerId, String columnName,
+			String columnType, int columnSize, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		boolean ok = terraJava.createAttributeColumn(layerId, columnName,
+				columnType, columnSize, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.CREATE_ATTRIBUTE_COLUMN, null,
+					null, columns(columnName), sessionId);
+		return ok;
+	}
+
+	/**
+	 * As colunas do evento so o nome anterior e o novo nome.
+	 */
+	public boolean updateAttributeColumn(int layerId, String oldColumnName,
+			String newColumnName, String newColumnType, int newColumSize,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.updateAttributeColumn(layerId, oldColumnName,
+				newColumnName, newColumnType, newColumSize, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.UPDATE_ATTRIBUTE_COLUMN, null,
+					null, columns(oldColumnName, newColumnName), sessionId);
+		return ok;
+	}
+
+	public boolean deleteAttributeColumn(int layerId, String columnName,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.deleteAttributeColumn(layerId, columnName,
+				sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.DELETE_ATTRIBUTE_COLUMN, null,
+					null, columns(columnName), sessionId);
+		return ok;
+	}
+
+	public boolean createOrReplaceAreaField(int layerId, String areaFieldName,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.createOrReplaceAreaField(layerId,
+				areaFieldName, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.CREATE_AREA_FIELD, null, null,
+					columns(areaFieldName), sessionId);
+		return ok;
+	}
+
+	public boolean createOrReplacePerimeterField(int layerId,
+			String perimeterFieldName, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		boolean ok = terraJava.createOrReplacePerimeterField(layerId,
+				perimeterFieldName, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.CREATE_PERIMETER_FIELD, null,
+					null, columns(perimeterFieldName), sessionId);
+		return ok;
+	}
+
+	public boolean createOrReplaceCentroidField(int layerId,
+			String centroidXFieldName, String centroidYFieldName,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean ok = terraJava.createOrReplaceCentroidField(layerId,
+				centroidXFieldName, centroidYFieldName, sessionId);
+		if (ok)
+			publish(layerId, ChangeOperation.CREATE_CENTROID_FIELD, null,
+					null, columns(centroidXFieldName, centroidYFieldName),
+					sessionId);
+		return ok;
+	}
+
+	/**
+	 * Publica um evento de alterao feita por outro caminho (por exemplo,
+	 * uma importao de dados), sem esperar pelos assinantes.
+	 *
+	 * @param objectIds
+	 *            Identificadores dos objetos, ou null.
+	 * @param box
+	 *            Regio alterada, na projeo do feed, ou null para todo o
+	 *            layer.
+	 * @param columns
+	 *            Colunas alteradas, ou null.
+	 * @return O evento publicado.
+	 */
+	public ChangeEvent publish(int layerId, ChangeOperation operation,
+			List<String> objectIds, Box box, List<String> columns,
+			String sessionId) {
+		return publishBoxes(layerId, operation, objectIds, boxes(box),
+				columns, sessionId);
+	}
+
+	/**
+	 * @param boxes
+	 *            Boxes das geometrias alteradas, na projeo do feed, ou null
+	 *            para todo o layer.
+	 */
+	private ChangeEvent publishBoxes(int layerId, ChangeOperation operation,
+			List<String> objectIds, List<Box> boxes, List<String> columns,
+			String sessionId) {
+		List<String> ids = (objectIds == null) ? Collections
+				.<String> emptyList() : new ArrayList<String>(objectIds);
+		List<String> names = (columns == null) ? Collections
+				.<String> emptyList() : new ArrayList<String>(columns);
+		// sem nenhuma geometria, a regio no  conhecida
+		if (boxes != null && boxes.isEmpty())
+			boxes = null;
+		ChangeEvent event = new ChangeEvent(layerId, operation, ids, boxes,
+				names, sessionId);
+		buffer.publish(event);
+		return event;
+	}
+
+	/**
+	 * Converte os boxes para a projeo do feed.
+	 *
+	 * @param projection
+	 *            Projeo dos boxes; null ou vazia para a projeo do layer.
+	 * @return Os boxes na projeo do feed, ou null quando a converso no 
+	 *         possvel ou falha (o evento atinge ento todo o layer).
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Box> toFeed(int layerId, List<Box> boxes, HashMap projection,
+			String sessionId) {
+		if (boxes == null)
+			return null;
+		HashMap layerProjection;
+		synchronized (layerProjections) {
+			layerProjection = layerProjections.get(layerId);
+		}
+		if (projection == null || projection.isEmpty())
+			projection = layerProjection;
+		HashMap target = this.projection;
+		if (target == null) {
+			// os eventos esto na projeo dos layers
+			if (projection == null || projection.isEmpty()
+					|| BoxProjection.isSame(projection, layerProjection))
+				return boxes;
+			return null;
+		}
+		try {
+			return BoxProjection.remap(terraJava, boxes, projection, target,
+					sessionId);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Os identificadores das features, ou null caso alguma no possa
+	 *         ser interpretada (a camada nativa valida a entrada).
+	 */
+	private static Vector<String> featureIds(Vector<String> geoJSONFeatures) {
+		Vector<String> objectIds = new Vector<String>();
+		try {
+			for (Feature feature : GeoJSONReader.readFeatures(geoJSONFeatures))
+				if (feature.getObjectId() != null)
+					objectIds.add(feature.getObjectId());
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return objectIds;
+	}
+
+	/**
+	 * @return Os boxes das geometrias anteriores das features (vazio quando
+	 *         as geometrias anteriores no so lidas), ou null quando os
+	 *         identificadores no so conhecidos ou a leitura falha.
+	 */
+	private List<Box> previousFeatureBoxes(Vector<String> objectIds,
+			String sessionId) {
+		if (objectIds == null)
+			return null;
+		List<Box> boxes = new ArrayList<Box>();
+		if (!readPreviousGeometries || objectIds.isEmpty())
+			return boxes;
+		try {
+			for (Feature feature : GeoJSONReader.readFeatures(terraJava
+					.getFeaturesByIds(objectIds, sessionId))) {
+				Geometry geometry = feature.getGeometry();
+				if (geometry != null && !geometry.isEmpty())
+					boxes.add(geometry.getBox());
+			}
+		} catch (Exception e) {
+			return null;
+		}
+		return boxes;
+	}
+
+	/**
+	 * @return Os boxes das geometrias, lidas pelo geom_id, ou null caso a
+	 *         leitura falhe.
+	 */
+	private List<Box> geometryBoxes(Vector<String> geomIds, String sessionId) {
+		if (geomIds.isEmpty())
+			return new ArrayList<Box>();
+		try {
+			return GeometryBoxes.ofWKTList(terraJava.getGeometriesByGeomIdOnWKT(
+					geomIds, sessionId));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * L as geometrias anteriores dos objetos pelos identificadores presentes
+	 * nos mapas (geom_id ou object_id).
+	 *
+	 * @return Os boxes (vazio quando as geometrias anteriores no so lidas),
+	 *         ou null caso algum mapa no tenha identificador ou a leitura
+	 *         falhe.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Box> previousMapBoxes(Vector<HashMap> maps, String sessionId) {
+		if (!readPreviousGeometries)
+			return new ArrayList<Box>();
+		Vector<String> geomIds = new Vector<String>();
+		Vector<String> objectIds = new Vector<String>();
+		for (HashMap map : maps) {
+			boolean found = false;
+			for (Map.Entry<Object, Object> entry : ((HashMap<Object, Object>) map)
+					.entrySet()) {
+				String key = idKey(entry);
+				if ("geomid".equals(key))
+					geomIds.add(String.valueOf(entry.getValue()));
+				else if (key != null)
+					objectIds.add(String.valueOf(entry.getValue()));
+				found |= key != null;
+			}
+			if (!found)
+				return null;
+		}
+		List<Box> boxes = new ArrayList<Box>();
+		try {
+			if (!geomIds.isEmpty())
+				boxes.addAll(GeometryBoxes.ofWKTList(terraJava
+						.getGeometriesByGeomIdOnWKT(geomIds, sessionId)));
+			if (!objectIds.isEmpty())
+				boxes.addAll(GeometryBoxes.ofWKTList(terraJava
+						.getGeometriesByOidOnWKT(objectIds, sessionId)));
+		} catch (Exception e) {
+			return null;
+		}
+		return boxes;
+	}
+
+	/**
+	 * @return Os identificadores presentes nos mapas (object_id, oid ou
+	 *         geom_id), na ordem dos mapas.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<String> mapIds(Vector<HashMap> maps) {
+		List<String> ids = new ArrayList<String>();
+		for (HashMap map : maps) {
+			String geomId = null, objectId = null;
+			for (Map.Entry<Object, Object> entry : ((HashMap<Object, Object>) map)
+					.entrySet()) {
+				String key = idKey(entry);
+				if ("geomid".equals(key))
+					geomId = String.valueOf(entry.getValue());
+				else if (key != null)
+					objectId = String.valueOf(entry.getValue());
+			}
+			if (objectId != null)
+				ids.add(objectId);
+			else if (geomId != null)
+				ids.add(geomId);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return "geomid" ou "objectid" quando a entrada  um identificador
+	 *         preenchido, ou null.
+	 */
+	private static String idKey(Map.Entry<Object, Object> entry) {
+		if (entry.getValue() == null)
+			return null;
+		String key = String.valueOf(entry.getKey()).toLowerCase(Locale.ENGLISH)
+				.replace("_", "");
+		if (key.equals("geomid"))
+			return key;
+		if (key.equals("objectid") || key.equals("oid"))
+			return "objectid";
+		return null;
+	}
+
+	/**
+	 * @param identified
+	 *            Verdadeiro quando as geometrias anteriores j foram lidas pelo
+	 *            identificador; features sem geometria (alterao apenas de
+	 *            atributos) so ento aceitas.
+	 * @return Os boxes das features, ou null caso alguma no tenha geometria
+	 *         nem identificador ou no possa ser interpretada.
+	 */
+	private static List<Box> featureBoxes(Vector<String> geoJSONFeatures,
+			boolean identified) {
+		List<Box> boxes = new ArrayList<Box>();
+		try {
+			for (Feature feature : GeoJSONReader.readFeatures(geoJSONFeatures)) {
+				Geometry geometry = feature.getGeometry();
+				if (geometry != null && !geometry.isEmpty())
+					boxes.add(geometry.getBox());
+				else if (!identified || feature.getObjectId() == null)
+					return null;
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return boxes;
+	}
+
+	/**
+	 * @param identified
+	 *            Verdadeiro quando as geometrias anteriores j foram lidas pelo
+	 *            identificador; mapas sem geometria so ento aceitos.
+	 * @return Os boxes das geometrias encontradas em cada mapa (textos WKT ou
+	 *         geometrias GeoJSON, em qualquer chave), ou null caso algum mapa
+	 *         no tenha geometria ou ela no possa ser interpretada.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Box> mapBoxes(Vector<HashMap> maps, boolean identified) {
+		List<Box> boxes = new ArrayList<Box>();
+		try {
+			for (HashMap map : maps) {
+				Box box = GeometryBoxes.find(map);
+				if (box != null)
+					boxes.add(box);
+				else if (!identified)
+					return null;
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return boxes;
+	}
+
+	/**
+	 * @return O box dos vrtices de addGeometry (mapas com as chaves x e y).
+	 */
+	private static Box verticesBox(Vector<Object> verticeList) {
+		Box box = null;
+		for (Object vertex : verticeList) {
+			if (!(vertex instanceof HashMap))
+				continue;
+			Object x = ((HashMap<?, ?>) vertex).get("x");
+			Object y = ((HashMap<?, ?>) vertex).get("y");
+			if (x instanceof Number && y instanceof Number) {
+				double vx = ((Number) x).doubleValue();
+				double vy = ((Number) y).doubleValue();
+				box = new Box(vx, vy, vx, vy).union(box);
+			}
+		}
+		return box;
+	}
+
+	private static List<Box> boxes(Box box) {
+		if (box == null)
+			return null;
+		List<Box> boxes = new ArrayList<Box>();
+		boxes.add(box);
+		return boxes;
+	}
+
+	private static List<Box> merge(List<Box> a, List<Box> b) {
+		if (a == null || b == null)
+			return null;
+		List<Box> boxes = new ArrayList<Box>(a);
+		boxes.addAll(b);
+		return boxes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> strings(Vector values) {
+		List<String> result = new ArrayList<String>();
+		for (Object value : (Vector<Object>) values)
+			if (value != null)
+				result.add(String.valueOf(value));
+		return result;
+	}
+
+	private static List<String> columns(String... names) {
+		List<String> result = new ArrayList<String>();
+		for (String name : names)
+			result.add(name);
+		return result;
+	}
+}
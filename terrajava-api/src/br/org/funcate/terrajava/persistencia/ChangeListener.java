@@ -0,0 +1,20 @@
+package br.org.funcate.terrajava.persistencia;
+
+/**
+ * Recebe os eventos do {@link ChangeFeed} em uma thread prpria, fora do
+ * caminho de edio.
+ */
+public interface ChangeListener {
+
+	void changed(ChangeEvent event);
+
+	/**
+	 * Chamado quando o assinante ficou atrasado alm da capacidade do buffer
+	 * e eventos foram perdidos; os dados derivados do layer (caches, ndices)
+	 * devem ser reconstrudos.
+	 *
+	 * @param lost
+	 *            Nmero de eventos perdidos.
+	 */
+	void overrun(long lost);
+}
@@ -0,0 +1,48 @@
+package br.org.funcate.terrajava.persistencia;
+
+/**
+ * Operaes de edio publicadas pelo {@link ChangeFeed}.
+ */
+public enum ChangeOperation {
+
+	ADD_FEATURES, UPDATE_FEATURES, DELETE_FEATURES,
+
+	ADD_GEOMETRY, ADD_GEOMETRIES, UPDATE_GEOMETRIES, DELETE_GEOMETRIES,
+
+	ADD_OBJECTS, UPDATE_OBJECTS, DELETE_ALL_OBJECTS, ASSOCIATE_GEOMETRY,
+
+	CREATE_ATTRIBUTE_COLUMN, UPDATE_ATTRIBUTE_COLUMN, DELETE_ATTRIBUTE_COLUMN,
+
+	CREATE_AREA_FIELD, CREATE_PERIMETER_FIELD, CREATE_CENTROID_FIELD;
+
+	/**
+	 * @return Verdadeiro para operaes que alteram as colunas da tabela de
+	 *         atributos, e no os objetos.
+	 */
+	public boolean isSchemaChange() {
+		return this == CREATE_ATTRIBUTE_COLUMN || this == UPDATE_ATTRIBUTE_COLUMN
+				|| this == DELETE_ATTRIBUTE_COLUMN;
+	}
+
+	/**
+	 * @return Verdadeiro para operaes que podem alterar as geometrias.
+	 */
+	public boolean isGeometryChange() {
+		switch (this) {
+		case ADD_FEATURES:
+		case UPDATE_FEATURES:
+		case DELETE_FEATURES:
+		case ADD_GEOMETRY:
+		case ADD_GEOMETRIES:
+		case UPDATE_GEOMETRIES:
+		case DELETE_GEOMETRIES:
+		case ADD_OBJECTS:
+		case UPDATE_OBJECTS:
+		case DELETE_ALL_OBJECTS:
+		case ASSOCIATE_GEOMETRY:
+			return true;
+		default:
+			return false;
+		}
+	}
+}
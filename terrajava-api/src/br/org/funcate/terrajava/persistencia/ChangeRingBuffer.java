@@ -0,0 +1,99 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * Buffer circular sem bloqueio para a difuso de {@link ChangeEvent}s a vrios
+ * assinantes.
+ *
+ * O evento  montado antes da publicao, que apenas reserva um nmero de
+ * ordem com um incremento atmico e grava o evento na posio correspondente
+ * com compareAndSet; nenhum publicador espera por outro ou pelos assinantes.
+ * Um publicador que chegue  posio depois de um evento mais novo (uma volta
+ * inteira do buffer  frente) no o sobrescreve: o seu evento conta como
+ * perdido para os assinantes que ainda no o leram. Cada assinante ({@link ChangeSubscription}) mantm o seu
+ * prprio cursor e l as posies sem alterar o buffer. Um assinante atrasado
+ * alm da capacidade perde os eventos sobrescritos, e  informado disso, em
+ * vez de atrasar a edio.
+ * </pre>
+ */
+public class ChangeRingBuffer {
+
+	/** Capacidade padro: 8192 eventos. */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final AtomicReferenceArray<ChangeEvent> slots;
+
+	private final int mask;
+
+	/** Prximo nmero de ordem a reservar. */
+	private final AtomicLong next = new AtomicLong();
+
+	public ChangeRingBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            Nmero de eventos mantidos; arredondado para a potncia de 2
+	 *            seguinte.
+	 */
+	public ChangeRingBuffer(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30))
+			throw new IllegalArgumentException("Capacidade invlida: "
+					+ capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new AtomicReferenceArray<ChangeEvent>(size);
+		this.mask = size - 1;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Reserva o prximo nmero de ordem para o evento j montado e o grava na
+	 * posio correspondente, exceto se ela j contm um evento mais novo.
+	 *
+	 * @return O nmero de ordem do evento.
+	 */
+	long publish(ChangeEvent event) {
+		long sequence = next.getAndIncrement();
+		event.setSequence(sequence);
+		int index = (int) (sequence & mask);
+		while (true) {
+			ChangeEvent current = slots.get(index);
+			if (current != null && current.getSequence() > sequence)
+				return sequence;
+			if (slots.compareAndSet(index, current, event))
+				return sequence;
+		}
+	}
+
+	/**
+	 * @return O evento gravado na posio do nmero de ordem, que pode ser
+	 *         mais antigo (ainda no sobrescrito) ou mais novo (j
+	 *         sobrescrito), ou null.
+	 */
+	ChangeEvent get(long sequence) {
+		return slots.get((int) (sequence & mask));
+	}
+
+	/**
+	 * @return O prximo nmero de ordem a ser publicado.
+	 */
+	public long getCursor() {
+		return next.get();
+	}
+
+	/**
+	 * Cria um assinante que recebe os eventos publicados a partir de agora.
+	 */
+	public ChangeSubscription subscribe() {
+		return new ChangeSubscription(this, next.get());
+	}
+}
@@ -0,0 +1,103 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <pre>
+ * Leitura dos eventos de um {@link ChangeRingBuffer} por um assinante, na
+ * ordem de publicao. Um assinante deve ser lido por uma nica thread.
+ *
+ * Quando o assinante fica atrasado alm da capacidade do buffer, os eventos
+ * sobrescritos so contados em {@link #getLost()} e a leitura continua no
+ * evento mais antigo ainda disponvel.
+ * </pre>
+ */
+public final class ChangeSubscription {
+
+	private final ChangeRingBuffer buffer;
+
+	private long cursor;
+
+	private volatile long lost;
+
+	ChangeSubscription(ChangeRingBuffer buffer, long cursor) {
+		this.buffer = buffer;
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return O prximo evento, ou null caso no haja evento publicado.
+	 */
+	public ChangeEvent poll() {
+		while (true) {
+			ChangeEvent event = buffer.get(cursor);
+			if (event == null || event.getSequence() < cursor)
+				return null;
+			if (event.getSequence() == cursor) {
+				cursor++;
+				return event;
+			}
+			// a posio j foi sobrescrita: salta para o evento mais antigo
+			// que ainda pode estar no buffer
+			long oldest = event.getSequence() - buffer.getCapacity() + 1;
+			lost += oldest - cursor;
+			cursor = oldest;
+		}
+	}
+
+	/**
+	 * Aguarda o prximo evento, sem bloquear os publicadores.
+	 *
+	 * @return O prximo evento, ou null caso o tempo de espera se esgote ou a
+	 *         thread seja interrompida.
+	 */
+	public ChangeEvent poll(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long pause = 1000;
+		ChangeEvent event;
+		while ((event = poll()) == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || Thread.currentThread().isInterrupted())
+				return null;
+			LockSupport.parkNanos(Math.min(pause, remaining));
+			pause = Math.min(pause * 2, TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		return event;
+	}
+
+	/**
+	 * @return At <code>max</code> eventos disponveis, na ordem de
+	 *         publicao.
+	 */
+	public List<ChangeEvent> drain(int max) {
+		List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+		ChangeEvent event;
+		while (events.size() < max && (event = poll()) != null)
+			events.add(event);
+		return events;
+	}
+
+	/**
+	 * @return Nmero de ordem do prximo evento a ler.
+	 */
+	public long getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return Nmero de eventos perdidos por atraso.
+	 */
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * @return Nmero de eventos publicados e ainda no lidos.
+	 */
+	public long getBacklog() {
+		return Math.max(0, buffer.getCursor() - cursor);
+	}
+}
@@ -0,0 +1,79 @@
+package br.org.funcate.terrajava.persistencia;
+
+/**
+ * Parmetros de conexo ao banco de dados geogrfico, na mesma ordem do mtodo
+ * {@link TerraJava#connect(String, String, String, String, int, int, String)}.
+ * Usados pelos componentes que abrem sesses prprias.
+ */
+public final class ConnectionParameters {
+
+	private final String host;
+
+	private final String user;
+
+	private final String password;
+
+	private final String database;
+
+	private final int port;
+
+	private final int dbType;
+
+	public ConnectionParameters(String host, String user, String password,
+			String database, int port, int dbType) {
+		this.host = host;
+		this.user = user;
+		this.password = password;
+		this.database = database;
+		this.port = port;
+		this.dbType = dbType;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getDatabase() {
+		return database;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public int getDbType() {
+		return dbType;
+	}
+
+	/**
+	 * @return Identificao do banco (tipo, host, porta e nome), usada para
+	 *         agrupar sesses e limites por banco.
+	 */
+	public String getDatabaseKey() {
+		return dbType + ":" + host + ":" + port + "/" + database;
+	}
+
+	/**
+	 * Conecta uma sesso ao banco, carregando antes o driver do tipo de banco
+	 * (ver {@link NativeLibraryLoader#ensureDriverLoaded(int)}).
+	 */
+	public void connect(TerraJava terraJava, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		NativeLibraryLoader.ensureDriverLoaded(dbType);
+		terraJava.connect(host, user, password, database, port, dbType,
+				sessionId);
+	}
+
+	@Override
+	public String toString() {
+		return getDatabaseKey();
+	}
+}
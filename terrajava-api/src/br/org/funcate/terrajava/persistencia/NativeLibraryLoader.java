@@ -0,0 +1,308 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * <pre>
+ * Carga da biblioteca nativa terrajava e de suas dependncias (TerraLib,
+ * TerraOGC e TerraManager), adiada at a criao da primeira instncia de
+ * {@link TerraJava}. Classes que apenas referenciam TerraJava (ferramentas de
+ * linha de comando, testes) no carregam as bibliotecas.
+ *
+ * Quando a propriedade de sistema terrajava.native.dir (ou a varivel de
+ * ambiente TERRAJAVA_NATIVE_DIR) aponta o diretrio versionado gerado por
+ * build/package/build.xml, as bibliotecas so carregadas pelo caminho
+ * absoluto, na ordem do arquivo libraries.txt do subdiretrio da plataforma
+ * (por exemplo, linux-x86_64), ou do prprio diretrio quando o subdiretrio
+ * no existe. Sem a propriedade, o diretrio terrajava-native-&lt;verso&gt; 
+ * procurado ao lado do jar (ou no subdiretrio lib); no sendo encontrado, a
+ * carga usa System.loadLibrary("terrajava"), como antes, com as dependncias
+ * resolvidas por java.library.path e LD_LIBRARY_PATH.
+ *
+ * libraries.txt lista apenas a cadeia comum a todos os bancos. Os drivers de
+ * banco (libte_postgresql, libte_mysql, ...) so listados em drivers.txt, um
+ * por tipo de banco, e carregados por {@link #ensureDriverLoaded(int)} na
+ * primeira conexo com aquele tipo; {@link ConnectionParameters#connect}
+ * chama esse mtodo. Quem chama TerraJava.connect diretamente deve cham-lo
+ * antes.
+ *
+ * O tempo de carga  registrado e pode ser consultado com
+ * {@link #getLoadTime()}.
+ * </pre>
+ */
+public final class NativeLibraryLoader {
+
+	public static final String DIR_PROPERTY = "terrajava.native.dir";
+
+	public static final String DIR_VARIABLE = "TERRAJAVA_NATIVE_DIR";
+
+	/** Arquivo com as bibliotecas do diretrio, uma por linha, na ordem de carga. */
+	public static final String MANIFEST = "libraries.txt";
+
+	/**
+	 * Arquivo com os drivers de banco do diretrio, uma linha por tipo de banco
+	 * (o dbType de TerraJava.connect) seguido das bibliotecas do driver.
+	 */
+	public static final String DRIVER_MANIFEST = "drivers.txt";
+
+	/** Prefixo do diretrio versionado gerado por build.xml. */
+	public static final String PACKAGE_PREFIX = "terrajava-native-";
+
+	private static final String LIBRARY_NAME = "terrajava";
+
+	private static boolean loaded;
+
+	private static long loadTime = -1;
+
+	private static List<String> libraries = Collections.emptyList();
+
+	/** Diretrio usado na carga, ou null quando foi usado loadLibrary. */
+	private static File directory;
+
+	private static final Set<Integer> loadedDrivers = new HashSet<Integer>();
+
+	private static Throwable failure;
+
+	private NativeLibraryLoader() {
+	}
+
+	/**
+	 * Carrega as bibliotecas, caso ainda no tenham sido carregadas. Aps uma
+	 * falha, uma nova chamada tenta novamente.
+	 *
+	 * @throws UnsatisfiedLinkError
+	 *             Caso alguma biblioteca no possa ser carregada.
+	 */
+	public static synchronized void ensureLoaded() {
+		if (loaded)
+			return;
+		long start = System.nanoTime();
+		List<String> paths = new ArrayList<String>();
+		try {
+			File dir = resolveDirectory();
+			directory = dir;
+			if (dir == null) {
+				System.loadLibrary(LIBRARY_NAME);
+				paths.add(System.mapLibraryName(LIBRARY_NAME));
+			} else {
+				for (String name : readManifest(dir)) {
+					File file = new File(dir, name);
+					System.load(file.getAbsolutePath());
+					paths.add(file.getAbsolutePath());
+				}
+			}
+			loaded = true;
+			failure = null;
+		} catch (IOException e) {
+			failure = e;
+			UnsatisfiedLinkError error = new UnsatisfiedLinkError(
+					"Falhou ao ler a lista de bibliotecas nativas: "
+							+ e.getMessage());
+			error.initCause(e);
+			throw error;
+		} catch (UnsatisfiedLinkError e) {
+			failure = e;
+			throw e;
+		} finally {
+			loadTime = (System.nanoTime() - start) / 1000000;
+			libraries = Collections.unmodifiableList(paths);
+		}
+	}
+
+	/**
+	 * Carrega o driver do tipo de banco, caso ainda no tenha sido carregado.
+	 * Antes da carga das bibliotecas comuns (por exemplo, com uma subclasse de
+	 * TerraJava que no as carrega), sem o diretrio versionado ou sem
+	 * drivers.txt, no faz nada: o driver  resolvido pelo carregador do
+	 * sistema.
+	 *
+	 * @param dbType
+	 *            Tipo de banco, como em TerraJava.connect.
+	 * @throws UnsatisfiedLinkError
+	 *             Caso o driver no possa ser carregado.
+	 */
+	public static synchronized void ensureDriverLoaded(int dbType) {
+		if (!loaded || directory == null || loadedDrivers.contains(dbType))
+			return;
+		File manifest = new File(directory, DRIVER_MANIFEST);
+		List<String> paths = new ArrayList<String>(libraries);
+		try {
+			if (manifest.isFile()) {
+				for (String line : readLines(manifest)) {
+					String[] fields = line.split("\\s+");
+					if (!fields[0].equals(String.valueOf(dbType)))
+						continue;
+					for (int i = 1; i < fields.length; i++) {
+						File file = new File(directory, fields[i]);
+						if (paths.contains(file.getAbsolutePath()))
+							continue;
+						System.load(file.getAbsolutePath());
+						paths.add(file.getAbsolutePath());
+					}
+				}
+			}
+			loadedDrivers.add(dbType);
+		} catch (IOException e) {
+			UnsatisfiedLinkError error = new UnsatisfiedLinkError(
+					"Falhou ao ler a lista de drivers: " + e.getMessage());
+			error.initCause(e);
+			throw error;
+		} finally {
+			libraries = Collections.unmodifiableList(paths);
+		}
+	}
+
+	/**
+	 * @return O diretrio das bibliotecas da plataforma corrente, ou null
+	 *         quando a propriedade e a varivel no esto definidas e no h
+	 *         diretrio versionado ao lado do jar.
+	 */
+	static File resolveDirectory() {
+		String base = System.getProperty(DIR_PROPERTY);
+		if (base == null || base.length() == 0)
+			base = System.getenv(DIR_VARIABLE);
+		if (base == null || base.length() == 0)
+			return findNextToJar();
+		File dir = new File(base);
+		File platformDir = new File(dir, getPlatform());
+		if (new File(platformDir, MANIFEST).isFile())
+			return platformDir;
+		if (new File(dir, MANIFEST).isFile())
+			return dir;
+		throw new UnsatisfiedLinkError("Arquivo " + MANIFEST
+				+ " no encontrado em " + platformDir + " nem em " + dir);
+	}
+
+	/**
+	 * Procura, no diretrio do jar e no seu subdiretrio lib, um diretrio
+	 * terrajava-native-* com o libraries.txt da plataforma corrente.
+	 *
+	 * @return O diretrio da plataforma, ou null caso no seja encontrado.
+	 */
+	static File findNextToJar() {
+		File jarDir = getJarDirectory();
+		if (jarDir == null)
+			return null;
+		for (File dir : new File[] { jarDir, new File(jarDir, "lib") }) {
+			File[] children = dir.listFiles();
+			if (children == null)
+				continue;
+			for (File child : children) {
+				if (!child.isDirectory()
+						|| !child.getName().startsWith(PACKAGE_PREFIX))
+					continue;
+				File platformDir = new File(child, getPlatform());
+				if (new File(platformDir, MANIFEST).isFile())
+					return platformDir;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return O diretrio que contm o jar (ou o diretrio de classes) de
+	 *         NativeLibraryLoader, ou null caso no possa ser determinado.
+	 */
+	private static File getJarDirectory() {
+		try {
+			CodeSource source = NativeLibraryLoader.class.getProtectionDomain()
+					.getCodeSource();
+			URL location = (source == null) ? null : source.getLocation();
+			if (location == null || !"file".equals(location.getProtocol()))
+				return null;
+			File file = new File(location.toURI());
+			return file.isDirectory() ? file : file.getParentFile();
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return A plataforma corrente no formato sistema-arquitetura, por exemplo
+	 *         linux-x86_64 ou linux-aarch64.
+	 */
+	public static String getPlatform() {
+		String os = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+		if (os.startsWith("windows"))
+			os = "windows";
+		else if (os.startsWith("mac"))
+			os = "macos";
+		else
+			os = os.replaceAll("[^a-z0-9]+", "");
+		String arch = System.getProperty("os.arch", "")
+				.toLowerCase(Locale.ENGLISH);
+		if (arch.equals("amd64") || arch.equals("x86_64"))
+			arch = "x86_64";
+		else if (arch.equals("arm64") || arch.equals("aarch64"))
+			arch = "aarch64";
+		else if (arch.matches("i[3-6]86|x86"))
+			arch = "x86";
+		return os + "-" + arch;
+	}
+
+	static List<String> readManifest(File dir) throws IOException {
+		return readLines(new File(dir, MANIFEST));
+	}
+
+	/**
+	 * @return As linhas do arquivo, sem espaos nas pontas, exceto as vazias
+	 *         e os comentrios (#).
+	 */
+	private static List<String> readLines(File file) throws IOException {
+		List<String> names = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#"))
+					names.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return names;
+	}
+
+	public static synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return O tempo gasto na ltima tentativa de carga, em milissegundos, ou
+	 *         -1 caso nenhuma carga tenha sido feita.
+	 */
+	public static synchronized long getLoadTime() {
+		return loadTime;
+	}
+
+	/**
+	 * @return As bibliotecas carregadas na ltima tentativa, na ordem de carga.
+	 */
+	public static synchronized List<String> getLibraries() {
+		return libraries;
+	}
+
+	/**
+	 * @return O erro da ltima tentativa, ou null caso tenha sido bem sucedida.
+	 */
+	public static synchronized Throwable getFailure() {
+		return failure;
+	}
+}
@@ -0,0 +1,249 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <pre>
+ * Forma cannica de uma restrio (clusula where) usada como chave de cache.
+ * Restries equivalentes escritas de formas diferentes produzem o mesmo
+ * texto:
+ *
+ * - espaos em branco so reduzidos a um nico espao entre os elementos;
+ * - palavras-chave e nomes de colunas so convertidos para maisculas (textos
+ *   entre aspas simples e identificadores entre aspas duplas so mantidos);
+ * - o operador !=  escrito como &lt;&gt;;
+ * - os valores das listas IN so ordenados;
+ * - as condies ligadas somente por AND (ou somente por OR) no mesmo nvel de
+ *   parnteses so ordenadas, exceto dentro de expresses CASE, onde a ordem
+ *    mantida.
+ *
+ * Nmeros so mantidos como escritos: 2 e 2.0 tm tipos diferentes no banco
+ * (diviso inteira e numrica) e no so equivalentes.
+ *
+ * A forma cannica no  executada; ela serve apenas para comparar
+ * restries.
+ * </pre>
+ */
+public final class RestrictionNormalizer {
+
+	private RestrictionNormalizer() {
+	}
+
+	/**
+	 * @return A forma cannica da restrio; restries nulas ou vazias
+	 *         resultam em texto vazio.
+	 */
+	public static String normalize(String restriction) {
+		if (restriction == null)
+			return "";
+		List<String> tokens = tokenize(restriction);
+		int[] position = new int[1];
+		return group(tokens, position, false, false);
+	}
+
+	/**
+	 * Normaliza os elementos at o fim do texto ou at o parntese que fecha o
+	 * grupo.
+	 *
+	 * @param inCase
+	 *            Verdadeiro quando o grupo est dentro de uma expresso CASE;
+	 *            as condies no so separadas nem reordenadas.
+	 */
+	private static String group(List<String> tokens, int[] position,
+			boolean inList, boolean inCase) {
+		List<String> clauses = new ArrayList<String>();
+		StringBuilder clause = new StringBuilder();
+		String connector = null;
+		boolean mixed = false;
+		boolean between = false;
+		int caseDepth = 0;
+		String previous = null;
+		while (position[0] < tokens.size()) {
+			String token = tokens.get(position[0]++);
+			if (token.equals(")"))
+				break;
+			if (token.equals("CASE")) {
+				caseDepth++;
+			} else if (token.equals("END") && caseDepth > 0) {
+				caseDepth--;
+			}
+			boolean verbatim = inCase || caseDepth > 0;
+			if (token.equals("(")) {
+				boolean list = "IN".equals(previous);
+				token = "(" + group(tokens, position, list, verbatim) + ")";
+			} else if (token.equals("BETWEEN")) {
+				between = true;
+			} else if (!verbatim
+					&& ((token.equals("AND") && !between) || token.equals("OR"))) {
+				if (connector != null && !connector.equals(token))
+					mixed = true;
+				connector = token;
+				clauses.add(clause.toString());
+				clauses.add(token);
+				clause.setLength(0);
+				previous = token;
+				continue;
+			} else if (token.equals("AND")) {
+				between = false;
+			}
+			if (clause.length() > 0 && !token.equals(","))
+				clause.append(' ');
+			clause.append(token);
+			previous = token;
+		}
+		clauses.add(clause.toString());
+
+		if (inList && connector == null)
+			return sortList(clauses.get(0));
+		if (connector == null || mixed)
+			return join(clauses);
+
+		List<String> operands = new ArrayList<String>();
+		for (int i = 0; i < clauses.size(); i += 2)
+			operands.add(clauses.get(i));
+		Collections.sort(operands);
+		StringBuilder out = new StringBuilder();
+		for (String operand : operands) {
+			if (out.length() > 0)
+				out.append(' ').append(connector).append(' ');
+			out.append(operand);
+		}
+		return out.toString();
+	}
+
+	private static String join(List<String> parts) {
+		StringBuilder out = new StringBuilder();
+		for (String part : parts) {
+			if (out.length() > 0)
+				out.append(' ');
+			out.append(part);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Ordena os valores de uma lista IN quando todos so literais.
+	 */
+	private static String sortList(String list) {
+		List<String> values = new ArrayList<String>();
+		for (String value : splitList(list)) {
+			if (!isLiteral(value))
+				return list;
+			values.add(value);
+		}
+		Collections.sort(values);
+		StringBuilder out = new StringBuilder();
+		for (String value : values) {
+			if (out.length() > 0)
+				out.append(", ");
+			out.append(value);
+		}
+		return out.toString();
+	}
+
+	private static List<String> splitList(String list) {
+		List<String> values = new ArrayList<String>();
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < list.length(); i++) {
+			char c = list.charAt(i);
+			if (c == '\'')
+				quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				values.add(list.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		values.add(list.substring(start).trim());
+		return values;
+	}
+
+	private static boolean isLiteral(String value) {
+		if (value.length() == 0)
+			return false;
+		char c = value.charAt(0);
+		if (c == '\'')
+			return true;
+		if (c == '-' || c == '+')
+			value = value.substring(1);
+		return value.length() > 0 && isDigit(value.charAt(0));
+	}
+
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '\'' || c == '"') {
+				int end = i + 1;
+				while (end < n) {
+					if (text.charAt(end) == c) {
+						// aspas duplicadas representam a prpria aspa
+						if (end + 1 < n && text.charAt(end + 1) == c) {
+							end += 2;
+							continue;
+						}
+						break;
+					}
+					end++;
+				}
+				end = Math.min(end + 1, n);
+				tokens.add(text.substring(i, end));
+				i = end;
+			} else if (isDigit(c)
+					|| (c == '.' && i + 1 < n && isDigit(text.charAt(i + 1)))) {
+				int end = i;
+				while (end < n
+						&& (isDigit(text.charAt(end)) || text.charAt(end) == '.'))
+					end++;
+				if (end < n
+						&& (text.charAt(end) == 'e' || text.charAt(end) == 'E')) {
+					int exp = end + 1;
+					if (exp < n
+							&& (text.charAt(exp) == '+' || text.charAt(exp) == '-'))
+						exp++;
+					if (exp < n && isDigit(text.charAt(exp))) {
+						end = exp;
+						while (end < n && isDigit(text.charAt(end)))
+							end++;
+					}
+				}
+				tokens.add(text.substring(i, end));
+				i = end;
+			} else if (Character.isLetter(c) || c == '_') {
+				int end = i + 1;
+				while (end < n
+						&& (Character.isLetterOrDigit(text.charAt(end))
+								|| text.charAt(end) == '_'
+								|| text.charAt(end) == '.' || text.charAt(end) == '$'))
+					end++;
+				tokens.add(text.substring(i, end).toUpperCase(Locale.ENGLISH));
+				i = end;
+			} else {
+				String two = (i + 1 < n) ? text.substring(i, i + 2) : "";
+				if (two.equals("<=") || two.equals(">=") || two.equals("<>")
+						|| two.equals("||")) {
+					tokens.add(two);
+					i += 2;
+				} else if (two.equals("!=")) {
+					tokens.add("<>");
+					i += 2;
+				} else {
+					tokens.add(String.valueOf(c));
+					i++;
+				}
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
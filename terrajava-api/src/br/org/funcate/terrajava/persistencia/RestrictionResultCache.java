@@ -0,0 +1,278 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <pre>
+ * Cache, compartilhado entre sesses, dos resultados de getThemeBox e
+ * getFeaturesWithRestriction. Cada resultado  identificado pelo layer, pelo
+ * tema e pela forma cannica da restrio ({@link RestrictionNormalizer}), de
+ * modo que restries equivalentes escritas de formas diferentes
+ * compartilham a mesma entrada.
+ *
+ * A memria ocupada  estimada pelo tamanho dos resultados e limitada por um
+ * oramento em bytes; ao ultrapass-lo, os resultados usados h mais tempo so
+ * descartados (LRU). Alteraes nos objetos ou atributos de um layer devem ser
+ * seguidas de {@link #invalidateLayer(int)}.
+ *
+ * Os resultados lidos durante uma invalidao do layer no so armazenados:
+ * cada layer tem um contador de geraes, lido antes da consulta e conferido
+ * antes do armazenamento.
+ *
+ * Os vetores devolvidos so cpias; alter-los no altera o cache.
+ * </pre>
+ */
+public class RestrictionResultCache {
+
+	/** Oramento padro de memria: 32 MB. */
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	private static final int KIND_BOX = 0;
+
+	private static final int KIND_FEATURES = 1;
+
+	private final LinkedHashMap<Key, Vector> results = new LinkedHashMap<Key, Vector>(
+			256, 0.75f, true);
+
+	private final HashMap<Key, Long> sizes = new HashMap<Key, Long>();
+
+	private final HashMap<Integer, Long> generations = new HashMap<Integer, Long>();
+
+	private long clears;
+
+	private final long maxBytes;
+
+	private long usedBytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	public RestrictionResultCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            Oramento de memria, em bytes, para os resultados
+	 *            armazenados.
+	 */
+	public RestrictionResultCache(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Oramento de memria invlido: "
+					+ maxBytes);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Box dos objetos do tema que atendem  restrio, lido do cache ou de
+	 * {@link TerraJava#getThemeBox(int, String, String)}. O tema deve estar
+	 * configurado na sesso como corrente ou de referncia, conforme
+	 * themeType.
+	 *
+	 * @param layerId
+	 *            Layer do tema, usado na invalidao.
+	 * @param theme
+	 *            Nome do tema configurado na sesso.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector getThemeBox(TerraJava terraJava, int layerId, String theme,
+			int themeType, String restriction, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Key key = new Key(KIND_BOX, layerId, theme, restriction);
+		long generation = generation(layerId);
+		Vector result = get(key);
+		if (result == null) {
+			result = terraJava.getThemeBox(themeType, restriction, sessionId);
+			put(key, result, generation);
+		}
+		return (result == null) ? null : new Vector(result);
+	}
+
+	/**
+	 * Features do tema corrente que atendem  restrio, lidas do cache ou de
+	 * {@link TerraJava#getFeaturesWithRestriction(String, String)}.
+	 *
+	 * @param layerId
+	 *            Layer do tema, usado na invalidao.
+	 * @param theme
+	 *            Nome do tema configurado como corrente na sesso.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector getFeaturesWithRestriction(TerraJava terraJava,
+			int layerId, String theme, String restriction, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Key key = new Key(KIND_FEATURES, layerId, theme, restriction);
+		long generation = generation(layerId);
+		Vector result = get(key);
+		if (result == null) {
+			result = terraJava.getFeaturesWithRestriction(restriction,
+					sessionId);
+			put(key, result, generation);
+		}
+		return (result == null) ? null : new Vector(result);
+	}
+
+	private synchronized Vector get(Key key) {
+		Vector result = results.get(key);
+		if (result == null)
+			misses++;
+		else
+			hits++;
+		return result;
+	}
+
+	/**
+	 * @return A gerao atual do layer, alterada a cada invalidao.
+	 */
+	private synchronized long generation(int layerId) {
+		Long generation = generations.get(layerId);
+		return clears + ((generation == null) ? 0 : generation);
+	}
+
+	/**
+	 * Armazena o resultado, caso o layer no tenha sido invalidado desde a
+	 * leitura da gerao.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void put(Key key, Vector result, long generation) {
+		if (result == null || generation(key.layerId) != generation)
+			return;
+		long size = estimateSize(key, result);
+		if (size > maxBytes)
+			return;
+
+		Vector copy = new Vector(result);
+		if (results.put(key, copy) != null)
+			usedBytes -= sizes.get(key);
+		sizes.put(key, size);
+		usedBytes += size;
+
+		Iterator<Map.Entry<Key, Vector>> it = results.entrySet().iterator();
+		while (usedBytes > maxBytes && it.hasNext()) {
+			Key eldest = it.next().getKey();
+			usedBytes -= sizes.remove(eldest);
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Descarta todos os resultados do layer. Deve ser chamado aps a edio de
+	 * objetos, geometrias ou atributos do layer.
+	 */
+	public synchronized void invalidateLayer(int layerId) {
+		Long generation = generations.get(layerId);
+		generations.put(layerId, (generation == null) ? 1 : generation + 1);
+		Iterator<Map.Entry<Key, Vector>> it = results.entrySet().iterator();
+		while (it.hasNext()) {
+			Key key = it.next().getKey();
+			if (key.layerId == layerId) {
+				usedBytes -= sizes.remove(key);
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		clears++;
+		results.clear();
+		sizes.clear();
+		usedBytes = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return Memria estimada ocupada pelos resultados armazenados, em bytes.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized int getEntryCount() {
+		return results.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return A frao das consultas atendidas pelo cache (0 a 1).
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Estimativa do tamanho do resultado: caracteres (2 bytes) dos textos mais
+	 * um custo fixo por objeto.
+	 */
+	private static long estimateSize(Key key, Vector result) {
+		long size = 64 + 2L * key.restriction.length() + 2L
+				* key.theme.length();
+		for (Object item : result) {
+			size += 24;
+			if (item instanceof String)
+				size += 40 + 2L * ((String) item).length();
+			else if (item != null)
+				size += 16;
+		}
+		return size;
+	}
+
+	private static final class Key {
+
+		final int kind;
+
+		final int layerId;
+
+		final String theme;
+
+		final String restriction;
+
+		Key(int kind, int layerId, String theme, String restriction) {
+			this.kind = kind;
+			this.layerId = layerId;
+			this.theme = String.valueOf(theme);
+			this.restriction = RestrictionNormalizer.normalize(restriction);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return kind == other.kind && layerId == other.layerId
+					&& theme.equals(other.theme)
+					&& restriction.equals(other.restriction);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = kind;
+			h = h * 31 + layerId;
+			h = h * 31 + theme.hashCode();
+			h = h * 31 + restriction.hashCode();
+			return h;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package br.org.funcate.terrajava.persistencia;
+
+/**
+ * Recebe a notificao das sesses destrudas pelo {@link SessionRegistry},
+ * para que a aplicao descarte o estado associado a elas.
+ */
+public interface SessionListener {
+
+	/** Sesso destruda por ficar ociosa alm do tempo limite. */
+	String REASON_IDLE = "idle";
+
+	/** Sesso destruda para respeitar o oramento de memria nativa. */
+	String REASON_MEMORY = "memory";
+
+	/** Sesso destruda pela aplicao ou pelo encerramento do registro. */
+	String REASON_CLOSED = "closed";
+
+	/**
+	 * @param sessionId
+	 *            Sesso destruda.
+	 * @param reason
+	 *            Um de REASON_IDLE, REASON_MEMORY ou REASON_CLOSED.
+	 */
+	void sessionDestroyed(String sessionId, String reason);
+}
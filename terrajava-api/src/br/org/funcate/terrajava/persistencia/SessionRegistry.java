@@ -0,0 +1,470 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Registro das sesses nativas abertas com connect, com o ltimo uso, o
+ * tamanho da rea de desenho definida por setWorld e os recursos abertos de
+ * cada sesso, e uma estimativa da memria nativa ocupada.
+ *
+ * Sesses ociosas alm do tempo limite so destrudas periodicamente
+ * (destroySession). Alm disso, quando a memria estimada ultrapassa o
+ * oramento, as sesses usadas h mais tempo so destrudas primeiro (LRU).
+ * Sesses em uso ({@link #use(String)} sem o {@link #release(String)}
+ * correspondente) nunca so destrudas.
+ *
+ * Uma sesso removida do registro fica marcada como em destruio at que
+ * destroySession termine; {@link #connect(ConnectionParameters, String)} e
+ * {@link #register(String)} com o mesmo identificador aguardam esse trmino,
+ * para que a destruio pendente no atinja a sesso conectada novamente.
+ *
+ * A memria de uma sesso  estimada como um custo fixo (instncia nativa e
+ * conexo ao banco), mais 4 bytes por pixel da rea de desenho, mais os bytes
+ * informados para os recursos da sesso ({@link #addResource(String, String, long)}).
+ *
+ * Exemplo de uso em uma requisio:
+ *
+ * if (!registry.use(sessionId))
+ *    registry.connect(connection, sessionId);
+ * try {
+ *    registry.setWorld(sessionId, x1, y1, x2, y2, width, height, true);
+ *    ...
+ * } finally {
+ *    registry.release(sessionId);
+ * }
+ * </pre>
+ */
+public class SessionRegistry {
+
+	/** Tempo de ociosidade padro: 30 minutos. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30L * 60 * 1000;
+
+	/** Oramento padro de memria nativa: 512 MB. */
+	public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+	/** Custo fixo padro estimado por sesso: 4 MB. */
+	public static final long DEFAULT_SESSION_BYTES = 4L * 1024 * 1024;
+
+	private final TerraJava terraJava;
+
+	/** Sesses na ordem de uso, da usada h mais tempo para a mais recente. */
+	private final LinkedHashMap<String, Entry> sessions = new LinkedHashMap<String, Entry>(
+			64, 0.75f, true);
+
+	/** Sesses removidas do registro cuja destruio ainda no terminou. */
+	private final HashSet<String> destroying = new HashSet<String>();
+
+	private final List<SessionListener> listeners = new CopyOnWriteArrayList<SessionListener>();
+
+	private final long maxBytes;
+
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	private long sessionBytes = DEFAULT_SESSION_BYTES;
+
+	private long usedBytes;
+
+	private long idleReaped;
+
+	private long memoryReaped;
+
+	private ScheduledExecutorService reaper;
+
+	public SessionRegistry(TerraJava terraJava) {
+		this(terraJava, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            Oramento, em bytes, da memria nativa estimada de todas as
+	 *            sesses registradas.
+	 */
+	public SessionRegistry(TerraJava terraJava, long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Oramento de memria invlido: "
+					+ maxBytes);
+		this.terraJava = terraJava;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Tempo, em milissegundos, sem uso aps o qual a sesso  destruda.
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Custo fixo estimado de cada sesso, em bytes.
+	 */
+	public synchronized void setSessionBytes(long sessionBytes) {
+		usedBytes += sessions.size() * (sessionBytes - this.sessionBytes);
+		this.sessionBytes = sessionBytes;
+	}
+
+	public void addListener(SessionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(SessionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Inicia a destruio peridica das sesses ociosas.
+	 *
+	 * @param interval
+	 *            Intervalo entre as verificaes, em milissegundos.
+	 */
+	public synchronized void start(long interval) {
+		if (reaper != null)
+			return;
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "terrajava-sessoes");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				reapIdle();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Conecta a sesso e a registra em uso; deve ser seguido de
+	 * {@link #release(String)}. Caso a sesso esteja em destruio, aguarda
+	 * o trmino antes de conectar.
+	 */
+	public void connect(ConnectionParameters connection, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		synchronized (this) {
+			awaitDestroyed(sessionId);
+		}
+		connection.connect(terraJava, sessionId);
+		register(sessionId, true);
+	}
+
+	/**
+	 * Registra uma sesso conectada fora do registro.
+	 */
+	public void register(String sessionId) {
+		register(sessionId, false);
+	}
+
+	/**
+	 * Registra a sesso e, com inUse, a marca em uso no mesmo bloqueio, de
+	 * modo que ela no possa ser destruda entre o registro e o uso.
+	 */
+	private void register(String sessionId, boolean inUse) {
+		synchronized (this) {
+			awaitDestroyed(sessionId);
+			Entry entry = sessions.get(sessionId);
+			if (entry == null) {
+				entry = new Entry();
+				sessions.put(sessionId, entry);
+				usedBytes += sessionBytes;
+			}
+			if (inUse) {
+				entry.inUse++;
+				entry.lastUse = System.currentTimeMillis();
+			}
+		}
+		enforceBudget(sessionId);
+	}
+
+	/**
+	 * Aguarda o trmino da destruio da sesso, caso ela esteja em
+	 * destruio. Chamado com o bloqueio do registro.
+	 */
+	private void awaitDestroyed(String sessionId) {
+		while (destroying.contains(sessionId)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"Interrompido aguardando a destruio da sesso "
+								+ sessionId + ".");
+			}
+		}
+	}
+
+	/**
+	 * Marca a sesso em uso e atualiza o ltimo uso.
+	 *
+	 * @return Falso caso a sesso no esteja registrada (por exemplo, j
+	 *         destruda por ociosidade); a aplicao deve conect-la novamente.
+	 */
+	public synchronized boolean use(String sessionId) {
+		Entry entry = sessions.get(sessionId);
+		if (entry == null)
+			return false;
+		entry.inUse++;
+		entry.lastUse = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Encerra um uso iniciado por {@link #use(String)} ou
+	 * {@link #connect(ConnectionParameters, String)}.
+	 */
+	public synchronized void release(String sessionId) {
+		Entry entry = sessions.get(sessionId);
+		if (entry != null && entry.inUse > 0) {
+			entry.inUse--;
+			entry.lastUse = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Chama setWorld na sesso e registra o tamanho da rea de desenho.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector setWorld(String sessionId, double xmin, double ymin,
+			double xmax, double ymax, int width, int height,
+			boolean keepAspectRatio) throws IllegalAccessException,
+			InstantiationException {
+		Vector box = terraJava.setWorld(xmin, ymin, xmax, ymax, width, height,
+				keepAspectRatio, sessionId);
+		setCanvasSize(sessionId, width, height);
+		return box;
+	}
+
+	/**
+	 * Registra o tamanho da rea de desenho da sesso, para chamadas a setWorld
+	 * feitas fora do registro.
+	 */
+	public void setCanvasSize(String sessionId, int width, int height) {
+		synchronized (this) {
+			Entry entry = sessions.get(sessionId);
+			if (entry == null)
+				return;
+			long bytes = 4L * width * height;
+			usedBytes += bytes - entry.canvasBytes;
+			entry.canvasBytes = bytes;
+		}
+		enforceBudget(sessionId);
+	}
+
+	/**
+	 * Registra um recurso aberto na sesso (por exemplo, uma tabela
+	 * temporria), com a memria nativa estimada.
+	 */
+	public void addResource(String sessionId, String name, long bytes) {
+		synchronized (this) {
+			Entry entry = sessions.get(sessionId);
+			if (entry == null)
+				return;
+			Long old = entry.resources.put(name, bytes);
+			usedBytes += bytes - ((old == null) ? 0 : old);
+		}
+		enforceBudget(sessionId);
+	}
+
+	public synchronized void removeResource(String sessionId, String name) {
+		Entry entry = sessions.get(sessionId);
+		if (entry == null)
+			return;
+		Long old = entry.resources.remove(name);
+		if (old != null)
+			usedBytes -= old;
+	}
+
+	/**
+	 * Destroi a sesso e a remove do registro.
+	 */
+	public boolean destroy(String sessionId) {
+		synchronized (this) {
+			Entry entry = sessions.remove(sessionId);
+			if (entry == null)
+				return false;
+			usedBytes -= bytes(entry);
+			destroying.add(sessionId);
+		}
+		return destroySession(sessionId, SessionListener.REASON_CLOSED);
+	}
+
+	/**
+	 * Destroi as sesses que no esto em uso e esto ociosas alm do tempo
+	 * limite. Chamado periodicamente aps {@link #start(long)}.
+	 *
+	 * @return Nmero de sesses destrudas.
+	 */
+	public int reapIdle() {
+		List<String> reaped = new ArrayList<String>();
+		synchronized (this) {
+			long limit = System.currentTimeMillis() - idleTimeout;
+			for (Iterator<Map.Entry<String, Entry>> it = sessions.entrySet()
+					.iterator(); it.hasNext();) {
+				Map.Entry<String, Entry> item = it.next();
+				Entry entry = item.getValue();
+				if (entry.inUse == 0 && entry.lastUse < limit) {
+					it.remove();
+					usedBytes -= bytes(entry);
+					reaped.add(item.getKey());
+					destroying.add(item.getKey());
+				}
+			}
+			idleReaped += reaped.size();
+		}
+		for (String sessionId : reaped)
+			destroySession(sessionId, SessionListener.REASON_IDLE);
+		return reaped.size();
+	}
+
+	/**
+	 * Destroi as sesses usadas h mais tempo, fora de uso, at que a memria
+	 * estimada fique dentro do oramento.
+	 */
+	private void enforceBudget(String protectedSession) {
+		List<String> evicted = new ArrayList<String>();
+		synchronized (this) {
+			for (Iterator<Map.Entry<String, Entry>> it = sessions.entrySet()
+					.iterator(); usedBytes > maxBytes && it.hasNext();) {
+				Map.Entry<String, Entry> item = it.next();
+				Entry entry = item.getValue();
+				if (entry.inUse > 0 || item.getKey().equals(protectedSession))
+					continue;
+				it.remove();
+				usedBytes -= bytes(entry);
+				evicted.add(item.getKey());
+				destroying.add(item.getKey());
+			}
+			memoryReaped += evicted.size();
+		}
+		for (String sessionId : evicted)
+			destroySession(sessionId, SessionListener.REASON_MEMORY);
+	}
+
+	/**
+	 * Destroi uma sesso j removida do registro e marcada como em
+	 * destruio, e libera quem aguarda o trmino.
+	 */
+	private boolean destroySession(String sessionId, String reason) {
+		boolean destroyed;
+		try {
+			destroyed = terraJava.destroySession(sessionId);
+		} catch (Throwable e) {
+			destroyed = false;
+		} finally {
+			synchronized (this) {
+				destroying.remove(sessionId);
+				notifyAll();
+			}
+		}
+		for (SessionListener listener : listeners) {
+			try {
+				listener.sessionDestroyed(sessionId, reason);
+			} catch (RuntimeException e) {
+				// um ouvinte com erro no impede os demais
+			}
+		}
+		return destroyed;
+	}
+
+	private long bytes(Entry entry) {
+		long bytes = sessionBytes + entry.canvasBytes;
+		for (Long resource : entry.resources.values())
+			bytes += resource;
+		return bytes;
+	}
+
+	/**
+	 * Encerra a verificao peridica e destroi todas as sesses registradas.
+	 */
+	public void close() {
+		List<String> all;
+		synchronized (this) {
+			if (reaper != null) {
+				reaper.shutdownNow();
+				reaper = null;
+			}
+			all = new ArrayList<String>(sessions.keySet());
+			sessions.clear();
+			destroying.addAll(all);
+			usedBytes = 0;
+		}
+		for (String sessionId : all)
+			destroySession(sessionId, SessionListener.REASON_CLOSED);
+	}
+
+	public synchronized boolean contains(String sessionId) {
+		return sessions.containsKey(sessionId);
+	}
+
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return Memria nativa estimada das sesses registradas, em bytes.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * <pre>
+	 * Estado do registro em um HashMap:
+	 *
+	 * sessions, destroying, usedBytes, maxBytes, idleReaped, memoryReaped e
+	 * details (lista de HashMap com sessionId, inUse, idleTime, canvasBytes,
+	 * resources e bytes, da sesso usada h mais tempo para a mais recente)
+	 * </pre>
+	 */
+	public synchronized HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("sessions", sessions.size());
+		map.put("destroying", destroying.size());
+		map.put("usedBytes", usedBytes);
+		map.put("maxBytes", maxBytes);
+		map.put("idleReaped", idleReaped);
+		map.put("memoryReaped", memoryReaped);
+		long now = System.currentTimeMillis();
+		Vector<Object> details = new Vector<Object>();
+		for (Map.Entry<String, Entry> item : sessions.entrySet()) {
+			Entry entry = item.getValue();
+			HashMap<String, Object> detail = new LinkedHashMap<String, Object>();
+			detail.put("sessionId", item.getKey());
+			detail.put("inUse", entry.inUse);
+			detail.put("idleTime", now - entry.lastUse);
+			detail.put("canvasBytes", entry.canvasBytes);
+			detail.put("resources", new HashMap<String, Long>(entry.resources));
+			detail.put("bytes", bytes(entry));
+			details.add(detail);
+		}
+		map.put("details", details);
+		return map;
+	}
+
+	private static final class Entry {
+
+		long lastUse = System.currentTimeMillis();
+
+		int inUse;
+
+		long canvasBytes;
+
+		final HashMap<String, Long> resources = new HashMap<String, Long>();
+	}
+}
@@ -0,0 +1,343 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * <pre>
+ * Carga de tabelas temporrias em partes, alternativa a
+ * {@link TerraJava#createTemporaryTableWithValues(String, String, Vector, String)}
+ * para conjuntos grandes de valores (por exemplo, centenas de milhares de
+ * identificadores usados em junes).
+ *
+ * Os valores so lidos de vetores de tipos primitivos, de iteradores ou de um
+ * Reader (um valor por linha) e enviados em lotes de tamanho fixo, de modo que
+ * somente um lote fica em memria. A camada nativa no acrescenta valores a
+ * uma tabela existente, ento cada lote  gravado em uma tabela prpria com
+ * createTemporaryTableWithValues:
+ *
+ * - at um lote de valores: uma nica tabela com o nome informado;
+ * - mais de um lote: tabelas nome_0, nome_1, ..., uma por lote.
+ *
+ * As tabelas criadas so devolvidas por getTableNames, e getSelect monta a
+ * consulta que une todas elas, para uso em junes ou em restries
+ * "coluna IN (...)". O tipo da coluna valida e normaliza os valores antes do
+ * envio; a coluna  criada pela camada nativa, que recebe os valores como
+ * texto.
+ *
+ * Exemplo:
+ *
+ * TemporaryTableLoader loader = new TemporaryTableLoader(terraJava,
+ * 		"tmp_selecao", "object_id", TemporaryTableLoader.TYPE_INTEGER);
+ * loader.load(objectIds, sessionId);
+ * String restriction = "object_id IN (" + loader.getSelect() + ")";
+ * ...
+ * loader.delete(sessionId);
+ *
+ * Uma instncia no deve ser usada por mais de uma thread ao mesmo tempo.
+ * </pre>
+ */
+public class TemporaryTableLoader {
+
+	public static final String TYPE_STRING = "TeSTRING";
+
+	public static final String TYPE_INTEGER = "TeINT";
+
+	public static final String TYPE_REAL = "TeREAL";
+
+	/** Nmero padro de valores enviados por chamada nativa. */
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+	private final TerraJava terraJava;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final String columnType;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/** Tabelas criadas pela ltima carga concluda. */
+	private Vector<String> tables = new Vector<String>();
+
+	/**
+	 * @param columnType
+	 *            Tipo da coluna: {@link #TYPE_STRING}, {@link #TYPE_INTEGER}
+	 *            ou {@link #TYPE_REAL}.
+	 */
+	public TemporaryTableLoader(TerraJava terraJava, String tableName,
+			String columnName, String columnType) {
+		if (!TYPE_STRING.equals(columnType) && !TYPE_INTEGER.equals(columnType)
+				&& !TYPE_REAL.equals(columnType))
+			throw new IllegalArgumentException("Tipo de coluna invlido: "
+					+ columnType);
+		this.terraJava = terraJava;
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.columnType = columnType;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException(
+					"O tamanho do lote deve ser positivo.");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return Nomes das tabelas criadas pela ltima carga concluda.
+	 */
+	public Vector<String> getTableNames() {
+		return new Vector<String>(tables);
+	}
+
+	/**
+	 * @return Consulta que devolve a coluna de todas as tabelas criadas pela
+	 *         ltima carga concluda.
+	 */
+	public String getSelect() {
+		if (tables.isEmpty())
+			throw new IllegalStateException("Nenhuma tabela foi carregada.");
+		StringBuilder select = new StringBuilder();
+		for (String table : tables) {
+			if (select.length() > 0)
+				select.append(" UNION ALL ");
+			select.append("SELECT ").append(columnName).append(" FROM ")
+					.append(table);
+		}
+		return select.toString();
+	}
+
+	/**
+	 * Remove as tabelas criadas pela ltima carga concluda.
+	 *
+	 * @return Verdadeiro se todas as tabelas foram removidas.
+	 */
+	public boolean delete(String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		boolean result = true;
+		while (!tables.isEmpty()) {
+			result &= terraJava.deleteTemporaryTable(tables.lastElement(),
+					sessionId);
+			tables.remove(tables.size() - 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Cria as tabelas e carrega os valores.
+	 *
+	 * @return Nmero de valores carregados.
+	 */
+	public long load(long[] values, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Batch batch = new Batch(sessionId);
+		try {
+			for (long value : values)
+				batch.add(value);
+			return batch.finish();
+		} finally {
+			batch.abortIfUnfinished();
+		}
+	}
+
+	/**
+	 * Cria as tabelas e carrega os valores.
+	 *
+	 * @return Nmero de valores carregados.
+	 */
+	public long load(int[] values, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Batch batch = new Batch(sessionId);
+		try {
+			for (int value : values)
+				batch.add(value);
+			return batch.finish();
+		} finally {
+			batch.abortIfUnfinished();
+		}
+	}
+
+	/**
+	 * Cria as tabelas e carrega os valores.
+	 *
+	 * @return Nmero de valores carregados.
+	 */
+	public long load(double[] values, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Batch batch = new Batch(sessionId);
+		try {
+			for (double value : values)
+				batch.add(value);
+			return batch.finish();
+		} finally {
+			batch.abortIfUnfinished();
+		}
+	}
+
+	/**
+	 * Cria as tabelas e carrega os valores na ordem do iterador. Nmeros so
+	 * formatados como nmeros; os demais objetos so convertidos com
+	 * String.valueOf (e interpretados, em colunas numricas). Valores nulos so
+	 * ignorados.
+	 *
+	 * @return Nmero de valores carregados.
+	 */
+	public long load(Iterator<?> values, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		Batch batch = new Batch(sessionId);
+		try {
+			while (values.hasNext()) {
+				Object value = values.next();
+				if (value != null)
+					batch.add(value);
+			}
+			return batch.finish();
+		} finally {
+			batch.abortIfUnfinished();
+		}
+	}
+
+	/**
+	 * @see #load(Iterator, String)
+	 */
+	public long load(Iterable<?> values, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		return load(values.iterator(), sessionId);
+	}
+
+	/**
+	 * Cria as tabelas e carrega os valores lidos do Reader, um por linha.
+	 * Linhas em branco so ignoradas. O Reader no  fechado.
+	 *
+	 * @return Nmero de valores carregados.
+	 */
+	public long load(Reader reader, String sessionId) throws IOException,
+			IllegalAccessException, InstantiationException {
+		BufferedReader lines = (reader instanceof BufferedReader) ? (BufferedReader) reader
+				: new BufferedReader(reader);
+		Batch batch = new Batch(sessionId);
+		try {
+			String line;
+			while ((line = lines.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0)
+					batch.add(line);
+			}
+			return batch.finish();
+		} finally {
+			batch.abortIfUnfinished();
+		}
+	}
+
+	/**
+	 * Lote em preenchimento. Um lote cheio s  gravado quando chega o valor
+	 * seguinte, para que uma carga de at um lote use o nome da tabela sem
+	 * sufixo.
+	 */
+	private final class Batch {
+
+		private final String sessionId;
+
+		private final Vector<String> values;
+
+		/** Tabelas que esta carga confirmou ter criado. */
+		private final Vector<String> created = new Vector<String>();
+
+		private long total;
+
+		private boolean finished;
+
+		Batch(String sessionId) {
+			this.sessionId = sessionId;
+			this.values = new Vector<String>(chunkSize);
+		}
+
+		void add(long value) throws IllegalAccessException,
+				InstantiationException {
+			if (TYPE_REAL.equals(columnType))
+				append(Double.toString(value));
+			else
+				append(Long.toString(value));
+		}
+
+		void add(double value) throws IllegalAccessException,
+				InstantiationException {
+			if (TYPE_INTEGER.equals(columnType)) {
+				if (value != Math.rint(value))
+					throw new IllegalArgumentException("Valor no inteiro: "
+							+ value);
+				append(Long.toString((long) value));
+			} else
+				append(Double.toString(value));
+		}
+
+		void add(Object value) throws IllegalAccessException,
+				InstantiationException {
+			if (value instanceof Number && !TYPE_STRING.equals(columnType)) {
+				if (value instanceof Double || value instanceof Float)
+					add(((Number) value).doubleValue());
+				else
+					add(((Number) value).longValue());
+				return;
+			}
+			String text = String.valueOf(value);
+			if (TYPE_INTEGER.equals(columnType))
+				// valida o nmero antes de envi-lo como texto
+				text = Long.toString(Long.parseLong(text.trim()));
+			else if (TYPE_REAL.equals(columnType))
+				text = Double.toString(Double.parseDouble(text.trim()));
+			append(text);
+		}
+
+		private void append(String text) throws IllegalAccessException,
+				InstantiationException {
+			if (values.size() == chunkSize)
+				flush(tableName + "_" + created.size());
+			values.add(text);
+		}
+
+		private void flush(String name) throws IllegalAccessException,
+				InstantiationException {
+			if (!terraJava.createTemporaryTableWithValues(name, columnName,
+					values, sessionId))
+				throw new IllegalStateException(
+						"Falhou ao criar a tabela temporria " + name + ".");
+			created.add(name);
+			total += values.size();
+			values.clear();
+		}
+
+		long finish() throws IllegalAccessException, InstantiationException {
+			if (created.isEmpty())
+				flush(tableName);
+			else if (!values.isEmpty())
+				flush(tableName + "_" + created.size());
+			finished = true;
+			tables = created;
+			return total;
+		}
+
+		/**
+		 * Remove as tabelas que esta carga criou quando ela no terminou,
+		 * para que uma nova tentativa possa cri-las novamente. Tabelas que a
+		 * carga no chegou a criar, inclusive as de mesmo nome criadas por
+		 * outra carga, no so removidas.
+		 */
+		void abortIfUnfinished() {
+			if (finished)
+				return;
+			for (String name : created) {
+				try {
+					terraJava.deleteTemporaryTable(name, sessionId);
+				} catch (Exception e) {
+					// mantm a exceo original da carga
+				}
+			}
+		}
+	}
+}
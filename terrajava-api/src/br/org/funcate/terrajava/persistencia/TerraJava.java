@@ -11,6 +11,8 @@ import java.awt.geom.Point2D;
 import java.util.HashMap;
 import java.util.Vector;
 
+import br.org.funcate.terrajava.geometria.GeometrySimplifier;
+
 /**
  * <pre>
  * Esta classe armazena chamadas a m�todos nativos implementados na classe TerraJava (JNI), permitindo a implementa��o
@@ -62,6 +64,28 @@ import java.util.Vector;
 
 public class TerraJava {
 
+	/**
+	 * Cria a instncia, carregando as bibliotecas nativas na primeira vez.
+	 * 
+	 * @see NativeLibraryLoader
+	 */
+	public TerraJava() {
+		NativeLibraryLoader.ensureLoaded();
+	}
+
+	/**
+	 * Construtor para subclasses que substituem os mtodos nativos por
+	 * implementaes em Java (por exemplo, simuladores e testes), que podem
+	 * dispensar a carga das bibliotecas.
+	 * 
+	 * @param loadNativeLibrary
+	 *            Falso para no carregar as bibliotecas nativas.
+	 */
+	protected TerraJava(boolean loadNativeLibrary) {
+		if (loadNativeLibrary)
+			NativeLibraryLoader.ensureLoaded();
+	}
+
 	/**
 	 * M�todo nativo para conectar-se ao banco de dados modelo TerraLib.
 	 * 
@@ -4428,6 +4452,37 @@ public class TerraJava {
 			String sessionId) throws IllegalAccessException,
 			InstantiationException;
 
+	/**
+	 * Recupera as geometrias dos objetos solicitados do tema corrente no
+	 * formato WKT, simplificadas (Douglas-Peucker, preservando a topologia) e
+	 * com as coordenadas arredondadas para a preciso da tolerncia.
+	 * 
+	 * @see <a
+	 *      href="#getGeometriesByOidOnWKT(java.util.Vector, java.lang.String)">getGeometriesByOidOnWKT</a>
+	 * @param oids
+	 *            Lista de identificadores dos objetos.
+	 * @param tolerance
+	 *            Tolerncia de simplificao na unidade da projeo corrente.
+	 *            Pode ser obtida com GeometrySimplifier.toleranceForScale a
+	 *            partir do valor de getScale, ou com
+	 *            GeometrySimplifier.toleranceForView a partir do box e da
+	 *            largura da imagem. Valor zero devolve a geometria completa.
+	 * @param sessionId
+	 *            Nmero de controle de sesso, geralmente gerado pelo servidor
+	 *            de aplicao no momento da criao da sesso do usurio,
+	 *            quando a primeira requisio  feita. Deve ser um
+	 *            identificador nico.
+	 * @return Geometrias no formato WKT
+	 */
+	public String getGeometriesByOidOnWKT(Vector<String> oids,
+			double tolerance, String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		String wkt = getGeometriesByOidOnWKT(oids, sessionId);
+		if (tolerance <= 0)
+			return wkt;
+		return new GeometrySimplifier(tolerance).simplifyWKT(wkt);
+	}
+
 	/**
 	 * Fun��o permite recuperar geometrias com os identificadores das geometrias
 	 * solicitadas do tema corrente no formato WKT
@@ -4492,6 +4547,38 @@ public class TerraJava {
 			String sessionId) throws IllegalAccessException,
 			InstantiationException;
 
+	/**
+	 * Recupera as geometrias dos objetos solicitados do tema corrente, na
+	 * mesma estrutura de getGeometriesByOid, simplificadas (Douglas-Peucker,
+	 * preservando a topologia).
+	 * 
+	 * @see <a
+	 *      href="#getGeometriesByOid(java.util.Vector, java.lang.String)">getGeometriesByOid</a>
+	 * @param Oids
+	 *            Lista de identificadores dos objetos.
+	 * @param tolerance
+	 *            Tolerncia de simplificao na unidade da projeo corrente.
+	 *            Pode ser obtida com GeometrySimplifier.toleranceForScale a
+	 *            partir do valor de getScale, ou com
+	 *            GeometrySimplifier.toleranceForView a partir do box e da
+	 *            largura da imagem. Valor zero devolve a geometria completa.
+	 * @param sessionId
+	 *            Nmero de controle de sesso, geralmente gerado pelo servidor
+	 *            de aplicao no momento da criao da sesso do usurio,
+	 *            quando a primeira requisio  feita. Deve ser um
+	 *            identificador nico.
+	 * @return Geometrias do tema
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector getGeometriesByOid(Vector<String> Oids, double tolerance,
+			String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		Vector geometries = getGeometriesByOid(Oids, sessionId);
+		if (tolerance <= 0)
+			return geometries;
+		return new GeometrySimplifier(tolerance).simplifyGeometries(geometries);
+	}
+
 	/**
 	 * Realiza a interse��o entre o tema corrente e o tema de refer�ncia.
 	 * 
@@ -5390,6 +5477,40 @@ public class TerraJava {
 	 */
 	public native Vector getFeaturesInBox(double x1, double y1, double x2, double y2, String sessionId)
 			throws IllegalAccessException, InstantiationException;
+
+	/**
+	 * Recupera features do layer do tema corrente, com restricao de box, com as
+	 * geometrias simplificadas (Douglas-Peucker, preservando a topologia) para a
+	 * escala de exibicao.
+	 * 
+	 * @return Vetor de features no formato GeoJSON.
+	 * @param x1
+	 *            Valor x1 do box a ser recuperado.
+	 * @param y1
+	 *            Valor y1 do box a ser recuperado.
+	 * @param x2
+	 *            Valor x2 do box a ser recuperado.
+	 * @param y2
+	 *            Valor y2 do box a ser recuperado.
+	 * @param tolerance
+	 *            Tolerncia de simplificao na unidade da projeo corrente.
+	 *            Pode ser obtida com GeometrySimplifier.toleranceForScale a
+	 *            partir do valor de getScale, ou com
+	 *            GeometrySimplifier.toleranceForView a partir do box e da
+	 *            largura da imagem. Valor zero devolve a geometria completa.
+	 * @param sessionId
+	 * @throws IllegalAccessException
+	 * @throws InstantiationException
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector getFeaturesInBox(double x1, double y1, double x2, double y2,
+			double tolerance, String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		Vector features = getFeaturesInBox(x1, y1, x2, y2, sessionId);
+		if (tolerance <= 0)
+			return features;
+		return new GeometrySimplifier(tolerance).simplifyFeatures(features);
+	}
 	
 	/**
 	 * Recupera features do layer do tema corrente com restricao de objectIds (configurar o tema corrente primeiro).
@@ -5573,8 +5694,4 @@ public class TerraJava {
 			HashMap<String,Object> projectionMap, HashMap<String, Integer> canvasBackground, boolean useScaleControl)  throws IllegalAccessException,
 			InstantiationException;
 	
-	static {
-		System.loadLibrary("terrajava");
-	}
-
 }
@@ -0,0 +1,96 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Informaes de um tema da vista, lidas por {@link ViewContextLoader}:
+ * representaes ativas, limites de escala, visual de cada representao,
+ * metadados das tabelas de atributos e box. Os objetos so imutveis.
+ */
+public final class ThemeContext {
+
+	private final String name;
+
+	private final int representation;
+
+	private final double minScale;
+
+	private final double maxScale;
+
+	private final Map<Integer, List<Object>> visuals;
+
+	private final String metadata;
+
+	private final Box box;
+
+	ThemeContext(String name, int representation, double minScale,
+			double maxScale, Map<Integer, List<Object>> visuals,
+			String metadata, Box box) {
+		this.name = name;
+		this.representation = representation;
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		this.visuals = Collections.unmodifiableMap(visuals);
+		this.metadata = metadata;
+		this.box = box;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return As representaes ativas, no formato de getThemeRepresentation.
+	 */
+	public int getRepresentation() {
+		return representation;
+	}
+
+	/**
+	 * @return O limite inferior de escala (getThemeScaleLimit).
+	 */
+	public double getMinScale() {
+		return minScale;
+	}
+
+	/**
+	 * @return O limite superior de escala (getThemeScaleLimit).
+	 */
+	public double getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 * @return O visual da representao (getThemeVisual), ou null caso a
+	 *         representao no esteja ativa.
+	 */
+	public List<Object> getVisual(int rep) {
+		return visuals.get(rep);
+	}
+
+	/**
+	 * @return Os visuais por representao.
+	 */
+	public Map<Integer, List<Object>> getVisuals() {
+		return visuals;
+	}
+
+	/**
+	 * @return Os metadados das tabelas de atributos (getThemeMetadata).
+	 */
+	public String getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @return O box dos objetos do tema (getThemeBox), ou null para temas sem
+	 *         representao vetorial.
+	 */
+	public Box getBox() {
+		return box;
+	}
+}
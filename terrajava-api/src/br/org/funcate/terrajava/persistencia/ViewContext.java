@@ -0,0 +1,85 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Retrato imutvel de uma vista, montado por {@link ViewContextLoader}: a
+ * lista de temas na ordem de getThemes, as informaes de cada tema e o box
+ * dos temas visveis. Pode ser compartilhado entre sesses e requisies.
+ */
+public final class ViewContext {
+
+	private final String view;
+
+	private final String user;
+
+	private final List<String> themes;
+
+	private final Map<String, ThemeContext> themeContexts;
+
+	private final List<Integer> visibleThemeIds;
+
+	private final Box visibleBox;
+
+	private final long loadedAt;
+
+	ViewContext(String view, String user, List<String> themes,
+			Map<String, ThemeContext> themeContexts,
+			List<Integer> visibleThemeIds, Box visibleBox, long loadedAt) {
+		this.view = view;
+		this.user = user;
+		this.themes = Collections.unmodifiableList(themes);
+		this.themeContexts = Collections.unmodifiableMap(themeContexts);
+		this.visibleThemeIds = Collections.unmodifiableList(visibleThemeIds);
+		this.visibleBox = visibleBox;
+		this.loadedAt = loadedAt;
+	}
+
+	public String getView() {
+		return view;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * @return Os nomes dos temas da vista (getThemes).
+	 */
+	public List<String> getThemes() {
+		return themes;
+	}
+
+	/**
+	 * @return As informaes do tema, ou null caso no pertena  vista.
+	 */
+	public ThemeContext getTheme(String name) {
+		return themeContexts.get(name);
+	}
+
+	/**
+	 * @return Os identificadores dos temas visveis (getThemesToPlot).
+	 */
+	public List<Integer> getVisibleThemeIds() {
+		return visibleThemeIds;
+	}
+
+	/**
+	 * @return A unio dos boxes dos temas visveis (getThemesBox), ou null
+	 *         quando no h temas visveis.
+	 */
+	public Box getVisibleBox() {
+		return visibleBox;
+	}
+
+	/**
+	 * @return O instante da leitura, em milissegundos.
+	 */
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+}
@@ -0,0 +1,387 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Leitura concorrente das informaes de uma vista (temas, limites de escala,
+ * visuais, metadados e boxes) em um {@link ViewContext}.
+ *
+ * A leitura  feita em duas rodadas sobre um conjunto de sesses prprias: a
+ * primeira obtm a lista de temas e, ao mesmo tempo, o box dos temas
+ * visveis na rea inteira da vista (getCurrentViewBox), com a rea de
+ * desenho de setWorldSize; a segunda l as informaes de todos os temas em paralelo, um
+ * tema por sesso. Os mtodos getThemeScaleLimit, getThemeVisual,
+ * getThemeMetadata e getThemeBox operam sobre o tema corrente da sesso, por
+ * isso cada tema  lido inteiramente na mesma sesso.
+ *
+ * Os contextos lidos so mantidos em cache por vista e usurio; leituras
+ * simultneas da mesma vista aguardam uma nica leitura. Alteraes nos temas
+ * da vista devem ser seguidas de {@link #invalidate(String, String)}.
+ * </pre>
+ */
+public class ViewContextLoader {
+
+	public static final int DEFAULT_POOL_SIZE = 4;
+
+	/** Largura padro, em pixels, da rea usada em getThemesToPlot. */
+	public static final int DEFAULT_WORLD_WIDTH = 800;
+
+	/** Altura padro, em pixels, da rea usada em getThemesToPlot. */
+	public static final int DEFAULT_WORLD_HEIGHT = 600;
+
+	private static final String SESSION_PREFIX = "contexto-vista-";
+
+	/** Representaes que possuem visual prprio. */
+	private static final int[] VISUAL_REPRESENTATIONS = { 1, 2, 4, 128, 256 };
+
+	/** Polgonos, linhas, pontos, texto e clulas. */
+	private static final int VECTOR_REPRESENTATIONS = 1 | 2 | 4 | 128 | 256;
+
+	private final TerraJava terraJava;
+
+	private final ConnectionParameters connection;
+
+	private final int poolSize;
+
+	private final ExecutorService executor;
+
+	private final LinkedBlockingQueue<String> available = new LinkedBlockingQueue<String>();
+
+	/** Vista corrente de cada sesso, para evitar chamadas a setCurrentView. */
+	private final Map<String, String> currentViews = new ConcurrentHashMap<String, String>();
+
+	private final ConcurrentHashMap<String, FutureTask<ViewContext>> contexts = new ConcurrentHashMap<String, FutureTask<ViewContext>>();
+
+	private final List<String> opened = new ArrayList<String>();
+
+	private long maxAge;
+
+	private volatile int worldWidth = DEFAULT_WORLD_WIDTH;
+
+	private volatile int worldHeight = DEFAULT_WORLD_HEIGHT;
+
+	public ViewContextLoader(TerraJava terraJava,
+			ConnectionParameters connection) {
+		this(terraJava, connection, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * @param poolSize
+	 *            Nmero mximo de sesses (e de leituras simultneas).
+	 */
+	public ViewContextLoader(TerraJava terraJava,
+			ConnectionParameters connection, int poolSize) {
+		if (poolSize < 1)
+			throw new IllegalArgumentException(
+					"O nmero de sesses deve ser positivo.");
+		this.terraJava = terraJava;
+		this.connection = connection;
+		this.poolSize = poolSize;
+		this.executor = Executors.newFixedThreadPool(poolSize,
+				new ThreadFactory() {
+					private int count;
+
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, SESSION_PREFIX + (++count));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Define por quanto tempo um contexto em cache  vlido, em milissegundos.
+	 * Zero (padro) mantm o contexto at a invalidao.
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Define o tamanho, em pixels, da rea de desenho passada a setWorld antes
+	 * de getThemesToPlot. Junto com o box da vista, determina a escala usada
+	 * nos limites de escala dos temas.
+	 */
+	public void setWorldSize(int width, int height) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("Tamanho invlido: " + width
+					+ "x" + height);
+		this.worldWidth = width;
+		this.worldHeight = height;
+	}
+
+	/**
+	 * Recupera o contexto da vista, do cache ou lendo-o caso ainda no exista
+	 * ou tenha expirado.
+	 */
+	public ViewContext getContext(final String view, final String user)
+			throws IllegalAccessException, InstantiationException {
+		String key = key(view, user);
+		while (true) {
+			FutureTask<ViewContext> task = contexts.get(key);
+			if (task == null) {
+				FutureTask<ViewContext> newTask = new FutureTask<ViewContext>(
+						new Callable<ViewContext>() {
+							public ViewContext call() throws Exception {
+								return load(view, user);
+							}
+						});
+				task = contexts.putIfAbsent(key, newTask);
+				if (task == null) {
+					task = newTask;
+					task.run();
+				}
+			}
+
+			ViewContext context;
+			try {
+				context = get(task);
+			} catch (IllegalAccessException e) {
+				contexts.remove(key, task);
+				throw e;
+			} catch (InstantiationException e) {
+				contexts.remove(key, task);
+				throw e;
+			} catch (RuntimeException e) {
+				contexts.remove(key, task);
+				throw e;
+			}
+			if (maxAge > 0
+					&& System.currentTimeMillis() - context.getLoadedAt() > maxAge) {
+				contexts.remove(key, task);
+				continue;
+			}
+			return context;
+		}
+	}
+
+	/**
+	 * L o contexto da vista, sem consultar nem atualizar o cache.
+	 */
+	public ViewContext load(final String view, final String user)
+			throws IllegalAccessException, InstantiationException {
+		Future<Vector> themesTask = executor.submit(new Callable<Vector>() {
+			public Vector call() throws Exception {
+				String sessionId = take();
+				try {
+					prepare(sessionId, view, user);
+					return terraJava.getThemes(sessionId);
+				} finally {
+					release(sessionId);
+				}
+			}
+		});
+		final List<Integer> visibleIds = new ArrayList<Integer>();
+		Future<Box> boxTask = executor.submit(new Callable<Box>() {
+			public Box call() throws Exception {
+				String sessionId = take();
+				try {
+					prepare(sessionId, view, user);
+					// getThemesToPlot usa o box e a escala da rea corrente
+					Vector viewBox = terraJava.getCurrentViewBox(sessionId);
+					if (viewBox == null || viewBox.size() < 4)
+						return null;
+					terraJava.setWorld(toDouble(viewBox.get(0)),
+							toDouble(viewBox.get(1)), toDouble(viewBox.get(2)),
+							toDouble(viewBox.get(3)), worldWidth, worldHeight,
+							true, sessionId);
+					Vector<Integer> ids = terraJava.getThemesToPlot(sessionId);
+					if (ids == null || ids.isEmpty())
+						return null;
+					visibleIds.addAll(ids);
+					return Box.fromMap(terraJava.getThemesBox(ids, sessionId));
+				} finally {
+					release(sessionId);
+				}
+			}
+		});
+
+		List<String> names = new ArrayList<String>();
+		Vector themes = get(themesTask);
+		if (themes != null)
+			for (Object theme : themes)
+				names.add(String.valueOf(theme));
+
+		List<Future<ThemeContext>> themeTasks = new ArrayList<Future<ThemeContext>>();
+		for (final String name : names) {
+			themeTasks.add(executor.submit(new Callable<ThemeContext>() {
+				public ThemeContext call() throws Exception {
+					String sessionId = take();
+					try {
+						prepare(sessionId, view, user);
+						return loadTheme(name, sessionId);
+					} finally {
+						release(sessionId);
+					}
+				}
+			}));
+		}
+
+		Map<String, ThemeContext> themeContexts = new LinkedHashMap<String, ThemeContext>();
+		for (Future<ThemeContext> task : themeTasks) {
+			ThemeContext theme = get(task);
+			themeContexts.put(theme.getName(), theme);
+		}
+		Box visibleBox = get(boxTask);
+		return new ViewContext(view, user, names, themeContexts,
+				new ArrayList<Integer>(visibleIds), visibleBox,
+				System.currentTimeMillis());
+	}
+
+	@SuppressWarnings("unchecked")
+	private ThemeContext loadTheme(String name, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		if (!terraJava.setTheme(name, 0, sessionId))
+			throw new IllegalStateException("Falhou ao configurar o tema "
+					+ name + " como corrente.");
+		int representation = terraJava.getThemeRepresentation(0, sessionId);
+
+		HashMap scaleLimit = terraJava.getThemeScaleLimit(sessionId);
+		double minScale = toDouble(scaleLimit, "minScale");
+		double maxScale = toDouble(scaleLimit, "maxScale");
+
+		Map<Integer, List<Object>> visuals = new LinkedHashMap<Integer, List<Object>>();
+		for (int rep : VISUAL_REPRESENTATIONS) {
+			if ((representation & rep) == 0)
+				continue;
+			Vector visual = terraJava.getThemeVisual(rep, sessionId);
+			if (visual != null)
+				visuals.put(rep, Collections
+						.unmodifiableList(new ArrayList<Object>(visual)));
+		}
+
+		String metadata = null;
+		Box box = null;
+		if ((representation & VECTOR_REPRESENTATIONS) != 0) {
+			metadata = terraJava.getThemeMetadata(0, sessionId);
+			// o vetor de getThemeBox est na ordem x1, x2, y1, y2
+			Vector coords = terraJava.getThemeBox(0, "", sessionId);
+			if (coords != null && coords.size() >= 4)
+				box = new Box(toDouble(coords.get(0)), toDouble(coords.get(2)),
+						toDouble(coords.get(1)), toDouble(coords.get(3)));
+		}
+		return new ThemeContext(name, representation, minScale, maxScale,
+				visuals, metadata, box);
+	}
+
+	private void prepare(String sessionId, String view, String user)
+			throws IllegalAccessException, InstantiationException {
+		String key = key(view, user);
+		if (key.equals(currentViews.get(sessionId)))
+			return;
+		currentViews.remove(sessionId);
+		if (!terraJava.setCurrentView(view, user, sessionId))
+			throw new IllegalStateException("Falhou ao configurar a vista "
+					+ view + " como corrente.");
+		currentViews.put(sessionId, key);
+	}
+
+	/**
+	 * Obtm uma sesso livre, abrindo uma nova enquanto o limite no for
+	 * atingido.
+	 */
+	private String take() throws IllegalAccessException,
+			InstantiationException, InterruptedException {
+		String sessionId = available.poll();
+		if (sessionId != null)
+			return sessionId;
+		synchronized (opened) {
+			if (opened.size() < poolSize) {
+				sessionId = SESSION_PREFIX + System.identityHashCode(this)
+						+ "-" + opened.size();
+				connection.connect(terraJava, sessionId);
+				opened.add(sessionId);
+				return sessionId;
+			}
+		}
+		return available.take();
+	}
+
+	private void release(String sessionId) {
+		available.add(sessionId);
+	}
+
+	/**
+	 * Descarta o contexto em cache da vista.
+	 */
+	public void invalidate(String view, String user) {
+		contexts.remove(key(view, user));
+	}
+
+	public void clear() {
+		contexts.clear();
+	}
+
+	/**
+	 * Encerra as threads e destri as sesses abertas.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		synchronized (opened) {
+			for (String sessionId : opened) {
+				try {
+					terraJava.destroySession(sessionId);
+				} catch (Throwable e) {
+					// a sesso pode j ter sido destruda
+				}
+			}
+			opened.clear();
+		}
+		available.clear();
+		currentViews.clear();
+		contexts.clear();
+	}
+
+	private static String key(String view, String user) {
+		return user + "/" + view;
+	}
+
+	private static double toDouble(HashMap map, String key) {
+		return (map == null || map.get(key) == null) ? 0 : toDouble(map
+				.get(key));
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		return Double.parseDouble(String.valueOf(value));
+	}
+
+	private static <T> T get(Future<T> future) throws IllegalAccessException,
+			InstantiationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Leitura do contexto da vista interrompida.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IllegalAccessException)
+				throw (IllegalAccessException) cause;
+			if (cause instanceof InstantiationException)
+				throw (InstantiationException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package br.org.funcate.terrajava.persistencia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Aquecimento do renderizador nativo aps a inicializao do servidor, com
+ * indicao de prontido.
+ *
+ * O aquecimento conecta um nmero configurado de sesses (em paralelo), abre
+ * as vistas configuradas (setCurrentView, que carrega o modelo conceitual) e
+ * desenha uma imagem pequena com drawThemes em cada vista, o que aquece os
+ * caches do banco. As vistas so distribudas
+ * entre as sesses. O tempo de cada passo  registrado, assim como o tempo
+ * de carga das bibliotecas nativas ({@link NativeLibraryLoader}).
+ *
+ * Enquanto o aquecimento no termina, {@link #isReady()} devolve falso; o
+ * servidor deve us-lo na verificao de prontido (readiness) antes de
+ * receber requisies. Uma falha em qualquer passo deixa o estado em FAILED.
+ *
+ * As sesses conectadas permanecem abertas e podem ser usadas pela aplicao
+ * ({@link #getSessionIds()}).
+ * </pre>
+ */
+public class WarmUp {
+
+	public enum State {
+		NOT_STARTED, WARMING, READY, FAILED
+	}
+
+	/** Largura e altura padro da imagem de teste. */
+	public static final int DEFAULT_PROBE_SIZE = 256;
+
+	private final TerraJava terraJava;
+
+	private final ConnectionParameters connection;
+
+	private final List<String> sessionIds = new ArrayList<String>();
+
+	private final HashMap<String, Object> locks = new HashMap<String, Object>();
+
+	private final List<Probe> probes = new ArrayList<Probe>();
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private int probeSize = DEFAULT_PROBE_SIZE;
+
+	private volatile State state = State.NOT_STARTED;
+
+	private long startedAt;
+
+	private long finishedAt;
+
+	/**
+	 * @param sessions
+	 *            Nmero de sesses a conectar.
+	 * @param sessionPrefix
+	 *            Prefixo dos identificadores das sesses (o nmero da sesso 
+	 *            acrescentado).
+	 */
+	public WarmUp(TerraJava terraJava, ConnectionParameters connection,
+			int sessions, String sessionPrefix) {
+		if (sessions < 1)
+			throw new IllegalArgumentException(
+					"O nmero de sesses deve ser positivo.");
+		this.terraJava = terraJava;
+		this.connection = connection;
+		for (int i = 0; i < sessions; i++) {
+			sessionIds.add(sessionPrefix + i);
+			locks.put(sessionPrefix + i, new Object());
+		}
+	}
+
+	/**
+	 * Abre a vista durante o aquecimento, sem desenho de teste.
+	 */
+	public void addView(String view, String user) {
+		probes.add(new Probe(view, user, null, null, null));
+	}
+
+	/**
+	 * Abre a vista e desenha os temas no box informado, durante o aquecimento.
+	 *
+	 * @param themesList
+	 *            Temas a desenhar, no formato de drawThemes.
+	 * @param box
+	 *            rea desenhada, normalmente o box inicial da vista.
+	 * @param projectionMap
+	 *            Projeo do desenho, no formato de drawThemes.
+	 */
+	public void addView(String view, String user,
+			Vector<HashMap<String, Object>> themesList, Box box,
+			HashMap<String, Object> projectionMap) {
+		probes.add(new Probe(view, user, themesList, box, projectionMap));
+	}
+
+	public void setProbeSize(int probeSize) {
+		this.probeSize = probeSize;
+	}
+
+	/**
+	 * Executa o aquecimento em uma thread prpria.
+	 */
+	public void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				WarmUp.this.run();
+			}
+		}, "terrajava-aquecimento");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Executa o aquecimento na thread corrente.
+	 *
+	 * @return Verdadeiro caso todos os passos tenham sido bem sucedidos.
+	 */
+	public boolean run() {
+		synchronized (this) {
+			if (state != State.NOT_STARTED)
+				throw new IllegalStateException("O aquecimento j foi iniciado.");
+			state = State.WARMING;
+			startedAt = System.currentTimeMillis();
+		}
+		boolean ok = false;
+		ExecutorService executor = Executors.newFixedThreadPool(sessionIds
+				.size());
+		try {
+			// a carga ocorre na criao da instncia de TerraJava; o passo
+			// registra o tempo medido naquele momento
+			if (NativeLibraryLoader.isLoaded())
+				addStep(new Step("loadLibrary", null, NativeLibraryLoader
+						.getLoadTime(), null));
+
+			ok = true;
+			List<Future<Boolean>> connects = new ArrayList<Future<Boolean>>();
+			for (final String sessionId : sessionIds) {
+				connects.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						return step("connect", sessionId, new Callable<Object>() {
+							public Object call() throws Exception {
+								connection.connect(terraJava, sessionId);
+								return null;
+							}
+						});
+					}
+				}));
+			}
+			ok &= all(connects);
+
+			List<Future<Boolean>> views = new ArrayList<Future<Boolean>>();
+			for (int i = 0; ok && i < probes.size(); i++) {
+				final Probe probe = probes.get(i);
+				final String sessionId = sessionIds.get(i % sessionIds.size());
+				views.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						return warmView(probe, sessionId);
+					}
+				}));
+			}
+			ok &= all(views);
+			return ok;
+		} finally {
+			executor.shutdown();
+			synchronized (this) {
+				finishedAt = System.currentTimeMillis();
+				state = ok ? State.READY : State.FAILED;
+			}
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Os passos de uma mesma sesso so executados em sequncia; sesses
+	 * diferentes trabalham em paralelo.
+	 */
+	private boolean warmView(final Probe probe, final String sessionId) {
+		synchronized (locks.get(sessionId)) {
+			boolean ok = step("setCurrentView " + probe.view, sessionId,
+					new Callable<Object>() {
+						public Object call() throws Exception {
+							if (!terraJava.setCurrentView(probe.view,
+									probe.user, sessionId))
+								throw new IllegalStateException(
+										"Falhou ao configurar a vista "
+												+ probe.view + " como corrente.");
+							return null;
+						}
+					});
+			if (!ok || probe.themesList == null)
+				return ok;
+			return step("drawThemes " + probe.view, sessionId,
+					new Callable<Object>() {
+						public Object call() throws Exception {
+							HashMap<String, Integer> background = new HashMap<String, Integer>();
+							background.put("r", 255);
+							background.put("g", 255);
+							background.put("b", 255);
+							byte[] image = terraJava.drawThemes(
+									probe.themesList, probe.box.getX1(),
+									probe.box.getY1(), probe.box.getX2(),
+									probe.box.getY2(), probeSize, probeSize,
+									true, 0, false, 100, probe.projectionMap,
+									background, true);
+							if (image == null || image.length == 0)
+								throw new IllegalStateException(
+										"drawThemes no gerou imagem.");
+							return null;
+						}
+					});
+		}
+	}
+
+	private boolean step(String name, String sessionId, Callable<Object> task) {
+		long start = System.nanoTime();
+		String error = null;
+		try {
+			task.call();
+		} catch (Throwable e) {
+			error = String.valueOf(e);
+			if (sessionId != null) {
+				try {
+					String message = terraJava.errorMessage(sessionId);
+					if (message != null && message.length() > 0)
+						error = message;
+				} catch (Throwable ignored) {
+					// mantm a exceo original
+				}
+			}
+		}
+		addStep(new Step(name, sessionId, (System.nanoTime() - start) / 1000000,
+				error));
+		return error == null;
+	}
+
+	private void addStep(Step step) {
+		synchronized (steps) {
+			steps.add(step);
+		}
+	}
+
+	private static boolean all(List<Future<Boolean>> futures) {
+		boolean ok = true;
+		for (Future<Boolean> future : futures) {
+			try {
+				ok &= future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Verdadeiro quando o aquecimento terminou com sucesso.
+	 */
+	public boolean isReady() {
+		return state == State.READY;
+	}
+
+	/**
+	 * Aguarda o fim do aquecimento.
+	 *
+	 * @return Verdadeiro caso o aquecimento tenha terminado com sucesso dentro
+	 *         do tempo.
+	 */
+	public boolean awaitReady(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return done.await(timeout, unit) && isReady();
+	}
+
+	/**
+	 * @return As sesses conectadas pelo aquecimento.
+	 */
+	public List<String> getSessionIds() {
+		return Collections.unmodifiableList(sessionIds);
+	}
+
+	/**
+	 * @return Os passos executados at o momento, na ordem de concluso.
+	 */
+	public List<Step> getSteps() {
+		synchronized (steps) {
+			return new ArrayList<Step>(steps);
+		}
+	}
+
+	/**
+	 * <pre>
+	 * Estado do aquecimento em um HashMap, para a verificao de prontido:
+	 *
+	 * state, ready, elapsedTime, steps (lista de HashMap com name, sessionId,
+	 * duration e error)
+	 * </pre>
+	 */
+	public synchronized HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("state", state.name());
+		map.put("ready", isReady());
+		long end = (finishedAt > 0) ? finishedAt : System.currentTimeMillis();
+		map.put("elapsedTime", (startedAt > 0) ? end - startedAt : 0);
+		Vector<Object> list = new Vector<Object>();
+		for (Step step : getSteps()) {
+			HashMap<String, Object> item = new LinkedHashMap<String, Object>();
+			item.put("name", step.getName());
+			item.put("sessionId", step.getSessionId());
+			item.put("duration", step.getDuration());
+			item.put("error", step.getError());
+			list.add(item);
+		}
+		map.put("steps", list);
+		return map;
+	}
+
+	/**
+	 * Passo executado pelo aquecimento e o tempo gasto.
+	 */
+	public static final class Step {
+
+		private final String name;
+
+		private final String sessionId;
+
+		private final long duration;
+
+		private final String error;
+
+		Step(String name, String sessionId, long duration, String error) {
+			this.name = name;
+			this.sessionId = sessionId;
+			this.duration = duration;
+			this.error = error;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return A sesso usada, ou null para passos sem sesso.
+		 */
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		/**
+		 * @return Durao em milissegundos.
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return A mensagem de erro, ou null caso o passo tenha sido bem
+		 *         sucedido.
+		 */
+		public String getError() {
+			return error;
+		}
+	}
+
+	private static final class Probe {
+
+		final String view;
+
+		final String user;
+
+		final Vector<HashMap<String, Object>> themesList;
+
+		final Box box;
+
+		final HashMap<String, Object> projectionMap;
+
+		Probe(String view, String user,
+				Vector<HashMap<String, Object>> themesList, Box box,
+				HashMap<String, Object> projectionMap) {
+			this.view = view;
+			this.user = user;
+			this.themesList = themesList;
+			this.box = box;
+			this.projectionMap = projectionMap;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package br.org.funcate.terrajava.raster;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * <pre>
+ * Leitura de janelas de raster a partir de blocos fixos, armazenados em um
+ * {@link RasterBlockCache}. Janelas que se sobrepem, comuns nas ferramentas
+ * de terreno e de perfil, reaproveitam os blocos j lidos em vez de ler e
+ * reamostrar novamente a mesma rea na camada nativa.
+ *
+ * Os blocos seguem uma grade fixa por nvel da pirmide, alinhada ao canto
+ * superior esquerdo do raster. O nvel  escolhido automaticamente a partir da
+ * janela e do tamanho da sada pedidos (ver {@link RasterInfo#selectLevel}),
+ * e a sada  reamostrada pelo vizinho mais prximo.
+ * </pre>
+ */
+public class CachedRasterReader {
+
+	/** Lado padro, em pixels, de um bloco do cache. */
+	public static final int DEFAULT_BLOCK_SIZE = 256;
+
+	private final RasterReader reader;
+
+	private final RasterBlockCache cache;
+
+	private final int blockSize;
+
+	/**
+	 * Buffer direto reaproveitado nas leituras da camada nativa; os blocos
+	 * armazenados no cache recebem uma cpia no heap.
+	 */
+	private ByteBuffer scratch;
+
+	public CachedRasterReader(RasterReader reader, RasterBlockCache cache) {
+		this(reader, cache, DEFAULT_BLOCK_SIZE);
+	}
+
+	public CachedRasterReader(RasterReader reader, RasterBlockCache cache,
+			int blockSize) {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Tamanho de bloco invlido: "
+					+ blockSize);
+		this.reader = reader;
+		this.cache = cache;
+		this.blockSize = blockSize;
+	}
+
+	public RasterInfo getInfo() {
+		return reader.getInfo();
+	}
+
+	/**
+	 * L uma janela do raster como um array contnuo, linha a linha. Pixels
+	 * fora do raster recebem o valor dummy.
+	 *
+	 * @param window
+	 *            rea pedida, em coordenadas da projeo do raster.
+	 * @param width
+	 *            Colunas da sada.
+	 * @param height
+	 *            Linhas da sada.
+	 * @param band
+	 *            Banda a ser lida.
+	 * @return Array com width * height valores.
+	 */
+	public float[] read(Box window, int width, int height, int band)
+			throws IllegalAccessException, InstantiationException {
+		float[] values = new float[width * height];
+		read(window, width, height, band, values);
+		return values;
+	}
+
+	/**
+	 * L uma janela do raster para um array existente.
+	 *
+	 * @see #read(Box, int, int, int)
+	 */
+	public void read(Box window, int width, int height, int band,
+			float[] target) throws IllegalAccessException,
+			InstantiationException {
+		RasterInfo info = reader.getInfo();
+		if (!info.isResolutionKnown()) {
+			// sem a resoluo no h grade de blocos: leitura direta
+			reader.read(window, width, height, band, null).toFloatArray(
+					target);
+			return;
+		}
+		int level = info.selectLevel(window, width, height);
+		double scale = Math.pow(2, level);
+		double resX = info.getResX() * scale;
+		double resY = info.getResY() * scale;
+		Box rasterBox = info.getBox();
+		int levelCols = (int) Math.ceil(rasterBox.getWidth() / resX);
+		int levelRows = (int) Math.ceil(rasterBox.getHeight() / resY);
+		float dummy = (float) info.getDummy();
+
+		double cellW = window.getWidth() / width;
+		double cellH = window.getHeight() / height;
+
+		RasterTile block = null;
+		int blockCol = -1, blockRow = -1;
+		for (int line = 0; line < height; line++) {
+			double y = window.getY2() - (line + 0.5) * cellH;
+			int py = (int) Math.floor((rasterBox.getY2() - y) / resY);
+			for (int col = 0; col < width; col++) {
+				double x = window.getX1() + (col + 0.5) * cellW;
+				int px = (int) Math.floor((x - rasterBox.getX1()) / resX);
+				if (px < 0 || py < 0 || px >= levelCols || py >= levelRows) {
+					target[line * width + col] = dummy;
+					continue;
+				}
+				int bc = px / blockSize;
+				int br = py / blockSize;
+				if (block == null || bc != blockCol || br != blockRow) {
+					block = getBlock(level, band, bc, br, resX, resY);
+					blockCol = bc;
+					blockRow = br;
+				}
+				target[line * width + col] = (float) block.getValue(px - bc
+						* blockSize, py - br * blockSize);
+			}
+		}
+	}
+
+	/**
+	 * Substituto de TerraJava.getRasterMatrix que usa o cache de blocos.
+	 *
+	 * @return Matriz [linhas][colunas] com os valores da primeira banda.
+	 */
+	public double[][] getRasterMatrix(double x1, double y1, double x2,
+			double y2, int width, int height) throws IllegalAccessException,
+			InstantiationException {
+		float[] values = read(new Box(x1, y1, x2, y2), width, height, 0);
+		double[][] matrix = new double[height][width];
+		for (int line = 0; line < height; line++)
+			for (int col = 0; col < width; col++)
+				matrix[line][col] = values[line * width + col];
+		return matrix;
+	}
+
+	private RasterTile getBlock(int level, int band, int column, int row,
+			double resX, double resY) throws IllegalAccessException,
+			InstantiationException {
+		int layerId = reader.getInfo().getLayerId();
+		RasterTile block = cache.get(layerId, level, band, column, row);
+		if (block == null) {
+			Box rasterBox = reader.getInfo().getBox();
+			double x1 = rasterBox.getX1() + column * blockSize * resX;
+			double y2 = rasterBox.getY2() - row * blockSize * resY;
+			Box box = new Box(x1, y2 - blockSize * resY, x1 + blockSize * resX,
+					y2);
+			if (scratch == null)
+				scratch = RasterTile.allocate(blockSize, blockSize, reader
+						.getInfo().getDataType());
+			RasterTile read = reader.read(box, blockSize, blockSize, band,
+					scratch);
+			ByteBuffer data = read.getData();
+			ByteBuffer copy = ByteBuffer.allocate(data.remaining()).order(
+					ByteOrder.nativeOrder());
+			copy.put(data).flip();
+			block = new RasterTile(level, column, row, read.getBox(),
+					blockSize, blockSize, read.getDataType(), copy);
+			cache.put(layerId, level, band, column, row, block);
+		}
+		return block;
+	}
+}
@@ -0,0 +1,180 @@
+package br.org.funcate.terrajava.raster;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Cache de blocos de raster compartilhado entre sesses. Cada bloco 
+ * identificado pelo layer, nvel da pirmide, banda e ndice do bloco (coluna
+ * e linha) na grade de blocos daquele nvel. A memria ocupada pelos buffers 
+ * limitada por um oramento em bytes; ao ultrapass-lo, os blocos usados h
+ * mais tempo so descartados (LRU).
+ * </pre>
+ */
+public class RasterBlockCache {
+
+	/** Oramento padro de memria: 64 MB. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final LinkedHashMap<BlockKey, RasterTile> blocks = new LinkedHashMap<BlockKey, RasterTile>(
+			256, 0.75f, true);
+
+	private final long maxBytes;
+
+	private long usedBytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	public RasterBlockCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            Oramento de memria, em bytes, para os blocos armazenados.
+	 */
+	public RasterBlockCache(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Oramento de memria invlido: "
+					+ maxBytes);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return O bloco armazenado ou null caso no esteja no cache.
+	 */
+	public synchronized RasterTile get(int layerId, int level, int band,
+			int column, int row) {
+		RasterTile tile = blocks.get(new BlockKey(layerId, level, band, column,
+				row));
+		if (tile == null)
+			misses++;
+		else
+			hits++;
+		return tile;
+	}
+
+	/**
+	 * Armazena um bloco, descartando os menos usados caso o oramento de
+	 * memria seja ultrapassado. Blocos maiores que o oramento no so
+	 * armazenados.
+	 */
+	public synchronized void put(int layerId, int level, int band, int column,
+			int row, RasterTile tile) {
+		long size = sizeOf(tile);
+		if (size > maxBytes)
+			return;
+
+		RasterTile old = blocks.put(new BlockKey(layerId, level, band, column,
+				row), tile);
+		if (old != null)
+			usedBytes -= sizeOf(old);
+		usedBytes += size;
+
+		Iterator<Map.Entry<BlockKey, RasterTile>> it = blocks.entrySet()
+				.iterator();
+		while (usedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<BlockKey, RasterTile> eldest = it.next();
+			usedBytes -= sizeOf(eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Descarta todos os blocos de um layer. Deve ser chamado quando o raster
+	 * do layer for alterado.
+	 */
+	public synchronized void invalidate(int layerId) {
+		Iterator<Map.Entry<BlockKey, RasterTile>> it = blocks.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<BlockKey, RasterTile> entry = it.next();
+			if (entry.getKey().layerId == layerId) {
+				usedBytes -= sizeOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		blocks.clear();
+		usedBytes = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static long sizeOf(RasterTile tile) {
+		return (long) tile.getWidth() * tile.getHeight()
+				* RasterDataType.bytesPerPixel(tile.getDataType());
+	}
+
+	private static final class BlockKey {
+
+		final int layerId;
+
+		final int level;
+
+		final int band;
+
+		final int column;
+
+		final int row;
+
+		BlockKey(int layerId, int level, int band, int column, int row) {
+			this.layerId = layerId;
+			this.level = level;
+			this.band = band;
+			this.column = column;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BlockKey))
+				return false;
+			BlockKey other = (BlockKey) obj;
+			return layerId == other.layerId && level == other.level
+					&& band == other.band && column == other.column
+					&& row == other.row;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = layerId;
+			h = h * 31 + level;
+			h = h * 31 + band;
+			h = h * 31 + column;
+			h = h * 31 + row;
+			return h;
+		}
+	}
+}
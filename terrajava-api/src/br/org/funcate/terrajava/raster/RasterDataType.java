@@ -0,0 +1,70 @@
+package br.org.funcate.terrajava.raster;
+
+/**
+ * Tipos de pixel de um TeRaster (TeDataType da TerraLib), usados para
+ * armazenar os blocos lidos em {@link RasterTile}.
+ */
+public final class RasterDataType {
+
+	public static final int BIT = 0;
+
+	public static final int UNSIGNED_CHAR = 1;
+
+	public static final int CHAR = 2;
+
+	public static final int UNSIGNED_SHORT = 3;
+
+	public static final int SHORT = 4;
+
+	public static final int INTEGER = 5;
+
+	public static final int UNSIGNED_LONG = 6;
+
+	public static final int LONG = 7;
+
+	public static final int FLOAT = 8;
+
+	public static final int DOUBLE = 9;
+
+	/**
+	 * Tamanho, em bytes, dos tipos LONG e UNSIGNED_LONG, que seguem o tipo
+	 * long da linguagem C na plataforma da biblioteca nativa: 8 bytes em
+	 * sistemas de 64 bits, exceto Windows, e 4 bytes nos demais.
+	 */
+	public static final int LONG_BYTES = nativeLongBytes();
+
+	private RasterDataType() {
+	}
+
+	/**
+	 * @return Quantidade de bytes ocupada por um pixel do tipo informado.
+	 */
+	public static int bytesPerPixel(int dataType) {
+		switch (dataType) {
+		case BIT:
+		case UNSIGNED_CHAR:
+		case CHAR:
+			return 1;
+		case UNSIGNED_SHORT:
+		case SHORT:
+			return 2;
+		case INTEGER:
+		case FLOAT:
+			return 4;
+		case UNSIGNED_LONG:
+		case LONG:
+			return LONG_BYTES;
+		case DOUBLE:
+			return 8;
+		default:
+			throw new IllegalArgumentException("Tipo de pixel desconhecido: "
+					+ dataType);
+		}
+	}
+
+	private static int nativeLongBytes() {
+		String os = System.getProperty("os.name", "").toLowerCase();
+		return ("64".equals(System.getProperty("sun.arch.data.model"))
+				&& !os.startsWith("windows")) ? 8 : 4;
+	}
+}
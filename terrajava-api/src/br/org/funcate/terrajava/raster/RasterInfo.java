@@ -0,0 +1,156 @@
+package br.org.funcate.terrajava.raster;
+
+import java.util.Vector;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Parmetros de um TeRaster: box, resoluo e tipo do pixel, e nmero de
+ * nveis da pirmide de resoluo, lido de TerraJava.getRasterLayerLevels.
+ */
+public class RasterInfo {
+
+	private final int layerId;
+
+	private final int lines;
+
+	private final int columns;
+
+	private final int bands;
+
+	private final double resX;
+
+	private final double resY;
+
+	private final int dataType;
+
+	private final double dummy;
+
+	private final Box box;
+
+	private final int levels;
+
+	public RasterInfo(int layerId, int lines, int columns, int bands,
+			double resX, double resY, int dataType, double dummy, Box box,
+			int levels) {
+		this.layerId = layerId;
+		this.lines = lines;
+		this.columns = columns;
+		this.bands = bands;
+		this.resX = resX;
+		this.resY = resY;
+		this.dataType = dataType;
+		this.dummy = dummy;
+		this.box = box;
+		this.levels = Math.max(1, levels);
+	}
+
+	/**
+	 * Cria parmetros aproximados a partir do box devolvido por getThemeBox
+	 * (x1, x2, y1, y2). O tipo de pixel  DOUBLE, o mesmo de getRasterMatrix,
+	 * e a resoluo no  conhecida ({@link #isResolutionKnown()} devolve
+	 * falso).
+	 */
+	public static RasterInfo fromThemeBox(int layerId, Vector themeBox,
+			int levels) {
+		return fromThemeBox(layerId, themeBox, 0, 0, levels);
+	}
+
+	/**
+	 * Cria os parmetros a partir do box devolvido por getThemeBox (x1, x2,
+	 * y1, y2) e da resoluo do pixel conhecida pelo chamador. O nmero de
+	 * linhas e colunas  derivado do box e da resoluo.
+	 */
+	public static RasterInfo fromThemeBox(int layerId, Vector themeBox,
+			double resX, double resY, int levels) {
+		Box box = new Box(number(themeBox.get(0)), number(themeBox.get(2)),
+				number(themeBox.get(1)), number(themeBox.get(3)));
+		int lines = resY > 0 ? (int) Math.ceil(box.getHeight() / resY) : 0;
+		int columns = resX > 0 ? (int) Math.ceil(box.getWidth() / resX) : 0;
+		return new RasterInfo(layerId, lines, columns, 1, resX, resY,
+				RasterDataType.DOUBLE, Double.NaN, box, levels);
+	}
+
+	public int getLayerId() {
+		return layerId;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getBands() {
+		return bands;
+	}
+
+	public double getResX() {
+		return resX;
+	}
+
+	public double getResY() {
+		return resY;
+	}
+
+	public int getDataType() {
+		return dataType;
+	}
+
+	public double getDummy() {
+		return dummy;
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	/**
+	 * @return Falso quando os parmetros foram estimados sem a resoluo do
+	 *         pixel (ver {@link #fromThemeBox}).
+	 */
+	public boolean isResolutionKnown() {
+		return resX > 0 && resY > 0;
+	}
+
+	/**
+	 * @return Nmero de nveis da pirmide de resoluo (no mnimo 1, a
+	 *         resoluo original).
+	 */
+	public int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Escolhe o nvel da pirmide para uma leitura. Cada nvel reduz a
+	 * resoluo pela metade;  escolhido o nvel mais grosseiro cuja
+	 * resoluo ainda  igual ou melhor que a resoluo pedida, evitando ler
+	 * pixels que seriam descartados na reamostragem.
+	 *
+	 * @param window
+	 *            rea pedida, em coordenadas da projeo do raster.
+	 * @param width
+	 *            Colunas da matriz de sada.
+	 * @param height
+	 *            Linhas da matriz de sada.
+	 * @return O nvel escolhido, entre 0 e getLevels() - 1.
+	 */
+	public int selectLevel(Box window, int width, int height) {
+		if (width <= 0 || height <= 0 || resX <= 0 || resY <= 0)
+			return 0;
+		double ratio = Math.min(window.getWidth() / resX / width, window
+				.getHeight()
+				/ resY / height);
+		if (ratio < 2)
+			return 0;
+		int level = (int) Math.floor(Math.log(ratio) / Math.log(2));
+		return Math.min(level, levels - 1);
+	}
+
+	private static double number(Object value) {
+		return (value instanceof Number) ? ((Number) value).doubleValue()
+				: Double.parseDouble(String.valueOf(value));
+	}
+}
@@ -0,0 +1,258 @@
+package br.org.funcate.terrajava.raster;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Leitura de rasters em blocos contnuos, sobre getRasterMatrix. Uma janela
+ * grande pode ser percorrida bloco a bloco (tiles), mantendo em memria apenas
+ * um bloco por vez, e cada bloco  armazenado em um buffer no tipo de pixel
+ * informado em {@link RasterInfo}.
+ *
+ * getRasterMatrix reamostra a rea pedida para o tamanho da matriz e devolve
+ * apenas a primeira banda. O nvel da pirmide de um bloco no  escolhido
+ * pela camada nativa: ele  consequncia da razo entre a rea e o tamanho do
+ * bloco (ver {@link RasterInfo#selectLevel}) e fica registrado no bloco lido.
+ *
+ * Assim como a classe TerraJava, uma instncia deve ser usada por uma nica
+ * sesso de cada vez.
+ * </pre>
+ */
+public class RasterReader {
+
+	/** Tamanho padro, em pixels, do lado de um bloco. */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private final TerraJava terraJava;
+
+	private final String sessionId;
+
+	private final RasterInfo info;
+
+	/**
+	 * Cria um leitor para o raster do tema corrente. A resoluo do pixel no 
+	 * conhecida pela camada nativa, ento as leituras no seguem uma grade de
+	 * blocos (ver {@link RasterInfo#isResolutionKnown()}).
+	 *
+	 * @param terraJava
+	 *            Acesso  camada TerraJava.
+	 * @param layerId
+	 *            Identificador do layer com representao matricial do tema
+	 *            corrente.
+	 * @param sessionId
+	 *            Nmero de controle de sesso, geralmente gerado pelo servidor
+	 *            de aplicao no momento da criao da sesso do usurio,
+	 *            quando a primeira requisio  feita. Deve ser um
+	 *            identificador nico.
+	 * @throws IllegalAccessException
+	 * @throws InstantiationException
+	 *
+	 *             <pre>
+	 * <b>Pr requisitos:</b>
+	 *
+	 * Conectar: mtodo connect()
+	 * Definir como tema corrente um tema do layer matricial: setTheme()
+	 * </pre>
+	 */
+	public RasterReader(TerraJava terraJava, int layerId, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		this(terraJava, RasterInfo.fromThemeBox(layerId, terraJava.getThemeBox(
+				0, "", sessionId), terraJava.getRasterLayerLevels(layerId,
+				sessionId)), sessionId);
+	}
+
+	/**
+	 * Cria um leitor para o raster do tema corrente, com a resoluo do pixel
+	 * informada pelo chamador (por exemplo, a dos metadados da imagem
+	 * importada).
+	 *
+	 * @param resX
+	 *            Resoluo horizontal do pixel, em unidades da projeo.
+	 * @param resY
+	 *            Resoluo vertical do pixel, em unidades da projeo.
+	 * @see #RasterReader(TerraJava, int, String)
+	 */
+	public RasterReader(TerraJava terraJava, int layerId, double resX,
+			double resY, String sessionId) throws IllegalAccessException,
+			InstantiationException {
+		this(terraJava, RasterInfo.fromThemeBox(layerId, terraJava.getThemeBox(
+				0, "", sessionId), resX, resY, terraJava.getRasterLayerLevels(
+				layerId, sessionId)), sessionId);
+	}
+
+	public RasterReader(TerraJava terraJava, RasterInfo info, String sessionId) {
+		this.terraJava = terraJava;
+		this.info = info;
+		this.sessionId = sessionId;
+	}
+
+	public RasterInfo getInfo() {
+		return info;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * L a primeira banda de uma janela inteira em um nico bloco.
+	 *
+	 * @param window
+	 *            rea pedida, em coordenadas da projeo do raster.
+	 * @param width
+	 *            Colunas da sada.
+	 * @param height
+	 *            Linhas da sada.
+	 * @return O bloco lido, com width * height pixels.
+	 */
+	public RasterTile read(Box window, int width, int height)
+			throws IllegalAccessException, InstantiationException {
+		return read(window, width, height, 0, null);
+	}
+
+	/**
+	 * L uma janela em um nico bloco.
+	 *
+	 * @param window
+	 *            rea pedida, em coordenadas da projeo do raster.
+	 * @param width
+	 *            Colunas da sada.
+	 * @param height
+	 *            Linhas da sada.
+	 * @param band
+	 *            Banda a ser lida. getRasterMatrix devolve apenas a primeira
+	 *            banda (0); outras bandas so rejeitadas.
+	 * @param buffer
+	 *            Buffer a ser reaproveitado, ou null para alocar um novo buffer
+	 *            direto.
+	 * @return O bloco lido.
+	 * @throws IllegalArgumentException
+	 *             Se a banda no  a primeira.
+	 */
+	public RasterTile read(Box window, int width, int height, int band,
+			ByteBuffer buffer) throws IllegalAccessException,
+			InstantiationException {
+		checkBand(band);
+		return readTile(window, width, height, info.selectLevel(window, width,
+				height), 0, 0, buffer);
+	}
+
+	/**
+	 * Percorre a primeira banda de uma janela grande bloco a bloco, da esquerda
+	 * para a direita e de cima para baixo. Todos os blocos tm a resoluo da
+	 * janela inteira.
+	 *
+	 * @param window
+	 *            rea pedida, em coordenadas da projeo do raster.
+	 * @param width
+	 *            Colunas da sada completa.
+	 * @param height
+	 *            Linhas da sada completa.
+	 * @param tileSize
+	 *            Lado, em pixels, de cada bloco.
+	 * @param reuseBuffer
+	 *            Se verdadeiro, todos os blocos compartilham o mesmo buffer e
+	 *            cada bloco s  vlido at a leitura do prximo. Mantm a
+	 *            memria usada constante para janelas de qualquer tamanho.
+	 * @return Iterador sobre os blocos. Erros da camada nativa so lanados
+	 *         como IllegalStateException, com a causa original.
+	 */
+	public Iterator<RasterTile> tiles(final Box window, final int width,
+			final int height, final int tileSize, final boolean reuseBuffer) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tamanho de bloco invlido: "
+					+ tileSize);
+		final int level = info.selectLevel(window, width, height);
+		final int columns = (width + tileSize - 1) / tileSize;
+		final int rows = (height + tileSize - 1) / tileSize;
+
+		return new Iterator<RasterTile>() {
+
+			private int next = 0;
+
+			private ByteBuffer shared;
+
+			public boolean hasNext() {
+				return next < columns * rows;
+			}
+
+			public RasterTile next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				int col = next % columns;
+				int row = next / columns;
+				next++;
+
+				int px1 = col * tileSize;
+				int py1 = row * tileSize;
+				int px2 = Math.min(width, px1 + tileSize);
+				int py2 = Math.min(height, py1 + tileSize);
+				double cellW = window.getWidth() / width;
+				double cellH = window.getHeight() / height;
+				Box box = new Box(window.getX1() + px1 * cellW, window.getY2()
+						- py2 * cellH, window.getX1() + px2 * cellW, window
+						.getY2()
+						- py1 * cellH);
+
+				ByteBuffer buffer = null;
+				if (reuseBuffer) {
+					if (shared == null)
+						shared = RasterTile.allocate(tileSize, tileSize, info
+								.getDataType());
+					buffer = shared;
+				}
+				try {
+					return readTile(box, px2 - px1, py2 - py1, level, col, row,
+							buffer);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				} catch (InstantiationException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void checkBand(int band) {
+		if (band != 0)
+			throw new IllegalArgumentException("Banda " + band
+					+ " no suportada: getRasterMatrix l apenas a primeira banda");
+	}
+
+	/**
+	 * L um bloco por getRasterMatrix, convertendo os valores para o tipo de
+	 * pixel do buffer. A matriz temporria tem apenas o tamanho do bloco.
+	 */
+	private RasterTile readTile(Box box, int width, int height, int level,
+			int col, int row, ByteBuffer buffer) throws IllegalAccessException,
+			InstantiationException {
+		int dataType = info.getDataType();
+		int size = width * height * RasterDataType.bytesPerPixel(dataType);
+		if (buffer == null || buffer.capacity() < size)
+			buffer = RasterTile.allocate(width, height, dataType);
+		buffer.clear();
+		buffer.limit(size);
+
+		double[][] matrix = terraJava.getRasterMatrix(box.getX1(), box.getY1(),
+				box.getX2(), box.getY2(), width, height, sessionId);
+		if (matrix == null)
+			throw new IllegalStateException("Falhou ao ler o bloco " + box
+					+ " do raster: " + terraJava.errorMessage(sessionId));
+		for (int line = 0; line < height && line < matrix.length; line++)
+			for (int c = 0; c < width && c < matrix[line].length; c++)
+				RasterTile.putValue(buffer, dataType, line * width + c,
+						matrix[line][c]);
+
+		return new RasterTile(level, col, row, box, width, height, dataType,
+				buffer.slice());
+	}
+}
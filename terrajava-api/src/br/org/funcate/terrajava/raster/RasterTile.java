@@ -0,0 +1,233 @@
+package br.org.funcate.terrajava.raster;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import br.org.funcate.terrajava.geometria.Box;
+
+/**
+ * Bloco de pixels lido de um TeRaster, armazenado em um nico buffer contnuo
+ * (linha a linha) no tipo de pixel do raster. Substitui a matriz double[][]
+ * de getRasterMatrix, que ocupa um array Java por linha e 8 bytes por pixel.
+ */
+public class RasterTile {
+
+	private final int level;
+
+	private final int column;
+
+	private final int row;
+
+	private final Box box;
+
+	private final int width;
+
+	private final int height;
+
+	private final int dataType;
+
+	private final ByteBuffer data;
+
+	public RasterTile(int level, int column, int row, Box box, int width,
+			int height, int dataType, ByteBuffer data) {
+		this.level = level;
+		this.column = column;
+		this.row = row;
+		this.box = box;
+		this.width = width;
+		this.height = height;
+		this.dataType = dataType;
+		this.data = data.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Aloca um buffer direto com capacidade para o bloco informado.
+	 */
+	public static ByteBuffer allocate(int width, int height, int dataType) {
+		return ByteBuffer.allocateDirect(
+				width * height * RasterDataType.bytesPerPixel(dataType)).order(
+				ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @return Nvel da pirmide de resoluo usado na leitura.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return Coluna do bloco na grade de blocos da leitura.
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return Linha do bloco na grade de blocos da leitura.
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDataType() {
+		return dataType;
+	}
+
+	/**
+	 * @return Buffer com os pixels no tipo nativo do raster.
+	 */
+	public ByteBuffer getData() {
+		return data.duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @return Viso dos pixels como float. Disponvel apenas para rasters do
+	 *         tipo FLOAT.
+	 */
+	public FloatBuffer getFloatBuffer() {
+		if (dataType != RasterDataType.FLOAT)
+			throw new IllegalStateException("Raster no  do tipo FLOAT.");
+		return getData().asFloatBuffer();
+	}
+
+	/**
+	 * @return Viso dos pixels como short. Disponvel apenas para rasters dos
+	 *         tipos SHORT e UNSIGNED_SHORT.
+	 */
+	public ShortBuffer getShortBuffer() {
+		if (dataType != RasterDataType.SHORT
+				&& dataType != RasterDataType.UNSIGNED_SHORT)
+			throw new IllegalStateException("Raster no  do tipo SHORT.");
+		return getData().asShortBuffer();
+	}
+
+	/**
+	 * @return Cpia dos pixels em um array short[] contnuo. Disponvel apenas
+	 *         para rasters dos tipos SHORT e UNSIGNED_SHORT.
+	 */
+	public short[] toShortArray() {
+		ShortBuffer buffer = getShortBuffer();
+		short[] values = new short[width * height];
+		buffer.get(values);
+		return values;
+	}
+
+	/**
+	 * @return Cpia dos pixels em um array float[] contnuo, convertendo do
+	 *         tipo nativo do raster.
+	 */
+	public float[] toFloatArray() {
+		return toFloatArray(null);
+	}
+
+	/**
+	 * Copia os pixels para um array float[] contnuo, convertendo do tipo
+	 * nativo do raster.
+	 *
+	 * @param target
+	 *            Array de destino com ao menos width * height posies, ou
+	 *            null para alocar um novo.
+	 * @return O array preenchido.
+	 */
+	public float[] toFloatArray(float[] target) {
+		int n = width * height;
+		float[] values = (target == null || target.length < n) ? new float[n]
+				: target;
+		if (dataType == RasterDataType.FLOAT) {
+			getFloatBuffer().get(values, 0, n);
+		} else {
+			for (int i = 0; i < n; i++)
+				values[i] = (float) getValue(i);
+		}
+		return values;
+	}
+
+	/**
+	 * @return O valor do pixel na coluna e linha informadas.
+	 */
+	public double getValue(int col, int line) {
+		return getValue(line * width + col);
+	}
+
+	private double getValue(int index) {
+		switch (dataType) {
+		case RasterDataType.BIT:
+		case RasterDataType.UNSIGNED_CHAR:
+			return data.get(index) & 0xff;
+		case RasterDataType.CHAR:
+			return data.get(index);
+		case RasterDataType.UNSIGNED_SHORT:
+			return data.getShort(index * 2) & 0xffff;
+		case RasterDataType.SHORT:
+			return data.getShort(index * 2);
+		case RasterDataType.UNSIGNED_LONG:
+			if (RasterDataType.LONG_BYTES == 8)
+				return unsigned(data.getLong(index * 8));
+			return data.getInt(index * 4) & 0xffffffffL;
+		case RasterDataType.LONG:
+			if (RasterDataType.LONG_BYTES == 8)
+				return data.getLong(index * 8);
+			return data.getInt(index * 4);
+		case RasterDataType.INTEGER:
+			return data.getInt(index * 4);
+		case RasterDataType.FLOAT:
+			return data.getFloat(index * 4);
+		default:
+			return data.getDouble(index * 8);
+		}
+	}
+
+	/**
+	 * Grava um valor no buffer, convertendo para o tipo nativo do raster.
+	 */
+	static void putValue(ByteBuffer buffer, int dataType, int index,
+			double value) {
+		switch (dataType) {
+		case RasterDataType.BIT:
+		case RasterDataType.UNSIGNED_CHAR:
+		case RasterDataType.CHAR:
+			buffer.put(index, (byte) Math.round(value));
+			break;
+		case RasterDataType.UNSIGNED_SHORT:
+		case RasterDataType.SHORT:
+			buffer.putShort(index * 2, (short) Math.round(value));
+			break;
+		case RasterDataType.UNSIGNED_LONG:
+		case RasterDataType.LONG:
+			if (RasterDataType.LONG_BYTES == 8) {
+				buffer.putLong(index * 8, Math.round(value));
+				break;
+			}
+			buffer.putInt(index * 4, (int) Math.round(value));
+			break;
+		case RasterDataType.INTEGER:
+			buffer.putInt(index * 4, (int) Math.round(value));
+			break;
+		case RasterDataType.FLOAT:
+			buffer.putFloat(index * 4, (float) value);
+			break;
+		default:
+			buffer.putDouble(index * 8, value);
+		}
+	}
+
+	private static double unsigned(long value) {
+		double d = value & Long.MAX_VALUE;
+		return (value < 0) ? d + 0x1p63 : d;
+	}
+}
@@ -0,0 +1,84 @@
+package br.org.funcate.terrajava.simulacao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro das latncias de cada operao, compartilhado pelas threads da
+ * simulao. As amostras so mantidas integralmente (em nanossegundos) para
+ * que os percentis sejam exatos.
+ */
+class LatencyRecorder {
+
+	private final Map<String, Samples> operations = new LinkedHashMap<String, Samples>();
+
+	void record(String operation, long nanos, boolean error) {
+		Samples samples;
+		synchronized (operations) {
+			samples = operations.get(operation);
+			if (samples == null) {
+				samples = new Samples();
+				operations.put(operation, samples);
+			}
+		}
+		samples.add(nanos, error);
+	}
+
+	/**
+	 * @param elapsed
+	 *            Durao da simulao em milissegundos, para o clculo da
+	 *            vazo.
+	 */
+	List<OperationStats> getStats(long elapsed) {
+		List<OperationStats> stats = new ArrayList<OperationStats>();
+		synchronized (operations) {
+			for (Map.Entry<String, Samples> entry : operations.entrySet())
+				stats.add(entry.getValue().toStats(entry.getKey(), elapsed));
+		}
+		return stats;
+	}
+
+	private static final class Samples {
+
+		private long[] values = new long[256];
+
+		private int size;
+
+		private long errors;
+
+		synchronized void add(long nanos, boolean error) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = nanos;
+			if (error)
+				errors++;
+		}
+
+		synchronized OperationStats toStats(String name, long elapsed) {
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			double sum = 0;
+			for (long value : sorted)
+				sum += value;
+			double seconds = Math.max(elapsed, 1) / 1000.0;
+			return new OperationStats(name, size, errors,
+					(size == 0) ? 0 : sum / size / 1e6,
+					percentile(sorted, 50), percentile(sorted, 95),
+					percentile(sorted, 99), (size == 0) ? 0
+							: sorted[size - 1] / 1e6, size / seconds);
+		}
+
+		/**
+		 * Percentil pelo mtodo do posto mais prximo, em milissegundos.
+		 */
+		private static double percentile(long[] sorted, int p) {
+			if (sorted.length == 0)
+				return 0;
+			int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)] / 1e6;
+		}
+	}
+}
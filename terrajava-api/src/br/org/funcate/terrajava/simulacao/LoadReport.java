@@ -0,0 +1,109 @@
+package br.org.funcate.terrajava.simulacao;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * Resultado de uma execuo de {@link LoadSimulator}: configurao usada,
+ * durao e as estatsticas de cada operao.
+ */
+public final class LoadReport {
+
+	private final int users;
+
+	private final int maxInstances;
+
+	private final int maxPoolConnections;
+
+	private final long elapsed;
+
+	private final List<OperationStats> operations;
+
+	LoadReport(int users, int maxInstances, int maxPoolConnections,
+			long elapsed, List<OperationStats> operations) {
+		this.users = users;
+		this.maxInstances = maxInstances;
+		this.maxPoolConnections = maxPoolConnections;
+		this.elapsed = elapsed;
+		this.operations = Collections.unmodifiableList(operations);
+	}
+
+	public int getUsers() {
+		return users;
+	}
+
+	/**
+	 * @return O valor usado em setMaxInstances, ou 0 quando no definido.
+	 */
+	public int getMaxInstances() {
+		return maxInstances;
+	}
+
+	/**
+	 * @return O valor usado em setMaxPoolConnections, ou 0 quando no
+	 *         definido.
+	 */
+	public int getMaxPoolConnections() {
+		return maxPoolConnections;
+	}
+
+	/**
+	 * @return Durao da simulao, em milissegundos.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	public List<OperationStats> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * @return As estatsticas da operao, ou null caso no tenha sido
+	 *         executada.
+	 */
+	public OperationStats getOperation(String name) {
+		for (OperationStats stats : operations)
+			if (stats.getName().equals(name))
+				return stats;
+		return null;
+	}
+
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("users", users);
+		map.put("maxInstances", maxInstances);
+		map.put("maxPoolConnections", maxPoolConnections);
+		map.put("elapsed", elapsed);
+		Vector<Object> list = new Vector<Object>();
+		for (OperationStats stats : operations)
+			list.add(stats.toMap());
+		map.put("operations", list);
+		return map;
+	}
+
+	/**
+	 * @return Tabela de texto com uma linha por operao (latncias em
+	 *         milissegundos, vazo em operaes por segundo).
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.ENGLISH,
+				"users=%d maxInstances=%d maxPoolConnections=%d elapsed=%dms%n",
+				users, maxInstances, maxPoolConnections, elapsed));
+		out.append(String.format(Locale.ENGLISH,
+				"%-16s %8s %6s %9s %9s %9s %9s %9s%n", "operation", "count",
+				"errors", "p50", "p95", "p99", "max", "ops/s"));
+		for (OperationStats s : operations)
+			out.append(String.format(Locale.ENGLISH,
+					"%-16s %8d %6d %9.1f %9.1f %9.1f %9.1f %9.2f%n",
+					s.getName(), s.getCount(), s.getErrors(), s.getP50(),
+					s.getP95(), s.getP99(), s.getMax(), s.getThroughput()));
+		return out.toString();
+	}
+}
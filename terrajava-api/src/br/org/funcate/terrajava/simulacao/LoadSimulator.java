@@ -0,0 +1,401 @@
+package br.org.funcate.terrajava.simulacao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.persistencia.ConnectionParameters;
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Simulao de usurios de mapa sobre a API TerraJava, para medir como a
+ * vazo e as latncias variam com o nmero de usurios, setMaxInstances e
+ * setMaxPoolConnections.
+ *
+ * Cada usurio simulado usa uma sesso prpria: conecta, abre a vista
+ * (setCurrentView e desenho do box inicial) e, at o fim da simulao,
+ * escolhe aleatoriamente uma ao, conforme os pesos configurados:
+ *
+ * pan      desloca o box em at meia largura e redesenha (drawThemes);
+ * zoom     aproxima ou afasta pela metade em torno de um ponto e redesenha;
+ * identify localiza o objeto em um ponto (locateObject) e l seus atributos
+ *          (fetchAttributes);
+ * query    l as features do box corrente (getFeaturesInBox).
+ *
+ * Entre as aes o usurio aguarda um tempo de reflexo aleatrio. O tempo de
+ * cada chamada  registrado por operao; o relatrio traz os percentis 50,
+ * 95 e 99 e a vazo.
+ *
+ * Sem a biblioteca nativa, a simulao pode ser executada sobre
+ * {@link SimulatedTerraJava}, como faz {@link #main(String[])}.
+ * </pre>
+ */
+public class LoadSimulator {
+
+	public static final String OP_CONNECT = "connect";
+
+	public static final String OP_OPEN_VIEW = "openView";
+
+	public static final String OP_PAN = "pan";
+
+	public static final String OP_ZOOM = "zoom";
+
+	public static final String OP_IDENTIFY = "identify";
+
+	public static final String OP_QUERY = "query";
+
+	private final TerraJava terraJava;
+
+	private final ConnectionParameters connection;
+
+	private final String view;
+
+	private final String user;
+
+	private final String theme;
+
+	private final Vector<HashMap<String, Object>> themesList;
+
+	private final HashMap<String, Object> projectionMap;
+
+	private final Box initialBox;
+
+	private int users = 10;
+
+	private long duration = 60000;
+
+	private long thinkTime = 1000;
+
+	private long rampUp;
+
+	private int imageWidth = 800;
+
+	private int imageHeight = 600;
+
+	private int maxInstances;
+
+	private int maxPoolConnections;
+
+	private long seed = 1;
+
+	private int[] weights = { 4, 3, 2, 1 };
+
+	/**
+	 * @param theme
+	 *            Tema usado em identify e query.
+	 * @param themesList
+	 *            Temas desenhados, no formato de drawThemes.
+	 * @param projectionMap
+	 *            Projeo do desenho, no formato de drawThemes.
+	 * @param initialBox
+	 *            Box exibido ao abrir a vista.
+	 */
+	public LoadSimulator(TerraJava terraJava,
+			ConnectionParameters connection, String view, String user,
+			String theme, Vector<HashMap<String, Object>> themesList,
+			HashMap<String, Object> projectionMap, Box initialBox) {
+		this.terraJava = terraJava;
+		this.connection = connection;
+		this.view = view;
+		this.user = user;
+		this.theme = theme;
+		this.themesList = themesList;
+		this.projectionMap = projectionMap;
+		this.initialBox = initialBox;
+	}
+
+	/**
+	 * Nmero de usurios simultneos.
+	 */
+	public void setUsers(int users) {
+		this.users = users;
+	}
+
+	/**
+	 * Durao da simulao, em milissegundos.
+	 */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * Tempo mdio de reflexo entre as aes de um usurio, em milissegundos.
+	 */
+	public void setThinkTime(long thinkTime) {
+		this.thinkTime = thinkTime;
+	}
+
+	/**
+	 * Intervalo, em milissegundos, em que os usurios iniciam de forma
+	 * escalonada.
+	 */
+	public void setRampUp(long rampUp) {
+		this.rampUp = rampUp;
+	}
+
+	public void setImageSize(int imageWidth, int imageHeight) {
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+	}
+
+	/**
+	 * Valor passado a setMaxInstances antes da simulao; zero mantm o valor
+	 * corrente.
+	 */
+	public void setMaxInstances(int maxInstances) {
+		this.maxInstances = maxInstances;
+	}
+
+	/**
+	 * Valor passado a setMaxPoolConnections antes da simulao; zero mantm o
+	 * valor corrente.
+	 */
+	public void setMaxPoolConnections(int maxPoolConnections) {
+		this.maxPoolConnections = maxPoolConnections;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Pesos relativos das aes pan, zoom, identify e query.
+	 */
+	public void setWeights(int pan, int zoom, int identify, int query) {
+		if (pan < 0 || zoom < 0 || identify < 0 || query < 0
+				|| pan + zoom + identify + query == 0)
+			throw new IllegalArgumentException("Pesos invlidos.");
+		this.weights = new int[] { pan, zoom, identify, query };
+	}
+
+	/**
+	 * Executa a simulao e aguarda o fim de todos os usurios.
+	 */
+	public LoadReport run() throws IllegalAccessException,
+			InstantiationException, InterruptedException {
+		if (maxInstances > 0)
+			terraJava.setMaxInstances(maxInstances);
+		if (maxPoolConnections > 0)
+			terraJava.setMaxPoolConnections(maxPoolConnections);
+
+		final LatencyRecorder recorder = new LatencyRecorder();
+		final long start = System.currentTimeMillis();
+		final long deadline = start + duration;
+		ExecutorService executor = Executors.newFixedThreadPool(users);
+		for (int i = 0; i < users; i++) {
+			final int index = i;
+			executor.execute(new Runnable() {
+				public void run() {
+					simulateUser(index, deadline, recorder);
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(duration + 60000 + rampUp,
+				TimeUnit.MILLISECONDS);
+		executor.shutdownNow();
+		long elapsed = System.currentTimeMillis() - start;
+		return new LoadReport(users, maxInstances, maxPoolConnections,
+				elapsed, recorder.getStats(elapsed));
+	}
+
+	private void simulateUser(int index, long deadline,
+			LatencyRecorder recorder) {
+		Random random = new Random(seed * 31 + index);
+		String sessionId = "simulacao-" + index + "-" + seed;
+		try {
+			if (rampUp > 0)
+				Thread.sleep(rampUp * index / users);
+			if (!timed(recorder, OP_CONNECT, new Action(sessionId) {
+				boolean perform() throws Exception {
+					connection.connect(terraJava, sessionId);
+					return true;
+				}
+			}))
+				return;
+
+			final Box[] box = { initialBox };
+			if (!timed(recorder, OP_OPEN_VIEW, new Action(sessionId) {
+				boolean perform() throws Exception {
+					return terraJava.setCurrentView(view, user, sessionId)
+							&& terraJava.setTheme(theme, 0, sessionId)
+							&& draw(box[0], sessionId);
+				}
+			}))
+				return;
+
+			while (System.currentTimeMillis() < deadline
+					&& !Thread.currentThread().isInterrupted()) {
+				Thread.sleep((long) (random.nextDouble() * 2 * thinkTime));
+				if (System.currentTimeMillis() >= deadline)
+					break;
+				performAction(chooseAction(random), box, random, sessionId,
+						recorder);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				terraJava.destroySession(sessionId);
+			} catch (Throwable e) {
+				// a sesso pode no ter sido criada
+			}
+		}
+	}
+
+	private int chooseAction(Random random) {
+		int total = 0;
+		for (int weight : weights)
+			total += weight;
+		int value = random.nextInt(total);
+		for (int i = 0; i < weights.length; i++) {
+			value -= weights[i];
+			if (value < 0)
+				return i;
+		}
+		return 0;
+	}
+
+	private void performAction(int action, final Box[] box, Random random,
+			String sessionId, LatencyRecorder recorder) {
+		Box current = box[0];
+		final double px = current.getX1() + random.nextDouble()
+				* current.getWidth();
+		final double py = current.getY1() + random.nextDouble()
+				* current.getHeight();
+		switch (action) {
+		case 0: {
+			double dx = (random.nextDouble() - 0.5) * current.getWidth();
+			double dy = (random.nextDouble() - 0.5) * current.getHeight();
+			box[0] = new Box(current.getX1() + dx, current.getY1() + dy,
+					current.getX2() + dx, current.getY2() + dy);
+			timed(recorder, OP_PAN, new Action(sessionId) {
+				boolean perform() throws Exception {
+					return draw(box[0], sessionId);
+				}
+			});
+			break;
+		}
+		case 1: {
+			// afasta somente at o box inicial
+			double factor = (random.nextBoolean() || current.getWidth() >= initialBox
+					.getWidth()) ? 0.5 : 2;
+			box[0] = new Box(px - (px - current.getX1()) * factor, py
+					- (py - current.getY1()) * factor, px
+					+ (current.getX2() - px) * factor, py
+					+ (current.getY2() - py) * factor);
+			timed(recorder, OP_ZOOM, new Action(sessionId) {
+				boolean perform() throws Exception {
+					return draw(box[0], sessionId);
+				}
+			});
+			break;
+		}
+		case 2: {
+			final double tol = current.getWidth() / imageWidth * 3;
+			timed(recorder, OP_IDENTIFY, new Action(sessionId) {
+				boolean perform() throws Exception {
+					Vector located = terraJava.locateObject(px, py, tol, 0,
+							sessionId);
+					if (located != null && !located.isEmpty())
+						terraJava.fetchAttributes(
+								String.valueOf(located.get(0)), 0, sessionId);
+					return true;
+				}
+			});
+			break;
+		}
+		default:
+			timed(recorder, OP_QUERY, new Action(sessionId) {
+				boolean perform() throws Exception {
+					Box b = box[0];
+					return terraJava.getFeaturesInBox(b.getX1(), b.getY1(),
+							b.getX2(), b.getY2(), sessionId) != null;
+				}
+			});
+		}
+	}
+
+	private boolean draw(Box box, String sessionId)
+			throws IllegalAccessException, InstantiationException {
+		HashMap<String, Integer> background = new HashMap<String, Integer>();
+		background.put("r", 255);
+		background.put("g", 255);
+		background.put("b", 255);
+		byte[] image = terraJava.drawThemes(themesList, box.getX1(),
+				box.getY1(), box.getX2(), box.getY2(), imageWidth, imageHeight,
+				true, 0, false, 100, projectionMap, background, true);
+		return image != null && image.length > 0;
+	}
+
+	/**
+	 * Executa a ao e registra o tempo gasto; excees e resultado falso
+	 * contam como erro.
+	 *
+	 * @return Verdadeiro caso a ao tenha sido bem sucedida.
+	 */
+	private static boolean timed(LatencyRecorder recorder, String operation,
+			Action action) {
+		long start = System.nanoTime();
+		boolean ok;
+		try {
+			ok = action.perform();
+		} catch (Throwable e) {
+			ok = false;
+		}
+		recorder.record(operation, System.nanoTime() - start, !ok);
+		return ok;
+	}
+
+	private abstract static class Action {
+
+		final String sessionId;
+
+		Action(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		abstract boolean perform() throws Exception;
+	}
+
+	/**
+	 * <pre>
+	 * Executa a simulao sobre {@link SimulatedTerraJava}, variando o nmero
+	 * de instncias:
+	 *
+	 * LoadSimulator [usurios] [durao em segundos] [instncias...]
+	 * </pre>
+	 */
+	public static void main(String[] args) throws Exception {
+		int users = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 10;
+		List<Integer> instanceCounts = new ArrayList<Integer>();
+		for (int i = 2; i < args.length; i++)
+			instanceCounts.add(Integer.parseInt(args[i]));
+		if (instanceCounts.isEmpty())
+			instanceCounts.add(users);
+
+		for (int instances : instanceCounts) {
+			SimulatedTerraJava terraJava = new SimulatedTerraJava();
+			LoadSimulator simulator = new LoadSimulator(terraJava,
+					new ConnectionParameters("localhost", "", "", "", 5432, 2),
+					"vista", "usuario", "tema",
+					new Vector<HashMap<String, Object>>(),
+					new HashMap<String, Object>(), new Box(0, 0, 100000,
+							75000));
+			simulator.setUsers(users);
+			simulator.setDuration(seconds * 1000);
+			simulator.setThinkTime(500);
+			simulator.setMaxInstances(instances);
+			simulator.setMaxPoolConnections(instances);
+			System.out.println(simulator.run());
+		}
+	}
+}
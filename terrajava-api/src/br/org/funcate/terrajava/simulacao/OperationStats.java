@@ -0,0 +1,113 @@
+package br.org.funcate.terrajava.simulacao;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Estatsticas de uma operao da simulao de carga: nmero de execues,
+ * erros, percentis de latncia e vazo.
+ */
+public final class OperationStats {
+
+	private final String name;
+
+	private final long count;
+
+	private final long errors;
+
+	private final double mean;
+
+	private final double p50;
+
+	private final double p95;
+
+	private final double p99;
+
+	private final double max;
+
+	private final double throughput;
+
+	OperationStats(String name, long count, long errors, double mean,
+			double p50, double p95, double p99, double max, double throughput) {
+		this.name = name;
+		this.count = count;
+		this.errors = errors;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p95 = p95;
+		this.p99 = p99;
+		this.max = max;
+		this.throughput = throughput;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Nmero de execues, incluindo as que falharam.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return Latncia mdia, em milissegundos.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return Mediana da latncia, em milissegundos.
+	 */
+	public double getP50() {
+		return p50;
+	}
+
+	/**
+	 * @return Percentil 95 da latncia, em milissegundos.
+	 */
+	public double getP95() {
+		return p95;
+	}
+
+	/**
+	 * @return Percentil 99 da latncia, em milissegundos.
+	 */
+	public double getP99() {
+		return p99;
+	}
+
+	/**
+	 * @return Maior latncia, em milissegundos.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return Execues por segundo.
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("name", name);
+		map.put("count", count);
+		map.put("errors", errors);
+		map.put("mean", mean);
+		map.put("p50", p50);
+		map.put("p95", p95);
+		map.put("p99", p99);
+		map.put("max", max);
+		map.put("throughput", throughput);
+		return map;
+	}
+}
@@ -0,0 +1,221 @@
+package br.org.funcate.terrajava.simulacao;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import br.org.funcate.terrajava.persistencia.TerraJava;
+
+/**
+ * <pre>
+ * Substituto em Java da classe TerraJava para a simulao de carga quando a
+ * biblioteca nativa no est disponvel. No carrega as bibliotecas nativas e
+ * implementa somente os mtodos usados por {@link LoadSimulator}: connect,
+ * setCurrentView, setTheme, drawThemes, locateObject, fetchAttributes,
+ * getFeaturesInBox, destroySession, errorMessage, setMaxInstances e
+ * setMaxPoolConnections.
+ *
+ * Cada chamada espera um tempo aleatrio (distribuio log-normal em torno do
+ * custo configurado), ocupando uma das instncias (setMaxInstances) e uma das
+ * conexes do pool (setMaxPoolConnections). Assim a simulao reproduz a fila formada quando
+ * os limites so menores que o nmero de usurios.
+ * </pre>
+ */
+public class SimulatedTerraJava extends TerraJava {
+
+	private final Random random = new Random(42);
+
+	private final ConcurrentHashMap<String, String> sessions = new ConcurrentHashMap<String, String>();
+
+	private volatile Semaphore instances = new Semaphore(Integer.MAX_VALUE,
+			true);
+
+	private volatile Semaphore poolConnections = new Semaphore(
+			Integer.MAX_VALUE);
+
+	private long connectCost = 20;
+
+	private long viewCost = 40;
+
+	private long drawCostPerMegapixel = 120;
+
+	private long drawBaseCost = 15;
+
+	private long queryCost = 10;
+
+	private double jitter = 0.35;
+
+	public SimulatedTerraJava() {
+		super(false);
+	}
+
+	/**
+	 * Define os custos mdios simulados, em milissegundos.
+	 *
+	 * @param connectCost
+	 *            Custo de connect.
+	 * @param viewCost
+	 *            Custo de setCurrentView.
+	 * @param drawBaseCost
+	 *            Custo fixo de drawThemes.
+	 * @param drawCostPerMegapixel
+	 *            Custo de drawThemes por milho de pixels.
+	 * @param queryCost
+	 *            Custo de locateObject, fetchAttributes e getFeaturesInBox.
+	 */
+	public void setCosts(long connectCost, long viewCost, long drawBaseCost,
+			long drawCostPerMegapixel, long queryCost) {
+		this.connectCost = connectCost;
+		this.viewCost = viewCost;
+		this.drawBaseCost = drawBaseCost;
+		this.drawCostPerMegapixel = drawCostPerMegapixel;
+		this.queryCost = queryCost;
+	}
+
+	/**
+	 * Define a disperso dos custos (desvio padro do logaritmo). Zero torna os
+	 * custos constantes.
+	 */
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+
+	@Override
+	public void setMaxInstances(int maxInstances) {
+		instances = new Semaphore(maxInstances);
+	}
+
+	@Override
+	public void setMaxPoolConnections(int maxPoolConnections) {
+		poolConnections = new Semaphore(maxPoolConnections);
+	}
+
+	@Override
+	public void connect(String host, String user, String password,
+			String database, int port, int dbType, String sessionId) {
+		work(connectCost);
+		sessions.put(sessionId, "");
+	}
+
+	@Override
+	public boolean destroySession(String sessionId) {
+		return sessions.remove(sessionId) != null;
+	}
+
+	@Override
+	public String errorMessage(String sessionId) {
+		return "";
+	}
+
+	@Override
+	public boolean setCurrentView(String view, String userName,
+			String sessionId) {
+		checkSession(sessionId);
+		work(viewCost);
+		return true;
+	}
+
+	@Override
+	public boolean setTheme(String theme, int themeType, String sessionId) {
+		checkSession(sessionId);
+		return true;
+	}
+
+	@Override
+	public byte[] drawThemes(Vector<HashMap<String, Object>> themesList,
+			double x1, double y1, double x2, double y2, int width,
+			int height, boolean keepAspectRatio, int imageType,
+			boolean opaque, int quality, HashMap<String, Object> projectionMap,
+			HashMap<String, Integer> canvasBackground, boolean useScaleControl) {
+		work(drawBaseCost + drawCostPerMegapixel * width * height / 1000000);
+		// tamanho tpico de um PNG de mapa: cerca de 1 byte a cada 4 pixels
+		return new byte[Math.max(1, width * height / 4)];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Vector locateObject(double x, double y, double tol, int themeType,
+			boolean storeGeom, String sessionId) {
+		checkSession(sessionId);
+		work(queryCost);
+		Vector result = new Vector();
+		long id = Math.abs((long) Math.floor(x / (tol * 8)) * 31
+				+ (long) Math.floor(y / (tol * 8))) % 100000;
+		// aproximadamente um tero dos cliques no encontra objeto
+		if (id % 3 != 0) {
+			result.add(String.valueOf(id));
+			result.add(String.valueOf(id));
+		}
+		return result;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Vector fetchAttributes(String objectid, int themeType,
+			String sessionId) {
+		checkSession(sessionId);
+		work(queryCost);
+		Vector result = new Vector();
+		result.add("object_id");
+		result.add(objectid);
+		result.add("nome");
+		result.add("Objeto " + objectid);
+		return result;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Vector getFeaturesInBox(double x1, double y1, double x2,
+			double y2, String sessionId) {
+		checkSession(sessionId);
+		int count;
+		synchronized (random) {
+			count = 5 + random.nextInt(50);
+		}
+		work(queryCost + count / 5);
+		Vector result = new Vector();
+		for (int i = 0; i < count; i++) {
+			double x = x1 + (x2 - x1) * i / count;
+			double y = y1 + (y2 - y1) * i / count;
+			result.add("{\"type\":\"Feature\",\"id\":\"" + i
+					+ "\",\"properties\":{},\"geometry\":{\"type\":\"Point\","
+					+ "\"coordinates\":[" + x + "," + y + "]}}");
+		}
+		return result;
+	}
+
+	private void checkSession(String sessionId) {
+		if (!sessions.containsKey(sessionId))
+			throw new IllegalStateException("Sesso no conectada: "
+					+ sessionId);
+	}
+
+	/**
+	 * Ocupa uma instncia e uma conexo do pool pelo tempo simulado.
+	 */
+	private void work(long cost) {
+		double factor;
+		synchronized (random) {
+			factor = Math.exp(random.nextGaussian() * jitter - jitter * jitter
+					/ 2);
+		}
+		long millis = Math.max(0, Math.round(cost * factor));
+		Semaphore instance = instances;
+		Semaphore pool = poolConnections;
+		instance.acquireUninterruptibly();
+		try {
+			pool.acquireUninterruptibly();
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pool.release();
+			}
+		} finally {
+			instance.release();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package br.org.funcate.terrajava.terreno;
+
+import br.org.funcate.terrajava.geometria.Box;
+import br.org.funcate.terrajava.raster.CachedRasterReader;
+import br.org.funcate.terrajava.raster.RasterTile;
+
+/**
+ * Grade regular de altitudes (MNT) em um array contnuo, linha a linha, a
+ * partir do canto superior esquerdo do box.
+ */
+public class ElevationGrid {
+
+	private final float[] values;
+
+	private final int width;
+
+	private final int height;
+
+	private final Box box;
+
+	private final float noData;
+
+	public ElevationGrid(float[] values, int width, int height, Box box,
+			float noData) {
+		if (values.length < width * height)
+			throw new IllegalArgumentException(
+					"Array de altitudes menor que a grade.");
+		this.values = values;
+		this.width = width;
+		this.height = height;
+		this.box = box;
+		this.noData = noData;
+	}
+
+	/**
+	 * Cria a grade a partir de um bloco lido com RasterReader.
+	 */
+	public static ElevationGrid fromTile(RasterTile tile, float noData) {
+		return new ElevationGrid(tile.toFloatArray(), tile.getWidth(), tile
+				.getHeight(), tile.getBox(), noData);
+	}
+
+	/**
+	 * L a grade de uma janela do raster atravs do cache de blocos.
+	 */
+	public static ElevationGrid read(CachedRasterReader reader, Box window,
+			int width, int height) throws IllegalAccessException,
+			InstantiationException {
+		return new ElevationGrid(reader.read(window, width, height, 0), width,
+				height, window, (float) reader.getInfo().getDummy());
+	}
+
+	public float[] getValues() {
+		return values;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public Box getBox() {
+		return box;
+	}
+
+	public float getNoData() {
+		return noData;
+	}
+
+	/**
+	 * @return Largura de uma clula em unidades da projeo.
+	 */
+	public double getCellWidth() {
+		return box.getWidth() / width;
+	}
+
+	/**
+	 * @return Altura de uma clula em unidades da projeo.
+	 */
+	public double getCellHeight() {
+		return box.getHeight() / height;
+	}
+
+	public float get(int col, int line) {
+		return values[line * width + col];
+	}
+
+	public boolean isNoData(float value) {
+		return Float.isNaN(value) || value == noData;
+	}
+
+	/**
+	 * @return O valor da clula com a coluna e a linha limitadas  grade.
+	 */
+	float getClamped(int col, int line) {
+		col = Math.max(0, Math.min(width - 1, col));
+		line = Math.max(0, Math.min(height - 1, line));
+		return values[line * width + col];
+	}
+
+	/**
+	 * Interpola bilinearmente a altitude em uma coordenada.
+	 *
+	 * @return A altitude ou NaN caso a coordenada esteja fora da grade ou
+	 *         prxima a clulas sem dado.
+	 */
+	public double interpolate(double x, double y) {
+		if (!box.contains(x, y))
+			return Double.NaN;
+		double fx = (x - box.getX1()) / getCellWidth() - 0.5;
+		double fy = (box.getY2() - y) / getCellHeight() - 0.5;
+		int c0 = (int) Math.floor(fx);
+		int l0 = (int) Math.floor(fy);
+		double tx = fx - c0;
+		double ty = fy - l0;
+		float v00 = getClamped(c0, l0);
+		float v10 = getClamped(c0 + 1, l0);
+		float v01 = getClamped(c0, l0 + 1);
+		float v11 = getClamped(c0 + 1, l0 + 1);
+		if (isNoData(v00) || isNoData(v10) || isNoData(v01) || isNoData(v11))
+			return Double.NaN;
+		return (v00 * (1 - tx) + v10 * tx) * (1 - ty)
+				+ (v01 * (1 - tx) + v11 * tx) * ty;
+	}
+}
@@ -0,0 +1,72 @@
+package br.org.funcate.terrajava.terreno;
+
+/**
+ * Perfil de elevao amostrado ao longo de uma polilinha: para cada amostra,
+ * a distncia acumulada desde o incio, as coordenadas e a altitude (NaN onde
+ * no h dado).
+ */
+public class ElevationProfile {
+
+	private final double[] distances;
+
+	private final double[] xs;
+
+	private final double[] ys;
+
+	private final double[] elevations;
+
+	ElevationProfile(double[] distances, double[] xs, double[] ys,
+			double[] elevations) {
+		this.distances = distances;
+		this.xs = xs;
+		this.ys = ys;
+		this.elevations = elevations;
+	}
+
+	public int size() {
+		return distances.length;
+	}
+
+	public double[] getDistances() {
+		return distances;
+	}
+
+	public double[] getXs() {
+		return xs;
+	}
+
+	public double[] getYs() {
+		return ys;
+	}
+
+	public double[] getElevations() {
+		return elevations;
+	}
+
+	/**
+	 * @return Soma dos desnveis positivos ao longo do perfil.
+	 */
+	public double getTotalAscent() {
+		double ascent = 0;
+		for (int i = 1; i < elevations.length; i++) {
+			double delta = elevations[i] - elevations[i - 1];
+			if (delta > 0)
+				ascent += delta;
+		}
+		return ascent;
+	}
+
+	/**
+	 * @return Soma dos desnveis negativos, em valor absoluto, ao longo do
+	 *         perfil.
+	 */
+	public double getTotalDescent() {
+		double descent = 0;
+		for (int i = 1; i < elevations.length; i++) {
+			double delta = elevations[i] - elevations[i - 1];
+			if (delta < 0)
+				descent -= delta;
+		}
+		return descent;
+	}
+}
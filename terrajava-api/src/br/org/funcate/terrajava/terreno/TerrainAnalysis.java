@@ -0,0 +1,404 @@
+package br.org.funcate.terrajava.terreno;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <pre>
+ * Produtos de terreno calculados sobre grades de altitude lidas do raster:
+ * sombreamento (hillshade), declividade, exposio (aspect), perfil de
+ * elevao e visibilidade (viewshed).
+ *
+ * Os clculos por clula so divididos em faixas de linhas executadas em
+ * paralelo por um ForkJoinPool. As sadas so arrays contnuos, linha a linha,
+ * com o mesmo tamanho da grade de entrada; clulas sem dado recebem NaN (ou 0
+ * nas sadas em bytes).
+ *
+ * Declividade e exposio usam o mtodo de Horn (vizinhana 3x3), com as
+ * bordas calculadas repetindo as clulas da extremidade.
+ * </pre>
+ */
+public class TerrainAnalysis {
+
+	/** Nmero mnimo de linhas por faixa executada em paralelo. */
+	public static final int MIN_ROWS_PER_BAND = 16;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Cria o componente usando o pool compartilhado por todas as instncias,
+	 * com um thread por processador.
+	 */
+	public TerrainAnalysis() {
+		this(SharedPool.POOL);
+	}
+
+	/**
+	 * @param pool
+	 *            Pool usado nos clculos; o encerramento do pool cabe a quem
+	 *            o criou.
+	 */
+	public TerrainAnalysis(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Calcula a declividade de cada clula.
+	 *
+	 * @param grid
+	 *            Grade de altitudes.
+	 * @param zFactor
+	 *            Fator de converso das altitudes para a unidade das
+	 *            coordenadas (1 quando ambas esto em metros).
+	 * @return Declividade em graus (0 a 90).
+	 */
+	public float[] slope(final ElevationGrid grid, final double zFactor) {
+		final float[] result = new float[grid.getWidth() * grid.getHeight()];
+		run(grid.getHeight(), new RowTask() {
+			public void compute(int line) {
+				double[] gradient = new double[2];
+				for (int col = 0; col < grid.getWidth(); col++) {
+					int i = line * grid.getWidth() + col;
+					if (!gradient(grid, col, line, zFactor, gradient)) {
+						result[i] = Float.NaN;
+						continue;
+					}
+					double rise = Math.hypot(gradient[0], gradient[1]);
+					result[i] = (float) Math.toDegrees(Math.atan(rise));
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Calcula a exposio (direo da maior declividade) de cada clula.
+	 *
+	 * @return Azimute em graus (0 a 360, a partir do norte no sentido
+	 *         horrio), ou -1 para clulas planas.
+	 */
+	public float[] aspect(final ElevationGrid grid) {
+		final float[] result = new float[grid.getWidth() * grid.getHeight()];
+		run(grid.getHeight(), new RowTask() {
+			public void compute(int line) {
+				double[] gradient = new double[2];
+				for (int col = 0; col < grid.getWidth(); col++) {
+					int i = line * grid.getWidth() + col;
+					if (!gradient(grid, col, line, 1, gradient)) {
+						result[i] = Float.NaN;
+						continue;
+					}
+					result[i] = (float) aspect(gradient[0], gradient[1]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Calcula o sombreamento do relevo para uma fonte de luz.
+	 *
+	 * @param grid
+	 *            Grade de altitudes.
+	 * @param azimuth
+	 *            Direo da fonte de luz em graus, a partir do norte no
+	 *            sentido horrio (usualmente 315).
+	 * @param altitude
+	 *            Elevao da fonte de luz em graus acima do horizonte
+	 *            (usualmente 45).
+	 * @param zFactor
+	 *            Fator de converso das altitudes para a unidade das
+	 *            coordenadas.
+	 * @return Intensidade de cada clula (0 a 255), 0 para clulas sem dado.
+	 */
+	public byte[] hillshade(final ElevationGrid grid, double azimuth,
+			double altitude, final double zFactor) {
+		final byte[] result = new byte[grid.getWidth() * grid.getHeight()];
+		final double zenith = Math.toRadians(90 - altitude);
+		final double azimuthRad = Math.toRadians(azimuth);
+		run(grid.getHeight(), new RowTask() {
+			public void compute(int line) {
+				double[] gradient = new double[2];
+				for (int col = 0; col < grid.getWidth(); col++) {
+					int i = line * grid.getWidth() + col;
+					if (!gradient(grid, col, line, zFactor, gradient)) {
+						result[i] = 0;
+						continue;
+					}
+					double slope = Math.atan(Math.hypot(gradient[0],
+							gradient[1]));
+					double aspect = Math.toRadians(aspect(gradient[0],
+							gradient[1]));
+					double shade = Math.cos(zenith) * Math.cos(slope)
+							+ Math.sin(zenith) * Math.sin(slope)
+							* Math.cos(azimuthRad - aspect);
+					result[i] = (byte) Math.round(255 * Math.max(0, shade));
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Amostra a altitude ao longo de uma polilinha, em intervalos iguais de
+	 * distncia, com interpolao bilinear.
+	 *
+	 * @param grid
+	 *            Grade de altitudes.
+	 * @param polyline
+	 *            Coordenadas intercaladas (x0, y0, x1, y1, ...) na projeo da
+	 *            grade.
+	 * @param samples
+	 *            Nmero de amostras (no mnimo 2).
+	 * @return O perfil de elevao.
+	 */
+	public ElevationProfile profile(ElevationGrid grid, double[] polyline,
+			int samples) {
+		if (polyline.length < 4 || samples < 2)
+			throw new IllegalArgumentException(
+					"O perfil exige ao menos dois vrtices e duas amostras.");
+
+		int segments = polyline.length / 2 - 1;
+		double[] cumulative = new double[segments + 1];
+		for (int s = 0; s < segments; s++)
+			cumulative[s + 1] = cumulative[s]
+					+ Math.hypot(polyline[2 * s + 2] - polyline[2 * s],
+							polyline[2 * s + 3] - polyline[2 * s + 1]);
+		double total = cumulative[segments];
+
+		double[] distances = new double[samples];
+		double[] xs = new double[samples];
+		double[] ys = new double[samples];
+		double[] elevations = new double[samples];
+		int s = 0;
+		for (int i = 0; i < samples; i++) {
+			double d = total * i / (samples - 1);
+			while (s < segments - 1 && cumulative[s + 1] < d)
+				s++;
+			double length = cumulative[s + 1] - cumulative[s];
+			double t = (length > 0) ? (d - cumulative[s]) / length : 0;
+			distances[i] = d;
+			xs[i] = polyline[2 * s] + (polyline[2 * s + 2] - polyline[2 * s])
+					* t;
+			ys[i] = polyline[2 * s + 1]
+					+ (polyline[2 * s + 3] - polyline[2 * s + 1]) * t;
+			elevations[i] = grid.interpolate(xs[i], ys[i]);
+		}
+		return new ElevationProfile(distances, xs, ys, elevations);
+	}
+
+	/**
+	 * Calcula as clulas visveis a partir de um observador, traando a linha
+	 * de visada at o centro de cada clula.
+	 *
+	 * @param grid
+	 *            Grade de altitudes.
+	 * @param x
+	 *            Coordenada x do observador.
+	 * @param y
+	 *            Coordenada y do observador.
+	 * @param observerHeight
+	 *            Altura do observador acima do terreno.
+	 * @param targetHeight
+	 *            Altura do alvo acima do terreno.
+	 * @param maxDistance
+	 *            Distncia mxima de visada, ou valor menor ou igual a zero
+	 *            para no limitar.
+	 * @return 1 para clulas visveis e 0 para as demais.
+	 */
+	public byte[] viewshed(final ElevationGrid grid, double x, double y,
+			double observerHeight, final double targetHeight,
+			final double maxDistance) {
+		final byte[] result = new byte[grid.getWidth() * grid.getHeight()];
+		double ground = grid.interpolate(x, y);
+		if (Double.isNaN(ground))
+			return result;
+
+		final double cellW = grid.getCellWidth();
+		final double cellH = grid.getCellHeight();
+		// observador em coordenadas de grade (coluna e linha fracionrias)
+		final double oc = (x - grid.getBox().getX1()) / cellW - 0.5;
+		final double ol = (grid.getBox().getY2() - y) / cellH - 0.5;
+		final double oz = ground + observerHeight;
+
+		run(grid.getHeight(), new RowTask() {
+			public void compute(int line) {
+				for (int col = 0; col < grid.getWidth(); col++) {
+					float z = grid.get(col, line);
+					if (grid.isNoData(z))
+						continue;
+					double dc = col - oc;
+					double dl = line - ol;
+					double distance = Math.hypot(dc * cellW, dl * cellH);
+					if (maxDistance > 0 && distance > maxDistance)
+						continue;
+					if (visible(grid, oc, ol, oz, col, line, z + targetHeight,
+							distance))
+						result[line * grid.getWidth() + col] = 1;
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Converte uma sada em bytes (hillshade ou viewshed) em uma imagem com
+	 * transparncia, pronta para ser composta sobre a imagem de drawThemes.
+	 *
+	 * @param values
+	 *            Intensidades (0 a 255) linha a linha.
+	 * @param width
+	 *            Largura da imagem.
+	 * @param height
+	 *            Altura da imagem.
+	 * @param rgb
+	 *            Cor base (0xRRGGBB) modulada pela intensidade.
+	 * @param opacity
+	 *            Opacidade (0 a 255) das clulas com valor; clulas com valor
+	 *            0 ficam transparentes.
+	 */
+	public static BufferedImage toImage(byte[] values, int width, int height,
+			int rgb, int opacity) {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = new int[width * height];
+		int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+		int alpha = Math.max(0, Math.min(255, opacity)) << 24;
+		for (int i = 0; i < pixels.length; i++) {
+			int v = values[i] & 0xff;
+			if (v == 0)
+				continue;
+			pixels[i] = alpha | ((r * v / 255) << 16) | ((g * v / 255) << 8)
+					| (b * v / 255);
+		}
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		return image;
+	}
+
+	/**
+	 * Codifica uma imagem no formato PNG, o mesmo formato (imageType = 0)
+	 * usado pelas imagens de drawThemes.
+	 */
+	public static byte[] toPNG(BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+
+	private static boolean visible(ElevationGrid grid, double oc, double ol,
+			double oz, int col, int line, double tz, double distance) {
+		double dc = col - oc;
+		double dl = line - ol;
+		int steps = (int) Math.ceil(Math.max(Math.abs(dc), Math.abs(dl)));
+		if (steps <= 1)
+			return true;
+		double targetSlope = (tz - oz) / distance;
+		for (int k = 1; k < steps; k++) {
+			double t = (double) k / steps;
+			int c = (int) Math.round(oc + dc * t);
+			int l = (int) Math.round(ol + dl * t);
+			float z = grid.getClamped(c, l);
+			if (grid.isNoData(z))
+				continue;
+			if ((z - oz) / (distance * t) > targetSlope)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Calcula o gradiente (dz/dx, dz/dy) de uma clula pelo mtodo de Horn,
+	 * com y crescendo para o norte.
+	 *
+	 * @return Falso caso a clula ou algum vizinho no possua dado.
+	 */
+	private static boolean gradient(ElevationGrid grid, int col, int line,
+			double zFactor, double[] gradient) {
+		float a = grid.getClamped(col - 1, line - 1);
+		float b = grid.getClamped(col, line - 1);
+		float c = grid.getClamped(col + 1, line - 1);
+		float d = grid.getClamped(col - 1, line);
+		float e = grid.getClamped(col, line);
+		float f = grid.getClamped(col + 1, line);
+		float g = grid.getClamped(col - 1, line + 1);
+		float h = grid.getClamped(col, line + 1);
+		float i = grid.getClamped(col + 1, line + 1);
+		if (grid.isNoData(a) || grid.isNoData(b) || grid.isNoData(c)
+				|| grid.isNoData(d) || grid.isNoData(e) || grid.isNoData(f)
+				|| grid.isNoData(g) || grid.isNoData(h) || grid.isNoData(i))
+			return false;
+		gradient[0] = zFactor * ((c + 2 * f + i) - (a + 2 * d + g))
+				/ (8 * grid.getCellWidth());
+		gradient[1] = zFactor * ((a + 2 * b + c) - (g + 2 * h + i))
+				/ (8 * grid.getCellHeight());
+		return true;
+	}
+
+	/**
+	 * @return Azimute, em graus a partir do norte, da direo de descida do
+	 *         gradiente, ou -1 quando o gradiente  nulo.
+	 */
+	private static double aspect(double dzdx, double dzdy) {
+		if (dzdx == 0 && dzdy == 0)
+			return -1;
+		double azimuth = Math.toDegrees(Math.atan2(-dzdx, -dzdy));
+		return (azimuth < 0) ? azimuth + 360 : azimuth;
+	}
+
+	private void run(int rows, RowTask task) {
+		pool.invoke(new RowBand(task, 0, rows));
+	}
+
+	/**
+	 * Clculo de uma linha da grade.
+	 */
+	private interface RowTask {
+		void compute(int line);
+	}
+
+	/**
+	 * Divide as linhas ao meio at o tamanho mnimo de faixa e executa as
+	 * faixas em paralelo.
+	 */
+	private static class RowBand extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowTask task;
+
+		private final int begin;
+
+		private final int end;
+
+		RowBand(RowTask task, int begin, int end) {
+			this.task = task;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - begin <= MIN_ROWS_PER_BAND) {
+				for (int line = begin; line < end; line++)
+					task.compute(line);
+				return;
+			}
+			int mid = (begin + end) >>> 1;
+			invokeAll(new RowBand(task, begin, mid), new RowBand(task, mid, end));
+		}
+	}
+
+	/**
+	 * Pool compartilhado, criado no primeiro uso. Os threads de um
+	 * ForkJoinPool so daemon e no impedem o encerramento da JVM.
+	 */
+	private static final class SharedPool {
+
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+}
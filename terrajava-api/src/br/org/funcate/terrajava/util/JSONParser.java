@@ -0,0 +1,244 @@
+package br.org.funcate.terrajava.util;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * <pre>
+ * Interpretador simples de documentos JSON, usado para ler as features no
+ * formato GeoJSON devolvidas pela camada TerraJava (getFeaturesInBox,
+ * getFeaturesByIds, getFeaturesWithRestriction).
+ *
+ * Os valores so convertidos para os mesmos tipos usados pela API TerraJava:
+ *
+ * objeto  -> HashMap&lt;String, Object&gt;
+ * array   -> Vector&lt;Object&gt;
+ * texto   -> String
+ * nmero  -> Long (inteiros) ou Double
+ * lgico  -> Boolean
+ * null    -> null
+ * </pre>
+ */
+public class JSONParser {
+
+	private final String text;
+
+	private int pos;
+
+	private JSONParser(String text) {
+		this.text = text;
+		this.pos = 0;
+	}
+
+	/**
+	 * Interpreta um documento JSON completo.
+	 *
+	 * @param text
+	 *            Documento JSON.
+	 * @return O valor representado pelo documento, conforme a tabela de tipos
+	 *         descrita na classe.
+	 * @throws IllegalArgumentException
+	 *             Caso o documento no seja um JSON vlido.
+	 */
+	public static Object parse(String text) {
+		if (text == null)
+			throw new IllegalArgumentException("Documento JSON nulo.");
+
+		JSONParser parser = new JSONParser(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.pos != text.length())
+			throw parser.error("Contedo inesperado aps o fim do documento");
+		return value;
+	}
+
+	/**
+	 * Interpreta um documento JSON cuja raiz deve ser um objeto.
+	 *
+	 * @param text
+	 *            Documento JSON.
+	 * @return Mapa com os membros do objeto raiz.
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, Object> parseObject(String text) {
+		Object value = parse(text);
+		if (!(value instanceof HashMap))
+			throw new IllegalArgumentException(
+					"Documento JSON no representa um objeto.");
+		return (HashMap<String, Object>) value;
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+		if (pos >= text.length())
+			throw error("Fim inesperado do documento");
+
+		char c = text.charAt(pos);
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			expect("true");
+			return Boolean.TRUE;
+		case 'f':
+			expect("false");
+			return Boolean.FALSE;
+		case 'n':
+			expect("null");
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return readNumber();
+			throw error("Caractere inesperado '" + c + "'");
+		}
+	}
+
+	private HashMap<String, Object> readObject() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"')
+				throw error("Nome de membro esperado");
+			String name = readString();
+			skipWhitespace();
+			if (peek() != ':')
+				throw error("':' esperado");
+			pos++;
+			map.put(name, readValue());
+			skipWhitespace();
+			char c = peek();
+			pos++;
+			if (c == '}')
+				return map;
+			if (c != ',')
+				throw error("',' ou '}' esperado");
+		}
+	}
+
+	private Vector<Object> readArray() {
+		Vector<Object> list = new Vector<Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+		while (true) {
+			list.add(readValue());
+			skipWhitespace();
+			char c = peek();
+			pos++;
+			if (c == ']')
+				return list;
+			if (c != ',')
+				throw error("',' ou ']' esperado");
+		}
+	}
+
+	private String readString() {
+		pos++;
+		StringBuilder sb = null;
+		int start = pos;
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c == '"') {
+				String value = (sb == null) ? text.substring(start, pos) : sb
+						.append(text, start, pos).toString();
+				pos++;
+				return value;
+			}
+			if (c == '\\') {
+				if (sb == null)
+					sb = new StringBuilder();
+				sb.append(text, start, pos);
+				pos++;
+				if (pos >= text.length())
+					break;
+				char e = text.charAt(pos++);
+				switch (e) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length())
+						throw error("Sequncia unicode incompleta");
+					sb.append((char) Integer.parseInt(
+							text.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default:
+					sb.append(e);
+				}
+				start = pos;
+			} else {
+				pos++;
+			}
+		}
+		throw error("Texto no terminado");
+	}
+
+	private Object readNumber() {
+		int start = pos;
+		boolean decimal = false;
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c == '.' || c == 'e' || c == 'E')
+				decimal = true;
+			else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9')))
+				break;
+			pos++;
+		}
+		String number = text.substring(start, pos);
+		try {
+			if (!decimal && number.length() < 19)
+				return Long.valueOf(number);
+			return Double.valueOf(number);
+		} catch (NumberFormatException e) {
+			throw error("Nmero invlido '" + number + "'");
+		}
+	}
+
+	private void expect(String literal) {
+		if (!text.startsWith(literal, pos))
+			throw error("'" + literal + "' esperado");
+		pos += literal.length();
+	}
+
+	private char peek() {
+		if (pos >= text.length())
+			throw error("Fim inesperado do documento");
+		return text.charAt(pos);
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " na posio " + pos
+				+ " do documento JSON.");
+	}
+}
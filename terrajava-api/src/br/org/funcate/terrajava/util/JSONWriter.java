@@ -0,0 +1,123 @@
+package br.org.funcate.terrajava.util;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Gerador simples de documentos JSON, complementar ao {@link JSONParser}.
+ *
+ * Map        -> objeto (chaves convertidas com String.valueOf)
+ * Collection -> array
+ * arrays     -> array
+ * Number     -> nmero (NaN e infinitos so escritos como null)
+ * Boolean    -> lgico
+ * null       -> null
+ * demais     -> texto (String.valueOf)
+ * </pre>
+ */
+public class JSONWriter {
+
+	private JSONWriter() {
+	}
+
+	/**
+	 * @return O documento JSON que representa o valor.
+	 */
+	public static String write(Object value) {
+		StringBuilder out = new StringBuilder();
+		write(value, out);
+		return out.toString();
+	}
+
+	public static void write(Object value, StringBuilder out) {
+		if (value == null) {
+			out.append("null");
+		} else if (value instanceof String) {
+			quote((String) value, out);
+		} else if (value instanceof Number) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				out.append("null");
+			else if (value instanceof Double || value instanceof Float)
+				out.append((d == Math.rint(d) && Math.abs(d) < 1e15) ? String
+						.valueOf((long) d) : String.valueOf(d));
+			else
+				out.append(value);
+		} else if (value instanceof Boolean) {
+			out.append(value);
+		} else if (value instanceof Map) {
+			out.append('{');
+			Iterator<?> it = ((Map<?, ?>) value).entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
+				quote(String.valueOf(entry.getKey()), out);
+				out.append(':');
+				write(entry.getValue(), out);
+				if (it.hasNext())
+					out.append(',');
+			}
+			out.append('}');
+		} else if (value instanceof Collection) {
+			out.append('[');
+			Iterator<?> it = ((Collection<?>) value).iterator();
+			while (it.hasNext()) {
+				write(it.next(), out);
+				if (it.hasNext())
+					out.append(',');
+			}
+			out.append(']');
+		} else if (value.getClass().isArray()) {
+			out.append('[');
+			int n = Array.getLength(value);
+			for (int i = 0; i < n; i++) {
+				if (i > 0)
+					out.append(',');
+				write(Array.get(value, i), out);
+			}
+			out.append(']');
+		} else {
+			quote(String.valueOf(value), out);
+		}
+	}
+
+	/**
+	 * Escreve um texto entre aspas, com os caracteres especiais escapados.
+	 */
+	public static void quote(String text, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					String hex = Integer.toHexString(c);
+					out.append("\\u");
+					for (int k = hex.length(); k < 4; k++)
+						out.append('0');
+					out.append(hex);
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+}